@@ -228,7 +228,7 @@ CREATE TABLE user_totp (
 
   secret_key_ciphertext VARBINARY(512) DEFAULT NULL COMMENT 'TOTP 密钥（AES-GCM 加密），解密后是 Base32 编码的密钥',
 
-  key_version INT NOT NULL DEFAULT 1 COMMENT '密钥版本，便于轮换',
+  key_version INT NOT NULL DEFAULT 1 COMMENT '加密 secret_key_ciphertext / pending_secret_ciphertext 使用的主密钥版本',
 
   is_enabled TINYINT(1) NOT NULL DEFAULT 0 COMMENT '是否启用 TOTP（0=禁用 1=启用）',
 
@@ -269,6 +269,8 @@ CREATE TABLE totp_recovery_codes (
 
   code_ciphertext VARBINARY(256) DEFAULT NULL COMMENT '回复码密文（AES-GCM，加密后的原始恢复码）',
 
+  key_version INT NOT NULL DEFAULT 1 COMMENT '加密 code_ciphertext 使用的主密钥版本',
+
   used_at DATETIME DEFAULT NULL COMMENT '使用时间（NULL 表示未使用）',
 
   created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
@@ -348,4 +350,40 @@ CREATE TABLE user_sensitive_logs (
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_0900_ai_ci
 COMMENT='用户敏感操作日志表（支持安全审计、风险分析、异常检测）';
 
+DROP TABLE IF EXISTS email_outbox;
+CREATE TABLE email_outbox (
+  id BIGINT UNSIGNED NOT NULL AUTO_INCREMENT COMMENT '主键ID',
+
+  user_id BIGINT UNSIGNED NOT NULL COMMENT '关联用户ID（users.id）',
+  recipient VARCHAR(255) NOT NULL COMMENT '收件人邮箱',
+  log_id BIGINT UNSIGNED DEFAULT NULL COMMENT '关联敏感操作日志ID（user_sensitive_logs.id）',
+
+  operation VARCHAR(50) NOT NULL COMMENT '操作类型',
+  ip_address VARCHAR(45) DEFAULT NULL COMMENT '操作IP',
+  ip_location VARCHAR(255) DEFAULT NULL COMMENT 'IP属地',
+  device_type VARCHAR(50) DEFAULT NULL COMMENT '设备类型',
+  browser VARCHAR(50) DEFAULT NULL COMMENT '浏览器',
+  event_time DATETIME NOT NULL COMMENT '操作时间',
+
+  status VARCHAR(20) NOT NULL DEFAULT 'PENDING' COMMENT '投递状态：PENDING, SENDING, SENT, FAILED',
+  attempts INT NOT NULL DEFAULT 0 COMMENT '已投递次数',
+  next_attempt_at DATETIME NOT NULL COMMENT '下次投递时间（SENDING 状态下为租约到期时间）',
+  lease_token CHAR(36) DEFAULT NULL COMMENT '认领凭据（每次认领生成，SENDING 状态下标识租约持有者）',
+  last_error VARCHAR(500) DEFAULT NULL COMMENT '最近一次失败原因',
+
+  created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
+  sent_at DATETIME DEFAULT NULL COMMENT '投递成功时间',
+
+  PRIMARY KEY (id),
+
+  CONSTRAINT fk_email_outbox_user
+    FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE,
+
+  KEY idx_email_outbox_status_next (status, next_attempt_at),
+  KEY idx_email_outbox_recipient_status (recipient, status),
+  KEY idx_email_outbox_lease_token (lease_token)
+
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_0900_ai_ci
+COMMENT='邮件发件箱（与敏感操作日志同事务写入，后台异步投递）';
+
 SET FOREIGN_KEY_CHECKS = 1;
@@ -0,0 +1,57 @@
+package cn.ksuser.api.security;
+
+import cn.ksuser.api.config.AppProperties;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.crypto.argon2.Argon2PasswordEncoder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Argon2 编码与校验（注册、改密、登录）
+ * 不经过 BoundedPasswordEncoder 的线程池，只测量单次哈希本身；
+ * 与应用一致使用固定参数（Argon2Calibrator.fixed），保证不同机器、不同版本之间可比
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 5, time = 3)
+public class PasswordHashingBenchmark {
+
+    private static final String PASSWORD = "Correct-Horse7Battery!";
+
+    // 内存下限（默认配置）与校准上限
+    @Param({"16", "64"})
+    public int memoryMb;
+
+    private Argon2PasswordEncoder encoder;
+    private String encoded;
+
+    @Setup
+    public void setUp() {
+        AppProperties.PasswordHashing config = new AppProperties.PasswordHashing();
+        config.setCalibrate(false);
+        config.setMemoryMb(memoryMb);
+        encoder = Argon2Calibrator.fixed(config).toEncoder();
+        encoded = encoder.encode(PASSWORD);
+    }
+
+    @Benchmark
+    public String encode() {
+        return encoder.encode(PASSWORD);
+    }
+
+    @Benchmark
+    public boolean matches() {
+        return encoder.matches(PASSWORD, encoded);
+    }
+}
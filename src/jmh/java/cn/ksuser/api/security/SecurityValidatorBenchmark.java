@@ -0,0 +1,54 @@
+package cn.ksuser.api.security;
+
+import cn.ksuser.api.config.AppProperties;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SecurityValidator：注册、登录、修改资料时的输入校验
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SecurityValidatorBenchmark {
+
+    private SecurityValidator validator;
+
+    @Setup
+    public void setUp() {
+        // 使用 AppProperties 的默认密码策略
+        validator = new SecurityValidator(new AppProperties());
+    }
+
+    @Benchmark
+    public boolean isValidUsername() {
+        return validator.isValidUsername("ksuser_张三");
+    }
+
+    @Benchmark
+    public boolean isValidEmail() {
+        return validator.isValidEmail("someone.example@mail.ksuser.cn");
+    }
+
+    @Benchmark
+    public boolean isStrongPassword() {
+        return validator.isStrongPassword("Correct-Horse7Battery!");
+    }
+
+    @Benchmark
+    public boolean isCommonWeakPassword() {
+        return validator.isCommonWeakPassword("Correct-Horse7Battery!");
+    }
+
+    @Benchmark
+    public boolean possibleSqlInjection() {
+        return validator.possibleSqlInjection("这是一段正常的个人简介 with some English text");
+    }
+}
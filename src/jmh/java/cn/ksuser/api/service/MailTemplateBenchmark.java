@@ -0,0 +1,90 @@
+package cn.ksuser.api.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.thymeleaf.spring6.SpringTemplateEngine;
+import org.thymeleaf.context.Context;
+import org.thymeleaf.templateresolver.ClassLoaderTemplateResolver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 邮件正文渲染：每封邮件经过 Thymeleaf（模板已缓存）与 MailTemplateService 预编译模板的对比
+ * 模板与 MailTemplateService 使用的相同（classpath:templates/*.html），表达式求值与应用一致使用 SpringTemplateEngine（SpEL）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MailTemplateBenchmark {
+
+    private static final String TIME = "2026年01月01日 12:00:00";
+    private static final String ACTION = "注册";
+    private static final String CODE = "482913";
+
+    /**
+     * 提醒邮件中的操作条数（1 为单条提醒，其余为合并后的摘要邮件）
+     */
+    @Param({"1", "5"})
+    public int events;
+
+    private SpringTemplateEngine templateEngine;
+    private MailTemplateService mailTemplateService;
+    private String summary;
+    private List<EmailService.ReminderItem> items;
+
+    @Setup
+    public void setUp() {
+        ClassLoaderTemplateResolver resolver = new ClassLoaderTemplateResolver();
+        resolver.setPrefix("templates/");
+        resolver.setSuffix(".html");
+        resolver.setCharacterEncoding("UTF-8");
+        resolver.setCacheable(true);
+        templateEngine = new SpringTemplateEngine();
+        templateEngine.setTemplateResolver(resolver);
+
+        mailTemplateService = new MailTemplateService(templateEngine);
+        mailTemplateService.compileTemplates();
+
+        summary = "我们检测到您的账户在短时间内发生了" + events + "项敏感操作，详情如下。";
+        items = new ArrayList<>(events);
+        for (int i = 0; i < events; i++) {
+            items.add(new EmailService.ReminderItem("修改密码", TIME, "203.0.113." + (i + 1), "广东省深圳市 电信",
+                "Desktop", "Chrome"));
+        }
+    }
+
+    @Benchmark
+    public String verificationCodeThymeleaf() {
+        Context context = new Context();
+        context.setVariable("time", TIME);
+        context.setVariable("action", ACTION);
+        context.setVariable("code", CODE);
+        return templateEngine.process("verification-code-card", context);
+    }
+
+    @Benchmark
+    public String verificationCodeCompiled() {
+        return mailTemplateService.renderVerificationCode(TIME, ACTION, CODE);
+    }
+
+    @Benchmark
+    public String sensitiveActionThymeleaf() {
+        Context context = new Context();
+        context.setVariable("summary", summary);
+        context.setVariable("events", items);
+        return templateEngine.process("sensitive-action-reminder", context);
+    }
+
+    @Benchmark
+    public String sensitiveActionCompiled() {
+        return mailTemplateService.renderSensitiveActionReminder(summary, items);
+    }
+}
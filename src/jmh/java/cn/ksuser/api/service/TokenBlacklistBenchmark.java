@@ -0,0 +1,40 @@
+package cn.ksuser.api.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TokenBlacklistService.hashToken：每次黑名单检查都会对 Token 做 SHA-256 并转十六进制
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TokenBlacklistBenchmark {
+
+    // 长度与真实 AccessToken 相近
+    private static final String TOKEN = "eyJhbGciOiJIUzI1NiJ9."
+        + "eyJzdWIiOiIzZjI1MDRlMC00Zjg5LTQxZDMtOWEwYy0wMzA1ZTgyYzMzMDEiLCJ0eXBlIjoiYWNjZXNzIiwic2lkIjo0Miwic3YiOjEs"
+        + "ImlhdCI6MTcwMDAwMDAwMCwiZXhwIjoxNzAwMDAwOTAwfQ."
+        + "q8H7d1qj0kq2Qb1d0R3w6H9rE0S2b4M5d6N7o8P9q0A";
+
+    private TokenBlacklistService service;
+
+    @Setup
+    public void setUp() {
+        // hashToken 不访问 Redis
+        service = new TokenBlacklistService(null, new SimpleMeterRegistry());
+    }
+
+    @Benchmark
+    public String hashToken() {
+        return service.hashToken(TOKEN);
+    }
+}
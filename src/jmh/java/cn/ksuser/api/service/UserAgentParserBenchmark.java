@@ -0,0 +1,40 @@
+package cn.ksuser.api.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * UserAgentParserService.parse：登录、会话记录、敏感日志都会解析 User-Agent
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class UserAgentParserBenchmark {
+
+    @Param({
+        // Windows Chrome
+        "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/120.0.0.0 Safari/537.36",
+        // iOS Safari（需要遍历到 Safari 模式）
+        "Mozilla/5.0 (iPhone; CPU iPhone OS 17_2 like Mac OS X) AppleWebKit/605.1.15 (KHTML, like Gecko) Version/17.2 Mobile/15E148 Safari/604.1",
+        // Android Edge（第一个模式即匹配）
+        "Mozilla/5.0 (Linux; Android 14; Pixel 8) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/120.0.0.0 Mobile Safari/537.36 EdgA/120.0.0.0",
+        // 未知客户端（遍历全部模式）
+        "curl/8.4.0"
+    })
+    public String userAgent;
+
+    private final UserAgentParserService parser = new UserAgentParserService(new SimpleMeterRegistry());
+
+    @Benchmark
+    public UserAgentParserService.UserAgentInfo parse() {
+        return parser.parse(userAgent);
+    }
+}
@@ -0,0 +1,34 @@
+package cn.ksuser.api.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * IpUtil：获取客户端 IP 时对每个请求检查直连地址是否为可信代理
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class IpUtilBenchmark {
+
+    // 公网 IPv4（遍历全部网段后不匹配）、内网 IPv4、环回、IPv6 公网
+    @Param({"203.0.113.45", "192.168.1.20", "127.0.0.1", "2001:db8::1"})
+    public String ip;
+
+    @Benchmark
+    public boolean isTrustedProxyIp() {
+        return IpUtil.isTrustedProxyIp(ip);
+    }
+
+    @Benchmark
+    public boolean isCidrMatch() {
+        return IpUtil.isCidrMatch(ip, "10.0.0.0/8");
+    }
+}
@@ -0,0 +1,72 @@
+package cn.ksuser.api.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TOTP 验证码计算：TotpService 验证时先解密密钥，再在前后各一个时间步的窗口内匹配
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TotpEngineBenchmark {
+
+    // 与 TotpService 一致：32 字节密钥，前后各一个时间步
+    private static final int SECRET_LENGTH = 32;
+    private static final int TIME_WINDOW = 1;
+    private static final long STEP = 56_666_666L;
+
+    private byte[] secret;
+    private byte[] secretCiphertext;
+    private SecretKey aesKey;
+    private int matchingCode;
+
+    @Setup
+    public void setUp() throws GeneralSecurityException {
+        // 固定种子，各次运行输入一致
+        Random random = new Random(20240101L);
+        secret = new byte[SECRET_LENGTH];
+        random.nextBytes(secret);
+        byte[] key = new byte[32];
+        random.nextBytes(key);
+        aesKey = new SecretKeySpec(key, "AES");
+        secretCiphertext = TotpEngine.encrypt(secret, aesKey);
+        matchingCode = TotpEngine.generate(secret, STEP);
+    }
+
+    @Benchmark
+    public int generate() throws GeneralSecurityException {
+        return TotpEngine.generate(secret, STEP);
+    }
+
+    @Benchmark
+    public long matchStep() throws GeneralSecurityException {
+        return TotpEngine.matchStep(secret, matchingCode, STEP, TIME_WINDOW);
+    }
+
+    /**
+     * 完整验证路径：解析验证码、解密密钥、窗口匹配、清零明文
+     */
+    @Benchmark
+    public long decryptAndMatch() throws GeneralSecurityException {
+        int code = TotpEngine.parseCode("123456");
+        byte[] plaintext = TotpEngine.decrypt(secretCiphertext, aesKey);
+        try {
+            return TotpEngine.matchStep(plaintext, code, STEP, TIME_WINDOW);
+        } finally {
+            Arrays.fill(plaintext, (byte) 0);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package cn.ksuser.api.loadtest;
+
+import cn.ksuser.api.entity.User;
+import cn.ksuser.api.entity.UserPasskey;
+import cn.ksuser.api.repository.UserPasskeyRepository;
+import cn.ksuser.api.repository.UserRepository;
+import org.springframework.context.ApplicationContext;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 预置压测用户：直接写库（不经过注册接口），每个用户一个软件 Passkey
+ */
+final class Fixtures {
+
+    static final String PASSWORD = "loadtest-password-123";
+
+    /**
+     * @param ip 通过 X-Forwarded-For 模拟的客户端 IP（198.18.0.0/15 基准测试网段，IP 属地会查询桩服务）
+     */
+    record TestUser(long id, String uuid, String email, String ip, SoftwareAuthenticator authenticator) {
+    }
+
+    private static final int BATCH_SIZE = 500;
+
+    private final List<TestUser> users;
+
+    private Fixtures(List<TestUser> users) {
+        this.users = users;
+    }
+
+    static Fixtures seed(ApplicationContext context, int count) throws GeneralSecurityException {
+        UserRepository userRepository = context.getBean(UserRepository.class);
+        UserPasskeyRepository passkeyRepository = context.getBean(UserPasskeyRepository.class);
+        // 所有用户使用同一个密码，只哈希一次；登录时仍按当前参数完整校验
+        String passwordHash = context.getBean(PasswordEncoder.class).encode(PASSWORD);
+
+        List<TestUser> users = new ArrayList<>(count);
+        for (int start = 0; start < count; start += BATCH_SIZE) {
+            int end = Math.min(count, start + BATCH_SIZE);
+            List<User> batch = new ArrayList<>(end - start);
+            for (int i = start; i < end; i++) {
+                batch.add(new User(UUID.randomUUID().toString(), "lt_user_" + i, "lt-user-" + i + "@loadtest.ksuser.cn",
+                    passwordHash));
+            }
+            List<User> saved = userRepository.saveAll(batch);
+
+            List<UserPasskey> passkeys = new ArrayList<>(saved.size());
+            for (int i = 0; i < saved.size(); i++) {
+                User user = saved.get(i);
+                SoftwareAuthenticator authenticator = SoftwareAuthenticator.create();
+                UserPasskey passkey = new UserPasskey();
+                passkey.setUserId(user.getId());
+                passkey.setCredentialId(authenticator.credentialId());
+                passkey.setPublicKeyCose(authenticator.publicKeyCose());
+                passkey.setSignCount(0L);
+                passkey.setTransports("internal");
+                passkey.setName("Load test");
+                passkeys.add(passkey);
+                users.add(new TestUser(user.getId(), user.getUuid(), user.getEmail(), clientIp(start + i), authenticator));
+            }
+            passkeyRepository.saveAll(passkeys);
+        }
+        return new Fixtures(users);
+    }
+
+    List<TestUser> users() {
+        return users;
+    }
+
+    TestUser user(int index) {
+        return users.get(Math.floorMod(index, users.size()));
+    }
+
+    /**
+     * 第 index 个模拟客户端 IP（198.18.0.0/15）
+     */
+    static String clientIp(int index) {
+        int offset = Math.floorMod(index, 1 << 17);
+        return "198." + (18 + (offset >> 16)) + "." + ((offset >> 8) & 0xff) + "." + (offset & 0xff);
+    }
+}
@@ -0,0 +1,116 @@
+package cn.ksuser.api.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 压测 HTTP 客户端：每个请求按接口记录状态码与延迟
+ * Cookie 由调用方自行管理（RefreshToken 在设备之间不共享）
+ * CSRF 与浏览器一样使用双提交：XSRF-TOKEN Cookie 与 X-XSRF-TOKEN 请求头携带同一个值
+ */
+final class HttpDriver implements AutoCloseable {
+
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+    private static final String USER_AGENT =
+        "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/120.0.0.0 Safari/537.36";
+
+    /**
+     * 响应；transport 错误时 status 为 Report.TRANSPORT_ERROR，body 为空
+     */
+    record Response(int status, HttpHeaders headers, JsonNode body) {
+
+        boolean ok() {
+            return status == 200;
+        }
+
+        /**
+         * Set-Cookie 中 refreshToken 的值
+         */
+        String refreshTokenCookie() {
+            for (String header : headers.allValues("Set-Cookie")) {
+                if (header.startsWith("refreshToken=")) {
+                    int end = header.indexOf(';');
+                    return header.substring("refreshToken=".length(), end < 0 ? header.length() : end);
+                }
+            }
+            return null;
+        }
+    }
+
+    private final String csrfToken = UUID.randomUUID().toString();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final HttpClient client;
+    private final String baseUrl;
+    private final Report report;
+
+    HttpDriver(int port, Report report) {
+        this.baseUrl = "http://127.0.0.1:" + port;
+        this.report = report;
+        this.client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5))
+            .executor(executor)
+            .build();
+    }
+
+    /**
+     * POST JSON
+     * @param endpoint 报告中的接口名
+     * @param pathAndQuery 请求路径（可带查询参数）
+     * @param clientIp 通过 X-Forwarded-For 传递的客户端 IP
+     * @param body 请求体，null 时发送空 JSON 对象
+     * @param refreshToken 作为 Cookie 发送的 RefreshToken，可为 null
+     */
+    Response post(String endpoint, String pathAndQuery, String clientIp, Object body, String refreshToken) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(baseUrl + pathAndQuery))
+            .timeout(REQUEST_TIMEOUT)
+            .header("Content-Type", "application/json")
+            .header("User-Agent", USER_AGENT)
+            .header("X-Forwarded-For", clientIp)
+            .header("X-XSRF-TOKEN", csrfToken);
+        builder.header("Cookie", "XSRF-TOKEN=" + csrfToken
+            + (refreshToken != null ? "; refreshToken=" + refreshToken : ""));
+
+        long start = System.nanoTime();
+        try {
+            byte[] payload = objectMapper.writeValueAsBytes(body != null ? body : objectMapper.createObjectNode());
+            HttpResponse<byte[]> response = client.send(
+                builder.POST(HttpRequest.BodyPublishers.ofByteArray(payload)).build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+            report.record(endpoint, response.statusCode(), System.nanoTime() - start);
+            byte[] responseBody = response.body();
+            JsonNode json = responseBody.length > 0 ? objectMapper.readTree(responseBody) : objectMapper.nullNode();
+            return new Response(response.statusCode(), response.headers(), json);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return transportError(endpoint, start);
+        } catch (IOException e) {
+            return transportError(endpoint, start);
+        }
+    }
+
+    private Response transportError(String endpoint, long start) {
+        report.record(endpoint, Report.TRANSPORT_ERROR, System.nanoTime() - start);
+        return new Response(Report.TRANSPORT_ERROR, HttpHeaders.of(Map.of(), (name, value) -> true),
+            objectMapper.nullNode());
+    }
+
+    @Override
+    public void close() {
+        client.close();
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,51 @@
+package cn.ksuser.api.loadtest;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 压测参数，从 loadtest.* 系统属性读取（Gradle 任务把 -PloadTest.xxx 转为 -Dloadtest.xxx）
+ *
+ * @param scenarios 依次执行的场景
+ * @param users 预置用户数（每个用户一个软件 Passkey）
+ * @param devices refresh-storm 中每个用户的登录设备数
+ * @param concurrency 每个场景的并发虚拟用户数
+ * @param warmup 每个场景的预热时长（结果不计入报告）
+ * @param duration 每个场景的测量时长
+ * @param ipLocationDelay IP 属地桩服务的模拟响应延迟
+ * @param reportDir 报告输出目录
+ */
+record LoadTestOptions(List<String> scenarios,
+                       int users,
+                       int devices,
+                       int concurrency,
+                       Duration warmup,
+                       Duration duration,
+                       Duration ipLocationDelay,
+                       Path reportDir) {
+
+    static final String LOGIN_STORM = "login-storm";
+    static final String REFRESH_STORM = "refresh-storm";
+    static final String SEND_CODE_FLOOD = "send-code-flood";
+    static final String PASSKEY_LOGIN = "passkey-login";
+
+    static LoadTestOptions fromSystemProperties() {
+        String scenarios = property("scenarios", String.join(",", LOGIN_STORM, REFRESH_STORM, SEND_CODE_FLOOD, PASSKEY_LOGIN));
+        return new LoadTestOptions(
+            Arrays.stream(scenarios.split(",")).map(String::trim).filter(s -> !s.isEmpty()).toList(),
+            Integer.parseInt(property("users", "200")),
+            Integer.parseInt(property("devices", "3")),
+            Integer.parseInt(property("concurrency", "64")),
+            Duration.ofSeconds(Long.parseLong(property("warmup-seconds", "5"))),
+            Duration.ofSeconds(Long.parseLong(property("duration-seconds", "30"))),
+            Duration.ofMillis(Long.parseLong(property("ip-location-delay-ms", "30"))),
+            Path.of(property("report-dir", "load-test-reports"))
+        );
+    }
+
+    private static String property(String name, String defaultValue) {
+        return System.getProperty("loadtest." + name, defaultValue);
+    }
+}
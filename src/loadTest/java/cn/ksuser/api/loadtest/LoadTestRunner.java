@@ -0,0 +1,88 @@
+package cn.ksuser.api.loadtest;
+
+import cn.ksuser.api.ApiApplication;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 端到端压测入口：启动本地替身 → 进程内启动应用 → 预置用户 → 依次执行场景并输出报告
+ * 命令行参数作为应用配置传入，同名配置覆盖替身默认值
+ */
+public final class LoadTestRunner {
+
+    private LoadTestRunner() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTestOptions options = LoadTestOptions.fromSystemProperties();
+        System.out.printf("load test: scenarios=%s users=%d devices=%d concurrency=%d warmup=%ds duration=%ds%n",
+            options.scenarios(), options.users(), options.devices(), options.concurrency(),
+            options.warmup().toSeconds(), options.duration().toSeconds());
+
+        try (StandIns standIns = StandIns.start(options);
+             ConfigurableApplicationContext context = SpringApplication.run(ApiApplication.class,
+                 applicationArgs(standIns, args))) {
+            int port = context.getEnvironment().getRequiredProperty("local.server.port", Integer.class);
+            boolean virtualThreads = context.getEnvironment().getProperty("spring.threads.virtual.enabled", Boolean.class, false);
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            Fixtures fixtures = Fixtures.seed(context, options.users());
+            Report report = new Report();
+
+            try (HttpDriver http = new HttpDriver(port, report)) {
+                Scenarios scenarios = new Scenarios(http, fixtures, options);
+                for (String name : options.scenarios()) {
+                    Scenarios.Scenario scenario = scenarios.create(name);
+                    Scenarios.drive(scenario, options.warmup());
+                    report.reset();
+
+                    int mailsBefore = standIns.receivedMails();
+                    long ipLocationBefore = standIns.ipLocationRequests();
+                    threads.resetPeakThreadCount();
+                    Scenarios.Run run = Scenarios.drive(scenario, options.duration());
+
+                    Map<String, Object> extra = new LinkedHashMap<>();
+                    extra.put("concurrency", scenario.concurrency());
+                    extra.put("iterations", run.iterations());
+                    extra.put("failedIterations", run.failures());
+                    if (run.firstFailure() != null) {
+                        extra.put("firstFailure", String.valueOf(run.firstFailure().getMessage()));
+                    }
+                    extra.put("mailsReceived", standIns.receivedMails() - mailsBefore);
+                    extra.put("ipLocationRequests", standIns.ipLocationRequests() - ipLocationBefore);
+                    // 应用与压测客户端在同一进程，两种线程模式对比时客户端部分相同
+                    extra.put("virtualThreads", virtualThreads);
+                    extra.put("peakPlatformThreads", threads.getPeakThreadCount());
+                    extra.put("heapUsedMb", ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() >> 20);
+                    report.write(name, run.elapsed(), extra, options.reportDir(), System.out);
+                }
+            }
+        }
+        System.out.println("reports: " + options.reportDir().toAbsolutePath());
+        // 邮件、Redis 客户端等线程池可能仍有非守护线程，压测结束直接退出
+        System.exit(0);
+    }
+
+    /**
+     * 替身配置 + 命令行配置；Spring 对重复的 --key 会拼接成逗号分隔的值，因此按 key 去重，后者覆盖前者
+     */
+    private static String[] applicationArgs(StandIns standIns, String[] overrides) {
+        Map<String, String> args = new LinkedHashMap<>();
+        for (String arg : standIns.applicationArgs()) {
+            args.put(key(arg), arg);
+        }
+        for (String arg : overrides) {
+            args.put(key(arg), arg);
+        }
+        return args.values().toArray(String[]::new);
+    }
+
+    private static String key(String arg) {
+        int separator = arg.indexOf('=');
+        return separator < 0 ? arg : arg.substring(0, separator);
+    }
+}
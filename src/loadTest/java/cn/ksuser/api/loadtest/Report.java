@@ -0,0 +1,100 @@
+package cn.ksuser.api.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按接口统计请求数、状态码分布与延迟分位数（HdrHistogram，微秒精度）
+ */
+final class Report {
+
+    /**
+     * 网络错误、超时等未拿到 HTTP 响应的请求
+     */
+    static final int TRANSPORT_ERROR = -1;
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    private static final String[] PERCENTILE_LABELS = {"p50", "p90", "p99", "p99.9"};
+
+    private static final class EndpointStats {
+        private final Histogram latencyMicros = new ConcurrentHistogram(3);
+        private final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+
+        private void record(int status, long nanos) {
+            latencyMicros.recordValue(Math.max(1, nanos / 1000));
+            statuses.computeIfAbsent(status, key -> new LongAdder()).increment();
+        }
+    }
+
+    private final Map<String, EndpointStats> endpoints = new ConcurrentHashMap<>();
+
+    void record(String endpoint, int status, long nanos) {
+        endpoints.computeIfAbsent(endpoint, key -> new EndpointStats()).record(status, nanos);
+    }
+
+    /**
+     * 丢弃已有数据（预热结束时调用）
+     */
+    void reset() {
+        endpoints.clear();
+    }
+
+    /**
+     * 打印报告并写出 JSON（{reportDir}/{scenario}.json）
+     */
+    void write(String scenario, Duration elapsed, Map<String, Object> extra, Path reportDir, PrintStream out)
+            throws IOException {
+        double seconds = elapsed.toNanos() / 1e9;
+        Map<String, Object> endpointResults = new TreeMap<>();
+
+        out.printf("%n== %s (%.1fs) ==%n", scenario, seconds);
+        out.printf("%-44s %9s %9s %9s %9s %9s %9s %9s  %s%n",
+            "endpoint", "requests", "req/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms", "status");
+        for (Map.Entry<String, EndpointStats> entry : new TreeMap<>(endpoints).entrySet()) {
+            Histogram histogram = entry.getValue().latencyMicros;
+            Map<Integer, Long> statuses = new TreeMap<>();
+            entry.getValue().statuses.forEach((status, count) -> statuses.put(status, count.sum()));
+
+            long requests = histogram.getTotalCount();
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("requests", requests);
+            result.put("throughput", requests / seconds);
+            Map<String, Double> percentiles = new LinkedHashMap<>();
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                percentiles.put(PERCENTILE_LABELS[i], histogram.getValueAtPercentile(PERCENTILES[i]) / 1000.0);
+            }
+            result.put("latencyMs", percentiles);
+            result.put("maxMs", histogram.getMaxValue() / 1000.0);
+            result.put("statuses", statuses);
+            endpointResults.put(entry.getKey(), result);
+
+            out.printf("%-44s %9d %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f  %s%n",
+                entry.getKey(), requests, requests / seconds,
+                percentiles.get("p50"), percentiles.get("p90"), percentiles.get("p99"), percentiles.get("p99.9"),
+                histogram.getMaxValue() / 1000.0, statuses);
+        }
+        extra.forEach((key, value) -> out.printf("%s: %s%n", key, value));
+
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("scenario", scenario);
+        json.put("elapsedSeconds", seconds);
+        json.put("endpoints", endpointResults);
+        json.putAll(extra);
+        Files.createDirectories(reportDir);
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT)
+            .writeValue(reportDir.resolve(scenario + ".json").toFile(), json);
+    }
+}
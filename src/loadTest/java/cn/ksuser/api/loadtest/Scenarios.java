@@ -0,0 +1,206 @@
+package cn.ksuser.api.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 压测场景：
+ * - login-storm：随机用户密码登录（Argon2 校验 + 创建会话）
+ * - refresh-storm：每个用户 devices 台设备各自轮换 RefreshToken
+ * - send-code-flood：向不同邮箱发送登录验证码（验证码写 Redis + 邮件队列 + SMTP）
+ * - passkey-login：软件认证器完成认证选项 → 断言验证
+ *
+ * 同一台设备的 RefreshToken、同一个认证器的 signCount 都要求串行使用，
+ * 因此 refresh-storm / passkey-login 把设备、用户固定分配给工作线程，并发数不超过设备数、用户数
+ */
+final class Scenarios {
+
+    // app.debug=true 时 PasskeyService 使用的 origin
+    private static final String PASSKEY_ORIGIN = "http://localhost:5173";
+
+    /**
+     * 单次迭代
+     * @param worker 工作线程序号
+     * @param workers 工作线程总数
+     * @param iteration 该工作线程的迭代序号
+     */
+    @FunctionalInterface
+    interface Iteration {
+        void run(int worker, int workers, long iteration) throws Exception;
+    }
+
+    record Scenario(String name, int concurrency, Iteration iteration) {
+    }
+
+    /**
+     * 一次运行的结果
+     * @param failures 抛出异常或返回非预期状态的迭代数（状态码分布见报告）
+     * @param firstFailure 第一个失败原因，便于排查
+     */
+    record Run(Duration elapsed, long iterations, long failures, Throwable firstFailure) {
+    }
+
+    /**
+     * refresh-storm 中的一台设备
+     */
+    private static final class Device {
+        private final Fixtures.TestUser user;
+        private String refreshToken;
+
+        private Device(Fixtures.TestUser user) {
+            this.user = user;
+        }
+    }
+
+    private final HttpDriver http;
+    private final Fixtures fixtures;
+    private final LoadTestOptions options;
+    private final AtomicLong emailSequence = new AtomicLong();
+    private List<Device> devices;
+
+    Scenarios(HttpDriver http, Fixtures fixtures, LoadTestOptions options) {
+        this.http = http;
+        this.fixtures = fixtures;
+        this.options = options;
+    }
+
+    Scenario create(String name) {
+        return switch (name) {
+            case LoadTestOptions.LOGIN_STORM -> new Scenario(name, options.concurrency(), this::login);
+            case LoadTestOptions.REFRESH_STORM -> {
+                prepareDevices();
+                yield new Scenario(name, Math.min(options.concurrency(), devices.size()), this::refresh);
+            }
+            case LoadTestOptions.SEND_CODE_FLOOD -> new Scenario(name, options.concurrency(), this::sendCode);
+            case LoadTestOptions.PASSKEY_LOGIN ->
+                new Scenario(name, Math.min(options.concurrency(), fixtures.users().size()), this::passkeyLogin);
+            default -> throw new IllegalArgumentException("未知场景: " + name + "，可选："
+                + String.join(", ", LoadTestOptions.LOGIN_STORM, LoadTestOptions.REFRESH_STORM,
+                    LoadTestOptions.SEND_CODE_FLOOD, LoadTestOptions.PASSKEY_LOGIN));
+        };
+    }
+
+    /**
+     * 以 scenario.concurrency() 个虚拟线程循环执行迭代，直到 duration 结束；返回前等待所有在途请求完成
+     */
+    static Run drive(Scenario scenario, Duration duration) {
+        long start = System.nanoTime();
+        long deadline = start + duration.toNanos();
+        LongAdder iterations = new LongAdder();
+        LongAdder failures = new LongAdder();
+        AtomicReference<Throwable> firstFailure = new AtomicReference<>();
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            int workers = scenario.concurrency();
+            for (int worker = 0; worker < workers; worker++) {
+                int workerIndex = worker;
+                executor.submit(() -> {
+                    for (long i = 0; System.nanoTime() < deadline; i++) {
+                        try {
+                            scenario.iteration().run(workerIndex, workers, i);
+                        } catch (Exception e) {
+                            failures.increment();
+                            firstFailure.compareAndSet(null, e);
+                        }
+                        iterations.increment();
+                    }
+                });
+            }
+        }
+        return new Run(Duration.ofNanos(System.nanoTime() - start), iterations.sum(), failures.sum(), firstFailure.get());
+    }
+
+    private void login(int worker, int workers, long iteration) {
+        Fixtures.TestUser user = fixtures.user(ThreadLocalRandom.current().nextInt(fixtures.users().size()));
+        expectOk(passwordLogin("/auth/login", user));
+    }
+
+    private void refresh(int worker, int workers, long iteration) {
+        Device device = devices.get(assigned(worker, workers, iteration, devices.size()));
+        HttpDriver.Response response = http.post("/auth/refresh", "/auth/refresh", device.user.ip(), null,
+            device.refreshToken);
+        String rotated = response.refreshTokenCookie();
+        if (response.ok() && rotated != null) {
+            device.refreshToken = rotated;
+            return;
+        }
+        // 设备的 RefreshToken 失效后重新登录，继续参与后续迭代
+        device.refreshToken = passwordLogin("/auth/login (refresh re-login)", device.user).refreshTokenCookie();
+        expectOk(response);
+    }
+
+    private void sendCode(int worker, int workers, long iteration) {
+        long sequence = emailSequence.getAndIncrement();
+        String email = "flood-" + sequence + "@loadtest.ksuser.cn";
+        expectOk(http.post("/auth/send-code", "/auth/send-code", Fixtures.clientIp((int) sequence),
+            Map.of("email", email, "type", "login"), null));
+    }
+
+    private void passkeyLogin(int worker, int workers, long iteration) throws Exception {
+        Fixtures.TestUser user = fixtures.user(assigned(worker, workers, iteration, fixtures.users().size()));
+        HttpDriver.Response options = http.post("/auth/passkey/authentication-options",
+            "/auth/passkey/authentication-options", user.ip(), null, null);
+        expectOk(options);
+
+        JsonNode data = options.body().path("data");
+        Map<String, String> assertion = user.authenticator()
+            .assertion(data.path("challenge").asText(), PASSKEY_ORIGIN, data.path("rpId").asText());
+        String challengeId = URLEncoder.encode(data.path("challengeId").asText(), StandardCharsets.UTF_8);
+        expectOk(http.post("/auth/passkey/authentication-verify",
+            "/auth/passkey/authentication-verify?challengeId=" + challengeId, user.ip(), assertion, null));
+    }
+
+    /**
+     * 每个用户登录 devices 次，得到互相独立的会话（不计入报告，预热结束时统一清空）
+     */
+    private void prepareDevices() {
+        if (devices != null) {
+            return;
+        }
+        List<Device> prepared = new ArrayList<>();
+        for (Fixtures.TestUser user : fixtures.users()) {
+            for (int i = 0; i < options.devices(); i++) {
+                prepared.add(new Device(user));
+            }
+        }
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Device device : prepared) {
+                executor.submit(() -> {
+                    device.refreshToken = passwordLogin("/auth/login (device setup)", device.user).refreshTokenCookie();
+                });
+            }
+        }
+        devices = prepared;
+    }
+
+    private HttpDriver.Response passwordLogin(String endpoint, Fixtures.TestUser user) {
+        return http.post(endpoint, "/auth/login", user.ip(),
+            Map.of("email", user.email(), "password", Fixtures.PASSWORD), null);
+    }
+
+    /**
+     * 工作线程 worker 负责下标 worker、worker + workers、worker + 2 * workers ... 的条目，依次轮流使用
+     */
+    private static int assigned(int worker, int workers, long iteration, int size) {
+        int owned = (size - worker + workers - 1) / workers;
+        return worker + (int) (iteration % owned) * workers;
+    }
+
+    private static void expectOk(HttpDriver.Response response) {
+        if (!response.ok()) {
+            throw new IllegalStateException("HTTP " + response.status() + ": " + response.body().path("msg").asText());
+        }
+    }
+}
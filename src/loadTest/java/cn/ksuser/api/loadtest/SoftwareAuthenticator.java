@@ -0,0 +1,94 @@
+package cn.ksuser.api.loadtest;
+
+import com.webauthn4j.converter.util.ObjectConverter;
+import com.webauthn4j.data.attestation.authenticator.EC2COSEKey;
+import com.webauthn4j.data.attestation.statement.COSEAlgorithmIdentifier;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 软件 Passkey（ES256），按 WebAuthn 规范生成断言，代替浏览器与认证器
+ * signCount 每次断言递增，同一个认证器的断言需要串行提交
+ */
+final class SoftwareAuthenticator {
+
+    private static final ObjectConverter OBJECT_CONVERTER = new ObjectConverter();
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    // UP（用户在场）| UV（用户已验证）
+    private static final byte FLAGS = 0x01 | 0x04;
+
+    private final byte[] credentialId;
+    private final KeyPair keyPair;
+    private final AtomicLong signCount = new AtomicLong();
+
+    private SoftwareAuthenticator(byte[] credentialId, KeyPair keyPair) {
+        this.credentialId = credentialId;
+        this.keyPair = keyPair;
+    }
+
+    static SoftwareAuthenticator create() throws GeneralSecurityException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        byte[] credentialId = new byte[32];
+        RANDOM.nextBytes(credentialId);
+        return new SoftwareAuthenticator(credentialId, generator.generateKeyPair());
+    }
+
+    byte[] credentialId() {
+        return credentialId;
+    }
+
+    /**
+     * 注册时存入 user_passkeys.public_key_cose 的 COSE 公钥
+     */
+    byte[] publicKeyCose() {
+        EC2COSEKey coseKey = EC2COSEKey.create((ECPublicKey) keyPair.getPublic(), COSEAlgorithmIdentifier.ES256);
+        return OBJECT_CONVERTER.getCborConverter().writeValueAsBytes(coseKey);
+    }
+
+    /**
+     * 生成 navigator.credentials.get() 的结果，字段与 PasskeyAuthenticationVerifyRequest 一致
+     * @param challenge 认证选项中的 challenge（base64url）
+     */
+    Map<String, String> assertion(String challenge, String origin, String rpId) throws GeneralSecurityException {
+        byte[] clientDataJson = ("{\"type\":\"webauthn.get\",\"challenge\":\"" + challenge
+            + "\",\"origin\":\"" + origin + "\",\"crossOrigin\":false}").getBytes(StandardCharsets.UTF_8);
+
+        // authenticatorData = SHA-256(rpId) | flags | signCount（大端 4 字节）
+        ByteBuffer authenticatorData = ByteBuffer.allocate(37);
+        authenticatorData.put(sha256(rpId.getBytes(StandardCharsets.UTF_8)));
+        authenticatorData.put(FLAGS);
+        authenticatorData.putInt((int) signCount.incrementAndGet());
+
+        // 签名内容 = authenticatorData | SHA-256(clientDataJSON)，SHA256withECDSA 输出即为 ASN.1 DER 格式
+        Signature signature = Signature.getInstance("SHA256withECDSA");
+        signature.initSign(keyPair.getPrivate());
+        signature.update(authenticatorData.array());
+        signature.update(sha256(clientDataJson));
+
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        return Map.of(
+            "credentialRawId", encoder.encodeToString(credentialId),
+            "clientDataJSON", encoder.encodeToString(clientDataJson),
+            "authenticatorData", encoder.encodeToString(authenticatorData.array()),
+            "signature", encoder.encodeToString(signature.sign())
+        );
+    }
+
+    private static byte[] sha256(byte[] data) throws GeneralSecurityException {
+        return MessageDigest.getInstance("SHA-256").digest(data);
+    }
+}
@@ -0,0 +1,116 @@
+package cn.ksuser.api.loadtest;
+
+import com.icegreen.greenmail.configuration.GreenMailConfiguration;
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetup;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 外部依赖的本地替身：
+ * - MySQL → H2 内存库（MySQL 兼容模式，Hibernate 建表）
+ * - Redis → 嵌入式 Redis（真实的 redis-server 进程，支持 Lua 脚本与 Pub/Sub）
+ * - SMTP → GreenMail（只接收，不投递）
+ * - IP 属地接口 → StubIpLocationServer
+ */
+final class StandIns implements AutoCloseable {
+
+    static final String MAIL_FROM = "loadtest@ksuser.cn";
+
+    private final RedisServer redis;
+    private final int redisPort;
+    private final GreenMail smtp;
+    private final int smtpPort;
+    private final StubIpLocationServer ipLocation;
+
+    private StandIns(RedisServer redis, int redisPort, GreenMail smtp, int smtpPort, StubIpLocationServer ipLocation) {
+        this.redis = redis;
+        this.redisPort = redisPort;
+        this.smtp = smtp;
+        this.smtpPort = smtpPort;
+        this.ipLocation = ipLocation;
+    }
+
+    static StandIns start(LoadTestOptions options) throws IOException {
+        int redisPort = freePort();
+        RedisServer redis = new RedisServer(redisPort);
+        redis.start();
+
+        int smtpPort = freePort();
+        // 发送线程以 spring.mail.username 登录 SMTP，替身不校验凭据
+        GreenMail smtp = new GreenMail(new ServerSetup(smtpPort, "127.0.0.1", ServerSetup.PROTOCOL_SMTP))
+            .withConfiguration(GreenMailConfiguration.aConfig().withDisabledAuthentication());
+        smtp.start();
+
+        StubIpLocationServer ipLocation = new StubIpLocationServer(options.ipLocationDelay());
+        return new StandIns(redis, redisPort, smtp, smtpPort, ipLocation);
+    }
+
+    /**
+     * 指向替身的应用配置（命令行参数形式，优先级高于 application.properties）
+     */
+    List<String> applicationArgs() {
+        List<String> args = new ArrayList<>();
+        args.add("--server.port=0");
+        args.add("--management.server.port=0");
+        // debug 模式下 Passkey origin 为 http://localhost:5173，RP ID 为 localhost
+        args.add("--app.debug=true");
+        args.add("--logging.level.cn.ksuser.api=INFO");
+        // 默认 jwt.secret 不足 256 位，JJWT 拒绝签发
+        args.add("--jwt.secret=load-test-jwt-secret-0123456789abcdef");
+
+        args.add("--spring.datasource.url=jdbc:h2:mem:loadtest;MODE=MySQL;DATABASE_TO_LOWER=TRUE;"
+            + "CASE_INSENSITIVE_IDENTIFIERS=TRUE;DB_CLOSE_DELAY=-1");
+        args.add("--spring.datasource.driver-class-name=org.h2.Driver");
+        args.add("--spring.datasource.username=sa");
+        args.add("--spring.datasource.password=");
+        args.add("--spring.jpa.database-platform=org.hibernate.dialect.H2Dialect");
+        args.add("--spring.jpa.hibernate.ddl-auto=create");
+
+        args.add("--spring.data.redis.host=127.0.0.1");
+        args.add("--spring.data.redis.port=" + redisPort);
+
+        args.add("--spring.mail.host=127.0.0.1");
+        args.add("--spring.mail.port=" + smtpPort);
+        args.add("--spring.mail.username=" + MAIL_FROM);
+        args.add("--spring.mail.password=");
+        args.add("--spring.mail.properties.mail.smtp.auth=false");
+        args.add("--spring.mail.properties.mail.smtp.ssl.enable=false");
+
+        args.add("--app.ip-location.api-url=" + ipLocation.apiUrl());
+
+        // 压测流量来自少量虚拟用户，放开限流以测量完整处理路径（被限流的请求只是一次 Redis 读取）
+        for (String limit : List.of("send-code-email-per-minute", "send-code-email-per-hour",
+                "send-code-ip-per-minute", "send-code-ip-per-hour",
+                "login-email-per-minute", "login-email-per-hour",
+                "login-ip-per-minute", "login-ip-per-hour")) {
+            args.add("--app.rate-limit." + limit + "=1000000000");
+        }
+        return args;
+    }
+
+    int receivedMails() {
+        return smtp.getReceivedMessages().length;
+    }
+
+    long ipLocationRequests() {
+        return ipLocation.requests();
+    }
+
+    @Override
+    public void close() throws IOException {
+        ipLocation.close();
+        smtp.stop();
+        redis.stop();
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package cn.ksuser.api.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * IP 属地查询接口的桩服务，返回固定属地，按配置延迟模拟外部接口耗时
+ */
+final class StubIpLocationServer implements AutoCloseable {
+
+    private static final byte[] RESPONSE = "{\"ip\":\"\",\"pro\":\"广东省\",\"city\":\"深圳市\",\"addr\":\"广东省深圳市 电信\"}"
+        .getBytes(StandardCharsets.UTF_8);
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Duration delay;
+    private final LongAdder requests = new LongAdder();
+
+    StubIpLocationServer(Duration delay) throws IOException {
+        this.delay = delay;
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/ipJson.jsp", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * 对应 app.ip-location.api-url
+     */
+    String apiUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/ipJson.jsp?ip=%s&json=true";
+    }
+
+    long requests() {
+        return requests.sum();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.increment();
+        try {
+            if (!delay.isZero()) {
+                Thread.sleep(delay);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/json;charset=UTF-8");
+        exchange.sendResponseHeaders(200, RESPONSE.length);
+        try (OutputStream body = exchange.getResponseBody()) {
+            body.write(RESPONSE);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
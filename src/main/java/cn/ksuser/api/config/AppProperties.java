@@ -3,6 +3,11 @@ package cn.ksuser.api.config;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * 应用程序配置属性
  * 从 application.properties 中读取配置信息
@@ -17,6 +22,19 @@ public class AppProperties {
     private final RateLimit rateLimit = new RateLimit();
     private final SensitiveOperation sensitiveOperation = new SensitiveOperation();
     private final Passkey passkey = new Passkey();
+    private final SensitiveLog sensitiveLog = new SensitiveLog();
+    private final Admin admin = new Admin();
+    private final MailOutbox mailOutbox = new MailOutbox();
+    private final MailQueue mailQueue = new MailQueue();
+    private final UserCache userCache = new UserCache();
+    private final SettingsCache settingsCache = new SettingsCache();
+    private final UsernameIndex usernameIndex = new UsernameIndex();
+    private final PasswordHashing passwordHashing = new PasswordHashing();
+    private final VirtualThreads virtualThreads = new VirtualThreads();
+    private final Encryption encryption = new Encryption();
+    private final Mfa mfa = new Mfa();
+    private final IpLocation ipLocation = new IpLocation();
+    private final CallAccounting callAccounting = new CallAccounting();
 
     public boolean isDebug() {
         return debug;
@@ -46,6 +64,58 @@ public class AppProperties {
         return passkey;
     }
 
+    public SensitiveLog getSensitiveLog() {
+        return sensitiveLog;
+    }
+
+    public Admin getAdmin() {
+        return admin;
+    }
+
+    public MailOutbox getMailOutbox() {
+        return mailOutbox;
+    }
+
+    public MailQueue getMailQueue() {
+        return mailQueue;
+    }
+
+    public UserCache getUserCache() {
+        return userCache;
+    }
+
+    public SettingsCache getSettingsCache() {
+        return settingsCache;
+    }
+
+    public UsernameIndex getUsernameIndex() {
+        return usernameIndex;
+    }
+
+    public PasswordHashing getPasswordHashing() {
+        return passwordHashing;
+    }
+
+    public VirtualThreads getVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public Encryption getEncryption() {
+        return encryption;
+    }
+
+    public Mfa getMfa() {
+        return mfa;
+    }
+
+    public IpLocation getIpLocation() {
+        return ipLocation;
+    }
+
+    public CallAccounting getCallAccounting() {
+        return callAccounting;
+    }
+
     /**
      * 密码策略配置
      */
@@ -245,6 +315,11 @@ public class AppProperties {
         private String userVerification = "preferred";
         private String residentKey = "preferred";
         private long timeout = 300000; // 毫秒
+        private int credentialCacheMaxEntries = 10000; // 已解析的凭证（公钥等验证材料）本地缓存最大条目数
+        private long credentialCacheTtlSeconds = 600; // 凭证缓存有效期（秒）
+        private String challengeMode = "redis"; // redis：challenge 存入 Redis；stateless：HMAC 签名的无状态 challenge
+        private String challengeSecret; // stateless 模式的 HMAC 密钥（Base64，至少 32 字节），所有实例必须一致
+        private String challengeReplayGuard = "redis"; // stateless 模式的一次性校验：redis（SET NX，多实例）或 local（进程内，仅单实例）
 
         public String getRpName() {
             return rpName;
@@ -301,6 +376,631 @@ public class AppProperties {
         public void setTimeout(long timeout) {
             this.timeout = timeout;
         }
+
+        public int getCredentialCacheMaxEntries() {
+            return credentialCacheMaxEntries;
+        }
+
+        public void setCredentialCacheMaxEntries(int credentialCacheMaxEntries) {
+            this.credentialCacheMaxEntries = credentialCacheMaxEntries;
+        }
+
+        public long getCredentialCacheTtlSeconds() {
+            return credentialCacheTtlSeconds;
+        }
+
+        public void setCredentialCacheTtlSeconds(long credentialCacheTtlSeconds) {
+            this.credentialCacheTtlSeconds = credentialCacheTtlSeconds;
+        }
+
+        public String getChallengeMode() {
+            return challengeMode;
+        }
+
+        public void setChallengeMode(String challengeMode) {
+            this.challengeMode = challengeMode;
+        }
+
+        public String getChallengeSecret() {
+            return challengeSecret;
+        }
+
+        public void setChallengeSecret(String challengeSecret) {
+            this.challengeSecret = challengeSecret;
+        }
+
+        public String getChallengeReplayGuard() {
+            return challengeReplayGuard;
+        }
+
+        public void setChallengeReplayGuard(String challengeReplayGuard) {
+            this.challengeReplayGuard = challengeReplayGuard;
+        }
+    }
+
+    /**
+     * 敏感操作日志配置
+     */
+    public static class SensitiveLog {
+        private int exportFetchSize = 500; // 导出时游标每批读取行数（MySQL 下使用逐行流式读取）
+        private long ipLocationTimeoutMs = 1500; // 日志补全：IP属地查询超时（毫秒）
+        private long lookupTimeoutMs = 1000; // 日志补全：用户/设置查询超时（毫秒）
+        private long riskHistoryTimeoutMs = 1500; // 日志补全：风险评分历史记录查询超时（毫秒）
+
+        public int getExportFetchSize() {
+            return exportFetchSize;
+        }
+
+        public void setExportFetchSize(int exportFetchSize) {
+            this.exportFetchSize = exportFetchSize;
+        }
+
+        public long getIpLocationTimeoutMs() {
+            return ipLocationTimeoutMs;
+        }
+
+        public void setIpLocationTimeoutMs(long ipLocationTimeoutMs) {
+            this.ipLocationTimeoutMs = ipLocationTimeoutMs;
+        }
+
+        public long getLookupTimeoutMs() {
+            return lookupTimeoutMs;
+        }
+
+        public void setLookupTimeoutMs(long lookupTimeoutMs) {
+            this.lookupTimeoutMs = lookupTimeoutMs;
+        }
+
+        public long getRiskHistoryTimeoutMs() {
+            return riskHistoryTimeoutMs;
+        }
+
+        public void setRiskHistoryTimeoutMs(long riskHistoryTimeoutMs) {
+            this.riskHistoryTimeoutMs = riskHistoryTimeoutMs;
+        }
+    }
+
+    /**
+     * 管理端配置
+     */
+    public static class Admin {
+        private List<String> userUuids = new ArrayList<>(); // 允许访问管理接口的用户 UUID
+
+        public List<String> getUserUuids() {
+            return userUuids;
+        }
+
+        public void setUserUuids(List<String> userUuids) {
+            this.userUuids = userUuids;
+        }
+
+        public boolean isAdmin(String uuid) {
+            return uuid != null && userUuids.contains(uuid);
+        }
+    }
+
+    /**
+     * 邮件发件箱投递配置
+     */
+    public static class MailOutbox {
+        private int burstWindowSeconds = 30; // 同一收件人在窗口内的多次操作合并为一封邮件（秒）
+        private int batchSize = 20; // 每轮投递的最大收件人数
+        private int maxAttempts = 6; // 最大投递次数，超过后标记为 FAILED
+        private int retryBaseSeconds = 30; // 重试退避基数（秒），按 2^n 递增
+        private int retryMaxSeconds = 3600; // 重试退避上限（秒）
+        private int leaseSeconds = 300; // 认领租约时长（秒），工作线程开始发送时续期，超时未完成的记录会被重新投递
+        private int retentionDays = 7; // 已投递记录保留天数
+
+        public int getBurstWindowSeconds() {
+            return burstWindowSeconds;
+        }
+
+        public void setBurstWindowSeconds(int burstWindowSeconds) {
+            this.burstWindowSeconds = burstWindowSeconds;
+        }
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        public int getMaxAttempts() {
+            return maxAttempts;
+        }
+
+        public void setMaxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+        }
+
+        public int getRetryBaseSeconds() {
+            return retryBaseSeconds;
+        }
+
+        public void setRetryBaseSeconds(int retryBaseSeconds) {
+            this.retryBaseSeconds = retryBaseSeconds;
+        }
+
+        public int getRetryMaxSeconds() {
+            return retryMaxSeconds;
+        }
+
+        public void setRetryMaxSeconds(int retryMaxSeconds) {
+            this.retryMaxSeconds = retryMaxSeconds;
+        }
+
+        public int getLeaseSeconds() {
+            return leaseSeconds;
+        }
+
+        public void setLeaseSeconds(int leaseSeconds) {
+            this.leaseSeconds = leaseSeconds;
+        }
+
+        public int getRetentionDays() {
+            return retentionDays;
+        }
+
+        public void setRetentionDays(int retentionDays) {
+            this.retentionDays = retentionDays;
+        }
+    }
+
+    /**
+     * 邮件发送队列配置
+     */
+    public static class MailQueue {
+        private int workers = 2; // 发送线程数，每个线程持有一个 SMTP 长连接
+        private int capacity = 1000; // 队列容量，超过后拒绝入队
+        private int maxAttempts = 3; // 单封邮件最大发送次数
+        private long idleTimeoutMs = 30000; // 连接空闲超过该时间后关闭（毫秒）
+
+        public int getWorkers() {
+            return workers;
+        }
+
+        public void setWorkers(int workers) {
+            this.workers = workers;
+        }
+
+        public int getCapacity() {
+            return capacity;
+        }
+
+        public void setCapacity(int capacity) {
+            this.capacity = capacity;
+        }
+
+        public int getMaxAttempts() {
+            return maxAttempts;
+        }
+
+        public void setMaxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+        }
+
+        public long getIdleTimeoutMs() {
+            return idleTimeoutMs;
+        }
+
+        public void setIdleTimeoutMs(long idleTimeoutMs) {
+            this.idleTimeoutMs = idleTimeoutMs;
+        }
+    }
+
+    /**
+     * 用户快照缓存配置
+     */
+    public static class UserCache {
+        private boolean enabled = true; // 总开关，关闭后所有读取直接访问数据库
+        private boolean redisEnabled = true; // 是否启用 Redis 共享层
+        private int localMaxEntries = 10000; // 本地 LRU 最大条目数（uuid 与 id 各占一条）
+        private long localTtlSeconds = 60; // 本地条目有效期（秒）
+        private long redisTtlSeconds = 600; // Redis 条目有效期（秒）
+        private boolean consistentWriteRequests = true; // 非 GET/HEAD/OPTIONS 请求绕过缓存读取数据库
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public boolean isRedisEnabled() {
+            return redisEnabled;
+        }
+
+        public void setRedisEnabled(boolean redisEnabled) {
+            this.redisEnabled = redisEnabled;
+        }
+
+        public int getLocalMaxEntries() {
+            return localMaxEntries;
+        }
+
+        public void setLocalMaxEntries(int localMaxEntries) {
+            this.localMaxEntries = localMaxEntries;
+        }
+
+        public long getLocalTtlSeconds() {
+            return localTtlSeconds;
+        }
+
+        public void setLocalTtlSeconds(long localTtlSeconds) {
+            this.localTtlSeconds = localTtlSeconds;
+        }
+
+        public long getRedisTtlSeconds() {
+            return redisTtlSeconds;
+        }
+
+        public void setRedisTtlSeconds(long redisTtlSeconds) {
+            this.redisTtlSeconds = redisTtlSeconds;
+        }
+
+        public boolean isConsistentWriteRequests() {
+            return consistentWriteRequests;
+        }
+
+        public void setConsistentWriteRequests(boolean consistentWriteRequests) {
+            this.consistentWriteRequests = consistentWriteRequests;
+        }
+    }
+
+    /**
+     * 用户设置缓存配置
+     */
+    public static class SettingsCache {
+        private boolean enabled = true; // 关闭后每次读取都查询数据库
+        private int localMaxEntries = 20000; // 本地 LRU 最大条目数
+        private long localTtlSeconds = 300; // 本地条目有效期（秒）
+        private long redisTtlSeconds = 86400; // Redis 条目有效期（秒）
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getLocalMaxEntries() {
+            return localMaxEntries;
+        }
+
+        public void setLocalMaxEntries(int localMaxEntries) {
+            this.localMaxEntries = localMaxEntries;
+        }
+
+        public long getLocalTtlSeconds() {
+            return localTtlSeconds;
+        }
+
+        public void setLocalTtlSeconds(long localTtlSeconds) {
+            this.localTtlSeconds = localTtlSeconds;
+        }
+
+        public long getRedisTtlSeconds() {
+            return redisTtlSeconds;
+        }
+
+        public void setRedisTtlSeconds(long redisTtlSeconds) {
+            this.redisTtlSeconds = redisTtlSeconds;
+        }
+    }
+
+    /**
+     * 用户名占用索引（布隆过滤器）配置
+     */
+    public static class UsernameIndex {
+        private boolean enabled = true; // 关闭后 check-username 每次查询数据库
+        private long expectedInsertions = 100000; // 最小预期用户名数，实际按当前用户数的 2 倍估算
+        private double falsePositiveRate = 0.01; // 目标误判率，误判时会多查一次数据库
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public long getExpectedInsertions() {
+            return expectedInsertions;
+        }
+
+        public void setExpectedInsertions(long expectedInsertions) {
+            this.expectedInsertions = expectedInsertions;
+        }
+
+        public double getFalsePositiveRate() {
+            return falsePositiveRate;
+        }
+
+        public void setFalsePositiveRate(double falsePositiveRate) {
+            this.falsePositiveRate = falsePositiveRate;
+        }
+    }
+
+    /**
+     * 密码哈希线程池配置（Argon2 计算占用 CPU 与内存，需要限制并发）
+     */
+    public static class PasswordHashing {
+        private int threads = 0; // 哈希线程数，0 表示按 CPU 核数与内存预算自动计算
+        private int memoryBudgetMb = 256; // 同时进行的哈希可占用的内存上限（MiB）
+        private int queueCapacity = 64; // 等待队列长度，队列满时直接返回 503
+        private long deadlineMs = 5000; // 单次调用（排队 + 计算）最长等待时间
+        private int retryAfterSeconds = 1; // 503 响应的 Retry-After
+        private boolean calibrate = false; // 启动时实测本机推荐的 Argon2 参数并输出到日志（不改变实际参数）
+        private int targetMs = 100; // 校准目标：单次哈希耗时（毫秒）
+        private int maxMemoryMb = 64; // 校准时单次哈希内存上限（MiB）
+        private int memoryMb = 16; // 单次哈希内存（MiB），集群统一的固定参数，校准推荐值不低于它
+        private int iterations = 2; // 迭代次数，集群统一的固定参数，校准推荐值不低于它
+        private int parallelism = 1; // 并行度（Bouncy Castle 实现为单线程计算，调大不会降低耗时）
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public void setThreads(int threads) {
+            this.threads = threads;
+        }
+
+        public int getMemoryBudgetMb() {
+            return memoryBudgetMb;
+        }
+
+        public void setMemoryBudgetMb(int memoryBudgetMb) {
+            this.memoryBudgetMb = memoryBudgetMb;
+        }
+
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        public void setQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+        }
+
+        public long getDeadlineMs() {
+            return deadlineMs;
+        }
+
+        public void setDeadlineMs(long deadlineMs) {
+            this.deadlineMs = deadlineMs;
+        }
+
+        public int getRetryAfterSeconds() {
+            return retryAfterSeconds;
+        }
+
+        public void setRetryAfterSeconds(int retryAfterSeconds) {
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+
+        public boolean isCalibrate() {
+            return calibrate;
+        }
+
+        public void setCalibrate(boolean calibrate) {
+            this.calibrate = calibrate;
+        }
+
+        public int getTargetMs() {
+            return targetMs;
+        }
+
+        public void setTargetMs(int targetMs) {
+            this.targetMs = targetMs;
+        }
+
+        public int getMaxMemoryMb() {
+            return maxMemoryMb;
+        }
+
+        public void setMaxMemoryMb(int maxMemoryMb) {
+            this.maxMemoryMb = maxMemoryMb;
+        }
+
+        public int getMemoryMb() {
+            return memoryMb;
+        }
+
+        public void setMemoryMb(int memoryMb) {
+            this.memoryMb = memoryMb;
+        }
+
+        public int getIterations() {
+            return iterations;
+        }
+
+        public void setIterations(int iterations) {
+            this.iterations = iterations;
+        }
+
+        public int getParallelism() {
+            return parallelism;
+        }
+
+        public void setParallelism(int parallelism) {
+            this.parallelism = parallelism;
+        }
+    }
+
+    /**
+     * 虚拟线程诊断配置（spring.threads.virtual.enabled=true 时生效）
+     */
+    public static class VirtualThreads {
+        private boolean pinningDiagnostics = true; // 通过 JFR 记录虚拟线程固定（pinning）事件
+        private long pinnedThresholdMs = 20; // 固定时长超过该值才记录
+        private int asyncConcurrencyLimit = 10; // @Async 同时执行的虚拟线程数上限，超过时提交方等待（与平台线程池的最大线程数一致）
+
+        public boolean isPinningDiagnostics() {
+            return pinningDiagnostics;
+        }
+
+        public void setPinningDiagnostics(boolean pinningDiagnostics) {
+            this.pinningDiagnostics = pinningDiagnostics;
+        }
+
+        public long getPinnedThresholdMs() {
+            return pinnedThresholdMs;
+        }
+
+        public void setPinnedThresholdMs(long pinnedThresholdMs) {
+            this.pinnedThresholdMs = pinnedThresholdMs;
+        }
+
+        public int getAsyncConcurrencyLimit() {
+            return asyncConcurrencyLimit;
+        }
+
+        public void setAsyncConcurrencyLimit(int asyncConcurrencyLimit) {
+            this.asyncConcurrencyLimit = asyncConcurrencyLimit;
+        }
     }
 
+    /**
+     * 主加密密钥环与后台重新加密配置
+     */
+    public static class Encryption {
+        private String masterKey; // 版本 1 的主密钥（Base64，32 字节）
+        private Map<Integer, String> keys = new HashMap<>(); // 其他版本的主密钥，例如 app.encryption.keys.2=...
+        private int activeVersion = 0; // 新数据使用的版本，0 表示取最大版本
+        private boolean reencryptEnabled = true; // 后台把旧版本密文重新加密为 active 版本
+        private int reencryptBatchSize = 200; // 每批读取行数
+        private int reencryptParallelism = 4; // 每批内并行加解密的线程数
+        private long reencryptPauseMs = 200; // 批次之间的间隔（限流）
+
+        public String getMasterKey() {
+            return masterKey;
+        }
+
+        public void setMasterKey(String masterKey) {
+            this.masterKey = masterKey;
+        }
+
+        public Map<Integer, String> getKeys() {
+            return keys;
+        }
+
+        public void setKeys(Map<Integer, String> keys) {
+            this.keys = keys;
+        }
+
+        public int getActiveVersion() {
+            return activeVersion;
+        }
+
+        public void setActiveVersion(int activeVersion) {
+            this.activeVersion = activeVersion;
+        }
+
+        public boolean isReencryptEnabled() {
+            return reencryptEnabled;
+        }
+
+        public void setReencryptEnabled(boolean reencryptEnabled) {
+            this.reencryptEnabled = reencryptEnabled;
+        }
+
+        public int getReencryptBatchSize() {
+            return reencryptBatchSize;
+        }
+
+        public void setReencryptBatchSize(int reencryptBatchSize) {
+            this.reencryptBatchSize = reencryptBatchSize;
+        }
+
+        public int getReencryptParallelism() {
+            return reencryptParallelism;
+        }
+
+        public void setReencryptParallelism(int reencryptParallelism) {
+            this.reencryptParallelism = reencryptParallelism;
+        }
+
+        public long getReencryptPauseMs() {
+            return reencryptPauseMs;
+        }
+
+        public void setReencryptPauseMs(long reencryptPauseMs) {
+            this.reencryptPauseMs = reencryptPauseMs;
+        }
+    }
+
+    /**
+     * MFA 登录挑战配置
+     */
+    public static class Mfa {
+        private String challengeStore = "redis"; // redis：多实例共享；local：进程内时间轮（仅单实例部署）
+        private long challengeTtlSeconds = 300; // 挑战有效期（秒）
+        private int maxFailedAttempts = 5; // 单个挑战允许的最大失败次数
+        private long localTickMs = 1000; // local 模式下时间轮每格时长（毫秒）
+
+        public String getChallengeStore() {
+            return challengeStore;
+        }
+
+        public void setChallengeStore(String challengeStore) {
+            this.challengeStore = challengeStore;
+        }
+
+        public long getChallengeTtlSeconds() {
+            return challengeTtlSeconds;
+        }
+
+        public void setChallengeTtlSeconds(long challengeTtlSeconds) {
+            this.challengeTtlSeconds = challengeTtlSeconds;
+        }
+
+        public int getMaxFailedAttempts() {
+            return maxFailedAttempts;
+        }
+
+        public void setMaxFailedAttempts(int maxFailedAttempts) {
+            this.maxFailedAttempts = maxFailedAttempts;
+        }
+
+        public long getLocalTickMs() {
+            return localTickMs;
+        }
+
+        public void setLocalTickMs(long localTickMs) {
+            this.localTickMs = localTickMs;
+        }
+    }
+
+    /**
+     * IP 属地查询配置
+     */
+    public static class IpLocation {
+        private String apiUrl = "https://whois.pconline.com.cn/ipJson.jsp?ip=%s&json=true"; // 查询接口，%s 替换为 URL 编码后的 IP
+
+        public String getApiUrl() {
+            return apiUrl;
+        }
+
+        public void setApiUrl(String apiUrl) {
+            this.apiUrl = apiUrl;
+        }
+    }
+
+    /**
+     * 按请求统计数据库语句与 Redis 往返次数
+     */
+    public static class CallAccounting {
+        private boolean enabled = true; // 关闭后不包装 DataSource / StringRedisTemplate，也不注册统计过滤器
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+    }
 }
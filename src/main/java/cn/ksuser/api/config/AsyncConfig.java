@@ -1,22 +1,83 @@
 package cn.ksuser.api.config;
 
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.boot.thread.Threading;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.TaskDecorator;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Configuration
 public class AsyncConfig {
 
+    /**
+     * @Async 执行器
+     * 开启 spring.threads.virtual.enabled 时每个任务一个虚拟线程，否则使用固定大小的平台线程池
+     * 虚拟线程模式同样限制并发（app.virtual-threads.async-concurrency-limit），达到上限时提交方等待，
+     * 等待时间计入 sensitive.log.queue.wait
+     * 目前只有敏感日志（SensitiveLogService.logAsync）使用 @Async，积压与排队时间记为 sensitive.log.queue.*
+     */
     @Bean(name = "asyncExecutor")
-    public Executor asyncExecutor() {
+    public Executor asyncExecutor(Environment environment, AppProperties appProperties, MeterRegistry meterRegistry) {
+        AtomicInteger pending = new AtomicInteger();
+        Gauge.builder("sensitive.log.queue.depth", pending, AtomicInteger::get)
+            .description("已提交、尚未执行完的异步日志任务数")
+            .register(meterRegistry);
+        Timer queueWait = Timer.builder("sensitive.log.queue.wait")
+            .description("异步日志任务从提交到开始执行的时间")
+            .register(meterRegistry);
+        // decorate 在提交线程上调用
+        TaskDecorator decorator = task -> {
+            pending.incrementAndGet();
+            long submitted = System.nanoTime();
+            return () -> {
+                queueWait.record(System.nanoTime() - submitted, TimeUnit.NANOSECONDS);
+                try {
+                    task.run();
+                } finally {
+                    pending.decrementAndGet();
+                }
+            };
+        };
+
+        if (Threading.VIRTUAL.isActive(environment)) {
+            SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("async-");
+            executor.setVirtualThreads(true);
+            executor.setConcurrencyLimit(Math.max(1, appProperties.getVirtualThreads().getAsyncConcurrencyLimit()));
+            executor.setTaskDecorator(decorator);
+            return executor;
+        }
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
         executor.setCorePoolSize(5);
         executor.setMaxPoolSize(10);
         executor.setQueueCapacity(100);
         executor.setThreadNamePrefix("async-");
+        executor.setTaskDecorator(decorator);
+        // 被拒绝的任务不会执行，从积压数中扣除
+        executor.setRejectedExecutionHandler((task, pool) -> {
+            pending.decrementAndGet();
+            throw new RejectedExecutionException("异步任务队列已满");
+        });
         executor.initialize();
         return executor;
     }
+
+    /**
+     * 敏感日志补全使用的虚拟线程执行器（每个 I/O 阶段一个虚拟线程）
+     */
+    @Bean(name = "enrichmentExecutor", destroyMethod = "close")
+    public ExecutorService enrichmentExecutor() {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("log-enrich-", 0).factory());
+    }
 }
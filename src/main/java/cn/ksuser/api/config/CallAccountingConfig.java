@@ -0,0 +1,122 @@
+package cn.ksuser.api.config;
+
+import cn.ksuser.api.filter.CallAccountingFilter;
+import cn.ksuser.api.util.RequestCallCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * 按请求统计数据库语句与 Redis 往返次数（app.call-accounting.enabled=false 时整体关闭）
+ * - DataSource 包装为 CountingDataSource，JPA 与 JdbcTemplate 的语句都会被计数
+ * - StringRedisTemplate 替换为 CountingStringRedisTemplate
+ * - CallAccountingFilter 在最外层为每个请求开启计数
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "app.call-accounting", name = "enabled", havingValue = "true", matchIfMissing = true)
+public class CallAccountingConfig {
+
+    @Bean
+    public static BeanPostProcessor countingDataSourcePostProcessor() {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof DataSource dataSource && !(bean instanceof CountingDataSource)) {
+                    return new CountingDataSource(dataSource);
+                }
+                return bean;
+            }
+        };
+    }
+
+    /**
+     * 替代自动配置的 StringRedisTemplate
+     */
+    @Bean
+    public StringRedisTemplate stringRedisTemplate(RedisConnectionFactory connectionFactory) {
+        return new CountingStringRedisTemplate(connectionFactory);
+    }
+
+    @Bean
+    public FilterRegistrationBean<CallAccountingFilter> callAccountingFilter(AppProperties appProperties,
+                                                                              MeterRegistry meterRegistry) {
+        FilterRegistrationBean<CallAccountingFilter> registration =
+            new FilterRegistrationBean<>(new CallAccountingFilter(appProperties.isDebug(), meterRegistry));
+        // 排在 Spring Security 之前，JWT 过滤器中的黑名单与会话查询也计入
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE);
+        return registration;
+    }
+
+    /**
+     * 每次取得连接后创建 Statement 时计数；DelegatingDataSource 支持 unwrap，连接池指标不受影响
+     */
+    static class CountingDataSource extends DelegatingDataSource {
+
+        CountingDataSource(DataSource targetDataSource) {
+            super(targetDataSource);
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            return counting(super.getConnection());
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            return counting(super.getConnection(username, password));
+        }
+
+        private static Connection counting(Connection connection) {
+            return (Connection) Proxy.newProxyInstance(CountingDataSource.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "prepareStatement", "prepareCall", "createStatement" -> RequestCallCounter.recordDbStatement();
+                        default -> {
+                        }
+                    }
+                    try {
+                        return method.invoke(connection, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getTargetException();
+                    }
+                });
+        }
+    }
+
+    /**
+     * 所有操作（opsForXxx、脚本、发布消息、pipeline）最终都经过 execute(RedisCallback, ...)
+     * pipeline 内部的命令嵌套在外层 execute 中，只计 1 次往返
+     */
+    static class CountingStringRedisTemplate extends StringRedisTemplate {
+
+        CountingStringRedisTemplate(RedisConnectionFactory connectionFactory) {
+            super(connectionFactory);
+        }
+
+        @Override
+        public <T> T execute(RedisCallback<T> action, boolean exposeConnection, boolean pipeline) {
+            boolean counted = RequestCallCounter.enterRedis();
+            try {
+                return super.execute(action, exposeConnection, pipeline);
+            } finally {
+                if (counted) {
+                    RequestCallCounter.exitRedis();
+                }
+            }
+        }
+    }
+}
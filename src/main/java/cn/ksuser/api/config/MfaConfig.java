@@ -0,0 +1,28 @@
+package cn.ksuser.api.config;
+
+import cn.ksuser.api.service.ChallengeStore;
+import cn.ksuser.api.service.LocalChallengeStore;
+import cn.ksuser.api.service.RedisChallengeStore;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+@Configuration
+public class MfaConfig {
+
+    /**
+     * MFA 登录挑战存储，默认使用 Redis，使挑战在任意实例上都能完成验证
+     */
+    @Bean
+    public ChallengeStore mfaChallengeStore(AppProperties appProperties, StringRedisTemplate redisTemplate) {
+        AppProperties.Mfa config = appProperties.getMfa();
+        String type = config.getChallengeStore();
+        if ("local".equalsIgnoreCase(type)) {
+            return new LocalChallengeStore(Math.max(1, config.getLocalTickMs()));
+        }
+        if (!"redis".equalsIgnoreCase(type)) {
+            throw new IllegalStateException("app.mfa.challenge-store 只能是 redis 或 local：" + type);
+        }
+        return new RedisChallengeStore(redisTemplate);
+    }
+}
@@ -1,15 +1,28 @@
 package cn.ksuser.api.config;
 
+import cn.ksuser.api.security.Argon2Calibrator;
+import cn.ksuser.api.security.BoundedPasswordEncoder;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.security.crypto.argon2.Argon2PasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 
 @Configuration
 public class PasswordConfig {
 
-    @Bean
-    public PasswordEncoder passwordEncoder() {
-        return Argon2PasswordEncoder.defaultsForSpringSecurity_v5_8();
+    /**
+     * Argon2 哈希在有界线程池中执行，过载时快速返回 503
+     * 始终使用配置中固定的参数：upgradeEncoding 与线程数都基于集群统一的参数，
+     * 各节点不会把彼此的哈希来回重算；旧参数的哈希在登录成功后自动升级
+     * 开启 calibrate 时只在日志中输出本机的推荐参数
+     */
+    @Bean(destroyMethod = "shutdown")
+    public PasswordEncoder passwordEncoder(AppProperties appProperties, MeterRegistry meterRegistry) {
+        AppProperties.PasswordHashing config = appProperties.getPasswordHashing();
+        if (config.isCalibrate()) {
+            Argon2Calibrator.calibrate(config);
+        }
+        Argon2Calibrator.Parameters parameters = Argon2Calibrator.fixed(config);
+        return new BoundedPasswordEncoder(parameters.toEncoder(), parameters.memoryKib(), config, meterRegistry);
     }
 }
@@ -0,0 +1,104 @@
+package cn.ksuser.api.config;
+
+import io.lettuce.core.AbstractRedisClient;
+import io.lettuce.core.event.command.CommandFailedEvent;
+import io.lettuce.core.event.command.CommandListener;
+import io.lettuce.core.event.command.CommandStartedEvent;
+import io.lettuce.core.event.command.CommandSucceededEvent;
+import io.lettuce.core.protocol.CommandArgs;
+import io.lettuce.core.protocol.RedisCommand;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按命令与 Key 前缀记录 Redis 命令耗时（redis.command.duration）
+ * 前缀取 Key 的前两段（如 verification:code:xxx → verification:code），Key 由代码中的常量拼接，标签基数有限
+ */
+@Component
+public class RedisCommandMetrics implements CommandListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(RedisCommandMetrics.class);
+
+    private static final String START_NANOS = RedisCommandMetrics.class.getName() + ".start";
+    private static final String NO_KEY = "none";
+    private static final String OTHER_KEY = "other";
+
+    private final RedisConnectionFactory connectionFactory;
+    private final MeterRegistry meterRegistry;
+
+    public RedisCommandMetrics(RedisConnectionFactory connectionFactory, MeterRegistry meterRegistry) {
+        this.connectionFactory = connectionFactory;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * 启动完成后注册到 Lettuce 客户端（连接工厂启动后才创建客户端）
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void register() {
+        if (!(connectionFactory instanceof LettuceConnectionFactory lettuce)) {
+            return;
+        }
+        AbstractRedisClient client = lettuce.getNativeClient();
+        if (client == null) {
+            logger.warn("Lettuce client not initialized, Redis command metrics disabled");
+            return;
+        }
+        client.addListener(this);
+    }
+
+    @Override
+    public void commandStarted(CommandStartedEvent event) {
+        event.getContext().put(START_NANOS, System.nanoTime());
+    }
+
+    @Override
+    public void commandSucceeded(CommandSucceededEvent event) {
+        record(event.getCommand(), event.getContext().get(START_NANOS), "success");
+    }
+
+    @Override
+    public void commandFailed(CommandFailedEvent event) {
+        record(event.getCommand(), event.getContext().get(START_NANOS), "failure");
+    }
+
+    private void record(RedisCommand<Object, Object, Object> command, Object startNanos, String result) {
+        if (!(startNanos instanceof Long start)) {
+            return;
+        }
+        Timer.builder("redis.command.duration")
+            .description("Redis 命令耗时（按命令与 Key 前缀）")
+            .tags("command", command.getType().name(), "prefix", keyPrefix(command.getArgs()), "result", result)
+            .register(meterRegistry)
+            .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 第一个 Key 的前两段；没有 Key 的命令（PING、SCRIPT LOAD 等）为 none，不含冒号的 Key 为 other
+     */
+    static String keyPrefix(CommandArgs<Object, Object> args) {
+        ByteBuffer encodedKey = args != null ? args.getFirstEncodedKey() : null;
+        if (encodedKey == null) {
+            return NO_KEY;
+        }
+        String key = StandardCharsets.UTF_8.decode(encodedKey.duplicate()).toString();
+        int first = key.indexOf(':');
+        if (first < 0) {
+            return OTHER_KEY;
+        }
+        // 只有一段前缀时不带上后面的部分，避免动态内容进入标签
+        int second = key.indexOf(':', first + 1);
+        return second < 0 ? key.substring(0, first) : key.substring(0, second);
+    }
+}
@@ -39,11 +39,15 @@ public class SecurityConfig {
                     "/auth/login-with-code", "/auth/login-with-code/",
                     "/auth/refresh", "/auth/refresh/", "/auth/logout", "/auth/logout/",
                     "/auth/check-username", "/auth/check-username/", "/auth/send-code", "/auth/send-code/",
+                    "/auth/send-code/status", "/auth/send-code/status/",
                     "/auth/passkey/authentication-options", "/auth/passkey/authentication-options/",
                     "/auth/passkey/authentication-verify", "/auth/passkey/authentication-verify/",
                     "/auth/totp/mfa-verify", "/auth/totp/mfa-verify/",
                     "/info/password-requirement", "/info/password-requirement/")
                 .permitAll()
+                // 管理端点运行在独立端口（management.server.port），仅对内网开放，抓取时不携带 Token
+                .requestMatchers("/actuator/health", "/actuator/prometheus")
+                .permitAll()
                 .anyRequest().authenticated()
             )
             .exceptionHandling(ex -> ex
@@ -0,0 +1,113 @@
+package cn.ksuser.api.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.thread.Threading;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 虚拟线程固定（pinning）诊断
+ * 开启虚拟线程模式时，通过 JFR 流式订阅 jdk.VirtualThreadPinned 事件：
+ * 虚拟线程在 synchronized 块或本地方法中阻塞超过阈值时，记录阻塞位置并计数（virtual.threads.pinned）
+ * 每个位置首次出现打印 WARN 日志和栈帧，之后只打 DEBUG，避免刷屏
+ */
+@Component
+public class VirtualThreadDiagnostics {
+
+    private static final Logger logger = LoggerFactory.getLogger(VirtualThreadDiagnostics.class);
+
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+    private static final String APP_PACKAGE = "cn.ksuser.api.";
+    private static final int LOGGED_FRAMES = 8;
+
+    private final Environment environment;
+    private final AppProperties appProperties;
+    private final Counter pinnedCounter;
+    private final Set<String> reportedSites = ConcurrentHashMap.newKeySet();
+
+    private RecordingStream stream;
+
+    public VirtualThreadDiagnostics(Environment environment, AppProperties appProperties, MeterRegistry meterRegistry) {
+        this.environment = environment;
+        this.appProperties = appProperties;
+        this.pinnedCounter = Counter.builder("virtual.threads.pinned")
+            .description("虚拟线程被固定在载体线程上且超过阈值的次数")
+            .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        AppProperties.VirtualThreads config = appProperties.getVirtualThreads();
+        if (!Threading.VIRTUAL.isActive(environment) || !config.isPinningDiagnostics()) {
+            return;
+        }
+        try {
+            RecordingStream recording = new RecordingStream();
+            recording.enable(PINNED_EVENT)
+                .withThreshold(Duration.ofMillis(config.getPinnedThresholdMs()))
+                .withStackTrace();
+            recording.onEvent(PINNED_EVENT, this::onPinned);
+            recording.startAsync();
+            stream = recording;
+            logger.info("Virtual thread pinning diagnostics enabled: thresholdMs={}", config.getPinnedThresholdMs());
+        } catch (Exception e) {
+            // JFR 不可用（例如被 JVM 参数禁用）时不影响启动
+            logger.warn("Failed to start virtual thread pinning diagnostics", e);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (stream != null) {
+            stream.close();
+        }
+    }
+
+    private void onPinned(RecordedEvent event) {
+        pinnedCounter.increment();
+        RecordedStackTrace stackTrace = event.getStackTrace();
+        List<RecordedFrame> frames = stackTrace != null ? stackTrace.getFrames() : List.of();
+        String site = pinnedSite(frames);
+        long durationMs = event.getDuration().toMillis();
+
+        if (reportedSites.add(site)) {
+            StringBuilder stack = new StringBuilder();
+            for (int i = 0; i < Math.min(LOGGED_FRAMES, frames.size()); i++) {
+                stack.append("\n\tat ").append(describe(frames.get(i)));
+            }
+            logger.warn("Virtual thread pinned for {} ms at {}{}", durationMs, site, stack);
+        } else if (logger.isDebugEnabled()) {
+            logger.debug("Virtual thread pinned for {} ms at {}", durationMs, site);
+        }
+    }
+
+    /**
+     * 优先取本项目代码中的第一帧，便于定位调用方；没有则取栈顶
+     */
+    private static String pinnedSite(List<RecordedFrame> frames) {
+        for (RecordedFrame frame : frames) {
+            if (frame.isJavaFrame() && frame.getMethod().getType().getName().startsWith(APP_PACKAGE)) {
+                return describe(frame);
+            }
+        }
+        return frames.isEmpty() ? "unknown" : describe(frames.get(0));
+    }
+
+    private static String describe(RecordedFrame frame) {
+        return frame.getMethod().getType().getName() + "." + frame.getMethod().getName() + ":" + frame.getLineNumber();
+    }
+}
@@ -0,0 +1,109 @@
+package cn.ksuser.api.controller;
+
+import cn.ksuser.api.config.AppProperties;
+import cn.ksuser.api.dto.ApiResponse;
+import cn.ksuser.api.dto.SecurityStatsResponse;
+import cn.ksuser.api.dto.UserCacheStats;
+import cn.ksuser.api.service.SecurityStatsService;
+import cn.ksuser.api.service.UserCacheService;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+
+/**
+ * 管理端统计接口
+ * 数据来自 SecurityStatsService 的预聚合桶，不直接查询日志表
+ */
+@RestController
+@RequestMapping("/auth/admin")
+public class AdminStatsController {
+
+    private final SecurityStatsService securityStatsService;
+    private final UserCacheService userCacheService;
+    private final AppProperties appProperties;
+
+    public AdminStatsController(SecurityStatsService securityStatsService, UserCacheService userCacheService,
+                                AppProperties appProperties) {
+        this.securityStatsService = securityStatsService;
+        this.userCacheService = userCacheService;
+        this.appProperties = appProperties;
+    }
+
+    /**
+     * 查询安全活动统计
+     * from/to 支持 YYYY-MM-DD 或 YYYY-MM-DDTHH:mm，默认分钟粒度最近60分钟、天粒度最近30天
+     */
+    @GetMapping("/stats")
+    public ResponseEntity<ApiResponse<SecurityStatsResponse>> getStats(
+            Authentication authentication,
+            @RequestParam(required = false, defaultValue = SecurityStatsService.GRANULARITY_MINUTE) String granularity,
+            @RequestParam(required = false) String from,
+            @RequestParam(required = false) String to) {
+        if (authentication == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                .body(new ApiResponse<>(401, "未认证"));
+        }
+
+        if (!appProperties.getAdmin().isAdmin(authentication.getPrincipal().toString())) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                .body(new ApiResponse<>(403, "无权访问"));
+        }
+
+        boolean daily = SecurityStatsService.GRANULARITY_DAY.equals(granularity);
+        LocalDateTime end;
+        LocalDateTime start;
+        try {
+            end = to == null || to.isEmpty() ? LocalDateTime.now() : parseTime(to, true);
+            start = from == null || from.isEmpty()
+                ? (daily ? end.minusDays(29) : end.minusMinutes(59))
+                : parseTime(from, false);
+        } catch (DateTimeParseException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                .body(new ApiResponse<>(400, "时间格式错误，使用 YYYY-MM-DD 或 YYYY-MM-DDTHH:mm"));
+        }
+
+        try {
+            SecurityStatsResponse response = securityStatsService.queryStats(granularity, start, end);
+            return ResponseEntity.status(HttpStatus.OK)
+                .body(new ApiResponse<>(200, "获取统计成功", response));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                .body(new ApiResponse<>(400, e.getMessage()));
+        }
+    }
+
+    /**
+     * 查询当前实例的用户缓存统计
+     */
+    @GetMapping("/user-cache")
+    public ResponseEntity<ApiResponse<UserCacheStats>> getUserCacheStats(Authentication authentication) {
+        if (authentication == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                .body(new ApiResponse<>(401, "未认证"));
+        }
+
+        if (!appProperties.getAdmin().isAdmin(authentication.getPrincipal().toString())) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                .body(new ApiResponse<>(403, "无权访问"));
+        }
+
+        return ResponseEntity.status(HttpStatus.OK)
+            .body(new ApiResponse<>(200, "获取缓存统计成功", userCacheService.getStats()));
+    }
+
+    private LocalDateTime parseTime(String value, boolean endOfDay) {
+        if (value.length() == 10) {
+            LocalDate date = LocalDate.parse(value);
+            return endOfDay ? date.atTime(23, 59) : date.atStartOfDay();
+        }
+        return LocalDateTime.parse(value);
+    }
+}
@@ -4,24 +4,22 @@ import cn.ksuser.api.config.AppProperties;
 import cn.ksuser.api.dto.*;
 import cn.ksuser.api.entity.User;
 import cn.ksuser.api.entity.UserSession;
-import cn.ksuser.api.entity.UserSettings;
+import cn.ksuser.api.exception.PasswordHashingBusyException;
+import cn.ksuser.api.security.AuthenticatedUser;
 import cn.ksuser.api.security.SecurityValidator;
-import cn.ksuser.api.repository.UserSettingsRepository;
 import cn.ksuser.api.service.TokenBlacklistService;
 import cn.ksuser.api.service.*;
 import cn.ksuser.api.util.JwtUtil;
-import cn.ksuser.api.util.EncryptionUtil;
 import cn.ksuser.api.util.SensitiveLogUtil;
-import jakarta.mail.MessagingException;
 import jakarta.servlet.http.Cookie;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
 
-import java.io.UnsupportedEncodingException;
 import java.time.LocalDate;
 import java.time.format.DateTimeParseException;
 import java.time.Duration;
@@ -49,20 +47,20 @@ public class AuthController {
     private final SecurityValidator securityValidator;
     private final AppProperties appProperties;
     private final PasskeyService passkeyService;
-    private final UserSettingsRepository userSettingsRepository;
+    private final UserSettingsService userSettingsService;
     private final TotpService totpService;
-    private final EncryptionUtil encryptionUtil;
     private final MfaService mfaService;
     private final SensitiveLogUtil sensitiveLogUtil;
+    private final MailQueueService mailQueueService;
 
     public AuthController(UserService userService, UserSessionService userSessionService, JwtUtil jwtUtil,
                           EmailService emailService, VerificationCodeService verificationCodeService,
                           RateLimitService rateLimitService, SensitiveOperationService sensitiveOperationService,
                           TokenBlacklistService tokenBlacklistService, SecurityValidator securityValidator,
                           AppProperties appProperties, PasskeyService passkeyService,
-                          TotpService totpService, EncryptionUtil encryptionUtil,
-                          UserSettingsRepository userSettingsRepository, MfaService mfaService,
-                          SensitiveLogUtil sensitiveLogUtil) {
+                          TotpService totpService,
+                          UserSettingsService userSettingsService, MfaService mfaService,
+                          SensitiveLogUtil sensitiveLogUtil, MailQueueService mailQueueService) {
         this.userService = userService;
         this.userSessionService = userSessionService;
         this.jwtUtil = jwtUtil;
@@ -75,10 +73,10 @@ public class AuthController {
         this.appProperties = appProperties;
         this.passkeyService = passkeyService;
         this.totpService = totpService;
-        this.encryptionUtil = encryptionUtil;
-        this.userSettingsRepository = userSettingsRepository;
+        this.userSettingsService = userSettingsService;
         this.mfaService = mfaService;
         this.sensitiveLogUtil = sensitiveLogUtil;
+        this.mailQueueService = mailQueueService;
     }
 
     /**
@@ -116,7 +114,7 @@ public class AuthController {
                 .body(new ApiResponse<>(400, "用户名不能为空"));
         }
 
-        boolean exists = userService.findByUsername(username).isPresent();
+        boolean exists = userService.isUsernameTaken(username);
         return ResponseEntity.status(HttpStatus.OK)
             .body(new ApiResponse<>(200, exists ? "用户名已存在" : "用户名可用",
                 new CheckUsernameResponse(exists)));
@@ -129,7 +127,7 @@ public class AuthController {
      * @return ApiResponse
      */
     @PostMapping("/send-code")
-    public ResponseEntity<ApiResponse<Void>> sendVerificationCode(HttpServletRequest request,
+    public ResponseEntity<ApiResponse<SendCodeResponse>> sendVerificationCode(HttpServletRequest request,
                                                                     @RequestBody SendCodeRequest sendCodeRequest,
                                                                     Authentication authentication) {
         String email = sendCodeRequest.getEmail();
@@ -245,12 +243,14 @@ public class AuthController {
             verificationCodeService.saveCode(email, code, clientIp);
         }
 
-        // 发送邮件
-        try {
-            emailService.sendVerificationCode(email, code, action);
-        } catch (MessagingException | UnsupportedEncodingException e) {
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                .body(new ApiResponse<>(500, "邮件发送失败，请稍后重试"));
+        // 邮件入队，由发送线程异步渲染并发送
+        String toEmail = email;
+        MailQueueService.Submission submission = mailQueueService.submit(
+            MailQueueService.Priority.VERIFICATION_CODE,
+            () -> emailService.buildVerificationCode(toEmail, code, action));
+        if (!submission.accepted()) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .body(new ApiResponse<>(503, "邮件服务繁忙，请稍后重试"));
         }
 
         // 记录限流
@@ -258,7 +258,23 @@ public class AuthController {
         rateLimitService.recordEmailRequest(email);
 
         return ResponseEntity.status(HttpStatus.OK)
-            .body(new ApiResponse<>(200, "验证码已发送"));
+            .body(new ApiResponse<>(200, "验证码已发送", new SendCodeResponse(submission.requestId())));
+    }
+
+    /**
+     * 查询验证码邮件发送状态
+     * @param requestId 发送验证码时返回的 requestId
+     * @return ApiResponse
+     */
+    @GetMapping("/send-code/status")
+    public ResponseEntity<ApiResponse<SendCodeStatusResponse>> getSendCodeStatus(@RequestParam String requestId) {
+        String status = mailQueueService.getStatus(requestId);
+        if (status == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                .body(new ApiResponse<>(404, "发送记录不存在或已过期"));
+        }
+        return ResponseEntity.status(HttpStatus.OK)
+            .body(new ApiResponse<>(200, "获取成功", new SendCodeStatusResponse(requestId, status)));
     }
 
     /**
@@ -535,9 +551,7 @@ public class AuthController {
                 .body(new ApiResponse<>(401, "邮箱未注册或验证码错误"));
         }
         // 如果用户启用了 MFA 并且存在 TOTP，则先进入 MFA 流程（不下发 token）
-        UserSettings settings = userSettingsRepository.findByUserId(user.getId()).orElse(null);
-        boolean mfaEnabled = settings != null && Boolean.TRUE.equals(settings.getMfaEnabled());
-        if (mfaEnabled && totpService.isTotpEnabled(user.getId())) {
+        if (userSettingsService.requiresTotp(user.getId())) {
             String userAgent = request.getHeader("User-Agent");
             String challengeId = mfaService.createChallenge(user.getId(), clientIp, userAgent);
             // 记录为 EMAIL_CODE_MFA，表示需要MFA验证
@@ -620,9 +634,7 @@ public class AuthController {
                 .body(new ApiResponse<>(401, "邮箱或密码错误"));
         }
         // 如果用户启用了 MFA 并且存在 TOTP，则先进入 MFA 流程（不下发 token）
-        UserSettings settings = userSettingsRepository.findByUserId(user.getId()).orElse(null);
-        boolean mfaEnabled = settings != null && Boolean.TRUE.equals(settings.getMfaEnabled());
-        if (mfaEnabled && totpService.isTotpEnabled(user.getId())) {
+        if (userSettingsService.requiresTotp(user.getId())) {
             String userAgent = request.getHeader("User-Agent");
             String challengeId = mfaService.createChallenge(user.getId(), clientIp, userAgent);
             // 记录为需要MFA验证
@@ -670,7 +682,7 @@ public class AuthController {
                 .body(new ApiResponse<>(401, "用户不存在"));
         }
 
-        UserSettingsResponse settingsResponse = buildUserSettingsResponse(user.getId());
+        UserSettingsResponse settingsResponse = userSettingsService.getFlags(user.getId()).toResponse();
 
         UserInfoResponse userInfo;
         if ("details".equalsIgnoreCase(type)) {
@@ -704,24 +716,17 @@ public class AuthController {
     /**
      * 更新用户设置
      * @param updateUserSettingRequest 更新请求（字段名 + bool）
-     * @param authentication 认证信息
+     * @param principal 认证用户
      * @return ApiResponse
      */
     @PostMapping("/update/setting")
     public ResponseEntity<ApiResponse<UserSettingsResponse>> updateSetting(@RequestBody UpdateUserSettingRequest updateUserSettingRequest,
-                                                                            Authentication authentication) {
-        if (authentication == null || authentication.getPrincipal() == null) {
+                                                                            AuthenticatedUser principal) {
+        if (principal == null) {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
                 .body(new ApiResponse<>(401, "未登录"));
         }
 
-        String uuid = authentication.getPrincipal().toString();
-        User user = userService.findByUuid(uuid).orElse(null);
-        if (user == null) {
-            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
-                .body(new ApiResponse<>(401, "用户不存在"));
-        }
-
         if (updateUserSettingRequest == null || updateUserSettingRequest.getField() == null
             || updateUserSettingRequest.getField().trim().isEmpty()) {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST)
@@ -736,66 +741,18 @@ public class AuthController {
         String field = updateUserSettingRequest.getField().trim();
         boolean value = updateUserSettingRequest.getValue();
 
-        UserSettings settings = getOrCreateUserSettings(user.getId());
-
-        switch (field) {
-            case "mfa_enabled":
-            case "mfaEnabled":
-                settings.setMfaEnabled(value);
-                break;
-            case "detect_unusual_login":
-            case "detectUnusualLogin":
-                settings.setDetectUnusualLogin(value);
-                break;
-            case "notify_sensitive_action_email":
-            case "notifySensitiveActionEmail":
-                settings.setNotifySensitiveActionEmail(value);
-                break;
-            case "subscribe_news_email":
-            case "subscribeNewsEmail":
-                settings.setSubscribeNewsEmail(value);
-                break;
-            default:
-                return ResponseEntity.status(HttpStatus.BAD_REQUEST)
-                    .body(new ApiResponse<>(400, "不支持的字段名"));
+        UserSettingsResponse response;
+        try {
+            response = userSettingsService.updateSetting(principal.userId(), field, value).toResponse();
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                .body(new ApiResponse<>(400, e.getMessage()));
         }
 
-        UserSettings saved = userSettingsRepository.save(settings);
-        UserSettingsResponse response = new UserSettingsResponse(
-            Boolean.TRUE.equals(saved.getMfaEnabled()),
-            Boolean.TRUE.equals(saved.getDetectUnusualLogin()),
-            Boolean.TRUE.equals(saved.getNotifySensitiveActionEmail()),
-            Boolean.TRUE.equals(saved.getSubscribeNewsEmail())
-        );
-
         return ResponseEntity.status(HttpStatus.OK)
             .body(new ApiResponse<>(200, "更新成功", response));
     }
 
-    private UserSettingsResponse buildUserSettingsResponse(Long userId) {
-        return userSettingsRepository.findByUserId(userId)
-            .map(settings -> new UserSettingsResponse(
-                Boolean.TRUE.equals(settings.getMfaEnabled()),
-                Boolean.TRUE.equals(settings.getDetectUnusualLogin()),
-                Boolean.TRUE.equals(settings.getNotifySensitiveActionEmail()),
-                Boolean.TRUE.equals(settings.getSubscribeNewsEmail())
-            ))
-            .orElseGet(() -> new UserSettingsResponse(false, true, true, false));
-    }
-
-    private UserSettings getOrCreateUserSettings(Long userId) {
-        return userSettingsRepository.findByUserId(userId)
-            .orElseGet(() -> {
-                UserSettings settings = new UserSettings();
-                settings.setUserId(userId);
-                settings.setMfaEnabled(false);
-                settings.setDetectUnusualLogin(true);
-                settings.setNotifySensitiveActionEmail(true);
-                settings.setSubscribeNewsEmail(false);
-                return userSettingsRepository.save(settings);
-            });
-    }
-
     /**
      * 刷新 AccessToken
      * @param request HttpServletRequest
@@ -985,15 +942,15 @@ public class AuthController {
         String clientIp = rateLimitService.getClientIp(httpRequest);
         String userAgent = httpRequest.getHeader("User-Agent");
 
-        // ✅ 先验证challenge（不删除）
-        Long userId = mfaService.verifyChallenge(requestBody.getChallengeId(), clientIp, userAgent);
-        if (userId == null) {
+        // ✅ 先占用一次尝试（原子递增，不删除challenge），再校验 TOTP
+        MfaService.Attempt attempt = mfaService.reserveAttempt(requestBody.getChallengeId(), clientIp, userAgent);
+        if (attempt == null) {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST)
                 .body(new ApiResponse<>(400, "challengeId 无效或已过期"));
         }
 
         // 查找用户
-        User user = userService.findById(userId).orElse(null);
+        User user = userService.findById(attempt.userId()).orElse(null);
         if (user == null) {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
                 .body(new ApiResponse<>(401, "用户不存在"));
@@ -1001,12 +958,10 @@ public class AuthController {
 
         long startTime = System.currentTimeMillis();
         try {
-            byte[] masterKey = encryptionUtil.getMasterKey();
-            boolean ok = totpService.verifyTotpCode(user.getId(), requestBody.getCode(), masterKey);
+            boolean ok = totpService.verifyTotpCode(user.getId(), requestBody.getCode());
             if (!ok) {
                 // ✅ MFA验证失败，记录失败次数
-                mfaService.recordFailedAttempt(requestBody.getChallengeId());
-                int remaining = mfaService.getRemainingAttempts(requestBody.getChallengeId());
+                int remaining = mfaService.recordFailedAttempt(requestBody.getChallengeId(), attempt);
                 String loginMethod = requestBody.getChallengeId().contains("EMAIL") ? "EMAIL_CODE_MFA" : "PASSWORD_MFA";
                 sensitiveLogUtil.logLogin(httpRequest, user.getId(), loginMethod, false, "TOTP 校验失败", startTime);
                 
@@ -1036,6 +991,9 @@ public class AuthController {
 
             return ResponseEntity.status(HttpStatus.OK)
                 .body(new ApiResponse<>(200, "登录成功", new TokenResponse(accessToken)));
+        } catch (PasswordHashingBusyException e) {
+            // 交给 GlobalExceptionHandler 返回 503
+            throw e;
         } catch (Exception e) {
             String loginMethod = requestBody.getChallengeId().contains("EMAIL") ? "EMAIL_CODE_MFA" : "PASSWORD_MFA";
             sensitiveLogUtil.logLogin(httpRequest, user.getId(), loginMethod, false, e.getMessage(), startTime);
@@ -1275,7 +1233,7 @@ public class AuthController {
                     .body(new ApiResponse<>(400, "密码不能为空"));
             }
 
-            if (!userService.verifyPassword(password, user.getPasswordHash())) {
+            if (!userService.verifyPassword(user.getId(), password)) {
                 sensitiveLogUtil.logSensitiveVerify(request, user.getId(), false, "invalid_password", startTime);
                 return ResponseEntity.status(HttpStatus.BAD_REQUEST)
                     .body(new ApiResponse<>(400, "密码错误"));
@@ -1370,8 +1328,7 @@ public class AuthController {
             }
 
             try {
-                byte[] masterKey = encryptionUtil.getMasterKey();
-                boolean ok = totpService.verifyTotpCode(user.getId(), code, masterKey);
+                boolean ok = totpService.verifyTotpCode(user.getId(), code);
                 if (!ok) {
                     sensitiveLogUtil.logSensitiveVerify(request, user.getId(), false, "verification_code_invalid_or_expired", startTime);
                     return ResponseEntity.status(HttpStatus.BAD_REQUEST)
@@ -1765,7 +1722,7 @@ public class AuthController {
      * @return ApiResponse
      */
     @PostMapping("/passkey/registration-options")
-    public ResponseEntity<ApiResponse<PasskeyRegistrationOptionsResponse>> generatePasskeyRegistrationOptions(
+    public ResponseEntity<?> generatePasskeyRegistrationOptions(
             @RequestBody PasskeyRegistrationOptionsRequest request,
             Authentication authentication,
             HttpServletRequest httpRequest) {
@@ -1790,9 +1747,11 @@ public class AuthController {
 
         // ========== 生成注册选项 ==========
         try {
-            PasskeyRegistrationOptionsResponse options = passkeyService.generateRegistrationOptions(user);
+            // 响应体已按 ApiResponse 结构预先渲染，直接写出
+            byte[] body = passkeyService.generateRegistrationOptions(user);
             return ResponseEntity.status(HttpStatus.OK)
-                .body(new ApiResponse<>(200, "生成注册选项成功", options));
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(body);
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                 .body(new ApiResponse<>(500, "生成注册选项失败：" + e.getMessage()));
@@ -1847,11 +1806,12 @@ public class AuthController {
      * @return ApiResponse
      */
     @PostMapping("/passkey/authentication-options")
-    public ResponseEntity<ApiResponse<PasskeyAuthenticationOptionsResponse>> generatePasskeyAuthenticationOptions() {
+    public ResponseEntity<?> generatePasskeyAuthenticationOptions() {
         try {
-            PasskeyAuthenticationOptionsResponse options = passkeyService.generateAuthenticationOptions();
+            byte[] body = passkeyService.generateAuthenticationOptions();
             return ResponseEntity.status(HttpStatus.OK)
-                .body(new ApiResponse<>(200, "生成认证选项成功", options));
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(body);
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                 .body(new ApiResponse<>(500, "生成认证选项失败：" + e.getMessage()));
@@ -1891,11 +1851,9 @@ public class AuthController {
             }
 
             // 如果用户启用了 MFA 并且存在 TOTP，则先进入 MFA 流程（不下发 token）
-            UserSettings settings = userSettingsRepository.findByUserId(user.getId()).orElse(null);
-            boolean mfaEnabled = settings != null && Boolean.TRUE.equals(settings.getMfaEnabled());
             String clientIp = rateLimitService.getClientIp(httpRequest);
             String userAgent = httpRequest.getHeader("User-Agent");
-            if (mfaEnabled && totpService.isTotpEnabled(user.getId())) {
+            if (userSettingsService.requiresTotp(user.getId())) {
                 String challenge = mfaService.createChallenge(user.getId(), clientIp, userAgent);
                 sensitiveLogUtil.logLogin(httpRequest, user.getId(), "PASSKEY_MFA", true, null, startTime);
                 return ResponseEntity.status(HttpStatus.CREATED)
@@ -1919,6 +1877,9 @@ public class AuthController {
             sensitiveLogUtil.logLogin(httpRequest, null, "PASSKEY", false, e.getMessage(), startTime);
             return ResponseEntity.status(HttpStatus.BAD_REQUEST)
                 .body(new ApiResponse<>(400, e.getMessage()));
+        } catch (PasswordHashingBusyException e) {
+            // 交给 GlobalExceptionHandler 返回 503
+            throw e;
         } catch (Exception e) {
             sensitiveLogUtil.logLogin(httpRequest, null, "PASSKEY", false, e.getMessage(), startTime);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
@@ -1932,7 +1893,7 @@ public class AuthController {
      * @return ApiResponse
      */
     @PostMapping("/passkey/sensitive-verification-options")
-    public ResponseEntity<ApiResponse<PasskeyAuthenticationOptionsResponse>> generateSensitiveVerificationOptions(
+    public ResponseEntity<?> generateSensitiveVerificationOptions(
             Authentication authentication) {
         if (authentication == null || authentication.getPrincipal() == null) {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
@@ -1940,9 +1901,11 @@ public class AuthController {
         }
 
         try {
-            PasskeyAuthenticationOptionsResponse options = passkeyService.generateSensitiveVerificationOptions();
+            String uuid = authentication.getPrincipal().toString();
+            byte[] body = passkeyService.generateSensitiveVerificationOptions(uuid);
             return ResponseEntity.status(HttpStatus.OK)
-                .body(new ApiResponse<>(200, "生成敏感操作验证选项成功", options));
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(body);
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                 .body(new ApiResponse<>(500, "生成验证选项失败：" + e.getMessage()));
@@ -2007,25 +1970,18 @@ public class AuthController {
 
     /**
      * 获取用户 Passkey 列表
-     * @param authentication 认证信息（AccessToken）
+     * @param principal 认证用户
      * @return ApiResponse
      */
     @GetMapping("/passkey/list")
-    public ResponseEntity<ApiResponse<PasskeyListResponse>> getUserPasskeys(Authentication authentication) {
-        if (authentication == null || authentication.getPrincipal() == null) {
+    public ResponseEntity<ApiResponse<PasskeyListResponse>> getUserPasskeys(AuthenticatedUser principal) {
+        if (principal == null) {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
                 .body(new ApiResponse<>(401, "未登录"));
         }
 
-        String uuid = authentication.getPrincipal().toString();
-        User user = userService.findByUuid(uuid).orElse(null);
-        if (user == null) {
-            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
-                .body(new ApiResponse<>(401, "用户不存在"));
-        }
-
         try {
-            List<PasskeyListResponse.PasskeyInfo> passkeys = passkeyService.getUserPasskeys(user.getId());
+            List<PasskeyListResponse.PasskeyInfo> passkeys = passkeyService.getUserPasskeys(principal.userId());
             PasskeyListResponse response = new PasskeyListResponse(passkeys);
             return ResponseEntity.status(HttpStatus.OK)
                 .body(new ApiResponse<>(200, "获取成功", response));
@@ -2038,41 +1994,33 @@ public class AuthController {
     /**
      * 删除 Passkey
      * @param passkeyId Passkey ID
-     * @param authentication 认证信息（AccessToken）
+     * @param principal 认证用户
      * @return ApiResponse
      */
     @DeleteMapping("/passkey/{passkeyId}")
     public ResponseEntity<ApiResponse<Void>> deletePasskey(
             @PathVariable Long passkeyId,
-            Authentication authentication,
+            AuthenticatedUser principal,
             HttpServletRequest httpRequest) {
         long startTime = System.currentTimeMillis();
         
-        if (authentication == null || authentication.getPrincipal() == null) {
+        if (principal == null) {
             sensitiveLogUtil.logDeletePasskey(httpRequest, null, false, "not_authenticated", startTime);
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
                 .body(new ApiResponse<>(401, "未登录"));
         }
 
-        String uuid = authentication.getPrincipal().toString();
-        User user = userService.findByUuid(uuid).orElse(null);
-        if (user == null) {
-            sensitiveLogUtil.logDeletePasskey(httpRequest, null, false, "user_not_found", startTime);
-            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
-                .body(new ApiResponse<>(401, "用户不存在"));
-        }
-
         try {
-            passkeyService.deletePasskey(passkeyId, user.getId());
-            sensitiveLogUtil.logDeletePasskey(httpRequest, user.getId(), true, null, startTime);
+            passkeyService.deletePasskey(passkeyId, principal.userId());
+            sensitiveLogUtil.logDeletePasskey(httpRequest, principal.userId(), true, null, startTime);
             return ResponseEntity.status(HttpStatus.OK)
                 .body(new ApiResponse<>(200, "Passkey 删除成功"));
         } catch (IllegalArgumentException e) {
-            sensitiveLogUtil.logDeletePasskey(httpRequest, user.getId(), false, e.getMessage(), startTime);
+            sensitiveLogUtil.logDeletePasskey(httpRequest, principal.userId(), false, e.getMessage(), startTime);
             return ResponseEntity.status(HttpStatus.BAD_REQUEST)
                 .body(new ApiResponse<>(400, e.getMessage()));
         } catch (Exception e) {
-            sensitiveLogUtil.logDeletePasskey(httpRequest, user.getId(), false, e.getMessage(), startTime);
+            sensitiveLogUtil.logDeletePasskey(httpRequest, principal.userId(), false, e.getMessage(), startTime);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                 .body(new ApiResponse<>(500, "删除失败：" + e.getMessage()));
         }
@@ -2082,28 +2030,21 @@ public class AuthController {
      * 重命名 Passkey
      * @param passkeyId Passkey ID
      * @param request 重命名请求
-     * @param authentication 认证信息（AccessToken）
+     * @param principal 认证用户
      * @return ApiResponse
      */
     @PutMapping("/passkey/{passkeyId}/rename")
     public ResponseEntity<ApiResponse<Void>> renamePasskey(
             @PathVariable Long passkeyId,
             @RequestBody PasskeyRenameRequest request,
-            Authentication authentication) {
-        if (authentication == null || authentication.getPrincipal() == null) {
+            AuthenticatedUser principal) {
+        if (principal == null) {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
                 .body(new ApiResponse<>(401, "未登录"));
         }
 
-        String uuid = authentication.getPrincipal().toString();
-        User user = userService.findByUuid(uuid).orElse(null);
-        if (user == null) {
-            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
-                .body(new ApiResponse<>(401, "用户不存在"));
-        }
-
         try {
-            passkeyService.renamePasskey(passkeyId, user.getId(), request.getNewName());
+            passkeyService.renamePasskey(passkeyId, principal.userId(), request.getNewName());
             return ResponseEntity.status(HttpStatus.OK)
                 .body(new ApiResponse<>(200, "Passkey 重命名成功"));
         } catch (IllegalArgumentException e) {
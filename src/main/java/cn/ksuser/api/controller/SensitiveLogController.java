@@ -4,14 +4,17 @@ import cn.ksuser.api.dto.ApiResponse;
 import cn.ksuser.api.dto.PageResponse;
 import cn.ksuser.api.dto.SensitiveLogQueryRequest;
 import cn.ksuser.api.dto.SensitiveLogResponse;
-import cn.ksuser.api.entity.User;
+import cn.ksuser.api.security.AuthenticatedUser;
+import cn.ksuser.api.service.SensitiveLogExportService;
 import cn.ksuser.api.service.SensitiveLogService;
-import cn.ksuser.api.service.UserService;
-import cn.ksuser.api.util.JwtUtil;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 @RestController
 @RequestMapping("/auth")
@@ -21,17 +24,14 @@ public class SensitiveLogController {
     private SensitiveLogService sensitiveLogService;
 
     @Autowired
-    private JwtUtil jwtUtil;
-
-    @Autowired
-    private UserService userService;
+    private SensitiveLogExportService sensitiveLogExportService;
 
     /**
      * 查询用户的敏感操作日志
      */
     @GetMapping("/sensitive-logs")
     public ResponseEntity<ApiResponse<PageResponse<SensitiveLogResponse>>> getSensitiveLogs(
-            @RequestHeader("Authorization") String authHeader,
+            AuthenticatedUser principal,
             @RequestParam(required = false) Integer page,
             @RequestParam(required = false) Integer pageSize,
             @RequestParam(required = false) String startDate,
@@ -39,29 +39,9 @@ public class SensitiveLogController {
             @RequestParam(required = false) String operationType,
             @RequestParam(required = false) String result
     ) {
-        // 提取并验证token
-        String accessToken = null;
-        if (authHeader != null && authHeader.startsWith("Bearer ")) {
-            accessToken = authHeader.substring(7);
-        }
-
-        if (accessToken == null) {
-            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
-                    .body(new ApiResponse<>(401, "Access token不存在"));
-        }
-
-        // 从token获取UUID
-        String uuid = jwtUtil.getUuidFromToken(accessToken);
-        if (uuid == null) {
+        if (principal == null) {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
-                    .body(new ApiResponse<>(401, "Access token无效或已过期"));
-        }
-
-        // 查找用户
-        User user = userService.findByUuid(uuid).orElse(null);
-        if (user == null) {
-            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
-                    .body(new ApiResponse<>(401, "用户不存在"));
+                    .body(new ApiResponse<>(401, "未认证"));
         }
 
         // 构建查询请求
@@ -91,8 +71,77 @@ public class SensitiveLogController {
         request.setResult(result);
 
         // 查询日志
-        PageResponse<SensitiveLogResponse> response = sensitiveLogService.queryLogs(user.getId(), request);
+        PageResponse<SensitiveLogResponse> response = sensitiveLogService.queryLogs(principal.userId(), request);
 
         return ResponseEntity.ok(new ApiResponse<>(200, "Sensitive logs retrieved successfully", response));
     }
+
+    /**
+     * 流式导出用户的敏感操作日志（NDJSON / CSV，可选 gzip）
+     * 过滤条件与分页查询一致，直接从数据库游标写入响应，不分页
+     */
+    @GetMapping("/sensitive-logs/export")
+    public ResponseEntity<?> exportSensitiveLogs(
+            AuthenticatedUser principal,
+            @RequestParam(required = false, defaultValue = "ndjson") String format,
+            @RequestParam(required = false, defaultValue = "false") boolean gzip,
+            @RequestParam(required = false) String startDate,
+            @RequestParam(required = false) String endDate,
+            @RequestParam(required = false) String operationType,
+            @RequestParam(required = false) String result
+    ) {
+        if (principal == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                    .body(new ApiResponse<>(401, "未认证"));
+        }
+
+        String normalizedFormat = format.toLowerCase();
+        if (!SensitiveLogExportService.isSupportedFormat(normalizedFormat)) {
+            return ResponseEntity.badRequest()
+                    .body(new ApiResponse<>(400, "Invalid format, use ndjson or csv"));
+        }
+
+        SensitiveLogQueryRequest request = new SensitiveLogQueryRequest();
+        if (startDate != null && !startDate.isEmpty()) {
+            try {
+                request.setStartDate(java.time.LocalDate.parse(startDate));
+            } catch (Exception e) {
+                return ResponseEntity.badRequest()
+                        .body(new ApiResponse<>(400, "Invalid startDate format, use YYYY-MM-DD"));
+            }
+        }
+
+        if (endDate != null && !endDate.isEmpty()) {
+            try {
+                request.setEndDate(java.time.LocalDate.parse(endDate));
+            } catch (Exception e) {
+                return ResponseEntity.badRequest()
+                        .body(new ApiResponse<>(400, "Invalid endDate format, use YYYY-MM-DD"));
+            }
+        }
+
+        request.setOperationType(operationType);
+        request.setResult(result);
+
+        Long userId = principal.userId();
+        StreamingResponseBody body = out ->
+                sensitiveLogExportService.exportLogs(userId, request, normalizedFormat, gzip, out);
+
+        String filename = "sensitive-logs." + normalizedFormat + (gzip ? ".gz" : "");
+        MediaType contentType;
+        if (gzip) {
+            contentType = MediaType.parseMediaType("application/gzip");
+        } else if (SensitiveLogExportService.FORMAT_CSV.equals(normalizedFormat)) {
+            contentType = MediaType.parseMediaType("text/csv;charset=UTF-8");
+        } else {
+            contentType = MediaType.parseMediaType("application/x-ndjson;charset=UTF-8");
+        }
+
+        return ResponseEntity.ok()
+                .contentType(contentType)
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        ContentDisposition.attachment().filename(filename).build().toString())
+                .header(HttpHeaders.CACHE_CONTROL, "no-store")
+                .body(body);
+    }
 }
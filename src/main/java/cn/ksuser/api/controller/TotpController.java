@@ -1,19 +1,16 @@
 package cn.ksuser.api.controller;
 
 import cn.ksuser.api.dto.*;
-import cn.ksuser.api.entity.User;
 import cn.ksuser.api.entity.UserTotp;
 import cn.ksuser.api.repository.UserTotpRepository;
+import cn.ksuser.api.security.AuthenticatedUser;
 import cn.ksuser.api.service.TotpService;
-import cn.ksuser.api.service.UserService;
 import cn.ksuser.api.service.SensitiveOperationService;
 import cn.ksuser.api.service.RateLimitService;
-import cn.ksuser.api.util.EncryptionUtil;
 import cn.ksuser.api.util.JwtUtil;
 import cn.ksuser.api.util.SensitiveLogUtil;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
-import org.springframework.security.core.Authentication;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.web.bind.annotation.*;
 import jakarta.servlet.http.HttpServletRequest;
@@ -31,26 +28,21 @@ import java.time.LocalDateTime;
 public class TotpController {
 
     private final TotpService totpService;
-    private final UserService userService;
     private final UserTotpRepository userTotpRepository;
     private final PasswordEncoder passwordEncoder;
-    private final EncryptionUtil encryptionUtil;
     private final SensitiveOperationService sensitiveOperationService;
     private final RateLimitService rateLimitService;
     private final SensitiveLogUtil sensitiveLogUtil;
 
-    public TotpController(TotpService totpService, UserService userService,
+    public TotpController(TotpService totpService,
                           UserTotpRepository userTotpRepository,
                           PasswordEncoder passwordEncoder, JwtUtil jwtUtil,
-                          EncryptionUtil encryptionUtil,
                           SensitiveOperationService sensitiveOperationService,
                           RateLimitService rateLimitService,
                           SensitiveLogUtil sensitiveLogUtil) {
         this.totpService = totpService;
-        this.userService = userService;
         this.userTotpRepository = userTotpRepository;
         this.passwordEncoder = passwordEncoder;
-        this.encryptionUtil = encryptionUtil;
         this.sensitiveOperationService = sensitiveOperationService;
         this.rateLimitService = rateLimitService;
         this.sensitiveLogUtil = sensitiveLogUtil;
@@ -63,33 +55,23 @@ public class TotpController {
      */
     @PostMapping("/registration-options")
     public ResponseEntity<ApiResponse<TotpRegistrationOptionsResponse>> getTotpRegistrationOptions(
-            Authentication authentication) {
-        if (authentication == null) {
+            AuthenticatedUser principal) {
+        if (principal == null) {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
                 .body(new ApiResponse<>(401, "未认证"));
         }
 
-        String userUuid = (String) authentication.getPrincipal();
-        Optional<User> userOpt = userService.findByUuid(userUuid);
-        
-        if (userOpt.isEmpty()) {
-            return ResponseEntity.status(HttpStatus.NOT_FOUND)
-                .body(new ApiResponse<>(404, "用户不存在"));
-        }
-
-        User user = userOpt.get();
+        Long userId = principal.userId();
         
         // 检查用户是否已启用 TOTP
-        if (totpService.isTotpEnabled(user.getId())) {
+        if (totpService.isTotpEnabled(userId)) {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST)
                 .body(new ApiResponse<>(400, "用户已启用 TOTP"));
         }
 
         try {
-            byte[] masterKey = encryptionUtil.getMasterKey();
-            
             // 删除旧的待确认 TOTP（如果存在）
-            Optional<UserTotp> existingOpt = userTotpRepository.findByUserId(user.getId());
+            Optional<UserTotp> existingOpt = userTotpRepository.findByUserId(userId);
             if (existingOpt.isPresent()) {
                 UserTotp existing = existingOpt.get();
                 if (existing.getIsEnabled()) {
@@ -102,15 +84,16 @@ public class TotpController {
             }
             
             // 生成新的秘钥和恢复码
-            Map<String, Object> secretData = totpService.generateTotpSecret(user.getId(), masterKey);
+            Map<String, Object> secretData = totpService.generateTotpSecret(userId);
             
             // 创建新的 UserTotp 记录，临时存储待确认密钥
             byte[] encryptedSecret = java.util.Base64.getDecoder()
                 .decode((String) secretData.get("encryptedSecret"));
             
             UserTotp userTotp = new UserTotp();
-            userTotp.setUserId(user.getId());
+            userTotp.setUserId(userId);
             userTotp.setPendingSecretCiphertext(encryptedSecret);
+            userTotp.setKeyVersion((Integer) secretData.get("keyVersion"));
             userTotp.setPendingExpiresAt(LocalDateTime.now().plusMinutes(10)); // 10 分钟有效期
             userTotp.setIsEnabled(false);
             userTotpRepository.save(userTotp);
@@ -140,12 +123,12 @@ public class TotpController {
      */
     @PostMapping("/registration-verify")
     public ResponseEntity<ApiResponse<String>> confirmTotpRegistration(
-            Authentication authentication,
+            AuthenticatedUser principal,
             @RequestBody TotpRegistrationConfirmRequest request,
             HttpServletRequest httpRequest) {
         long startTime = System.currentTimeMillis();
         
-        if (authentication == null) {
+        if (principal == null) {
             sensitiveLogUtil.logEnableTotp(httpRequest, null, false, "not_authenticated", startTime);
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
                 .body(new ApiResponse<>(401, "未认证"));
@@ -157,31 +140,20 @@ public class TotpController {
                 .body(new ApiResponse<>(400, "验证码不能为空"));
         }
 
-        String userUuid = (String) authentication.getPrincipal();
-        Optional<User> userOpt = userService.findByUuid(userUuid);
-        
-        if (userOpt.isEmpty()) {
-            sensitiveLogUtil.logEnableTotp(httpRequest, null, false, "user_not_found", startTime);
-            return ResponseEntity.status(HttpStatus.NOT_FOUND)
-                .body(new ApiResponse<>(404, "用户不存在"));
-        }
-
-        User user = userOpt.get();
+        Long userId = principal.userId();
         
         // 检查用户是否已启用 TOTP
-        if (totpService.isTotpEnabled(user.getId())) {
-            sensitiveLogUtil.logEnableTotp(httpRequest, user.getId(), false, "totp_already_enabled", startTime);
+        if (totpService.isTotpEnabled(userId)) {
+            sensitiveLogUtil.logEnableTotp(httpRequest, userId, false, "totp_already_enabled", startTime);
             return ResponseEntity.status(HttpStatus.BAD_REQUEST)
                 .body(new ApiResponse<>(400, "用户已启用 TOTP"));
         }
 
         try {
-            byte[] masterKey = encryptionUtil.getMasterKey();
-            
             // 从数据库获取待确认的秘钥和恢复码列表
-            Optional<UserTotp> userTotpOpt = userTotpRepository.findByUserId(user.getId());
+            Optional<UserTotp> userTotpOpt = userTotpRepository.findByUserId(userId);
             if (userTotpOpt.isEmpty()) {
-                sensitiveLogUtil.logEnableTotp(httpRequest, user.getId(), false, "totp_not_initialized", startTime);
+                sensitiveLogUtil.logEnableTotp(httpRequest, userId, false, "totp_not_initialized", startTime);
                 return ResponseEntity.status(HttpStatus.BAD_REQUEST)
                     .body(new ApiResponse<>(400, "TOTP 未初始化，请先调用 registration-options"));
             }
@@ -191,7 +163,7 @@ public class TotpController {
             // 检查是否过期
             if (userTotp.isPendingSecretExpired()) {
                 userTotpRepository.delete(userTotp);
-                sensitiveLogUtil.logEnableTotp(httpRequest, user.getId(), false, "pending_secret_expired", startTime);
+                sensitiveLogUtil.logEnableTotp(httpRequest, userId, false, "pending_secret_expired", startTime);
                 return ResponseEntity.status(HttpStatus.BAD_REQUEST)
                     .body(new ApiResponse<>(400, "待确认秘钥已过期，请重新生成"));
             }
@@ -214,23 +186,22 @@ public class TotpController {
             
             // 确认注册
             boolean success = totpService.confirmTotpRegistration(
-                user.getId(), 
+                userId, 
                 request.getCode(), 
-                recoveryCodes,
-                masterKey
+                recoveryCodes
             );
 
             if (success) {
-                sensitiveLogUtil.logEnableTotp(httpRequest, user.getId(), true, null, startTime);
+                sensitiveLogUtil.logEnableTotp(httpRequest, userId, true, null, startTime);
                 return ResponseEntity.status(HttpStatus.OK)
                     .body(new ApiResponse<>(200, "TOTP 注册成功"));
             } else {
-                sensitiveLogUtil.logEnableTotp(httpRequest, user.getId(), false, "invalid_or_expired_verification_code", startTime);
+                sensitiveLogUtil.logEnableTotp(httpRequest, userId, false, "invalid_or_expired_verification_code", startTime);
                 return ResponseEntity.status(HttpStatus.BAD_REQUEST)
                     .body(new ApiResponse<>(400, "验证码无效或已过期"));
             }
         } catch (Exception e) {
-            sensitiveLogUtil.logEnableTotp(httpRequest, user.getId(), false, e.getMessage(), startTime);
+            sensitiveLogUtil.logEnableTotp(httpRequest, userId, false, e.getMessage(), startTime);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                 .body(new ApiResponse<>(500, "TOTP 注册失败：" + e.getMessage()));
         }
@@ -242,30 +213,20 @@ public class TotpController {
      */
     @PostMapping("/verify")
     public ResponseEntity<ApiResponse<TotpVerifyResponse>> verifyTotp(
-            Authentication authentication,
+            AuthenticatedUser principal,
             @RequestBody TotpVerifyRequest request) {
         
-        if (authentication == null) {
+        if (principal == null) {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
                 .body(new ApiResponse<>(401, "未认证"));
         }
 
-        String userUuid = (String) authentication.getPrincipal();
-        Optional<User> userOpt = userService.findByUuid(userUuid);
-        
-        if (userOpt.isEmpty()) {
-            return ResponseEntity.status(HttpStatus.NOT_FOUND)
-                .body(new ApiResponse<>(404, "用户不存在"));
-        }
-
-        User user = userOpt.get();
+        Long userId = principal.userId();
 
         try {
-            byte[] masterKey = encryptionUtil.getMasterKey();
-            
             // 先尝试使用 TOTP 码验证
             if (request.getCode() != null && !request.getCode().isEmpty()) {
-                if (totpService.verifyTotpCode(user.getId(), request.getCode(), masterKey)) {
+                if (totpService.verifyTotpCode(userId, request.getCode())) {
                     return ResponseEntity.status(HttpStatus.OK)
                         .body(new ApiResponse<>(200, "TOTP 验证成功",
                             new TotpVerifyResponse(true, "验证成功")));
@@ -274,7 +235,7 @@ public class TotpController {
 
             // 尝试使用恢复码验证
             if (request.getRecoveryCode() != null && !request.getRecoveryCode().isEmpty()) {
-                if (totpService.verifyRecoveryCode(user.getId(), request.getRecoveryCode())) {
+                if (totpService.verifyRecoveryCode(userId, request.getRecoveryCode())) {
                     return ResponseEntity.status(HttpStatus.OK)
                         .body(new ApiResponse<>(200, "使用恢复码验证成功",
                             new TotpVerifyResponse(true, "使用恢复码验证成功")));
@@ -295,23 +256,15 @@ public class TotpController {
      */
     @GetMapping("/status")
     public ResponseEntity<ApiResponse<TotpStatusResponse>> getTotpStatus(
-            Authentication authentication) {
+            AuthenticatedUser principal) {
         
-        if (authentication == null) {
+        if (principal == null) {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
                 .body(new ApiResponse<>(401, "未认证"));
         }
 
-        String userUuid = (String) authentication.getPrincipal();
-        Optional<User> userOpt = userService.findByUuid(userUuid);
-        
-        if (userOpt.isEmpty()) {
-            return ResponseEntity.status(HttpStatus.NOT_FOUND)
-                .body(new ApiResponse<>(404, "用户不存在"));
-        }
-
-        User user = userOpt.get();
-        Map<String, Object> status = totpService.getTotpStatus(user.getId());
+        Long userId = principal.userId();
+        Map<String, Object> status = totpService.getTotpStatus(userId);
         
         Number recoveryCodesCount = (Number) status.get("recoveryCodesCount");
         TotpStatusResponse response = new TotpStatusResponse(
@@ -329,43 +282,34 @@ public class TotpController {
      */
     @PostMapping("/disable")
     public ResponseEntity<ApiResponse<Void>> disableTotp(
-            Authentication authentication,
+            AuthenticatedUser principal,
             HttpServletRequest request) {
         long startTime = System.currentTimeMillis();
         
-        if (authentication == null) {
+        if (principal == null) {
             sensitiveLogUtil.logDisableTotp(request, null, false, "not_authenticated", startTime);
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
                 .body(new ApiResponse<>(401, "未认证"));
         }
 
-        String userUuid = (String) authentication.getPrincipal();
-        Optional<User> userOpt = userService.findByUuid(userUuid);
-        
-        if (userOpt.isEmpty()) {
-            sensitiveLogUtil.logDisableTotp(request, null, false, "user_not_found", startTime);
-            return ResponseEntity.status(HttpStatus.NOT_FOUND)
-                .body(new ApiResponse<>(404, "用户不存在"));
-        }
-
-        User user = userOpt.get();
+        Long userId = principal.userId();
         String clientIp = rateLimitService.getClientIp(request);
 
         // 检查是否已完成敏感操作验证
-        if (!sensitiveOperationService.isVerified(userUuid, clientIp)) {
-            sensitiveLogUtil.logDisableTotp(request, user.getId(), false, "sensitive_verification_not_completed", startTime);
+        if (!sensitiveOperationService.isVerified(principal.uuid(), clientIp)) {
+            sensitiveLogUtil.logDisableTotp(request, userId, false, "sensitive_verification_not_completed", startTime);
             return ResponseEntity.status(HttpStatus.FORBIDDEN)
                 .body(new ApiResponse<>(403, "请先完成敏感操作验证"));
         }
 
-        boolean success = totpService.disableTotp(user.getId());
+        boolean success = totpService.disableTotp(userId);
         
         if (success) {
-            sensitiveLogUtil.logDisableTotp(request, user.getId(), true, null, startTime);
+            sensitiveLogUtil.logDisableTotp(request, userId, true, null, startTime);
             return ResponseEntity.status(HttpStatus.OK)
                 .body(new ApiResponse<>(200, "TOTP 禁用成功"));
         } else {
-            sensitiveLogUtil.logDisableTotp(request, user.getId(), false, "totp_not_enabled", startTime);
+            sensitiveLogUtil.logDisableTotp(request, userId, false, "totp_not_enabled", startTime);
             return ResponseEntity.status(HttpStatus.NOT_FOUND)
                 .body(new ApiResponse<>(404, "用户未启用 TOTP"));
         }
@@ -378,40 +322,31 @@ public class TotpController {
      */
     @PostMapping("/recovery-codes/regenerate")
     public ResponseEntity<ApiResponse<String[]>> regenerateRecoveryCodes(
-            Authentication authentication,
+            AuthenticatedUser principal,
             HttpServletRequest request) {
         
-        if (authentication == null) {
+        if (principal == null) {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
                 .body(new ApiResponse<>(401, "未认证"));
         }
 
-        String userUuid = (String) authentication.getPrincipal();
-        Optional<User> userOpt = userService.findByUuid(userUuid);
-        
-        if (userOpt.isEmpty()) {
-            return ResponseEntity.status(HttpStatus.NOT_FOUND)
-                .body(new ApiResponse<>(404, "用户不存在"));
-        }
-
-        User user = userOpt.get();
+        Long userId = principal.userId();
         String clientIp = rateLimitService.getClientIp(request);
 
         // 检查是否已完成敏感操作验证
-        if (!sensitiveOperationService.isVerified(userUuid, clientIp)) {
+        if (!sensitiveOperationService.isVerified(principal.uuid(), clientIp)) {
             return ResponseEntity.status(HttpStatus.FORBIDDEN)
                 .body(new ApiResponse<>(403, "请先完成敏感操作验证"));
         }
 
         // 检查用户是否启用了 TOTP
-        if (!totpService.isTotpEnabled(user.getId())) {
+        if (!totpService.isTotpEnabled(userId)) {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST)
                 .body(new ApiResponse<>(400, "用户未启用 TOTP"));
         }
 
         try {
-            byte[] masterKey = encryptionUtil.getMasterKey();
-            String[] newCodes = totpService.regenerateRecoveryCodes(user.getId(), masterKey);
+            String[] newCodes = totpService.regenerateRecoveryCodes(userId);
             
             return ResponseEntity.status(HttpStatus.OK)
                 .body(new ApiResponse<>(200, "恢复码已重新生成", newCodes));
@@ -428,33 +363,24 @@ public class TotpController {
      */
     @GetMapping("/recovery-codes")
     public ResponseEntity<ApiResponse<java.util.List<String>>> getRecoveryCodes(
-            Authentication authentication,
+            AuthenticatedUser principal,
             HttpServletRequest request) {
         
-        if (authentication == null) {
+        if (principal == null) {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
                 .body(new ApiResponse<>(401, "未认证"));
         }
 
-        String userUuid = (String) authentication.getPrincipal();
-        Optional<User> userOpt = userService.findByUuid(userUuid);
-        
-        if (userOpt.isEmpty()) {
-            return ResponseEntity.status(HttpStatus.NOT_FOUND)
-                .body(new ApiResponse<>(404, "用户不存在"));
-        }
-
-        User user = userOpt.get();
+        Long userId = principal.userId();
         String clientIp = rateLimitService.getClientIp(request);
 
         // 检查是否已完成敏感操作验证
-        if (!sensitiveOperationService.isVerified(userUuid, clientIp)) {
+        if (!sensitiveOperationService.isVerified(principal.uuid(), clientIp)) {
             return ResponseEntity.status(HttpStatus.FORBIDDEN)
                 .body(new ApiResponse<>(403, "请先完成敏感操作验证"));
         }
         
-        byte[] masterKey = encryptionUtil.getMasterKey();
-        java.util.List<String> codes = totpService.getRecoveryCodes(user.getId(), masterKey);
+        java.util.List<String> codes = totpService.getRecoveryCodes(userId);
         
         return ResponseEntity.status(HttpStatus.OK)
             .body(new ApiResponse<>(200, "获取回复码成功", codes));
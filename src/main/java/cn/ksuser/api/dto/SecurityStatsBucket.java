@@ -0,0 +1,100 @@
+package cn.ksuser.api.dto;
+
+import java.util.Map;
+
+/**
+ * 安全活动统计桶（分钟或天）
+ * 维度统计的值为 结果(SUCCESS/FAILURE) -> 次数
+ */
+public class SecurityStatsBucket {
+    private String bucket;
+    private long total;
+    private long success;
+    private long failure;
+    private long distinctIps;
+    private long distinctUsers;
+    private Map<String, Map<String, Long>> byOperation;
+    private Map<String, Map<String, Long>> byLoginMethod;
+    private Map<String, Map<String, Long>> byDeviceType;
+    private Map<String, Long> topIps; // 仅天粒度返回
+
+    public String getBucket() {
+        return bucket;
+    }
+
+    public void setBucket(String bucket) {
+        this.bucket = bucket;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public void setTotal(long total) {
+        this.total = total;
+    }
+
+    public long getSuccess() {
+        return success;
+    }
+
+    public void setSuccess(long success) {
+        this.success = success;
+    }
+
+    public long getFailure() {
+        return failure;
+    }
+
+    public void setFailure(long failure) {
+        this.failure = failure;
+    }
+
+    public long getDistinctIps() {
+        return distinctIps;
+    }
+
+    public void setDistinctIps(long distinctIps) {
+        this.distinctIps = distinctIps;
+    }
+
+    public long getDistinctUsers() {
+        return distinctUsers;
+    }
+
+    public void setDistinctUsers(long distinctUsers) {
+        this.distinctUsers = distinctUsers;
+    }
+
+    public Map<String, Map<String, Long>> getByOperation() {
+        return byOperation;
+    }
+
+    public void setByOperation(Map<String, Map<String, Long>> byOperation) {
+        this.byOperation = byOperation;
+    }
+
+    public Map<String, Map<String, Long>> getByLoginMethod() {
+        return byLoginMethod;
+    }
+
+    public void setByLoginMethod(Map<String, Map<String, Long>> byLoginMethod) {
+        this.byLoginMethod = byLoginMethod;
+    }
+
+    public Map<String, Map<String, Long>> getByDeviceType() {
+        return byDeviceType;
+    }
+
+    public void setByDeviceType(Map<String, Map<String, Long>> byDeviceType) {
+        this.byDeviceType = byDeviceType;
+    }
+
+    public Map<String, Long> getTopIps() {
+        return topIps;
+    }
+
+    public void setTopIps(Map<String, Long> topIps) {
+        this.topIps = topIps;
+    }
+}
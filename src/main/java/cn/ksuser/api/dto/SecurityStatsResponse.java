@@ -0,0 +1,73 @@
+package cn.ksuser.api.dto;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * 安全活动统计响应
+ */
+public class SecurityStatsResponse {
+    private String granularity;
+    private LocalDateTime from;
+    private LocalDateTime to;
+    private long total;
+    private long distinctIps; // 整个范围内去重（HyperLogLog 估算）
+    private long distinctUsers;
+    private List<SecurityStatsBucket> buckets;
+
+    public String getGranularity() {
+        return granularity;
+    }
+
+    public void setGranularity(String granularity) {
+        this.granularity = granularity;
+    }
+
+    public LocalDateTime getFrom() {
+        return from;
+    }
+
+    public void setFrom(LocalDateTime from) {
+        this.from = from;
+    }
+
+    public LocalDateTime getTo() {
+        return to;
+    }
+
+    public void setTo(LocalDateTime to) {
+        this.to = to;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public void setTotal(long total) {
+        this.total = total;
+    }
+
+    public long getDistinctIps() {
+        return distinctIps;
+    }
+
+    public void setDistinctIps(long distinctIps) {
+        this.distinctIps = distinctIps;
+    }
+
+    public long getDistinctUsers() {
+        return distinctUsers;
+    }
+
+    public void setDistinctUsers(long distinctUsers) {
+        this.distinctUsers = distinctUsers;
+    }
+
+    public List<SecurityStatsBucket> getBuckets() {
+        return buckets;
+    }
+
+    public void setBuckets(List<SecurityStatsBucket> buckets) {
+        this.buckets = buckets;
+    }
+}
@@ -0,0 +1,23 @@
+package cn.ksuser.api.dto;
+
+/**
+ * 发送验证码响应
+ */
+public class SendCodeResponse {
+    private String requestId; // 用于查询邮件发送状态
+
+    public SendCodeResponse() {
+    }
+
+    public SendCodeResponse(String requestId) {
+        this.requestId = requestId;
+    }
+
+    public String getRequestId() {
+        return requestId;
+    }
+
+    public void setRequestId(String requestId) {
+        this.requestId = requestId;
+    }
+}
@@ -0,0 +1,33 @@
+package cn.ksuser.api.dto;
+
+/**
+ * 验证码邮件发送状态响应
+ */
+public class SendCodeStatusResponse {
+    private String requestId;
+    private String status; // QUEUED / SENDING / SENT / FAILED
+
+    public SendCodeStatusResponse() {
+    }
+
+    public SendCodeStatusResponse(String requestId, String status) {
+        this.requestId = requestId;
+        this.status = status;
+    }
+
+    public String getRequestId() {
+        return requestId;
+    }
+
+    public void setRequestId(String requestId) {
+        this.requestId = requestId;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+}
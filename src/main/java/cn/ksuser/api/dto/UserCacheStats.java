@@ -0,0 +1,22 @@
+package cn.ksuser.api.dto;
+
+/**
+ * 用户缓存统计
+ * @param localHits 本地 LRU 命中次数
+ * @param redisHits Redis 命中次数
+ * @param misses 未命中（回源数据库）次数
+ * @param bypasses 一致性读绕过缓存的次数
+ * @param invalidations 失效次数（含收到的集群广播）
+ * @param evictions LRU 淘汰次数
+ * @param localSize 当前本地条目数（uuid 与 id 各算一条）
+ */
+public record UserCacheStats(
+    long localHits,
+    long redisHits,
+    long misses,
+    long bypasses,
+    long invalidations,
+    long evictions,
+    int localSize
+) {
+}
@@ -0,0 +1,84 @@
+package cn.ksuser.api.dto;
+
+import cn.ksuser.api.entity.UserSettings;
+
+/**
+ * 用户设置位标志（用户设置缓存中保存的内容）
+ * 四个布尔设置、设置行是否存在、TOTP 是否启用压缩在一个 int 中，Redis 中只存一个十进制整数
+ * 缓存值可能滞后于数据库，登录是否需要二次验证见 UserSettingsService.requiresTotp()
+ */
+public record UserSettingsFlags(int bits) {
+
+    private static final int MFA_ENABLED = 1;
+    private static final int DETECT_UNUSUAL_LOGIN = 1 << 1;
+    private static final int NOTIFY_SENSITIVE_ACTION_EMAIL = 1 << 2;
+    private static final int SUBSCRIBE_NEWS_EMAIL = 1 << 3;
+    private static final int TOTP_ENABLED = 1 << 4;
+    private static final int PERSISTED = 1 << 5;
+
+    /**
+     * 未保存过设置时的默认值
+     */
+    private static final int DEFAULTS = DETECT_UNUSUAL_LOGIN | NOTIFY_SENSITIVE_ACTION_EMAIL;
+
+    /**
+     * @param settings 设置行（null 表示用户尚未保存过设置）
+     * @param totpEnabled 是否已启用 TOTP
+     */
+    public static UserSettingsFlags of(UserSettings settings, boolean totpEnabled) {
+        int bits;
+        if (settings == null) {
+            bits = DEFAULTS;
+        } else {
+            bits = PERSISTED;
+            if (Boolean.TRUE.equals(settings.getMfaEnabled())) {
+                bits |= MFA_ENABLED;
+            }
+            if (Boolean.TRUE.equals(settings.getDetectUnusualLogin())) {
+                bits |= DETECT_UNUSUAL_LOGIN;
+            }
+            if (Boolean.TRUE.equals(settings.getNotifySensitiveActionEmail())) {
+                bits |= NOTIFY_SENSITIVE_ACTION_EMAIL;
+            }
+            if (Boolean.TRUE.equals(settings.getSubscribeNewsEmail())) {
+                bits |= SUBSCRIBE_NEWS_EMAIL;
+            }
+        }
+        if (totpEnabled) {
+            bits |= TOTP_ENABLED;
+        }
+        return new UserSettingsFlags(bits);
+    }
+
+    public boolean mfaEnabled() {
+        return (bits & MFA_ENABLED) != 0;
+    }
+
+    public boolean detectUnusualLogin() {
+        return (bits & DETECT_UNUSUAL_LOGIN) != 0;
+    }
+
+    public boolean notifySensitiveActionEmail() {
+        return (bits & NOTIFY_SENSITIVE_ACTION_EMAIL) != 0;
+    }
+
+    public boolean subscribeNewsEmail() {
+        return (bits & SUBSCRIBE_NEWS_EMAIL) != 0;
+    }
+
+    public boolean totpEnabled() {
+        return (bits & TOTP_ENABLED) != 0;
+    }
+
+    /**
+     * 用户是否保存过设置行
+     */
+    public boolean persisted() {
+        return (bits & PERSISTED) != 0;
+    }
+
+    public UserSettingsResponse toResponse() {
+        return new UserSettingsResponse(mfaEnabled(), detectUnusualLogin(),
+            notifySensitiveActionEmail(), subscribeNewsEmail());
+    }
+}
@@ -0,0 +1,107 @@
+package cn.ksuser.api.dto;
+
+import cn.ksuser.api.entity.User;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 用户不可变快照（用户缓存中保存的内容）
+ * 包含 users 表除 password_hash 外的全部列：密码哈希不进入本地缓存和 Redis，需要时由 UserService 从数据库读取。
+ * toUser() 得到的游离实体可直接交给 save() 合并（password_hash 列不参与实体更新，见 User）
+ */
+public record UserSnapshot(
+    Long id,
+    String uuid,
+    String username,
+    String email,
+    String avatarUrl,
+    String realName,
+    String gender,
+    LocalDate birthDate,
+    String region,
+    String bio,
+    LocalDateTime createdAt,
+    LocalDateTime updatedAt
+) {
+
+    public static UserSnapshot from(User user) {
+        return new UserSnapshot(user.getId(), user.getUuid(), user.getUsername(), user.getEmail(),
+            user.getAvatarUrl(), user.getRealName(), user.getGender(),
+            user.getBirthDate(), user.getRegion(), user.getBio(), user.getCreatedAt(), user.getUpdatedAt());
+    }
+
+    /**
+     * 创建新的游离实体，调用方可以自由修改而不影响缓存
+     */
+    public User toUser() {
+        User user = new User();
+        user.setId(id);
+        user.setUuid(uuid);
+        user.setUsername(username);
+        user.setEmail(email);
+        user.setAvatarUrl(avatarUrl);
+        user.setRealName(realName);
+        user.setGender(gender);
+        user.setBirthDate(birthDate);
+        user.setRegion(region);
+        user.setBio(bio);
+        user.setCreatedAt(createdAt);
+        user.setUpdatedAt(updatedAt);
+        return user;
+    }
+
+    /**
+     * 转换为 Redis Hash 字段（null 值不写入）
+     */
+    public Map<String, String> toHash() {
+        Map<String, String> hash = new HashMap<>(16);
+        put(hash, "id", id);
+        put(hash, "uuid", uuid);
+        put(hash, "username", username);
+        put(hash, "email", email);
+        put(hash, "avatarUrl", avatarUrl);
+        put(hash, "realName", realName);
+        put(hash, "gender", gender);
+        put(hash, "birthDate", birthDate);
+        put(hash, "region", region);
+        put(hash, "bio", bio);
+        put(hash, "createdAt", createdAt);
+        put(hash, "updatedAt", updatedAt);
+        return hash;
+    }
+
+    /**
+     * 从 Redis Hash 还原，缺少 id/uuid 时返回 null
+     */
+    public static UserSnapshot fromHash(Map<?, ?> hash) {
+        if (hash == null || hash.get("id") == null || hash.get("uuid") == null) {
+            return null;
+        }
+        String birthDate = (String) hash.get("birthDate");
+        String createdAt = (String) hash.get("createdAt");
+        String updatedAt = (String) hash.get("updatedAt");
+        return new UserSnapshot(
+            Long.valueOf((String) hash.get("id")),
+            (String) hash.get("uuid"),
+            (String) hash.get("username"),
+            (String) hash.get("email"),
+            (String) hash.get("avatarUrl"),
+            (String) hash.get("realName"),
+            (String) hash.get("gender"),
+            birthDate != null ? LocalDate.parse(birthDate) : null,
+            (String) hash.get("region"),
+            (String) hash.get("bio"),
+            createdAt != null ? LocalDateTime.parse(createdAt) : null,
+            updatedAt != null ? LocalDateTime.parse(updatedAt) : null
+        );
+    }
+
+    private static void put(Map<String, String> hash, String field, Object value) {
+        if (value != null) {
+            hash.put(field, value.toString());
+        }
+    }
+}
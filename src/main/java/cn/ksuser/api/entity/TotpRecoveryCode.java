@@ -46,6 +46,12 @@ public class TotpRecoveryCode {
     @Column(name = "code_ciphertext", columnDefinition = "VARBINARY(256)")
     private byte[] codeCiphertext;
 
+    /**
+     * 加密 code_ciphertext 使用的主密钥版本
+     */
+    @Column(name = "key_version", nullable = false, columnDefinition = "INT NOT NULL DEFAULT 1")
+    private Integer keyVersion;
+
     /**
      * 恢复码使用时间
      * NULL 表示未使用，非 NULL 表示已使用及使用时间
@@ -59,16 +65,20 @@ public class TotpRecoveryCode {
     @Column(name = "updated_at", nullable = false)
     private LocalDateTime updatedAt;
 
-    public TotpRecoveryCode(Long userId, byte[] codeHash, byte[] codeCiphertext) {
+    public TotpRecoveryCode(Long userId, byte[] codeHash, byte[] codeCiphertext, Integer keyVersion) {
         this.userId = userId;
         this.codeHash = codeHash;
         this.codeCiphertext = codeCiphertext;
+        this.keyVersion = keyVersion;
         this.createdAt = LocalDateTime.now();
         this.updatedAt = LocalDateTime.now();
     }
 
     @PrePersist
     protected void onCreate() {
+        if (keyVersion == null) {
+            keyVersion = 1;
+        }
         if (createdAt == null) {
             createdAt = LocalDateTime.now();
         }
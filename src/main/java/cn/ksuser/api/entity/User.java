@@ -21,7 +21,9 @@ public class User {
     @Column(name = "email", length = 255, unique = true)
     private String email;
 
-    @Column(name = "password_hash", length = 255)
+    // 只在插入时写入，之后通过 UserRepository 的更新语句修改；
+    // 缓存快照不含密码哈希，合并游离实体时不会把该列覆盖为 null
+    @Column(name = "password_hash", length = 255, updatable = false)
     private String passwordHash;
 
     @Column(name = "avatar_url", length = 255)
@@ -79,6 +79,7 @@ public class UserTotp {
      * 上次成功验证的时间步长
      * 计算公式：floor(Unix_timestamp / 30)
      * 用于防止 TOTP 码重放：若新 step <= last_used_step 则拒绝
+     * 该列是唯一的防重放记录：注册确认写入所用时间步，登录验证通过条件更新（WHERE last_used_step < step）原子地推进
      */
     @Column(name = "last_used_step")
     private Long lastUsedStep;
@@ -132,21 +133,4 @@ public class UserTotp {
         }
         return LocalDateTime.now().isAfter(pendingExpiresAt);
     }
-
-    /**
-     * 更新上次验证的时间步长
-     */
-    public void updateLastUsedStep(Long currentStep) {
-        this.lastUsedStep = currentStep;
-    }
-
-    /**
-     * 检查是否应该拒绝当前 TOTP 步长（防重放）
-     */
-    public boolean shouldRejectStep(Long currentStep) {
-        if (lastUsedStep == null) {
-            return false;
-        }
-        return currentStep <= lastUsedStep;
-    }
 }
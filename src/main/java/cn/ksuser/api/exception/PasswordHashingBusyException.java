@@ -0,0 +1,18 @@
+package cn.ksuser.api.exception;
+
+/**
+ * 密码哈希线程池繁忙（队列已满或等待超时），由 GlobalExceptionHandler 转换为 503
+ */
+public class PasswordHashingBusyException extends RuntimeException {
+
+    private final int retryAfterSeconds;
+
+    public PasswordHashingBusyException(String message, int retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -0,0 +1,121 @@
+package cn.ksuser.api.filter;
+
+import cn.ksuser.api.util.RequestCallCounter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.security.web.util.OnCommittedResponseWrapper;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.io.IOException;
+
+/**
+ * 统计每个请求的数据库语句数与 Redis 往返次数
+ * - 始终记录指标 request.db.statements / request.redis.calls（标签 method、uri、status、exception）
+ * - 调试模式下通过响应头 X-Db-Statements / X-Redis-Calls 返回；响应体不做缓存，
+ *   响应在处理结束前提交（大响应体、flush）时写入提交时刻的计数
+ * - 计数保存在请求属性 COUNTS_ATTRIBUTE 中，供集成测试断言
+ */
+public class CallAccountingFilter extends OncePerRequestFilter {
+
+    public static final String COUNTS_ATTRIBUTE = CallAccountingFilter.class.getName() + ".COUNTS";
+    public static final String DB_STATEMENTS_HEADER = "X-Db-Statements";
+    public static final String REDIS_CALLS_HEADER = "X-Redis-Calls";
+
+    private final boolean exposeHeaders;
+    private final MeterRegistry meterRegistry;
+
+    public CallAccountingFilter(boolean exposeHeaders, MeterRegistry meterRegistry) {
+        this.exposeHeaders = exposeHeaders;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        RequestCallCounter.Counts counts = RequestCallCounter.begin();
+        request.setAttribute(COUNTS_ATTRIBUTE, counts);
+        CountHeaderResponse target = exposeHeaders ? new CountHeaderResponse(response, counts) : null;
+        Throwable failure = null;
+        try {
+            filterChain.doFilter(request, target != null ? target : response);
+        } catch (IOException | ServletException | RuntimeException | Error e) {
+            failure = e;
+            throw e;
+        } finally {
+            RequestCallCounter.end();
+            record(request, response, failure, counts);
+            if (target != null) {
+                // 未提交的响应（包括已转入异步处理的流式响应）在此写入完整计数，之后不再改动响应头
+                target.writeHeaders();
+                target.close();
+            }
+        }
+    }
+
+    /**
+     * 在响应提交前写入计数响应头，不缓存响应体
+     */
+    private static final class CountHeaderResponse extends OnCommittedResponseWrapper {
+
+        private final RequestCallCounter.Counts counts;
+
+        private CountHeaderResponse(HttpServletResponse response, RequestCallCounter.Counts counts) {
+            super(response);
+            this.counts = counts;
+        }
+
+        @Override
+        protected void onResponseCommitted() {
+            writeHeaders();
+        }
+
+        private void writeHeaders() {
+            if (!isCommitted()) {
+                setHeader(DB_STATEMENTS_HEADER, String.valueOf(counts.dbStatements()));
+                setHeader(REDIS_CALLS_HEADER, String.valueOf(counts.redisCalls()));
+            }
+        }
+
+        /**
+         * 过滤器返回后不再回调：异步线程继续写出响应体时，计数已经结束
+         */
+        private void close() {
+            disableOnResponseCommitted();
+        }
+    }
+
+    private void record(HttpServletRequest request, HttpServletResponse response, Throwable failure,
+                        RequestCallCounter.Counts counts) {
+        // 使用路由模板作为 uri 标签，避免路径参数导致标签基数膨胀
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        String uri = pattern != null ? pattern.toString() : "UNKNOWN";
+        String method = request.getMethod();
+        // 异常抛出过滤器时错误页面尚未渲染，响应状态仍是默认的 200，按容器随后返回的 500 记录
+        String statusTag = failure != null ? "500" : String.valueOf(response.getStatus());
+        String exceptionTag = failure != null ? exceptionName(failure) : "none";
+
+        DistributionSummary.builder("request.db.statements")
+            .description("单个请求创建的 JDBC Statement 数")
+            .tags("method", method, "uri", uri, "status", statusTag, "exception", exceptionTag)
+            .register(meterRegistry)
+            .record(counts.dbStatements());
+        DistributionSummary.builder("request.redis.calls")
+            .description("单个请求的 Redis 往返次数（pipeline 计 1 次）")
+            .tags("method", method, "uri", uri, "status", statusTag, "exception", exceptionTag)
+            .register(meterRegistry)
+            .record(counts.redisCalls());
+    }
+
+    /**
+     * 异常类名；ServletException 取其原因，与 http.server.requests 的 exception 标签一致
+     */
+    private static String exceptionName(Throwable failure) {
+        Throwable cause = failure instanceof ServletException && failure.getCause() != null ? failure.getCause() : failure;
+        return cause.getClass().getSimpleName();
+    }
+}
@@ -1,6 +1,7 @@
 package cn.ksuser.api.filter;
 
 import cn.ksuser.api.entity.UserSession;
+import cn.ksuser.api.security.AuthenticatedUser;
 import cn.ksuser.api.service.TokenBlacklistService;
 import cn.ksuser.api.service.UserSessionService;
 import cn.ksuser.api.util.JwtUtil;
@@ -58,8 +59,11 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
                     if (session != null
                         && sessionVersion.equals(session.getSessionVersion())
                         && uuid.equals(session.getUser().getUuid())) {
+                        // 会话已 JOIN FETCH 用户，直接携带 ID 供控制器使用
+                        AuthenticatedUser principal = new AuthenticatedUser(
+                            session.getUser().getId(), uuid, sessionId, sessionVersion);
                         UsernamePasswordAuthenticationToken authentication =
-                            new UsernamePasswordAuthenticationToken(uuid, null, new ArrayList<>());
+                            new UsernamePasswordAuthenticationToken(principal, null, new ArrayList<>());
                         SecurityContextHolder.getContext().setAuthentication(authentication);
                     }
                 }
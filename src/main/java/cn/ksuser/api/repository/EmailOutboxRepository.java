@@ -0,0 +1,110 @@
+package cn.ksuser.api.repository;
+
+import cn.ksuser.api.entity.EmailOutbox;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface EmailOutboxRepository extends JpaRepository<EmailOutbox, Long> {
+
+    String PENDING = "cn.ksuser.api.entity.EmailOutbox.Status.PENDING";
+    String SENDING = "cn.ksuser.api.entity.EmailOutbox.Status.SENDING";
+    String SENT = "cn.ksuser.api.entity.EmailOutbox.Status.SENT";
+    String FAILED = "cn.ksuser.api.entity.EmailOutbox.Status.FAILED";
+
+    /**
+     * 查询已到投递时间的收件人（按最早到期排序）
+     */
+    @Query("SELECT o.recipient FROM EmailOutbox o WHERE o.status = " + PENDING + " AND o.nextAttemptAt <= :now " +
+           "GROUP BY o.recipient ORDER BY MIN(o.nextAttemptAt) ASC")
+    List<String> findDueRecipients(@Param("now") LocalDateTime now, Pageable pageable);
+
+    /**
+     * 一条语句认领收件人所有待投递记录（合并短时间内的多次操作），leaseUntil 之前其它实例不会重复投递
+     * 已被其它实例认领的记录不是 PENDING，不会被覆盖
+     * @param leaseToken 本次认领的凭据，之后用 findClaimed 读回实际认领的记录
+     * @return 实际认领的行数
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE EmailOutbox o SET o.status = " + SENDING + ", o.nextAttemptAt = :leaseUntil, o.leaseToken = :leaseToken " +
+           "WHERE o.recipient = :recipient AND o.status = " + PENDING)
+    int claimRecipient(@Param("recipient") String recipient, @Param("leaseToken") String leaseToken,
+                       @Param("leaseUntil") LocalDateTime leaseUntil);
+
+    /**
+     * 读回某次认领实际得到的记录
+     */
+    @Query("SELECT o FROM EmailOutbox o WHERE o.leaseToken = :leaseToken AND o.status = " + SENDING + " ORDER BY o.eventTime ASC")
+    List<EmailOutbox> findClaimed(@Param("leaseToken") String leaseToken);
+
+    /**
+     * 续租：邮件工作线程开始发送时把租约从当前时间重新计算（排队时间不占用租约）
+     * 以认领凭据确认归属，租约已过期被回收或被其它实例重新认领时不会续上
+     * @return 实际续租的行数
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE EmailOutbox o SET o.nextAttemptAt = :leaseUntil " +
+           "WHERE o.id IN :ids AND o.status = " + SENDING + " AND o.leaseToken = :leaseToken")
+    int renewLease(@Param("ids") Collection<Long> ids, @Param("leaseToken") String leaseToken,
+                   @Param("leaseUntil") LocalDateTime leaseUntil);
+
+    /**
+     * 未开始投递就放回 PENDING（例如邮件队列已满），不计入投递次数
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE EmailOutbox o SET o.status = " + PENDING + ", o.nextAttemptAt = :nextAttemptAt " +
+           "WHERE o.id IN :ids AND o.status = " + SENDING)
+    int release(@Param("ids") Collection<Long> ids, @Param("nextAttemptAt") LocalDateTime nextAttemptAt);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE EmailOutbox o SET o.status = " + SENT + ", o.sentAt = :sentAt, o.attempts = o.attempts + 1, o.lastError = NULL " +
+           "WHERE o.id IN :ids")
+    int markSent(@Param("ids") Collection<Long> ids, @Param("sentAt") LocalDateTime sentAt);
+
+    /**
+     * 投递失败：退回 PENDING 并设置下次重试时间
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE EmailOutbox o SET o.status = " + PENDING + ", o.attempts = o.attempts + 1, o.lastError = :error, " +
+           "o.nextAttemptAt = :nextAttemptAt WHERE o.id IN :ids")
+    int reschedule(@Param("ids") Collection<Long> ids, @Param("error") String error,
+                   @Param("nextAttemptAt") LocalDateTime nextAttemptAt);
+
+    /**
+     * 超过最大投递次数的记录标记为 FAILED，不再重试
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE EmailOutbox o SET o.status = " + FAILED + " WHERE o.id IN :ids AND o.attempts >= :maxAttempts")
+    int markExhausted(@Param("ids") Collection<Long> ids, @Param("maxAttempts") int maxAttempts);
+
+    /**
+     * 回收租约过期的 SENDING 记录（实例在投递中途退出）
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE EmailOutbox o SET o.status = " + PENDING + " WHERE o.status = " + SENDING + " AND o.nextAttemptAt < :now")
+    int releaseExpiredLeases(@Param("now") LocalDateTime now);
+
+    /**
+     * 清理已投递的历史记录
+     */
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM EmailOutbox o WHERE o.status = " + SENT + " AND o.sentAt < :before")
+    int deleteSentBefore(@Param("before") LocalDateTime before);
+}
@@ -1,9 +1,13 @@
 package cn.ksuser.api.repository;
 
 import cn.ksuser.api.entity.TotpRecoveryCode;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 import java.util.Optional;
@@ -43,4 +47,24 @@ public interface TotpRecoveryCodeRepository extends JpaRepository<TotpRecoveryCo
      */
     @Query("SELECT r FROM TotpRecoveryCode r WHERE r.userId = ?1 AND r.usedAt IS NULL ORDER BY r.createdAt DESC LIMIT ?2")
     List<TotpRecoveryCode> findLatestRecoveryCodes(Long userId, int limit);
+
+    /**
+     * 按 ID 顺序查询未使用指定密钥版本加密的恢复码（主密钥轮换时分批扫描）
+     */
+    @Query("SELECT r FROM TotpRecoveryCode r WHERE r.id > :afterId AND r.keyVersion <> :version " +
+           "AND r.codeCiphertext IS NOT NULL ORDER BY r.id ASC")
+    List<TotpRecoveryCode> findStaleKeyVersion(@Param("afterId") Long afterId, @Param("version") int version, Pageable pageable);
+
+    /**
+     * 写回重新加密后的密文，密钥版本已被修改的记录不更新
+     * @return 实际更新的行数
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE TotpRecoveryCode r SET r.keyVersion = :newVersion, r.codeCiphertext = :ciphertext " +
+           "WHERE r.id = :id AND r.keyVersion = :oldVersion")
+    int reencrypt(@Param("id") Long id,
+                  @Param("oldVersion") int oldVersion,
+                  @Param("newVersion") int newVersion,
+                  @Param("ciphertext") byte[] ciphertext);
 }
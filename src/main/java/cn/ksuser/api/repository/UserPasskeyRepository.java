@@ -2,7 +2,11 @@ package cn.ksuser.api.repository;
 
 import cn.ksuser.api.entity.UserPasskey;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 import java.util.Optional;
@@ -23,4 +27,13 @@ public interface UserPasskeyRepository extends JpaRepository<UserPasskey, Long>
      * 删除用户的所有 Passkey
      */
     void deleteByUserId(Long userId);
+
+    /**
+     * 更新 signCount，仅当新值大于已存储的值时才更新（防克隆检查在 SQL 中完成，无需先读后写）
+     * @return 1 表示更新成功；0 表示 signCount 未递增或 Passkey 已删除
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE UserPasskey p SET p.signCount = :signCount WHERE p.id = :id AND p.signCount < :signCount")
+    int advanceSignCount(@Param("id") Long id, @Param("signCount") long signCount);
 }
@@ -2,8 +2,13 @@ package cn.ksuser.api.repository;
 
 import cn.ksuser.api.entity.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
 import java.util.Optional;
 
 @Repository
@@ -11,4 +16,29 @@ public interface UserRepository extends JpaRepository<User, Long> {
     Optional<User> findByUsername(String username);
     Optional<User> findByEmail(String email);
     Optional<User> findByUuid(String uuid);
+
+    /**
+     * 读取密码哈希（用户缓存中不保存密码哈希）
+     */
+    @Query("SELECT u.passwordHash FROM User u WHERE u.id = :id")
+    Optional<String> findPasswordHashById(@Param("id") Long id);
+
+    /**
+     * 设置新的密码哈希（password_hash 列不随实体保存更新）
+     * @return 实际更新的行数
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE User u SET u.passwordHash = :passwordHash, u.updatedAt = :updatedAt WHERE u.id = :id")
+    int updatePasswordHash(@Param("id") Long id, @Param("passwordHash") String passwordHash,
+                           @Param("updatedAt") LocalDateTime updatedAt);
+
+    /**
+     * 仅当密码哈希未被修改时替换（登录时升级哈希参数，避免覆盖并发的改密）
+     * @return 实际更新的行数
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE User u SET u.passwordHash = :newHash WHERE u.id = :id AND u.passwordHash = :oldHash")
+    int replacePasswordHash(@Param("id") Long id, @Param("oldHash") String oldHash, @Param("newHash") String newHash);
 }
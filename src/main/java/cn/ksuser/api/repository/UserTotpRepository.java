@@ -1,13 +1,29 @@
 package cn.ksuser.api.repository;
 
 import cn.ksuser.api.entity.UserTotp;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.List;
 import java.util.Optional;
 
 @Repository
 public interface UserTotpRepository extends JpaRepository<UserTotp, Long> {
+
+    /**
+     * 验证 TOTP 码所需的最小字段
+     */
+    interface ActiveSecret {
+        byte[] getSecretKeyCiphertext();
+
+        Integer getKeyVersion();
+    }
+
     /**
      * 根据用户 ID 查询 TOTP 配置
      */
@@ -17,4 +33,55 @@ public interface UserTotpRepository extends JpaRepository<UserTotp, Long> {
      * 检查用户是否启用了 TOTP
      */
     boolean existsByUserIdAndIsEnabledTrue(Long userId);
+
+    /**
+     * 登录是否需要 TOTP 二次验证：设置中开启了 MFA 且 TOTP 已启用（一次查询，不经过设置缓存）
+     * @return 满足条件的行数（0 或 1）
+     */
+    @Query("SELECT COUNT(t) FROM UserTotp t, UserSettings s " +
+           "WHERE t.userId = :userId AND t.isEnabled = true AND s.userId = t.userId AND s.mfaEnabled = true")
+    long countLoginTotpRequired(@Param("userId") Long userId);
+
+    /**
+     * 查询已启用（已确认）的 TOTP 密钥密文，只读取验证所需的列
+     */
+    @Query("SELECT t.secretKeyCiphertext AS secretKeyCiphertext, t.keyVersion AS keyVersion FROM UserTotp t " +
+           "WHERE t.userId = :userId AND t.isEnabled = true AND t.confirmedAt IS NOT NULL")
+    Optional<ActiveSecret> findActiveSecret(@Param("userId") Long userId);
+
+    /**
+     * 记录已使用的时间步（防重放），仅当 step 大于已记录的值时更新
+     * @return 1 表示 step 未被使用过；0 表示重放
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE UserTotp t SET t.lastUsedStep = :step " +
+           "WHERE t.userId = :userId AND (t.lastUsedStep IS NULL OR t.lastUsedStep < :step)")
+    int markStepUsed(@Param("userId") Long userId, @Param("step") long step);
+
+    /**
+     * 按 ID 顺序查询未使用指定密钥版本加密的记录（主密钥轮换时分批扫描）
+     */
+    @Query("SELECT t FROM UserTotp t WHERE t.id > :afterId AND t.keyVersion <> :version ORDER BY t.id ASC")
+    List<UserTotp> findStaleKeyVersion(@Param("afterId") Long afterId, @Param("version") int version, Pageable pageable);
+
+    /**
+     * 写回重新加密后的密文
+     * 仅当密钥版本和两列密文都与读取时一致才更新，期间被确认注册或删除的记录不会被覆盖
+     * @return 实际更新的行数
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE UserTotp t SET t.keyVersion = :newVersion, " +
+           "t.secretKeyCiphertext = :newSecret, t.pendingSecretCiphertext = :newPending " +
+           "WHERE t.id = :id AND t.keyVersion = :oldVersion " +
+           "AND (t.secretKeyCiphertext = :oldSecret OR (t.secretKeyCiphertext IS NULL AND :oldSecret IS NULL)) " +
+           "AND (t.pendingSecretCiphertext = :oldPending OR (t.pendingSecretCiphertext IS NULL AND :oldPending IS NULL))")
+    int reencrypt(@Param("id") Long id,
+                  @Param("oldVersion") int oldVersion,
+                  @Param("newVersion") int newVersion,
+                  @Param("oldSecret") byte[] oldSecret,
+                  @Param("newSecret") byte[] newSecret,
+                  @Param("oldPending") byte[] oldPending,
+                  @Param("newPending") byte[] newPending);
 }
@@ -0,0 +1,116 @@
+package cn.ksuser.api.security;
+
+import cn.ksuser.api.config.AppProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.crypto.argon2.Argon2PasswordEncoder;
+
+/**
+ * Argon2 参数校准
+ * 实际使用的参数始终是配置中固定的 memory-mb / iterations（fixed），整个集群一致；
+ * 校准只在当前机器上实测哈希耗时并在日志中输出推荐值，不改变实际使用的参数：
+ * 1. 以内存上限、最低迭代次数测量，超过目标则内存减半，直到满足目标或降到内存下限
+ * 2. 仍低于目标时按比例提高迭代次数
+ *
+ * 推荐值不会低于当前配置（慢机器上可能超过目标耗时）。
+ * 各节点硬件不同时推荐值也不同，如果各节点各自使用校准结果，
+ * upgradeEncoding 会在节点之间把同一用户的哈希来回重算，因此推荐值需要人工统一写入配置
+ */
+public final class Argon2Calibrator {
+
+    private static final Logger logger = LoggerFactory.getLogger(Argon2Calibrator.class);
+
+    private static final int SALT_LENGTH = 16;
+    private static final int HASH_LENGTH = 32;
+    private static final int MAX_ITERATIONS = 16;
+    private static final int SAMPLES = 3;
+    private static final String SAMPLE_PASSWORD = "calibration-sample-password";
+
+    private Argon2Calibrator() {
+    }
+
+    /**
+     * Argon2 参数
+     * @param memoryKib 单次哈希内存（KiB）
+     * @param measuredMs 实测单次哈希耗时（未测量时为 -1）
+     */
+    public record Parameters(int memoryKib, int iterations, int parallelism, double measuredMs) {
+
+        public Argon2PasswordEncoder toEncoder() {
+            return new Argon2PasswordEncoder(SALT_LENGTH, HASH_LENGTH, parallelism, memoryKib, iterations);
+        }
+    }
+
+    /**
+     * 直接使用配置中的固定参数
+     */
+    public static Parameters fixed(AppProperties.PasswordHashing config) {
+        return new Parameters(floorMemoryKib(config), floorIterations(config), parallelism(config), -1);
+    }
+
+    /**
+     * 按目标耗时测量推荐参数，仅输出日志，调用方不应使用返回值构造编码器
+     */
+    public static Parameters calibrate(AppProperties.PasswordHashing config) {
+        long start = System.currentTimeMillis();
+        int parallelism = parallelism(config);
+        int minMemoryKib = floorMemoryKib(config);
+        int minIterations = floorIterations(config);
+        double targetMs = config.getTargetMs();
+
+        int memoryKib = Math.max(minMemoryKib, config.getMaxMemoryMb() * 1024);
+        // 预热，避免首次测量包含 JIT 编译时间
+        measure(new Parameters(minMemoryKib, minIterations, parallelism, -1));
+
+        double elapsedMs = measure(new Parameters(memoryKib, minIterations, parallelism, -1));
+        while (elapsedMs > targetMs && memoryKib > minMemoryKib) {
+            memoryKib = Math.max(minMemoryKib, memoryKib / 2);
+            elapsedMs = measure(new Parameters(memoryKib, minIterations, parallelism, -1));
+        }
+
+        int iterations = minIterations;
+        if (elapsedMs < targetMs) {
+            // 耗时与迭代次数基本成正比
+            double perIterationMs = elapsedMs / minIterations;
+            iterations = (int) Math.min(MAX_ITERATIONS, Math.max(minIterations, Math.floor(targetMs / perIterationMs)));
+            if (iterations != minIterations) {
+                elapsedMs = measure(new Parameters(memoryKib, iterations, parallelism, -1));
+            }
+        }
+
+        Parameters result = new Parameters(memoryKib, iterations, parallelism, elapsedMs);
+        logger.info("Argon2 calibrated in {} ms (recommendation only): memoryKib={}, iterations={}, parallelism={}, "
+                + "hashMs={}, targetMs={}", System.currentTimeMillis() - start, memoryKib, iterations, parallelism,
+            String.format("%.1f", elapsedMs), config.getTargetMs());
+        logger.info("Active parameters are unchanged (memory-mb={}, iterations={}); to adopt the recommendation "
+                + "set app.password-hashing.memory-mb={}, app.password-hashing.iterations={} on every node",
+            minMemoryKib / 1024, minIterations, memoryKib / 1024, iterations);
+        return result;
+    }
+
+    /**
+     * 取多次测量的最小值，降低调度抖动的影响
+     */
+    private static double measure(Parameters parameters) {
+        Argon2PasswordEncoder encoder = parameters.toEncoder();
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < SAMPLES; i++) {
+            long begin = System.nanoTime();
+            encoder.encode(SAMPLE_PASSWORD);
+            best = Math.min(best, System.nanoTime() - begin);
+        }
+        return best / 1_000_000.0;
+    }
+
+    private static int floorMemoryKib(AppProperties.PasswordHashing config) {
+        return Math.max(1, config.getMemoryMb()) * 1024;
+    }
+
+    private static int floorIterations(AppProperties.PasswordHashing config) {
+        return Math.max(1, config.getIterations());
+    }
+
+    private static int parallelism(AppProperties.PasswordHashing config) {
+        return Math.max(1, config.getParallelism());
+    }
+}
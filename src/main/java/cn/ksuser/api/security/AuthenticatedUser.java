@@ -0,0 +1,28 @@
+package cn.ksuser.api.security;
+
+import java.io.Serializable;
+import java.security.Principal;
+
+/**
+ * 已认证用户主体
+ * 由 JwtAuthenticationFilter 在校验会话后创建，控制器只需要用户 ID 时无需再查询用户表
+ *
+ * toString()/getName() 返回 uuid，兼容 authentication.getPrincipal().toString() 的既有写法
+ */
+public record AuthenticatedUser(
+    Long userId,
+    String uuid,
+    Long sessionId,
+    Integer sessionVersion
+) implements Principal, Serializable {
+
+    @Override
+    public String getName() {
+        return uuid;
+    }
+
+    @Override
+    public String toString() {
+        return uuid;
+    }
+}
@@ -0,0 +1,161 @@
+package cn.ksuser.api.security;
+
+import cn.ksuser.api.config.AppProperties;
+import cn.ksuser.api.exception.PasswordHashingBusyException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 有界密码哈希执行器
+ * 所有 encode/matches 都在专用线程池中执行，线程数按 CPU 核数与内存预算（每次哈希占用的内存）计算，
+ * 避免登录高峰时大量请求线程同时计算 Argon2 导致 CPU 抢占和内存暴涨
+ *
+ * - 等待队列有界，队列满时立即抛出 PasswordHashingBusyException（503 + Retry-After）
+ * - 每次调用有截止时间（排队 + 计算），超时同样返回 503，已排队未开始的任务会被取消
+ * - 指标：password.hashing.queue.depth、password.hashing.wait、password.hashing.duration、password.hashing.rejected
+ */
+public class BoundedPasswordEncoder implements PasswordEncoder {
+
+    private static final Logger logger = LoggerFactory.getLogger(BoundedPasswordEncoder.class);
+
+    private final PasswordEncoder delegate;
+    private final ThreadPoolExecutor executor;
+    private final long deadlineMs;
+    private final int retryAfterSeconds;
+
+    private final Timer waitTimer;
+    private final Timer encodeTimer;
+    private final Timer matchesTimer;
+    private final Counter queueFullCounter;
+    private final Counter deadlineCounter;
+
+    /**
+     * @param delegate 实际的哈希实现
+     * @param memoryKibPerHash 单次哈希占用的内存（KiB，集群统一的固定参数），用于按内存预算限制线程数
+     */
+    public BoundedPasswordEncoder(PasswordEncoder delegate, int memoryKibPerHash,
+                                  AppProperties.PasswordHashing config, MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.deadlineMs = config.getDeadlineMs();
+        this.retryAfterSeconds = config.getRetryAfterSeconds();
+
+        int threads = resolveThreads(config, memoryKibPerHash);
+        AtomicInteger sequence = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(Math.max(1, config.getQueueCapacity())),
+            runnable -> {
+                Thread thread = new Thread(runnable, "password-hash-" + sequence.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            },
+            new ThreadPoolExecutor.AbortPolicy());
+        this.executor.prestartAllCoreThreads();
+
+        Gauge.builder("password.hashing.queue.depth", executor, e -> e.getQueue().size())
+            .description("等待中的密码哈希任务数")
+            .register(meterRegistry);
+        Gauge.builder("password.hashing.active", executor, ThreadPoolExecutor::getActiveCount)
+            .description("正在计算的密码哈希任务数")
+            .register(meterRegistry);
+        this.waitTimer = Timer.builder("password.hashing.wait")
+            .description("密码哈希任务排队时间")
+            .register(meterRegistry);
+        this.encodeTimer = Timer.builder("password.hashing.duration")
+            .tag("operation", "encode")
+            .register(meterRegistry);
+        this.matchesTimer = Timer.builder("password.hashing.duration")
+            .tag("operation", "matches")
+            .register(meterRegistry);
+        this.queueFullCounter = Counter.builder("password.hashing.rejected")
+            .tag("reason", "queue_full")
+            .register(meterRegistry);
+        this.deadlineCounter = Counter.builder("password.hashing.rejected")
+            .tag("reason", "deadline")
+            .register(meterRegistry);
+
+        logger.info("Password hashing executor started: threads={}, queueCapacity={}, memoryKibPerHash={}",
+            threads, config.getQueueCapacity(), memoryKibPerHash);
+    }
+
+    @Override
+    public String encode(CharSequence rawPassword) {
+        return submit(() -> delegate.encode(rawPassword), encodeTimer);
+    }
+
+    @Override
+    public boolean matches(CharSequence rawPassword, String encodedPassword) {
+        return submit(() -> delegate.matches(rawPassword, encodedPassword), matchesTimer);
+    }
+
+    /**
+     * 只解析哈希参数，不做计算，直接在调用线程执行
+     */
+    @Override
+    public boolean upgradeEncoding(String encodedPassword) {
+        return delegate.upgradeEncoding(encodedPassword);
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private <T> T submit(Callable<T> task, Timer hashTimer) {
+        long enqueuedAt = System.nanoTime();
+        Future<T> future;
+        try {
+            future = executor.submit(() -> {
+                waitTimer.record(System.nanoTime() - enqueuedAt, TimeUnit.NANOSECONDS);
+                return hashTimer.recordCallable(task);
+            });
+        } catch (RejectedExecutionException e) {
+            queueFullCounter.increment();
+            throw new PasswordHashingBusyException("密码哈希队列已满", retryAfterSeconds);
+        }
+
+        try {
+            return future.get(deadlineMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // 尚未开始的任务直接出队；已开始的 Argon2 计算不响应中断，会自然结束
+            future.cancel(true);
+            deadlineCounter.increment();
+            throw new PasswordHashingBusyException("密码哈希等待超时", retryAfterSeconds);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new PasswordHashingBusyException("密码哈希被中断", retryAfterSeconds);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (cause instanceof Error error) {
+                throw error;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private static int resolveThreads(AppProperties.PasswordHashing config, int memoryKibPerHash) {
+        if (config.getThreads() > 0) {
+            return config.getThreads();
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+        long byMemory = (long) config.getMemoryBudgetMb() * 1024 / Math.max(1, memoryKibPerHash);
+        return (int) Math.max(1, Math.min(cores, byMemory));
+    }
+}
@@ -0,0 +1,51 @@
+package cn.ksuser.api.service;
+
+import java.time.Duration;
+
+/**
+ * MFA 登录挑战存储
+ * - RedisChallengeStore：Redis Hash + TTL，尝试次数用 HINCRBY 原子递增，多实例共享
+ * - LocalChallengeStore：进程内存储，过期由时间轮驱动，仅适用于单实例部署
+ */
+public interface ChallengeStore {
+
+    /**
+     * 挑战内容
+     * @param attempts 已占用的尝试次数（每次提交 TOTP 前先占用，校验成功后挑战即被删除）
+     */
+    record Challenge(Long userId, String clientIp, String userAgent, int attempts) {
+    }
+
+    /**
+     * 保存挑战
+     */
+    void put(String id, Challenge challenge, Duration ttl);
+
+    /**
+     * 读取挑战
+     * @return 不存在或已过期返回 null
+     */
+    Challenge get(String id);
+
+    /**
+     * 原子地占用一次尝试：尝试次数加一并返回加一后的挑战内容
+     * @return 挑战不存在或已过期返回 null
+     */
+    Challenge reserveAttempt(String id);
+
+    /**
+     * 删除挑战
+     */
+    void remove(String id);
+
+    /**
+     * 当前未过期的挑战数（用于监控）
+     */
+    long size();
+
+    /**
+     * 清理已过期的挑战，由 MfaService 定时调用；依赖存储自身 TTL 的实现无需处理
+     */
+    default void evictExpired() {
+    }
+}
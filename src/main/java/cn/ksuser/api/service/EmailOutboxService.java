@@ -0,0 +1,211 @@
+package cn.ksuser.api.service;
+
+import cn.ksuser.api.config.AppProperties;
+import cn.ksuser.api.entity.EmailOutbox;
+import cn.ksuser.api.entity.UserSensitiveLog;
+import cn.ksuser.api.repository.EmailOutboxRepository;
+import jakarta.mail.internet.MimeMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+
+/**
+ * 邮件发件箱服务
+ * 敏感操作提醒先写入 email_outbox（与日志同事务），再由定时任务批量投递：
+ * - 同一收件人在合并窗口内的多次操作合并为一封摘要邮件
+ * - 以低于验证码的优先级提交到 MailQueueService，由其工作线程复用 SMTP 长连接发送
+ * - 失败按指数退避重试，超过最大次数标记为 FAILED；邮件队列已满时放回待投递，不计入投递次数
+ * - 租约在邮件工作线程开始发送时续期，排队等待不占用租约；续期失败（租约已被回收）则放弃发送，避免重复提醒
+ */
+@Service
+public class EmailOutboxService {
+
+    private static final Logger logger = LoggerFactory.getLogger(EmailOutboxService.class);
+
+    private final EmailOutboxRepository outboxRepository;
+    private final EmailService emailService;
+    private final MailQueueService mailQueueService;
+    private final AppProperties appProperties;
+
+    public EmailOutboxService(EmailOutboxRepository outboxRepository, EmailService emailService,
+                              MailQueueService mailQueueService, AppProperties appProperties) {
+        this.outboxRepository = outboxRepository;
+        this.emailService = emailService;
+        this.mailQueueService = mailQueueService;
+        this.appProperties = appProperties;
+    }
+
+    /**
+     * 写入敏感操作提醒（需在日志保存的同一事务中调用）
+     */
+    public void enqueueSensitiveActionReminder(UserSensitiveLog log, String recipient) {
+        EmailOutbox outbox = new EmailOutbox();
+        outbox.setUserId(log.getUserId());
+        outbox.setRecipient(recipient);
+        outbox.setLogId(log.getId());
+        outbox.setOperation(log.getOperationType());
+        outbox.setIpAddress(log.getIpAddress());
+        outbox.setIpLocation(log.getIpLocation());
+        outbox.setDeviceType(log.getDeviceType());
+        outbox.setBrowser(log.getBrowser());
+        outbox.setEventTime(log.getCreatedAt() != null ? log.getCreatedAt() : LocalDateTime.now());
+        // 延迟到合并窗口结束再投递，窗口内的后续操作会被合并到同一封邮件
+        outbox.setNextAttemptAt(LocalDateTime.now().plusSeconds(appProperties.getMailOutbox().getBurstWindowSeconds()));
+        outboxRepository.save(outbox);
+    }
+
+    /**
+     * 投递到期的邮件
+     */
+    @Scheduled(fixedDelayString = "${app.mail-outbox.poll-interval-ms:2000}")
+    public void dispatch() {
+        AppProperties.MailOutbox config = appProperties.getMailOutbox();
+        LocalDateTime now = LocalDateTime.now();
+
+        try {
+            int released = outboxRepository.releaseExpiredLeases(now);
+            if (released > 0) {
+                logger.warn("Released {} expired outbox leases", released);
+            }
+
+            List<String> recipients = outboxRepository.findDueRecipients(now, PageRequest.of(0, config.getBatchSize()));
+            if (recipients.isEmpty()) {
+                return;
+            }
+
+            Map<MimeMessage, List<EmailOutbox>> batch = new IdentityHashMap<>();
+            LocalDateTime leaseUntil = now.plusSeconds(config.getLeaseSeconds());
+            for (String recipient : recipients) {
+                // 一条语句认领收件人的全部待投递记录，再按凭据读回实际认领到的行（已被其它实例认领的不在其中）
+                String leaseToken = UUID.randomUUID().toString();
+                if (outboxRepository.claimRecipient(recipient, leaseToken, leaseUntil) == 0) {
+                    continue;
+                }
+                List<EmailOutbox> claimed = outboxRepository.findClaimed(leaseToken);
+                if (claimed.isEmpty()) {
+                    continue;
+                }
+                try {
+                    batch.put(buildMessage(recipient, claimed), claimed);
+                } catch (Exception e) {
+                    logger.warn("Failed to build outbox email: recipient={}", recipient, e);
+                    fail(claimed, e, now);
+                }
+            }
+
+            if (!batch.isEmpty()) {
+                send(batch);
+            }
+        } catch (Exception e) {
+            logger.error("Email outbox dispatch failed", e);
+        }
+    }
+
+    /**
+     * 清理已投递的历史记录
+     */
+    @Scheduled(cron = "0 30 3 * * *")
+    public void purgeSent() {
+        int deleted = outboxRepository.deleteSentBefore(
+            LocalDateTime.now().minusDays(appProperties.getMailOutbox().getRetentionDays()));
+        if (deleted > 0) {
+            logger.info("Purged {} sent outbox records", deleted);
+        }
+    }
+
+    private MimeMessage buildMessage(String recipient, List<EmailOutbox> pending) throws Exception {
+        List<EmailService.ReminderItem> items = new ArrayList<>(pending.size());
+        for (EmailOutbox outbox : pending) {
+            items.add(new EmailService.ReminderItem(outbox.getOperation(), outbox.getEventTime(),
+                outbox.getIpAddress(), outbox.getIpLocation(), outbox.getDeviceType(), outbox.getBrowser()));
+        }
+        return emailService.buildSensitiveActionReminder(recipient, items);
+    }
+
+    private void send(Map<MimeMessage, List<EmailOutbox>> batch) {
+        int leaseSeconds = appProperties.getMailOutbox().getLeaseSeconds();
+        for (Map.Entry<MimeMessage, List<EmailOutbox>> entry : batch.entrySet()) {
+            MimeMessage message = entry.getKey();
+            List<EmailOutbox> records = entry.getValue();
+            List<Long> ids = records.stream().map(EmailOutbox::getId).toList();
+            LeasedMessage leased = new LeasedMessage(message, ids, records.get(0).getLeaseToken(), leaseSeconds);
+            MailQueueService.Submission submission =
+                mailQueueService.submit(MailQueueService.Priority.REMINDER, leased);
+            if (!submission.accepted()) {
+                // 队列已满不是投递失败：放回待投递，短暂延迟后重新认领
+                outboxRepository.release(ids,
+                    LocalDateTime.now().plusSeconds(appProperties.getMailOutbox().getRetryBaseSeconds()));
+                logger.warn("Mail queue is full, outbox email deferred: recipient={}, records={}",
+                    records.get(0).getRecipient(), records.size());
+                continue;
+            }
+            submission.result().whenComplete((ignored, error) -> {
+                if (error == null) {
+                    outboxRepository.markSent(ids, LocalDateTime.now());
+                    logger.debug("Outbox email sent: recipient={}, records={}", records.get(0).getRecipient(), records.size());
+                } else {
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                    if (cause instanceof CancellationException) {
+                        // 租约已失效，记录由回收后的下一次认领负责
+                        logger.warn("Outbox lease lost before sending: recipient={}, records={}",
+                            records.get(0).getRecipient(), records.size());
+                        return;
+                    }
+                    logger.warn("Outbox email delivery failed: recipient={}, records={}, error={}",
+                        records.get(0).getRecipient(), records.size(), cause.getMessage());
+                    fail(records, cause, LocalDateTime.now());
+                }
+            });
+        }
+    }
+
+    private void fail(List<EmailOutbox> records, Throwable error, LocalDateTime now) {
+        AppProperties.MailOutbox config = appProperties.getMailOutbox();
+        List<Long> ids = records.stream().map(EmailOutbox::getId).toList();
+        int attempts = records.stream().mapToInt(EmailOutbox::getAttempts).max().orElse(0);
+        long delay = Math.min((long) config.getRetryBaseSeconds() << Math.min(attempts, 20), config.getRetryMaxSeconds());
+        String message = error.getMessage() != null ? error.getMessage() : error.getClass().getSimpleName();
+        if (message.length() > 500) {
+            message = message.substring(0, 500);
+        }
+        outboxRepository.reschedule(ids, message, now.plusSeconds(delay));
+        outboxRepository.markExhausted(ids, config.getMaxAttempts());
+    }
+
+    /**
+     * 工作线程取出邮件时续租，每次发送尝试都从当前时间重新计算租约
+     */
+    private final class LeasedMessage implements MailQueueService.MessageBuilder {
+        private final MimeMessage message;
+        private final List<Long> ids;
+        private final String leaseToken;
+        private final int leaseSeconds;
+
+        private LeasedMessage(MimeMessage message, List<Long> ids, String leaseToken, int leaseSeconds) {
+            this.message = message;
+            this.ids = ids;
+            this.leaseToken = leaseToken;
+            this.leaseSeconds = leaseSeconds;
+        }
+
+        @Override
+        public MimeMessage build() {
+            LocalDateTime leaseUntil = LocalDateTime.now().plusSeconds(leaseSeconds);
+            if (outboxRepository.renewLease(ids, leaseToken, leaseUntil) < ids.size()) {
+                return null;
+            }
+            return message;
+        }
+    }
+}
@@ -1,30 +1,51 @@
 package cn.ksuser.api.service;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.mail.Message;
 import jakarta.mail.MessagingException;
+import jakarta.mail.internet.InternetAddress;
 import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.internet.MimeUtility;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.mail.javamail.JavaMailSender;
-import org.springframework.mail.javamail.MimeMessageHelper;
 import org.springframework.stereotype.Service;
-import org.thymeleaf.TemplateEngine;
-import org.thymeleaf.context.Context;
 
 import java.io.UnsupportedEncodingException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 @Service
 public class EmailService {
 
+    private static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy年MM月dd日 HH:mm:ss");
+    private static final String SENDER_NAME = "Ksuser CAS";
+    private static final String VERIFICATION_SUBJECT = "验证码 - Ksuser CAS";
+    private static final String REMINDER_SUBJECT = "敏感操作提醒 - Ksuser CAS";
+
     private final JavaMailSender mailSender;
-    private final TemplateEngine templateEngine;
+    private final MailTemplateService mailTemplateService;
 
     @Value("${spring.mail.username}")
     private String fromEmail;
 
-    public EmailService(JavaMailSender mailSender, TemplateEngine templateEngine) {
+    // 固定的邮件头只编码一次，每封邮件只生成正文
+    private InternetAddress fromAddress;
+    private String encodedVerificationSubject;
+    private String encodedReminderSubject;
+
+    public EmailService(JavaMailSender mailSender, MailTemplateService mailTemplateService) {
         this.mailSender = mailSender;
-        this.templateEngine = templateEngine;
+        this.mailTemplateService = mailTemplateService;
+    }
+
+    @PostConstruct
+    public void initHeaders() throws UnsupportedEncodingException {
+        fromAddress = new InternetAddress(fromEmail, SENDER_NAME, "UTF-8");
+        encodedVerificationSubject = encodeSubject(VERIFICATION_SUBJECT);
+        encodedReminderSubject = encodeSubject(REMINDER_SUBJECT);
     }
 
     /**
@@ -35,51 +56,136 @@ public class EmailService {
      * @throws MessagingException 邮件发送异常
      */
     public void sendVerificationCode(String toEmail, String code, String action) throws MessagingException, UnsupportedEncodingException {
-        MimeMessage message = mailSender.createMimeMessage();
-        MimeMessageHelper helper = new MimeMessageHelper(message, true, "UTF-8");
+        mailSender.send(buildVerificationCode(toEmail, code, action));
+    }
 
-        helper.setFrom(fromEmail, "Ksuser CAS");
-        helper.setTo(toEmail);
-        helper.setSubject("验证码 - Ksuser CAS");
+    /**
+     * 构建验证码邮件（由 MailQueueService 工作线程调用）
+     * @param toEmail 收件人邮箱
+     * @param code 验证码
+     * @param action 操作类型（注册、重置密码等）
+     * @throws MessagingException 邮件构建异常
+     */
+    public MimeMessage buildVerificationCode(String toEmail, String code, String action) throws MessagingException, UnsupportedEncodingException {
+        String htmlContent = mailTemplateService.renderVerificationCode(
+            LocalDateTime.now().format(TIME_FORMATTER), action, code);
+        return createHtmlMessage(toEmail, encodedVerificationSubject, htmlContent);
+    }
 
-        // 准备模板变量
-        Context context = new Context();
-        context.setVariable("time", LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy年MM月dd日 HH:mm:ss")));
-        context.setVariable("action", action);
-        context.setVariable("code", code);
+    /**
+     * 发送敏感操作提醒邮件
+     * @param toEmail 收件人邮箱
+     * @param operation 操作类型
+     * @param log 敏感操作日志对象（包含IP、设备、浏览器等）
+     * @throws MessagingException 邮件发送异常
+     */
+    public void sendSensitiveActionReminder(String toEmail, String operation, cn.ksuser.api.entity.UserSensitiveLog log) throws MessagingException, UnsupportedEncodingException {
+        ReminderItem item = new ReminderItem(operation,
+            log.getCreatedAt() != null ? log.getCreatedAt() : LocalDateTime.now(),
+            log.getIpAddress(), log.getIpLocation(), log.getDeviceType(), log.getBrowser());
+        mailSender.send(buildSensitiveActionReminder(toEmail, List.of(item)));
+    }
 
-        // 渲染HTML模板
-        String htmlContent = templateEngine.process("verification-code-card", context);
-        helper.setText(htmlContent, true);
+    /**
+     * 构建敏感操作提醒邮件（多条操作合并为一封摘要邮件）
+     * @param toEmail 收件人邮箱
+     * @param items 操作列表，按时间升序
+     * @throws MessagingException 邮件构建异常
+     */
+    public MimeMessage buildSensitiveActionReminder(String toEmail, List<ReminderItem> items) throws MessagingException, UnsupportedEncodingException {
+        String summary;
+        String subject;
+        if (items.size() > 1) {
+            summary = "我们检测到您的账户在短时间内发生了" + items.size() + "项敏感操作，详情如下。";
+            subject = encodeSubject("敏感操作提醒（" + items.size() + " 项） - Ksuser CAS");
+        } else {
+            ReminderItem item = items.get(0);
+            summary = "我们在" + item.getTime() + "检测到您的账户发生了" + item.getOperation() + "操作。";
+            subject = encodedReminderSubject;
+        }
 
-        mailSender.send(message);
+        String htmlContent = mailTemplateService.renderSensitiveActionReminder(summary, items);
+        return createHtmlMessage(toEmail, subject, htmlContent);
     }
+
+    /**
+     * 创建单部分 HTML 邮件（模板不含内嵌资源，无需 multipart 结构）
+     */
+    private MimeMessage createHtmlMessage(String toEmail, String encodedSubject, String htmlContent) throws MessagingException {
+        MimeMessage message = mailSender.createMimeMessage();
+        message.setFrom(fromAddress);
+        message.setRecipient(Message.RecipientType.TO, new InternetAddress(toEmail));
+        message.setHeader("Subject", encodedSubject);
+        message.setText(htmlContent, "UTF-8", "html");
+        return message;
+    }
+
+    private static String encodeSubject(String subject) throws UnsupportedEncodingException {
+        return MimeUtility.fold(9, MimeUtility.encodeText(subject, "UTF-8", "B"));
+    }
+
+    /**
+     * 敏感操作提醒邮件中的单条操作
+     */
+    public static class ReminderItem {
+        private final String operation;
+        private final String time;
+        private final String ip;
+        private final String ipLocation;
+        private final String deviceType;
+        private final String browser;
+
+        public ReminderItem(String operation, LocalDateTime time, String ip, String ipLocation,
+                            String deviceType, String browser) {
+            this(operation, time.format(TIME_FORMATTER), ip, ipLocation, deviceType, browser);
+        }
+
+        public ReminderItem(String operation, String time, String ip, String ipLocation,
+                            String deviceType, String browser) {
+            this.operation = operation;
+            this.time = time;
+            this.ip = ip;
+            this.ipLocation = ipLocation;
+            this.deviceType = deviceType;
+            this.browser = browser;
+        }
+
+        public String getOperation() {
+            return operation;
+        }
+
+        public String getTime() {
+            return time;
+        }
+
+        public String getIp() {
+            return ip;
+        }
+
+        public String getIpLocation() {
+            return ipLocation;
+        }
+
+        public String getDeviceType() {
+            return deviceType;
+        }
+
+        public String getBrowser() {
+            return browser;
+        }
+
         /**
-         * 发送敏感操作提醒邮件
-         * @param toEmail 收件人邮箱
-         * @param operation 操作类型
-         * @param log 敏感操作日志对象（包含IP、设备、浏览器等）
-         * @throws MessagingException 邮件发送异常
+         * 转换为模板变量（值可能为 null）
          */
-        public void sendSensitiveActionReminder(String toEmail, String operation, cn.ksuser.api.entity.UserSensitiveLog log) throws MessagingException, UnsupportedEncodingException {
-            MimeMessage message = mailSender.createMimeMessage();
-            MimeMessageHelper helper = new MimeMessageHelper(message, true, "UTF-8");
-
-            helper.setFrom(fromEmail, "Ksuser CAS");
-            helper.setTo(toEmail);
-            helper.setSubject("敏感操作提醒 - Ksuser CAS");
-
-            Context context = new Context();
-            context.setVariable("operation", operation);
-            context.setVariable("time", log.getCreatedAt() != null ? log.getCreatedAt().format(DateTimeFormatter.ofPattern("yyyy年MM月dd日 HH:mm:ss")) : LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy年MM月dd日 HH:mm:ss")));
-            context.setVariable("ip", log.getIpAddress());
-            context.setVariable("ipLocation", log.getIpLocation());
-            context.setVariable("deviceType", log.getDeviceType());
-            context.setVariable("browser", log.getBrowser());
-
-            String htmlContent = templateEngine.process("sensitive-action-reminder", context);
-            helper.setText(htmlContent, true);
-
-            mailSender.send(message);
+        public Map<String, String> toVariables() {
+            Map<String, String> variables = new HashMap<>(8);
+            variables.put("operation", operation);
+            variables.put("time", time);
+            variables.put("ip", ip);
+            variables.put("ipLocation", ipLocation);
+            variables.put("deviceType", deviceType);
+            variables.put("browser", browser);
+            return variables;
         }
+    }
 }
@@ -1,5 +1,8 @@
 package cn.ksuser.api.service;
 
+import cn.ksuser.api.config.AppProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 import com.fasterxml.jackson.databind.JsonNode;
@@ -9,19 +12,23 @@ import org.slf4j.LoggerFactory;
 
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
 
 @Service
 public class IpLocationService {
 
     private static final Logger logger = LoggerFactory.getLogger(IpLocationService.class);
-    private static final String IP_LOCATION_API = "https://whois.pconline.com.cn/ipJson.jsp?ip=%s&json=true";
-    
+
     private final RestTemplate restTemplate;
     private final ObjectMapper objectMapper;
+    private final String apiUrl;
+    private final MeterRegistry meterRegistry;
 
-    public IpLocationService() {
+    public IpLocationService(AppProperties appProperties, MeterRegistry meterRegistry) {
+        this.apiUrl = appProperties.getIpLocation().getApiUrl();
         this.restTemplate = new RestTemplate();
         this.objectMapper = new ObjectMapper();
+        this.meterRegistry = meterRegistry;
     }
 
     /**
@@ -39,24 +46,41 @@ public class IpLocationService {
             return "内网IP";
         }
 
+        long start = System.nanoTime();
+        String result = "empty";
         try {
-            String url = String.format(IP_LOCATION_API, URLEncoder.encode(ip, StandardCharsets.UTF_8));
+            String url = String.format(apiUrl, URLEncoder.encode(ip, StandardCharsets.UTF_8));
             String response = restTemplate.getForObject(url, String.class);
             
             if (response != null && !response.isEmpty()) {
                 JsonNode jsonNode = objectMapper.readTree(response);
                 JsonNode addrNode = jsonNode.get("addr");
                 if (addrNode != null && !addrNode.isNull()) {
+                    result = "success";
                     return addrNode.asText();
                 }
             }
         } catch (Exception e) {
+            result = "failure";
             logger.warn("Failed to get IP location for {}: {}", ip, e.getMessage());
+        } finally {
+            recordLookup(result, System.nanoTime() - start);
         }
 
         return null;
     }
 
+    /**
+     * 记录外部接口调用耗时（result：success / empty 无属地信息 / failure 请求或解析失败）
+     */
+    private void recordLookup(String result, long nanos) {
+        Timer.builder("ip.location.duration")
+            .description("IP 属地接口调用耗时")
+            .tag("result", result)
+            .register(meterRegistry)
+            .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
     /**
      * 判断是否为本地或内网IP
      */
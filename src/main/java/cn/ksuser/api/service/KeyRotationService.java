@@ -0,0 +1,258 @@
+package cn.ksuser.api.service;
+
+import cn.ksuser.api.config.AppProperties;
+import cn.ksuser.api.entity.TotpRecoveryCode;
+import cn.ksuser.api.entity.UserTotp;
+import cn.ksuser.api.repository.TotpRecoveryCodeRepository;
+import cn.ksuser.api.repository.UserTotpRepository;
+import cn.ksuser.api.util.EncryptionUtil;
+import cn.ksuser.api.util.TotpEngine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 主密钥轮换：后台把旧版本加密的 TOTP 密钥、恢复码重新加密为当前 active 版本
+ *
+ * - 按 ID 分批扫描 key_version 不等于 active 的行，批内用固定数量的平台线程并行加解密
+ * - 写回使用条件更新（版本和原密文都未变化才更新），与确认注册、重新生成恢复码等并发修改不冲突
+ * - 已迁移的行不会再被查出，任务中断后下次从剩余行继续
+ * - 多实例部署时通过 Redis 锁保证同一时间只有一个实例在执行；续期与释放都用 Lua 脚本比较持有者，
+ *   锁过期后被其它实例拿到时不会误续、误删，续期失败则本轮立即停止
+ */
+@Service
+public class KeyRotationService {
+
+    private static final Logger logger = LoggerFactory.getLogger(KeyRotationService.class);
+
+    private static final String LOCK_KEY = "encryption:reencrypt:lock";
+    private static final Duration LOCK_TTL = Duration.ofMinutes(10);
+
+    private static final RedisScript<Long> RENEW_SCRIPT = new DefaultRedisScript<>(
+        "if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('PEXPIRE', KEYS[1], ARGV[2]) end " +
+        "return 0",
+        Long.class);
+
+    private static final RedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>(
+        "if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('DEL', KEYS[1]) end " +
+        "return 0",
+        Long.class);
+
+    private final UserTotpRepository userTotpRepository;
+    private final TotpRecoveryCodeRepository recoveryCodeRepository;
+    private final EncryptionUtil encryptionUtil;
+    private final StringRedisTemplate redisTemplate;
+    private final AppProperties appProperties;
+    private final String instanceId = UUID.randomUUID().toString();
+
+    private enum Outcome { REENCRYPTED, CONFLICT, FAILED }
+
+    /**
+     * 单张表的迁移统计
+     */
+    private static final class Stats {
+        private int scanned;
+        private int reencrypted;
+        private int conflicts;
+        private int failed;
+
+        private void add(Outcome outcome) {
+            switch (outcome) {
+                case REENCRYPTED -> reencrypted++;
+                case CONFLICT -> conflicts++;
+                case FAILED -> failed++;
+            }
+        }
+    }
+
+    public KeyRotationService(UserTotpRepository userTotpRepository,
+                              TotpRecoveryCodeRepository recoveryCodeRepository,
+                              EncryptionUtil encryptionUtil,
+                              StringRedisTemplate redisTemplate,
+                              AppProperties appProperties) {
+        this.userTotpRepository = userTotpRepository;
+        this.recoveryCodeRepository = recoveryCodeRepository;
+        this.encryptionUtil = encryptionUtil;
+        this.redisTemplate = redisTemplate;
+        this.appProperties = appProperties;
+    }
+
+    @Scheduled(initialDelayString = "${app.encryption.reencrypt-initial-delay-ms:60000}",
+               fixedDelayString = "${app.encryption.reencrypt-interval-ms:3600000}")
+    public void reencryptStaleRows() {
+        AppProperties.Encryption config = appProperties.getEncryption();
+        if (!config.isReencryptEnabled()) {
+            return;
+        }
+        try {
+            if (!Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(LOCK_KEY, instanceId, LOCK_TTL))) {
+                return;
+            }
+        } catch (Exception e) {
+            // Redis 不可用时跳过本轮，下次调度再试
+            logger.warn("Failed to acquire key rotation lock, skipping this pass: {}", e.getMessage());
+            return;
+        }
+
+        int parallelism = Math.max(1, config.getReencryptParallelism());
+        AtomicInteger threadIndex = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "key-rotation-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            int activeVersion = encryptionUtil.getActiveVersion();
+            long start = System.currentTimeMillis();
+            Stats totp = reencryptUserTotp(executor, activeVersion, config);
+            Stats codes = reencryptRecoveryCodes(executor, activeVersion, config);
+            if (totp.scanned > 0 || codes.scanned > 0) {
+                logger.info("Key rotation pass finished: activeVersion={}, totp(scanned={}, reencrypted={}, conflicts={}, failed={}), "
+                        + "recoveryCodes(scanned={}, reencrypted={}, conflicts={}, failed={}), elapsedMs={}",
+                    activeVersion, totp.scanned, totp.reencrypted, totp.conflicts, totp.failed,
+                    codes.scanned, codes.reencrypted, codes.conflicts, codes.failed,
+                    System.currentTimeMillis() - start);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.error("Key rotation pass failed", e);
+        } finally {
+            executor.shutdownNow();
+            releaseLock();
+        }
+    }
+
+    private Stats reencryptUserTotp(ExecutorService executor, int activeVersion, AppProperties.Encryption config)
+            throws InterruptedException {
+        Stats stats = new Stats();
+        long afterId = 0;
+        while (true) {
+            List<UserTotp> rows = userTotpRepository.findStaleKeyVersion(afterId, activeVersion, batch(config));
+            if (rows.isEmpty()) {
+                return stats;
+            }
+            List<Callable<Outcome>> tasks = new ArrayList<>(rows.size());
+            for (UserTotp row : rows) {
+                tasks.add(() -> reencrypt(row, activeVersion));
+            }
+            collect(executor.invokeAll(tasks), stats);
+            afterId = rows.get(rows.size() - 1).getId();
+            pause(config);
+        }
+    }
+
+    private Stats reencryptRecoveryCodes(ExecutorService executor, int activeVersion, AppProperties.Encryption config)
+            throws InterruptedException {
+        Stats stats = new Stats();
+        long afterId = 0;
+        while (true) {
+            List<TotpRecoveryCode> rows = recoveryCodeRepository.findStaleKeyVersion(afterId, activeVersion, batch(config));
+            if (rows.isEmpty()) {
+                return stats;
+            }
+            List<Callable<Outcome>> tasks = new ArrayList<>(rows.size());
+            for (TotpRecoveryCode row : rows) {
+                tasks.add(() -> reencrypt(row, activeVersion));
+            }
+            collect(executor.invokeAll(tasks), stats);
+            afterId = rows.get(rows.size() - 1).getId();
+            pause(config);
+        }
+    }
+
+    private Outcome reencrypt(UserTotp row, int activeVersion) {
+        try {
+            byte[] secret = rewrap(row.getSecretKeyCiphertext(), row.getKeyVersion(), activeVersion);
+            byte[] pending = rewrap(row.getPendingSecretCiphertext(), row.getKeyVersion(), activeVersion);
+            int updated = userTotpRepository.reencrypt(row.getId(), row.getKeyVersion(), activeVersion,
+                row.getSecretKeyCiphertext(), secret, row.getPendingSecretCiphertext(), pending);
+            return updated > 0 ? Outcome.REENCRYPTED : Outcome.CONFLICT;
+        } catch (Exception e) {
+            logger.warn("Failed to re-encrypt user_totp id={} from key version {}", row.getId(), row.getKeyVersion(), e);
+            return Outcome.FAILED;
+        }
+    }
+
+    private Outcome reencrypt(TotpRecoveryCode row, int activeVersion) {
+        try {
+            byte[] ciphertext = rewrap(row.getCodeCiphertext(), row.getKeyVersion(), activeVersion);
+            int updated = recoveryCodeRepository.reencrypt(row.getId(), row.getKeyVersion(), activeVersion, ciphertext);
+            return updated > 0 ? Outcome.REENCRYPTED : Outcome.CONFLICT;
+        } catch (Exception e) {
+            logger.warn("Failed to re-encrypt totp_recovery_codes id={} from key version {}", row.getId(), row.getKeyVersion(), e);
+            return Outcome.FAILED;
+        }
+    }
+
+    /**
+     * 用旧版本密钥解密，再用新版本密钥加密；明文用完即清零
+     */
+    private byte[] rewrap(byte[] ciphertext, int fromVersion, int toVersion) throws GeneralSecurityException {
+        if (ciphertext == null) {
+            return null;
+        }
+        byte[] plaintext = TotpEngine.decrypt(ciphertext, encryptionUtil.getKey(fromVersion));
+        try {
+            return TotpEngine.encrypt(plaintext, encryptionUtil.getKey(toVersion));
+        } finally {
+            Arrays.fill(plaintext, (byte) 0);
+        }
+    }
+
+    private static void collect(List<Future<Outcome>> futures, Stats stats) throws InterruptedException {
+        for (Future<Outcome> future : futures) {
+            stats.scanned++;
+            try {
+                stats.add(future.get());
+            } catch (ExecutionException e) {
+                stats.add(Outcome.FAILED);
+            }
+        }
+    }
+
+    private static PageRequest batch(AppProperties.Encryption config) {
+        return PageRequest.of(0, Math.max(1, config.getReencryptBatchSize()));
+    }
+
+    /**
+     * 批次之间暂停，限制对数据库的压力；同时续期锁，锁已不属于本实例时停止本轮
+     */
+    private void pause(AppProperties.Encryption config) throws InterruptedException {
+        Long renewed = redisTemplate.execute(RENEW_SCRIPT, List.of(LOCK_KEY), instanceId,
+            String.valueOf(LOCK_TTL.toMillis()));
+        if (renewed == null || renewed == 0) {
+            throw new IllegalStateException("Key rotation lock is no longer held by this instance");
+        }
+        if (config.getReencryptPauseMs() > 0) {
+            Thread.sleep(config.getReencryptPauseMs());
+        }
+    }
+
+    private void releaseLock() {
+        try {
+            redisTemplate.execute(RELEASE_SCRIPT, List.of(LOCK_KEY), instanceId);
+        } catch (Exception e) {
+            // 锁会在 TTL 到期后自动释放
+            logger.warn("Failed to release key rotation lock", e);
+        }
+    }
+}
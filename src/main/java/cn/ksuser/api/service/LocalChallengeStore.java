@@ -0,0 +1,106 @@
+package cn.ksuser.api.service;
+
+import cn.ksuser.api.util.TimingWheel;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 进程内挑战存储
+ * 过期由分层时间轮驱动：写入、删除 O(1)，evictExpired 只处理到期的槽，无需扫描全部挑战；
+ * 读取时也会检查过期时间，时间轮推进前已过期的挑战同样不可用
+ *
+ * 挑战只存在于创建它的实例上，多实例部署请使用 RedisChallengeStore
+ */
+public class LocalChallengeStore implements ChallengeStore {
+
+    private static final class Entry {
+        private final Challenge challenge;
+        private final AtomicInteger attempts;
+        private final long expiresAtMs;
+        private volatile TimingWheel.Timeout<String> timeout;
+
+        private Entry(Challenge challenge, long expiresAtMs) {
+            this.challenge = challenge;
+            this.attempts = new AtomicInteger(challenge.attempts());
+            this.expiresAtMs = expiresAtMs;
+        }
+
+        private boolean isExpired(long nowMs) {
+            return expiresAtMs <= nowMs;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final TimingWheel<String> wheel;
+
+    public LocalChallengeStore(long tickMs) {
+        this.wheel = new TimingWheel<>(tickMs, nowMs());
+    }
+
+    @Override
+    public void put(String id, Challenge challenge, Duration ttl) {
+        Entry entry = new Entry(challenge, nowMs() + ttl.toMillis());
+        Entry previous = entries.put(id, entry);
+        if (previous != null) {
+            wheel.cancel(previous.timeout);
+        }
+        entry.timeout = wheel.schedule(id, entry.expiresAtMs);
+    }
+
+    @Override
+    public Challenge get(String id) {
+        Entry entry = entries.get(id);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.isExpired(nowMs())) {
+            remove(id);
+            return null;
+        }
+        return snapshot(entry, entry.attempts.get());
+    }
+
+    @Override
+    public Challenge reserveAttempt(String id) {
+        Entry entry = entries.get(id);
+        if (entry == null || entry.isExpired(nowMs())) {
+            return null;
+        }
+        return snapshot(entry, entry.attempts.incrementAndGet());
+    }
+
+    @Override
+    public void remove(String id) {
+        Entry entry = entries.remove(id);
+        if (entry != null) {
+            wheel.cancel(entry.timeout);
+        }
+    }
+
+    @Override
+    public long size() {
+        return entries.size();
+    }
+
+    @Override
+    public void evictExpired() {
+        long now = nowMs();
+        // 只删除确实已过期的条目，避免与同 ID 的新写入交错时误删
+        wheel.advance(now, id -> entries.computeIfPresent(id, (key, entry) -> entry.isExpired(now) ? null : entry));
+    }
+
+    private static Challenge snapshot(Entry entry, int attempts) {
+        Challenge challenge = entry.challenge;
+        return new Challenge(challenge.userId(), challenge.clientIp(), challenge.userAgent(), attempts);
+    }
+
+    /**
+     * 单调时钟（毫秒），不受系统时间调整影响
+     */
+    private static long nowMs() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+}
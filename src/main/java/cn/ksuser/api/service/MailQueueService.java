@@ -0,0 +1,299 @@
+package cn.ksuser.api.service;
+
+import cn.ksuser.api.config.AppProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Transport;
+import jakarta.mail.internet.MimeMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 邮件发送队列
+ * 请求线程只负责入队，由固定数量的工作线程渲染并发送：
+ * - 优先级队列，验证码邮件优先于提醒类邮件；容量由信号量控制，检查与入队是一个原子操作
+ * - 每个工作线程持有一个长连接 SMTP Transport，连续发送时复用，空闲超时后关闭
+ * - 发送状态写入 Redis，可按 requestId 查询
+ */
+@Service
+public class MailQueueService {
+
+    private static final Logger logger = LoggerFactory.getLogger(MailQueueService.class);
+
+    private static final String STATUS_PREFIX = "mail:status:";
+    private static final Duration STATUS_EXPIRATION = Duration.ofMinutes(15);
+
+    public static final String STATUS_QUEUED = "QUEUED";
+    public static final String STATUS_SENDING = "SENDING";
+    public static final String STATUS_SENT = "SENT";
+    public static final String STATUS_FAILED = "FAILED";
+    public static final String STATUS_CANCELLED = "CANCELLED";
+
+    /**
+     * 邮件优先级，数值越小越先发送
+     */
+    public enum Priority {
+        VERIFICATION_CODE, REMINDER
+    }
+
+    /**
+     * 邮件构建器，在工作线程中执行（模板渲染不占用请求线程）
+     * 返回 null 表示放弃发送（例如发件箱租约已失效），结果以 CancellationException 完成，不再重试
+     */
+    @FunctionalInterface
+    public interface MessageBuilder {
+        MimeMessage build() throws Exception;
+    }
+
+    private final JavaMailSender mailSender;
+    private final StringRedisTemplate redisTemplate;
+    private final AppProperties appProperties;
+    private final PriorityBlockingQueue<MailTask> queue = new PriorityBlockingQueue<>();
+    private final Semaphore capacity;
+    private final AtomicLong sequence = new AtomicLong();
+    private Thread[] workers = new Thread[0];
+    private volatile boolean running = true;
+    private final Timer sendSuccessTimer;
+    private final Timer sendFailureTimer;
+    private final Counter rejectedCounter;
+
+    public MailQueueService(JavaMailSender mailSender, StringRedisTemplate redisTemplate, AppProperties appProperties,
+                            MeterRegistry meterRegistry) {
+        this.mailSender = mailSender;
+        this.redisTemplate = redisTemplate;
+        this.appProperties = appProperties;
+        this.capacity = new Semaphore(Math.max(1, appProperties.getMailQueue().getCapacity()));
+        Gauge.builder("mail.queue.depth", queue, PriorityBlockingQueue::size)
+            .description("等待发送的邮件数")
+            .register(meterRegistry);
+        this.rejectedCounter = Counter.builder("mail.queue.rejected")
+            .description("队列已满被拒绝的邮件数")
+            .register(meterRegistry);
+        this.sendSuccessTimer = Timer.builder("mail.send.duration")
+            .description("单次 SMTP 发送耗时（含建立连接）")
+            .tag("result", "success")
+            .register(meterRegistry);
+        this.sendFailureTimer = Timer.builder("mail.send.duration")
+            .tag("result", "failure")
+            .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        int workerCount = Math.max(1, appProperties.getMailQueue().getWorkers());
+        workers = new Thread[workerCount];
+        // 固定使用平台线程：SMTPTransport 在 synchronized 方法内做网络 I/O，虚拟线程会被固定在载体线程上
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new Thread(this::runWorker, "mail-worker-" + (i + 1));
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * 提交邮件到队列
+     * @return 发送结果（完成于工作线程）；队列已满时 requestId 为 null
+     */
+    public Submission submit(Priority priority, MessageBuilder builder) {
+        // 工作线程取出任务时归还许可
+        if (!capacity.tryAcquire()) {
+            logger.warn("Mail queue is full: size={}, priority={}", queue.size(), priority);
+            rejectedCounter.increment();
+            return new Submission(null, CompletableFuture.failedFuture(
+                new IllegalStateException("邮件队列已满")));
+        }
+        String requestId = UUID.randomUUID().toString();
+        MailTask task = new MailTask(requestId, priority, sequence.incrementAndGet(), builder);
+        updateStatus(requestId, STATUS_QUEUED);
+        queue.offer(task);
+        return new Submission(requestId, task.result);
+    }
+
+    /**
+     * 查询发送状态，不存在或已过期返回 null
+     */
+    public String getStatus(String requestId) {
+        return redisTemplate.opsForValue().get(STATUS_PREFIX + requestId);
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    private void runWorker() {
+        Transport transport = null;
+        long idleTimeoutMs = appProperties.getMailQueue().getIdleTimeoutMs();
+        while (running) {
+            MailTask task;
+            try {
+                task = queue.poll(idleTimeoutMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            if (task == null) {
+                // 空闲时关闭连接，避免被服务端超时断开
+                transport = close(transport);
+                continue;
+            }
+            capacity.release();
+
+            updateStatus(task.requestId, STATUS_SENDING);
+            int maxAttempts = Math.max(1, appProperties.getMailQueue().getMaxAttempts());
+            Exception lastError = null;
+            boolean cancelled = false;
+            for (int attempt = 1; attempt <= maxAttempts && running; attempt++) {
+                long attemptStart = System.nanoTime();
+                try {
+                    MimeMessage message = task.builder.build();
+                    if (message == null) {
+                        cancelled = true;
+                        break;
+                    }
+                    if (mailSender instanceof JavaMailSenderImpl sender) {
+                        transport = connect(sender, transport);
+                        deliver(transport, message);
+                    } else {
+                        mailSender.send(message);
+                    }
+                    sendSuccessTimer.record(System.nanoTime() - attemptStart, TimeUnit.NANOSECONDS);
+                    lastError = null;
+                    break;
+                } catch (Exception e) {
+                    sendFailureTimer.record(System.nanoTime() - attemptStart, TimeUnit.NANOSECONDS);
+                    lastError = e;
+                    // 连接可能已失效，下次重新建立
+                    transport = close(transport);
+                    logger.warn("Mail send attempt {} failed: requestId={}, error={}", attempt, task.requestId, e.getMessage());
+                    if (attempt < maxAttempts && !sleepQuietly(attempt * 500L)) {
+                        break;
+                    }
+                }
+            }
+
+            if (cancelled) {
+                updateStatus(task.requestId, STATUS_CANCELLED);
+                task.result.completeExceptionally(new CancellationException("邮件已取消发送"));
+            } else if (lastError == null) {
+                updateStatus(task.requestId, STATUS_SENT);
+                task.result.complete(null);
+            } else {
+                updateStatus(task.requestId, STATUS_FAILED);
+                task.result.completeExceptionally(lastError);
+            }
+        }
+        close(transport);
+    }
+
+    private Transport connect(JavaMailSenderImpl sender, Transport transport) throws MessagingException {
+        if (transport != null && transport.isConnected()) {
+            return transport;
+        }
+        close(transport);
+        Transport created = sender.getSession().getTransport(sender.getProtocol() != null ? sender.getProtocol() : "smtp");
+        try {
+            created.connect(sender.getHost(), sender.getPort(), sender.getUsername(), sender.getPassword());
+        } catch (MessagingException e) {
+            close(created);
+            throw e;
+        }
+        return created;
+    }
+
+    private void deliver(Transport transport, MimeMessage message) throws MessagingException {
+        if (message.getSentDate() == null) {
+            message.setSentDate(new Date());
+        }
+        message.saveChanges();
+        transport.sendMessage(message, message.getAllRecipients());
+    }
+
+    private boolean sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private Transport close(Transport transport) {
+        if (transport != null) {
+            try {
+                transport.close();
+            } catch (MessagingException e) {
+                logger.debug("Failed to close SMTP transport", e);
+            }
+        }
+        return null;
+    }
+
+    private void updateStatus(String requestId, String status) {
+        try {
+            redisTemplate.opsForValue().set(STATUS_PREFIX + requestId, status, STATUS_EXPIRATION);
+        } catch (Exception e) {
+            logger.warn("Failed to update mail status: requestId={}, status={}", requestId, status, e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        if (!queue.isEmpty()) {
+            logger.warn("Mail queue shut down with {} pending messages", queue.size());
+        }
+    }
+
+    /**
+     * 提交结果
+     */
+    public record Submission(String requestId, CompletableFuture<Void> result) {
+        public boolean accepted() {
+            return requestId != null;
+        }
+    }
+
+    private static final class MailTask implements Comparable<MailTask> {
+        private final String requestId;
+        private final Priority priority;
+        private final long sequence;
+        private final MessageBuilder builder;
+        private final CompletableFuture<Void> result = new CompletableFuture<>();
+
+        private MailTask(String requestId, Priority priority, long sequence, MessageBuilder builder) {
+            this.requestId = requestId;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.builder = builder;
+        }
+
+        @Override
+        public int compareTo(MailTask other) {
+            int cmp = Integer.compare(priority.ordinal(), other.priority.ordinal());
+            return cmp != 0 ? cmp : Long.compare(sequence, other.sequence);
+        }
+    }
+}
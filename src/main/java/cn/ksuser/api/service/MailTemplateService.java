@@ -0,0 +1,86 @@
+package cn.ksuser.api.service;
+
+import cn.ksuser.api.util.CompiledTemplate;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.thymeleaf.TemplateEngine;
+import org.thymeleaf.context.Context;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * 邮件模板渲染服务
+ * 启动时用占位符变量通过 Thymeleaf 渲染一次模板并编译为 CompiledTemplate，
+ * 之后每封邮件只做片段拼接，不再经过模板引擎
+ */
+@Service
+public class MailTemplateService {
+
+    private static final Logger logger = LoggerFactory.getLogger(MailTemplateService.class);
+
+    private final TemplateEngine templateEngine;
+
+    private CompiledTemplate verificationCodeTemplate;
+    private CompiledTemplate sensitiveActionTemplate;
+
+    public MailTemplateService(TemplateEngine templateEngine) {
+        this.templateEngine = templateEngine;
+    }
+
+    @PostConstruct
+    public void compileTemplates() {
+        Context verification = new Context();
+        verification.setVariable("time", slot("time"));
+        verification.setVariable("action", slot("action"));
+        verification.setVariable("code", slot("code"));
+        verificationCodeTemplate = CompiledTemplate.compile(
+            templateEngine.process("verification-code-card", verification));
+
+        Context reminder = new Context();
+        reminder.setVariable("summary", slot("summary"));
+        reminder.setVariable("events", List.of(new EmailService.ReminderItem(
+            slot("operation"), slot("time"), slot("ip"), slot("ipLocation"), slot("deviceType"), slot("browser"))));
+        sensitiveActionTemplate = CompiledTemplate.compile(
+            templateEngine.process("sensitive-action-reminder", reminder));
+
+        logger.info("Mail templates compiled");
+    }
+
+    /**
+     * 渲染验证码邮件（值为 null 的变量输出为空，与 Thymeleaf th:text 一致）
+     */
+    public String renderVerificationCode(String time, String action, String code) {
+        Map<String, String> variables = new HashMap<>(4);
+        variables.put("time", time);
+        variables.put("action", action);
+        variables.put("code", code);
+        return verificationCodeTemplate.render(variables);
+    }
+
+    /**
+     * 渲染敏感操作提醒邮件
+     * @param summary 摘要，可以为 null
+     * @param items 操作列表，不能为 null
+     */
+    public String renderSensitiveActionReminder(String summary, List<EmailService.ReminderItem> items) {
+        Objects.requireNonNull(items, "提醒邮件的操作列表不能为 null");
+        List<Map<String, String>> events = new ArrayList<>(items.size());
+        for (EmailService.ReminderItem item : items) {
+            events.add(item.toVariables());
+        }
+        Map<String, Object> variables = new HashMap<>(4);
+        variables.put("summary", summary);
+        variables.put("events", events);
+        return sensitiveActionTemplate.render(variables);
+    }
+
+    private static String slot(String name) {
+        return "@@" + name + "@@";
+    }
+}
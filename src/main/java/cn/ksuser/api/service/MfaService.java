@@ -1,74 +1,79 @@
 package cn.ksuser.api.service;
 
+import cn.ksuser.api.config.AppProperties;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
-import java.time.Instant;
-import java.util.Map;
+import java.time.Duration;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * MFA 登录挑战
+ * 密码/验证码登录通过后创建挑战，客户端携带 challengeId 提交 TOTP 完成登录
+ * 挑战内容与失败次数保存在 ChallengeStore 中（默认 Redis，见 app.mfa.challenge-store）
+ */
 @Service
 public class MfaService {
 
-    private static class Challenge {
-        public final Long userId;
-        public final String clientIp;
-        public final String userAgent;
-        public final long expiresAt;
-        public int failedAttempts; // ✅ 添加失败次数记录
+    private static final Logger logger = LoggerFactory.getLogger(MfaService.class);
 
-        public Challenge(Long userId, String clientIp, String userAgent, long expiresAt) {
-            this.userId = userId;
-            this.clientIp = clientIp;
-            this.userAgent = userAgent;
-            this.expiresAt = expiresAt;
-            this.failedAttempts = 0;
-        }
-    }
-
-    private final Map<String, Challenge> store = new ConcurrentHashMap<>();
+    private final ChallengeStore store;
+    private final AppProperties appProperties;
 
-    // challenge 有效期（秒）
-    private static final long DEFAULT_TTL_SECONDS = 300; // 5 分钟
-    private static final int MAX_FAILED_ATTEMPTS = 5; // ✅ 最大失败次数
+    public MfaService(ChallengeStore store, AppProperties appProperties, MeterRegistry meterRegistry) {
+        this.store = store;
+        this.appProperties = appProperties;
+        Gauge.builder("mfa.challenges.live", this, MfaService::liveChallenges)
+            .description("未过期的 MFA 登录挑战数")
+            .register(meterRegistry);
+    }
 
     public String createChallenge(Long userId, String clientIp, String userAgent) {
         String id = UUID.randomUUID().toString();
-        long expiresAt = Instant.now().getEpochSecond() + DEFAULT_TTL_SECONDS;
-        store.put(id, new Challenge(userId, clientIp, userAgent, expiresAt));
+        Duration ttl = Duration.ofSeconds(appProperties.getMfa().getChallengeTtlSeconds());
+        store.put(id, new ChallengeStore.Challenge(userId, clientIp, userAgent, 0), ttl);
         return id;
     }
 
     /**
-     * 验证并获取challenge（不删除）
-     * @return userId 如果有效，否则返回 null
+     * 一次 TOTP 提交占用的尝试
+     * @param userId 挑战所属用户
+     * @param remaining 本次校验失败后剩余的尝试次数
      */
-    public Long verifyChallenge(String challengeId, String clientIp, String userAgent) {
+    public record Attempt(Long userId, int remaining) {
+    }
+
+    /**
+     * 校验 TOTP 之前先原子地占用一次尝试，超过最大次数则删除挑战
+     * 并发提交各自占用不同的次数，不会出现多个请求同时通过次数检查的情况；
+     * 校验成功后由 consumeChallenge 删除挑战，已占用的次数无需回退
+     * @return 挑战无效、已过期或次数已用尽时返回 null
+     */
+    public Attempt reserveAttempt(String challengeId, String clientIp, String userAgent) {
         if (challengeId == null) return null;
-        Challenge chal = store.get(challengeId);
+        ChallengeStore.Challenge chal = store.reserveAttempt(challengeId);
         if (chal == null) return null;
-        long now = Instant.now().getEpochSecond();
-        if (chal.expiresAt < now) {
-            store.remove(challengeId); // 过期则删除
-            return null;
-        }
-        // ✅ 检查是否超过最大失败次数
-        if (chal.failedAttempts >= MAX_FAILED_ATTEMPTS) {
-            store.remove(challengeId); // 超过失败次数则删除
+        if (chal.attempts() > maxFailedAttempts()) {
+            store.remove(challengeId);
             return null;
         }
-        return chal.userId;
+        return new Attempt(chal.userId(), maxFailedAttempts() - chal.attempts());
     }
 
     /**
-     * 记录一次失败尝试
+     * 记录本次尝试校验失败（次数已在 reserveAttempt 中计入），次数用尽后删除挑战
+     * @return 剩余尝试次数
      */
-    public void recordFailedAttempt(String challengeId) {
-        if (challengeId == null) return;
-        Challenge chal = store.get(challengeId);
-        if (chal != null) {
-            chal.failedAttempts++;
+    public int recordFailedAttempt(String challengeId, Attempt attempt) {
+        if (challengeId == null || attempt == null) return 0;
+        if (attempt.remaining() <= 0) {
+            store.remove(challengeId);
         }
+        return Math.max(0, attempt.remaining());
     }
 
     /**
@@ -76,9 +81,9 @@ public class MfaService {
      */
     public int getRemainingAttempts(String challengeId) {
         if (challengeId == null) return 0;
-        Challenge chal = store.get(challengeId);
+        ChallengeStore.Challenge chal = store.get(challengeId);
         if (chal == null) return 0;
-        return Math.max(0, MAX_FAILED_ATTEMPTS - chal.failedAttempts);
+        return Math.max(0, maxFailedAttempts() - chal.attempts());
     }
 
     /**
@@ -89,4 +94,25 @@ public class MfaService {
             store.remove(challengeId);
         }
     }
+
+    /**
+     * 推进本地存储的过期时间轮（Redis 存储依赖 Key TTL，无需处理）
+     */
+    @Scheduled(fixedDelayString = "${app.mfa.local-tick-ms:1000}")
+    public void evictExpired() {
+        store.evictExpired();
+    }
+
+    private int maxFailedAttempts() {
+        return appProperties.getMfa().getMaxFailedAttempts();
+    }
+
+    private double liveChallenges() {
+        try {
+            return store.size();
+        } catch (Exception e) {
+            logger.debug("Failed to count live MFA challenges", e);
+            return Double.NaN;
+        }
+    }
 }
@@ -0,0 +1,243 @@
+package cn.ksuser.api.service;
+
+import cn.ksuser.api.config.AppProperties;
+import cn.ksuser.api.util.ExpiringNonceSet;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.UUID;
+
+/**
+ * WebAuthn challenge 的签发与一次性消费
+ *
+ * redis 模式（默认）：challenge 存入 Redis，验证时 GETDEL 取出并删除
+ * stateless 模式：challenge 本身是 HMAC-SHA256 签名的数据块，验证时本地校验签名、用途、用户绑定和过期时间，
+ * 签发时不写 Redis；一次性使用通过 nonce 集合保证（Redis SET NX，或进程内按过期时间分桶的集合）
+ *
+ * stateless challenge 格式（base64url，无 padding）：
+ * version(1) | purpose(1) | expiresAt 秒(8) | nonce(16) | 用户绑定 SHA-256 前 16 字节(16) | HMAC-SHA256(32)
+ */
+@Service
+public class PasskeyChallengeService {
+
+    private static final long CHALLENGE_EXPIRY_SECONDS = 10 * 60; // 10 minutes
+    private static final int CHALLENGE_LENGTH = 32; // 32 bytes = 256 bits
+
+    private static final String NONCE_PREFIX = "passkey:challenge:nonce:";
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final byte VERSION = 1;
+    private static final int NONCE_LENGTH = 16;
+    private static final int BINDING_LENGTH = 16;
+    private static final int MAC_LENGTH = 32;
+    private static final int PAYLOAD_LENGTH = 1 + 1 + 8 + NONCE_LENGTH + BINDING_LENGTH;
+    private static final int MIN_SECRET_LENGTH = 32;
+
+    /**
+     * challenge 用途，不同用途的 challenge 不能混用
+     */
+    public enum Purpose {
+        REGISTRATION((byte) 1, "passkey:reg:challenge:"),
+        AUTHENTICATION((byte) 2, "passkey:auth:challenge:"),
+        SENSITIVE((byte) 3, "passkey:sensitive:challenge:");
+
+        private final byte code;
+        private final String redisPrefix;
+
+        Purpose(byte code, String redisPrefix) {
+            this.code = code;
+            this.redisPrefix = redisPrefix;
+        }
+    }
+
+    /**
+     * 签发结果
+     * @param challengeId 客户端验证时回传的 ID（注册流程按用户存储，为 null）
+     * @param challenge base64url 编码的 challenge
+     */
+    public record Issued(String challengeId, String challenge) {
+    }
+
+    private final StringRedisTemplate redisTemplate;
+    private final SecureRandom secureRandom = new SecureRandom();
+    private final boolean stateless;
+    private final boolean localReplayGuard;
+    private final SecretKeySpec macKey;
+    private final ExpiringNonceSet localNonces = new ExpiringNonceSet(60_000);
+
+    public PasskeyChallengeService(StringRedisTemplate redisTemplate, AppProperties appProperties) {
+        this.redisTemplate = redisTemplate;
+        AppProperties.Passkey config = appProperties.getPasskey();
+
+        String mode = config.getChallengeMode();
+        if (!"redis".equalsIgnoreCase(mode) && !"stateless".equalsIgnoreCase(mode)) {
+            throw new IllegalStateException("app.passkey.challenge-mode 只能是 redis 或 stateless：" + mode);
+        }
+        this.stateless = "stateless".equalsIgnoreCase(mode);
+
+        String guard = config.getChallengeReplayGuard();
+        if (!"redis".equalsIgnoreCase(guard) && !"local".equalsIgnoreCase(guard)) {
+            throw new IllegalStateException("app.passkey.challenge-replay-guard 只能是 redis 或 local：" + guard);
+        }
+        this.localReplayGuard = "local".equalsIgnoreCase(guard);
+
+        this.macKey = stateless ? decodeSecret(config.getChallengeSecret()) : null;
+    }
+
+    public boolean isStateless() {
+        return stateless;
+    }
+
+    /**
+     * 签发 challenge
+     * @param userUuid 绑定的用户（登录流程为 null）
+     */
+    public Issued issue(Purpose purpose, String userUuid) {
+        if (stateless) {
+            String challenge = seal(purpose, userUuid);
+            return new Issued(purpose == Purpose.REGISTRATION ? null : challenge, challenge);
+        }
+
+        byte[] challengeBytes = new byte[CHALLENGE_LENGTH];
+        secureRandom.nextBytes(challengeBytes);
+        String challenge = Base64.getUrlEncoder().withoutPadding().encodeToString(challengeBytes);
+        // 注册流程按用户存储（键：passkey:reg:challenge:{userUuid}），其他流程按随机 ID 存储
+        String challengeId = purpose == Purpose.REGISTRATION ? null : UUID.randomUUID().toString();
+        String key = purpose.redisPrefix + (challengeId != null ? challengeId : userUuid);
+        redisTemplate.opsForValue().set(key, challenge, Duration.ofSeconds(CHALLENGE_EXPIRY_SECONDS));
+        return new Issued(challengeId, challenge);
+    }
+
+    /**
+     * 消费 challenge（每个 challenge 只能使用一次）
+     * @param challengeId redis 模式下为签发时返回的 ID（注册流程忽略）；stateless 模式下为 challenge 本身
+     * @param userUuid 当前用户（登录流程为 null）
+     * @return base64url 编码的 challenge
+     * @throws IllegalArgumentException challenge 不存在、已过期、已使用或与用途/用户不匹配
+     */
+    public String consume(Purpose purpose, String challengeId, String userUuid) {
+        if (stateless) {
+            return unseal(purpose, challengeId, userUuid);
+        }
+        String key = purpose.redisPrefix + (purpose == Purpose.REGISTRATION ? userUuid : challengeId);
+        // GETDEL：读取与删除一次完成，并发请求只有一个能拿到 challenge
+        String challenge = redisTemplate.opsForValue().getAndDelete(key);
+        if (challenge == null) {
+            throw new IllegalArgumentException("Challenge 已过期或不存在");
+        }
+        return challenge;
+    }
+
+    private String seal(Purpose purpose, String userUuid) {
+        byte[] nonce = new byte[NONCE_LENGTH];
+        secureRandom.nextBytes(nonce);
+        ByteBuffer buffer = ByteBuffer.allocate(PAYLOAD_LENGTH + MAC_LENGTH);
+        buffer.put(VERSION);
+        buffer.put(purpose.code);
+        buffer.putLong(System.currentTimeMillis() / 1000 + CHALLENGE_EXPIRY_SECONDS);
+        buffer.put(nonce);
+        buffer.put(binding(userUuid));
+        buffer.put(mac(buffer.array(), PAYLOAD_LENGTH));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.array());
+    }
+
+    private String unseal(Purpose purpose, String challenge, String userUuid) {
+        byte[] data;
+        try {
+            data = challenge != null ? Base64.getUrlDecoder().decode(challenge) : null;
+        } catch (IllegalArgumentException e) {
+            data = null;
+        }
+        if (data == null || data.length != PAYLOAD_LENGTH + MAC_LENGTH) {
+            throw new IllegalArgumentException("Challenge 已过期或不存在");
+        }
+        byte[] expectedMac = mac(data, PAYLOAD_LENGTH);
+        if (!MessageDigest.isEqual(expectedMac, Arrays.copyOfRange(data, PAYLOAD_LENGTH, data.length))) {
+            throw new IllegalArgumentException("Challenge 已过期或不存在");
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(data, 0, PAYLOAD_LENGTH);
+        byte version = buffer.get();
+        byte purposeCode = buffer.get();
+        long expiresAt = buffer.getLong();
+        byte[] nonce = new byte[NONCE_LENGTH];
+        buffer.get(nonce);
+        byte[] boundUser = new byte[BINDING_LENGTH];
+        buffer.get(boundUser);
+
+        long nowMs = System.currentTimeMillis();
+        if (version != VERSION || purposeCode != purpose.code || expiresAt * 1000 <= nowMs) {
+            throw new IllegalArgumentException("Challenge 已过期或不存在");
+        }
+        if (!MessageDigest.isEqual(boundUser, binding(userUuid))) {
+            throw new IllegalArgumentException("Challenge 与当前用户不匹配");
+        }
+        if (!markNonceUsed(Base64.getUrlEncoder().withoutPadding().encodeToString(nonce), expiresAt * 1000, nowMs)) {
+            throw new IllegalArgumentException("Challenge 已使用");
+        }
+        return challenge;
+    }
+
+    /**
+     * 标记 nonce 已使用，保留到 challenge 过期为止
+     */
+    private boolean markNonceUsed(String nonce, long expiresAtMs, long nowMs) {
+        if (localReplayGuard) {
+            return localNonces.add(nonce, expiresAtMs, nowMs);
+        }
+        Boolean added = redisTemplate.opsForValue()
+            .setIfAbsent(NONCE_PREFIX + nonce, "1", Duration.ofMillis(Math.max(1, expiresAtMs - nowMs)));
+        return Boolean.TRUE.equals(added);
+    }
+
+    private byte[] mac(byte[] data, int length) {
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(macKey);
+            mac.update(data, 0, length);
+            return mac.doFinal();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HMAC 计算失败", e);
+        }
+    }
+
+    /**
+     * 用户绑定：UUID 的 SHA-256 前 16 字节；未绑定用户时为全 0
+     */
+    private static byte[] binding(String userUuid) {
+        if (userUuid == null) {
+            return new byte[BINDING_LENGTH];
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(userUuid.getBytes(StandardCharsets.UTF_8));
+            return Arrays.copyOf(digest, BINDING_LENGTH);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("SHA-256 不可用", e);
+        }
+    }
+
+    private static SecretKeySpec decodeSecret(String secret) {
+        if (secret == null || secret.isEmpty()) {
+            throw new IllegalStateException("stateless 模式需要配置 app.passkey.challenge-secret");
+        }
+        byte[] key;
+        try {
+            key = Base64.getDecoder().decode(secret);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalStateException("app.passkey.challenge-secret 必须是有效的 Base64 格式", e);
+        }
+        if (key.length < MIN_SECRET_LENGTH) {
+            throw new IllegalStateException("app.passkey.challenge-secret 长度至少 32 字节，当前长度：" + key.length);
+        }
+        return new SecretKeySpec(key, HMAC_ALGORITHM);
+    }
+}
@@ -0,0 +1,164 @@
+package cn.ksuser.api.service;
+
+import cn.ksuser.api.config.AppProperties;
+import cn.ksuser.api.entity.UserPasskey;
+import cn.ksuser.api.repository.UserPasskeyRepository;
+import cn.ksuser.api.util.LruCache;
+import com.webauthn4j.converter.util.ObjectConverter;
+import com.webauthn4j.data.attestation.authenticator.AAGUID;
+import com.webauthn4j.data.attestation.authenticator.AttestedCredentialData;
+import com.webauthn4j.data.attestation.authenticator.COSEKey;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Passkey 验证材料缓存
+ * 按 credential ID 缓存已解析的凭证（COSE 公钥、AAGUID、所属用户），断言验证时不再查询 user_passkeys 并做 CBOR 解码
+ *
+ * - 本地 LRU（带 TTL），删除、重命名后调用 invalidate()，通过 Redis Pub/Sub 通知所有实例清理
+ * - 缓存的 signCount 只是上次成功验证后的值，防克隆检查以数据库条件更新为准
+ */
+@Service
+public class PasskeyCredentialCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(PasskeyCredentialCache.class);
+
+    private static final String INVALIDATE_CHANNEL = "passkey:credential:invalidate";
+
+    /**
+     * 断言验证所需的凭证材料
+     */
+    public static final class Credential {
+        private final Long passkeyId;
+        private final Long userId;
+        private final AttestedCredentialData attestedCredentialData;
+        private final AtomicLong signCount;
+
+        private Credential(Long passkeyId, Long userId, AttestedCredentialData attestedCredentialData, long signCount) {
+            this.passkeyId = passkeyId;
+            this.userId = userId;
+            this.attestedCredentialData = attestedCredentialData;
+            this.signCount = new AtomicLong(signCount);
+        }
+
+        public Long passkeyId() {
+            return passkeyId;
+        }
+
+        public Long userId() {
+            return userId;
+        }
+
+        public AttestedCredentialData attestedCredentialData() {
+            return attestedCredentialData;
+        }
+
+        public long signCount() {
+            return signCount.get();
+        }
+
+        /**
+         * 成功验证后更新（只增不减）
+         */
+        public void updateSignCount(long value) {
+            signCount.accumulateAndGet(value, Math::max);
+        }
+    }
+
+    private final UserPasskeyRepository userPasskeyRepository;
+    private final StringRedisTemplate redisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+    private final AppProperties appProperties;
+    private final ObjectConverter objectConverter = new ObjectConverter();
+
+    private final LruCache<String, Credential> cache;
+    // 每次失效递增，回源期间发生过失效的结果不写入缓存
+    private final AtomicLong invalidationEpoch = new AtomicLong();
+
+    public PasskeyCredentialCache(UserPasskeyRepository userPasskeyRepository, StringRedisTemplate redisTemplate,
+                                  RedisMessageListenerContainer listenerContainer, AppProperties appProperties) {
+        this.userPasskeyRepository = userPasskeyRepository;
+        this.redisTemplate = redisTemplate;
+        this.listenerContainer = listenerContainer;
+        this.appProperties = appProperties;
+        this.cache = new LruCache<>(() -> appProperties.getPasskey().getCredentialCacheMaxEntries());
+    }
+
+    @PostConstruct
+    public void subscribe() {
+        listenerContainer.addMessageListener(this::onInvalidate, new ChannelTopic(INVALIDATE_CHANNEL));
+    }
+
+    /**
+     * 按 credential ID 获取验证材料，未命中时查询数据库并解析
+     */
+    public Optional<Credential> get(byte[] credentialId) {
+        String key = key(credentialId);
+        Credential credential = cache.get(key);
+        if (credential != null) {
+            return Optional.of(credential);
+        }
+        long epoch = invalidationEpoch.get();
+        Optional<Credential> loaded = userPasskeyRepository.findByCredentialId(credentialId).map(this::parse);
+        loaded.ifPresent(value -> {
+            if (invalidationEpoch.get() == epoch) {
+                long ttlNanos = Duration.ofSeconds(appProperties.getPasskey().getCredentialCacheTtlSeconds()).toNanos();
+                cache.put(key, value, ttlNanos);
+            }
+        });
+        return loaded;
+    }
+
+    /**
+     * Passkey 删除或修改后调用，清理本实例并通知其他实例
+     */
+    public void invalidate(byte[] credentialId) {
+        if (credentialId == null) {
+            return;
+        }
+        String key = key(credentialId);
+        evictLocal(key);
+        try {
+            redisTemplate.convertAndSend(INVALIDATE_CHANNEL, key);
+        } catch (Exception e) {
+            // 其他实例的条目会在 TTL 到期后失效；已删除的凭证在写回 signCount 时也会被拒绝
+            logger.warn("Failed to broadcast passkey credential invalidation", e);
+        }
+    }
+
+    private void onInvalidate(Message message, byte[] pattern) {
+        evictLocal(new String(message.getBody(), StandardCharsets.UTF_8));
+    }
+
+    private void evictLocal(String key) {
+        invalidationEpoch.incrementAndGet();
+        cache.remove(key);
+    }
+
+    private Credential parse(UserPasskey passkey) {
+        COSEKey coseKey = objectConverter.getCborConverter().readValue(passkey.getPublicKeyCose(), COSEKey.class);
+        AttestedCredentialData attestedCredentialData = new AttestedCredentialData(
+            passkey.getAaguid() != null ? new AAGUID(passkey.getAaguid()) : AAGUID.NULL,
+            passkey.getCredentialId(),
+            coseKey
+        );
+        long signCount = passkey.getSignCount() != null ? Math.max(0, passkey.getSignCount()) : 0;
+        return new Credential(passkey.getId(), passkey.getUserId(), attestedCredentialData, signCount);
+    }
+
+    private static String key(byte[] credentialId) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(credentialId);
+    }
+}
@@ -5,6 +5,8 @@ import cn.ksuser.api.dto.*;
 import cn.ksuser.api.entity.User;
 import cn.ksuser.api.entity.UserPasskey;
 import cn.ksuser.api.repository.UserPasskeyRepository;
+import cn.ksuser.api.util.CompiledTemplate;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
@@ -19,10 +21,11 @@ import com.webauthn4j.data.attestation.authenticator.COSEKey;
 import com.webauthn4j.data.client.Origin;
 import com.webauthn4j.data.client.challenge.DefaultChallenge;
 import com.webauthn4j.server.ServerProperty;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.springframework.stereotype.Service;
 
-import java.security.SecureRandom;
+import java.io.IOException;
 import java.time.LocalDateTime;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
@@ -44,81 +47,67 @@ import java.util.concurrent.TimeUnit;
  */
 @Service
 public class PasskeyService {
-    private static final String PASSKEY_REGISTRATION_CHALLENGE_PREFIX = "passkey:reg:challenge:";
-    private static final String PASSKEY_AUTHENTICATION_CHALLENGE_PREFIX = "passkey:auth:challenge:";
-    private static final String PASSKEY_SENSITIVE_CHALLENGE_PREFIX = "passkey:sensitive:challenge:";
-    private static final int CHALLENGE_LENGTH = 32; // 32 bytes = 256 bits
-    private static final long CHALLENGE_EXPIRY_SECONDS = 10 * 60; // 10 minutes
-
     private final UserPasskeyRepository userPasskeyRepository;
-    private final StringRedisTemplate stringRedisTemplate;
+    private final PasskeyChallengeService challengeService;
     private final AppProperties appProperties;
     private final ObjectMapper objectMapper;
-    private final SecureRandom secureRandom;
     private final WebAuthnManager webAuthnManager;
     private final ObjectConverter objectConverter;
+    private final PasskeyCredentialCache credentialCache;
+    private final PasskeyUsageRecorder usageRecorder;
+    private final MeterRegistry meterRegistry;
+
+    // RP 信息只取决于配置，启动时构建一次
+    private final Origin origin;
+    private final String rpId;
+
+    // 注册 / 认证选项的响应体模板，静态部分启动时按配置渲染一次
+    private final CompiledTemplate registrationOptionsTemplate;
+    private final CompiledTemplate authenticationOptionsTemplate;
+    private final CompiledTemplate sensitiveOptionsTemplate;
 
     public PasskeyService(UserPasskeyRepository userPasskeyRepository,
-                          StringRedisTemplate stringRedisTemplate,
-                          AppProperties appProperties) {
+                          PasskeyChallengeService challengeService,
+                          AppProperties appProperties,
+                          PasskeyCredentialCache credentialCache,
+                          PasskeyUsageRecorder usageRecorder,
+                          MeterRegistry meterRegistry) {
         this.userPasskeyRepository = userPasskeyRepository;
-        this.stringRedisTemplate = stringRedisTemplate;
+        this.challengeService = challengeService;
         this.appProperties = appProperties;
+        this.credentialCache = credentialCache;
+        this.usageRecorder = usageRecorder;
+        this.meterRegistry = meterRegistry;
         this.objectMapper = new ObjectMapper();
-        this.secureRandom = new SecureRandom();
         this.webAuthnManager = WebAuthnManager.createNonStrictWebAuthnManager();
         this.objectConverter = new ObjectConverter();
+        this.origin = Origin.create(getEffectiveOrigin());
+        this.rpId = getEffectiveRpId();
+        this.registrationOptionsTemplate = buildRegistrationOptionsTemplate();
+        this.authenticationOptionsTemplate = buildAuthenticationOptionsTemplate(
+            "生成认证选项成功", appProperties.getPasskey().getUserVerification());
+        // 敏感操作需要用户验证
+        this.sensitiveOptionsTemplate = buildAuthenticationOptionsTemplate("生成敏感操作验证选项成功", "required");
     }
 
     /**
      * 生成注册选项
+     * @return 完整的 ApiResponse 响应体（UTF-8 JSON），可直接写入响应
      */
-    public PasskeyRegistrationOptionsResponse generateRegistrationOptions(User user) throws Exception {
-        // 生成 challenge
-        String challenge = generateChallenge();
-
+    public byte[] generateRegistrationOptions(User user) throws Exception {
         // 生成用户 ID（使用 UUID 的 bytes）
         String userId = user.getUuid();
 
-        // 将 challenge 存储到 Redis（键：passkey:reg:challenge:{userId}）
-        String challengeKey = PASSKEY_REGISTRATION_CHALLENGE_PREFIX + userId;
-        stringRedisTemplate.opsForValue().set(challengeKey, challenge, CHALLENGE_EXPIRY_SECONDS, TimeUnit.SECONDS);
+        // 生成 challenge（绑定当前用户）
+        String challenge = challengeService.issue(PasskeyChallengeService.Purpose.REGISTRATION, userId).challenge();
 
-        // 构建 RP (Relying Party) 对象
-        ObjectNode rpNode = objectMapper.createObjectNode();
-        rpNode.put("name", appProperties.getPasskey().getRpName());
-        rpNode.put("id", getEffectiveRpId());
-
-        // 构建 user 对象
-        ObjectNode userNode = objectMapper.createObjectNode();
-        userNode.put("id", Base64.getUrlEncoder().withoutPadding().encodeToString(userId.getBytes()));
-        userNode.put("name", user.getEmail() != null ? user.getEmail() : user.getUsername());
-        userNode.put("displayName", user.getUsername());
-
-        // 构建 pubKeyCredParams 数组
-        ArrayNode pubKeyCredParams = objectMapper.createArrayNode();
-        ObjectNode credParam = objectMapper.createObjectNode();
-        credParam.put("type", "public-key");
-        credParam.put("alg", -7); // ES256
-        pubKeyCredParams.add(credParam);
-
-        // 构建 authenticatorSelection 对象
-        ObjectNode authSelNode = objectMapper.createObjectNode();
-        authSelNode.put("authenticatorAttachment", "platform");
-        authSelNode.put("residentKey", appProperties.getPasskey().getResidentKey());
-        authSelNode.put("userVerification", appProperties.getPasskey().getUserVerification());
-
-        // 构建响应
-        PasskeyRegistrationOptionsResponse response = new PasskeyRegistrationOptionsResponse();
-        response.setChallenge(challenge);
-        response.setRp(rpNode.toString());
-        response.setUser(userNode.toString());
-        response.setPubKeyCredParams(pubKeyCredParams.toString());
-        response.setAuthenticatorSelection(authSelNode.toString());
-        response.setTimeout(String.valueOf(appProperties.getPasskey().getTimeout()));
-        response.setAttestation(appProperties.getPasskey().getAttestation());
-
-        return response;
+        // rp、pubKeyCredParams、authenticatorSelection 等只取决于配置，已预先渲染；这里只填入 challenge 和用户信息
+        return registrationOptionsTemplate.renderUtf8(Map.of(
+            "challenge", challenge,
+            "userId", Base64.getUrlEncoder().withoutPadding().encodeToString(userId.getBytes()),
+            "userName", Objects.requireNonNullElse(user.getEmail() != null ? user.getEmail() : user.getUsername(), ""),
+            "displayName", Objects.requireNonNullElse(user.getUsername(), "")
+        ));
     }
 
     /**
@@ -135,20 +124,16 @@ public class PasskeyService {
      * @return 存储的 UserPasskey
      */
     public UserPasskey verifyRegistration(User user, PasskeyRegistrationVerifyRequest request) throws Exception {
-        // ========== 1. Challenge 验证 ==========
-        String challengeKey = PASSKEY_REGISTRATION_CHALLENGE_PREFIX + user.getUuid();
-        String storedChallenge = stringRedisTemplate.opsForValue().get(challengeKey);
-
-        if (storedChallenge == null) {
-            throw new IllegalArgumentException("Challenge 已过期或不存在");
-        }
+        byte[] attestationObjectBytes = Base64.getUrlDecoder().decode(request.getAttestationObject());
+        byte[] clientDataJSONBytes = Base64.getUrlDecoder().decode(request.getClientDataJSON());
 
-        // 清除 challenge（防止重放攻击 - 每个 challenge 只能使用一次）
-        stringRedisTemplate.delete(challengeKey);
+        // ========== 1. Challenge 验证（每个 challenge 只能使用一次，防止重放攻击）==========
+        // stateless 模式下 challenge 本身携带签名，从 clientDataJSON 中取出校验；redis 模式按用户查找
+        String challengeHint = challengeService.isStateless() ? clientDataChallenge(clientDataJSONBytes) : null;
+        String storedChallenge = challengeService.consume(
+                PasskeyChallengeService.Purpose.REGISTRATION, challengeHint, user.getUuid());
 
         // ========== 2. 使用 webauthn4j 验证 Attestation ==========
-        byte[] attestationObjectBytes = Base64.getUrlDecoder().decode(request.getAttestationObject());
-        byte[] clientDataJSONBytes = Base64.getUrlDecoder().decode(request.getClientDataJSON());
 
         // 解析 attestationObject
         AttestationObject attestationObject = objectConverter.getCborConverter()
@@ -156,8 +141,8 @@ public class PasskeyService {
 
         // 构建 ServerProperty（包含 origin, rpId, challenge）
         ServerProperty serverProperty = new ServerProperty(
-                Origin.create(getEffectiveOrigin()),
-                getEffectiveRpId(),
+                origin,
+                rpId,
                 new DefaultChallenge(Base64.getUrlDecoder().decode(storedChallenge)),
                 null // tokenBindingId (通常为 null)
         );
@@ -178,11 +163,14 @@ public class PasskeyService {
 
         // 验证注册 - 使用 webauthn4j 进行完整的 Attestation 验证
         RegistrationData registrationData;
+        long validationStart = System.nanoTime();
         try {
             @SuppressWarnings("deprecation")
             RegistrationData result = webAuthnManager.validate(registrationRequest, registrationParameters);
             registrationData = result;
+            recordVerification("registration", true, validationStart);
         } catch (Exception e) {
+            recordVerification("registration", false, validationStart);
             throw new IllegalArgumentException("Passkey 注册验证失败: " + e.getMessage(), e);
         }
 
@@ -233,24 +221,15 @@ public class PasskeyService {
 
     /**
      * 生成认证选项（用于登录）
+     * @return 完整的 ApiResponse 响应体（UTF-8 JSON），可直接写入响应
      */
-    public PasskeyAuthenticationOptionsResponse generateAuthenticationOptions() throws Exception {
-        // 生成 challenge
-        String challenge = generateChallenge();
-
-        // 生成随机 ID 作为 challengeId
-        String randomId = UUID.randomUUID().toString();
-        String challengeKey = PASSKEY_AUTHENTICATION_CHALLENGE_PREFIX + randomId;
-        stringRedisTemplate.opsForValue().set(challengeKey, challenge, CHALLENGE_EXPIRY_SECONDS, TimeUnit.SECONDS);
-
-        PasskeyAuthenticationOptionsResponse response = new PasskeyAuthenticationOptionsResponse();
-        response.setChallengeId(randomId);
-        response.setChallenge(challenge);
-        response.setTimeout(String.valueOf(appProperties.getPasskey().getTimeout()));
-        response.setRpId(getEffectiveRpId());
-        response.setUserVerification(appProperties.getPasskey().getUserVerification());
-
-        return response;
+    public byte[] generateAuthenticationOptions() throws Exception {
+        // 生成 challenge 及 challengeId
+        PasskeyChallengeService.Issued issued = challengeService.issue(PasskeyChallengeService.Purpose.AUTHENTICATION, null);
+        return authenticationOptionsTemplate.renderUtf8(Map.of(
+            "challenge", issued.challenge(),
+            "challengeId", issued.challengeId()
+        ));
     }
 
     /**
@@ -259,7 +238,7 @@ public class PasskeyService {
      * 验证步骤：
      * 1. Challenge 验证和一次性使用（防重放）
      * 2. Credential ID 存在性检查
-     * 3. 加载存储的公钥
+     * 3. 加载存储的公钥（PasskeyCredentialCache，命中时不查库、不做 CBOR 解码）
      * 4. Assertion 完整性验证（signature, clientDataHash, authenticatorData）
      * 5. Origin 和 RP ID 验证
      * 6. User Presence 标志检查
@@ -269,122 +248,29 @@ public class PasskeyService {
      * @return 成功验证的用户 ID
      */
     public Long verifyAuthenticationAndGetUserId(PasskeyAuthenticationVerifyRequest request, String challengeId) throws Exception {
-        // ========== 1. Challenge 验证 ==========
-        String challengeKey = PASSKEY_AUTHENTICATION_CHALLENGE_PREFIX + challengeId;
-        String storedChallenge = stringRedisTemplate.opsForValue().get(challengeKey);
-
-        if (storedChallenge == null) {
-            throw new IllegalArgumentException("Challenge 已过期或不存在");
-        }
-
-        // 清除 challenge（防止重放攻击）
-        stringRedisTemplate.delete(challengeKey);
-
-        // ========== 2. 查找 Passkey ==========
-        byte[] credentialId = Base64.getUrlDecoder().decode(request.getCredentialRawId());
-        UserPasskey passkey = userPasskeyRepository.findByCredentialId(credentialId)
-                .orElseThrow(() -> new IllegalArgumentException("Passkey 不存在"));
-
-        // ========== 3. 使用 webauthn4j 验证 Assertion（包含签名验证）==========
-        byte[] credentialIdBytes = Base64.getUrlDecoder().decode(request.getCredentialRawId());
-        byte[] clientDataJSONBytes = Base64.getUrlDecoder().decode(request.getClientDataJSON());
-        byte[] authenticatorDataBytes = Base64.getUrlDecoder().decode(request.getAuthenticatorData());
-        byte[] signatureBytes = Base64.getUrlDecoder().decode(request.getSignature());
-
-        // 构建 ServerProperty
-        ServerProperty serverProperty = new ServerProperty(
-                Origin.create(getEffectiveOrigin()),
-                getEffectiveRpId(),
-                new DefaultChallenge(Base64.getUrlDecoder().decode(storedChallenge)),
-                null
-        );
-
-        // 构建验证所需的公钥
-        COSEKey coseKey = objectConverter.getCborConverter()
-                .readValue(passkey.getPublicKeyCose(), COSEKey.class);
-
-        // 获取当前的 signCount（防克隆检查）
-        long currentSignCount = passkey.getSignCount();
-        if (currentSignCount < 0) {
-            currentSignCount = 0;
-        }
-
-        // 构建 Authenticator（包含公钥和 signCount）
-        @SuppressWarnings("deprecation")
-        Authenticator authenticator = new AuthenticatorImpl(
-                attestedCredentialData(credentialIdBytes, coseKey, passkey.getAaguid()),
-                null, // attestationStatement
-                currentSignCount
-        );
-
-        // 构建 AuthenticationRequest
-        AuthenticationRequest authenticationRequest = new AuthenticationRequest(
-                credentialIdBytes,
-                authenticatorDataBytes,
-                clientDataJSONBytes,
-                signatureBytes
-        );
-
-        // 构建 AuthenticationParameters
-        AuthenticationParameters authenticationParameters = new AuthenticationParameters(
-                serverProperty,
-                authenticator,
-                null, // allowCredentials (webauthn4j 会自动处理)
-                false, // userVerificationRequired (登录时根据配置)
-                true   // userPresenceRequired (必须)
-        );
-
-        // 执行验证（包含签名验证！）
-        AuthenticationData authenticationData;
-        try {
-            @SuppressWarnings("deprecation")
-            AuthenticationData result = webAuthnManager.validate(authenticationRequest, authenticationParameters);
-            authenticationData = result;
-        } catch (Exception e) {
-            throw new IllegalArgumentException("Passkey 认证验证失败: " + e.getMessage(), e);
-        }
-
-        // ========== 4. Sign Count 检查（防克隆攻击）==========
-        long newSignCount = 0;
-        if (authenticationData.getAuthenticatorData() != null) {
-            newSignCount = authenticationData.getAuthenticatorData().getSignCount();
-        }
+        // ========== 1. Challenge 验证（一次性使用，防止重放攻击）==========
+        String storedChallenge = challengeService.consume(
+                PasskeyChallengeService.Purpose.AUTHENTICATION, challengeId, null);
 
-        // 如果认证器支持 signCount（> 0），则必须递增
-        if (newSignCount > 0 && newSignCount <= currentSignCount) {
-            throw new IllegalArgumentException("Sign count 异常，可能是克隆的 Passkey（旧: " +
-                    currentSignCount + ", 新: " + newSignCount + "）");
-        }
-
-        // ========== 5. 更新数据库 ==========
-        passkey.setSignCount(newSignCount);
-        passkey.setLastUsedAt(LocalDateTime.now());
-        userPasskeyRepository.save(passkey);
+        // ========== 2. 验证 Assertion 并更新 signCount ==========
+        PasskeyCredentialCache.Credential credential = verifyAssertion(request, storedChallenge, null, false,
+                "Passkey 认证验证失败: ");
 
         // 返回用户 ID
-        return passkey.getUserId();
+        return credential.userId();
     }
 
     /**
      * 生成敏感操作验证选项
+     * @return 完整的 ApiResponse 响应体（UTF-8 JSON），可直接写入响应
      */
-    public PasskeyAuthenticationOptionsResponse generateSensitiveVerificationOptions() throws Exception {
-        // 生成 challenge
-        String challenge = generateChallenge();
-
-        // 存储到 Redis（键：passkey:sensitive:challenge:{randomId}）
-        String randomId = UUID.randomUUID().toString();
-        String challengeKey = PASSKEY_SENSITIVE_CHALLENGE_PREFIX + randomId;
-        stringRedisTemplate.opsForValue().set(challengeKey, challenge, CHALLENGE_EXPIRY_SECONDS, TimeUnit.SECONDS);
-
-        PasskeyAuthenticationOptionsResponse response = new PasskeyAuthenticationOptionsResponse();
-        response.setChallengeId(randomId);
-        response.setChallenge(challenge);
-        response.setTimeout(String.valueOf(appProperties.getPasskey().getTimeout()));
-        response.setRpId(getEffectiveRpId());
-        response.setUserVerification("required"); // 敏感操作需要用户验证
-
-        return response;
+    public byte[] generateSensitiveVerificationOptions(String userUuid) throws Exception {
+        // 生成 challenge 及 challengeId（绑定当前用户）
+        PasskeyChallengeService.Issued issued = challengeService.issue(PasskeyChallengeService.Purpose.SENSITIVE, userUuid);
+        return sensitiveOptionsTemplate.renderUtf8(Map.of(
+            "challenge", issued.challenge(),
+            "challengeId", issued.challengeId()
+        ));
     }
 
     /**
@@ -395,99 +281,12 @@ public class PasskeyService {
      * 2. 必须检查 User Verified 标志（需要 PIN 或生物识别）
      */
     public void verifySensitiveOperation(User user, PasskeyAuthenticationVerifyRequest request, String challengeId) throws Exception {
-        // ========== 1. Challenge 验证 ==========
-        String challengeKey = PASSKEY_SENSITIVE_CHALLENGE_PREFIX + challengeId;
-        String storedChallenge = stringRedisTemplate.opsForValue().get(challengeKey);
-
-        if (storedChallenge == null) {
-            throw new IllegalArgumentException("Challenge 已过期或不存在");
-        }
-
-        // 清除 challenge（防止重放攻击）
-        stringRedisTemplate.delete(challengeKey);
-
-        // ========== 2. 查找 Passkey 并验证用户归属 ==========
-        byte[] credentialId = Base64.getUrlDecoder().decode(request.getCredentialRawId());
-        UserPasskey passkey = userPasskeyRepository.findByCredentialId(credentialId)
-                .orElseThrow(() -> new IllegalArgumentException("Passkey 不存在"));
-
-        if (!passkey.getUserId().equals(user.getId())) {
-            throw new IllegalArgumentException("Passkey 不属于当前用户");
-        }
-
-        // ========== 3. 使用 webauthn4j 验证 Assertion（包含签名验证）==========
-        byte[] credentialIdBytes = Base64.getUrlDecoder().decode(request.getCredentialRawId());
-        byte[] clientDataJSONBytes = Base64.getUrlDecoder().decode(request.getClientDataJSON());
-        byte[] authenticatorDataBytes = Base64.getUrlDecoder().decode(request.getAuthenticatorData());
-        byte[] signatureBytes = Base64.getUrlDecoder().decode(request.getSignature());
-
-        // 构建 ServerProperty
-        ServerProperty serverProperty = new ServerProperty(
-                Origin.create(getEffectiveOrigin()),
-                getEffectiveRpId(),
-                new DefaultChallenge(Base64.getUrlDecoder().decode(storedChallenge)),
-                null
-        );
-
-        // 构建验证所需的公钥
-        COSEKey coseKey = objectConverter.getCborConverter()
-                .readValue(passkey.getPublicKeyCose(), COSEKey.class);
-
-        // 获取当前的 signCount（防克隆检查）
-        long currentSignCount = passkey.getSignCount();
-        if (currentSignCount < 0) {
-            currentSignCount = 0;
-        }
-
-        // 构建 Authenticator（包含公钥和 signCount）
-        @SuppressWarnings("deprecation")
-        Authenticator authenticator = new AuthenticatorImpl(
-                attestedCredentialData(credentialIdBytes, coseKey, passkey.getAaguid()),
-                null,
-                currentSignCount
-        );
-
-        // 构建 AuthenticationRequest
-        AuthenticationRequest authenticationRequest = new AuthenticationRequest(
-                credentialIdBytes,
-                authenticatorDataBytes,
-                clientDataJSONBytes,
-                signatureBytes
-        );
-
-        // 构建 AuthenticationParameters（敏感操作需要 User Verification）
-        AuthenticationParameters authenticationParameters = new AuthenticationParameters(
-                serverProperty,
-                authenticator,
-                null,
-                true,  // userVerificationRequired = true（敏感操作必须）
-                true
-        );
-
-        // 执行验证（包含签名验证和 User Verified 标志检查）
-        AuthenticationData authenticationData;
-        try {
-            @SuppressWarnings("deprecation")
-            AuthenticationData result = webAuthnManager.validate(authenticationRequest, authenticationParameters);
-            authenticationData = result;
-        } catch (Exception e) {
-            throw new IllegalArgumentException("敏感操作验证失败: " + e.getMessage(), e);
-        }
-
-        // ========== 4. Sign Count 检查（防克隆攻击）==========
-        long newSignCount = 0;
-        if (authenticationData.getAuthenticatorData() != null) {
-            newSignCount = authenticationData.getAuthenticatorData().getSignCount();
-        }
+        // ========== 1. Challenge 验证（一次性使用，防止重放攻击）==========
+        String storedChallenge = challengeService.consume(
+                PasskeyChallengeService.Purpose.SENSITIVE, challengeId, user.getUuid());
 
-        if (newSignCount > 0 && newSignCount <= currentSignCount) {
-            throw new IllegalArgumentException("Sign count 异常，可能是克隆的 Passkey");
-        }
-
-        // ========== 5. 更新数据库 ==========
-        passkey.setSignCount(newSignCount);
-        passkey.setLastUsedAt(LocalDateTime.now());
-        userPasskeyRepository.save(passkey);
+        // ========== 2. 验证用户归属、Assertion（需要 User Verified 标志）并更新 signCount ==========
+        verifyAssertion(request, storedChallenge, user.getId(), true, "敏感操作验证失败: ");
     }
 
     /**
@@ -522,6 +321,7 @@ public class PasskeyService {
         }
 
         userPasskeyRepository.delete(passkey);
+        credentialCache.invalidate(passkey.getCredentialId());
     }
 
     /**
@@ -546,28 +346,202 @@ public class PasskeyService {
         passkey.setName(newName.trim());
         passkey.setUpdatedAt(LocalDateTime.now());
         userPasskeyRepository.save(passkey);
+        credentialCache.invalidate(passkey.getCredentialId());
     }
 
     // ==================== 辅助方法 ====================
 
     /**
-     * 生成 challenge（使用 base64url 编码，不带 padding）
+     * 注册选项模板：{code, msg, data: {challenge, rp, user, pubKeyCredParams, timeout, attestation, authenticatorSelection}}
+     */
+    private CompiledTemplate buildRegistrationOptionsTemplate() {
+        AppProperties.Passkey config = appProperties.getPasskey();
+        ObjectNode data = objectMapper.createObjectNode();
+        data.put("challenge", "@@challenge@@");
+
+        // RP (Relying Party) 对象
+        ObjectNode rpNode = data.putObject("rp");
+        rpNode.put("name", config.getRpName());
+        rpNode.put("id", rpId);
+
+        // user 对象
+        ObjectNode userNode = data.putObject("user");
+        userNode.put("id", "@@userId@@");
+        userNode.put("name", "@@userName@@");
+        userNode.put("displayName", "@@displayName@@");
+
+        // pubKeyCredParams 数组
+        ArrayNode pubKeyCredParams = data.putArray("pubKeyCredParams");
+        ObjectNode credParam = pubKeyCredParams.addObject();
+        credParam.put("type", "public-key");
+        credParam.put("alg", -7); // ES256
+
+        data.put("timeout", config.getTimeout());
+        data.put("attestation", config.getAttestation());
+
+        // authenticatorSelection 对象
+        ObjectNode authSelNode = data.putObject("authenticatorSelection");
+        authSelNode.put("authenticatorAttachment", "platform");
+        authSelNode.put("residentKey", config.getResidentKey());
+        authSelNode.put("userVerification", config.getUserVerification());
+
+        return compileResponseTemplate("生成注册选项成功", data);
+    }
+
+    /**
+     * 认证选项模板：{code, msg, data: {challenge, challengeId, timeout, rpId, userVerification}}
+     */
+    private CompiledTemplate buildAuthenticationOptionsTemplate(String msg, String userVerification) {
+        ObjectNode data = objectMapper.createObjectNode();
+        data.put("challenge", "@@challenge@@");
+        data.put("challengeId", "@@challengeId@@");
+        data.put("timeout", appProperties.getPasskey().getTimeout());
+        data.put("rpId", rpId);
+        data.put("userVerification", userVerification);
+        return compileResponseTemplate(msg, data);
+    }
+
+    /**
+     * 按 ApiResponse 的结构包装后编译
+     */
+    private CompiledTemplate compileResponseTemplate(String msg, ObjectNode data) {
+        ObjectNode root = objectMapper.createObjectNode();
+        root.put("code", 200);
+        root.put("msg", msg);
+        root.set("data", data);
+        return CompiledTemplate.compile(root.toString(), CompiledTemplate.Escape.JSON);
+    }
+
+    /**
+     * 从 clientDataJSON 中取出 challenge（base64url）
      */
-    private String generateChallenge() {
-        byte[] challengeBytes = new byte[CHALLENGE_LENGTH];
-        secureRandom.nextBytes(challengeBytes);
-        return Base64.getUrlEncoder().withoutPadding().encodeToString(challengeBytes);
+    private String clientDataChallenge(byte[] clientDataJSONBytes) {
+        try {
+            JsonNode challenge = objectMapper.readTree(clientDataJSONBytes).get("challenge");
+            return challenge != null ? challenge.asText() : null;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("clientDataJSON 格式错误", e);
+        }
     }
 
     /**
-     * 创建 AttestedCredentialData（webauthn4j 需要）
+     * 断言验证（登录与敏感操作共用）
+     *
+     * 1. 从缓存取凭证的验证材料（公钥、AAGUID、所属用户），未命中时查库并解析
+     * 2. 检查用户归属（expectedUserId 不为 null 时）
+     * 3. webauthn4j 验证签名、clientDataHash、Origin、RP ID、User Presence / User Verified
+     * 4. Sign Count 检查（防克隆）并写回数据库
+     *
+     * @param expectedUserId 凭证必须属于该用户；为 null 时不检查
+     * @param failureMessage webauthn4j 验证失败时的提示前缀
+     * @return 验证通过的凭证
      */
-    private AttestedCredentialData attestedCredentialData(byte[] credentialId, COSEKey coseKey, byte[] aaguid) {
-        return new AttestedCredentialData(
-            new com.webauthn4j.data.attestation.authenticator.AAGUID(aaguid),
-            credentialId,
-            coseKey
+    private PasskeyCredentialCache.Credential verifyAssertion(PasskeyAuthenticationVerifyRequest request,
+                                                              String storedChallenge,
+                                                              Long expectedUserId,
+                                                              boolean userVerificationRequired,
+                                                              String failureMessage) {
+        byte[] credentialId = Base64.getUrlDecoder().decode(request.getCredentialRawId());
+        PasskeyCredentialCache.Credential credential = credentialCache.get(credentialId)
+                .orElseThrow(() -> new IllegalArgumentException("Passkey 不存在"));
+
+        if (expectedUserId != null && !credential.userId().equals(expectedUserId)) {
+            throw new IllegalArgumentException("Passkey 不属于当前用户");
+        }
+
+        byte[] clientDataJSONBytes = Base64.getUrlDecoder().decode(request.getClientDataJSON());
+        byte[] authenticatorDataBytes = Base64.getUrlDecoder().decode(request.getAuthenticatorData());
+        byte[] signatureBytes = Base64.getUrlDecoder().decode(request.getSignature());
+
+        ServerProperty serverProperty = new ServerProperty(
+                origin,
+                rpId,
+                new DefaultChallenge(Base64.getUrlDecoder().decode(storedChallenge)),
+                null
+        );
+
+        // 获取当前的 signCount（防克隆检查）
+        long currentSignCount = credential.signCount();
+
+        // 构建 Authenticator（包含公钥和 signCount）
+        @SuppressWarnings("deprecation")
+        Authenticator authenticator = new AuthenticatorImpl(
+                credential.attestedCredentialData(),
+                null, // attestationStatement
+                currentSignCount
+        );
+
+        AuthenticationRequest authenticationRequest = new AuthenticationRequest(
+                credentialId,
+                authenticatorDataBytes,
+                clientDataJSONBytes,
+                signatureBytes
+        );
+
+        AuthenticationParameters authenticationParameters = new AuthenticationParameters(
+                serverProperty,
+                authenticator,
+                null, // allowCredentials (webauthn4j 会自动处理)
+                userVerificationRequired,
+                true   // userPresenceRequired (必须)
         );
+
+        // 执行验证（包含签名验证！）
+        // 只有敏感操作验证要求 User Verified
+        String operation = userVerificationRequired ? "sensitive" : "authentication";
+        AuthenticationData authenticationData;
+        long validationStart = System.nanoTime();
+        try {
+            @SuppressWarnings("deprecation")
+            AuthenticationData result = webAuthnManager.validate(authenticationRequest, authenticationParameters);
+            authenticationData = result;
+            recordVerification(operation, true, validationStart);
+        } catch (Exception e) {
+            recordVerification(operation, false, validationStart);
+            throw new IllegalArgumentException(failureMessage + e.getMessage(), e);
+        }
+
+        long newSignCount = 0;
+        if (authenticationData.getAuthenticatorData() != null) {
+            newSignCount = authenticationData.getAuthenticatorData().getSignCount();
+        }
+
+        recordUse(credential, newSignCount);
+        return credential;
+    }
+
+    /**
+     * 记录 webauthn4j 验证耗时（签名、clientData、Origin、RP ID 等校验）
+     * @param operation registration / authentication / sensitive
+     */
+    private void recordVerification(String operation, boolean success, long startNanos) {
+        Timer.builder("passkey.verification.duration")
+            .description("WebAuthn 验证耗时")
+            .tags("operation", operation, "result", success ? "success" : "failure")
+            .register(meterRegistry)
+            .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Sign Count 检查并更新使用记录
+     * signCount 用条件更新写入（WHERE sign_count < 新值），并发或克隆的断言只有一个能成功；
+     * last_used_at 交给 PasskeyUsageRecorder 合并后批量写入
+     */
+    private void recordUse(PasskeyCredentialCache.Credential credential, long newSignCount) {
+        if (newSignCount > 0) {
+            // 如果认证器支持 signCount（> 0），则必须递增
+            if (userPasskeyRepository.advanceSignCount(credential.passkeyId(), newSignCount) == 0) {
+                if (!userPasskeyRepository.existsById(credential.passkeyId())) {
+                    throw new IllegalArgumentException("Passkey 不存在");
+                }
+                throw new IllegalArgumentException("Sign count 异常，可能是克隆的 Passkey（新: " + newSignCount + "）");
+            }
+            credential.updateSignCount(newSignCount);
+        } else if (!userPasskeyRepository.existsById(credential.passkeyId())) {
+            // 不支持计数器的认证器：确认 Passkey 未被删除（缓存失效广播可能丢失）
+            throw new IllegalArgumentException("Passkey 不存在");
+        }
+        usageRecorder.record(credential.passkeyId(), LocalDateTime.now());
     }
 
     /**
@@ -0,0 +1,75 @@
+package cn.ksuser.api.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Passkey 最近使用时间（last_used_at）合并写入
+ * 验证成功后只记录到内存，同一 Passkey 多次使用只保留最新时间，定时批量写入数据库；
+ * 停机时写入剩余记录。last_used_at 仅用于展示，进程异常退出时最多丢失一个刷新间隔内的更新
+ */
+@Service
+public class PasskeyUsageRecorder {
+
+    private static final Logger logger = LoggerFactory.getLogger(PasskeyUsageRecorder.class);
+
+    private static final String UPDATE_SQL =
+        "UPDATE user_passkeys SET last_used_at = ? WHERE id = ? AND (last_used_at IS NULL OR last_used_at < ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ConcurrentHashMap<Long, LocalDateTime> pending = new ConcurrentHashMap<>();
+
+    public PasskeyUsageRecorder(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * 记录一次使用
+     */
+    public void record(Long passkeyId, LocalDateTime usedAt) {
+        pending.merge(passkeyId, usedAt, (previous, current) -> current.isAfter(previous) ? current : previous);
+    }
+
+    @Scheduled(fixedDelayString = "${app.passkey.last-used-flush-interval-ms:30000}")
+    public void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<Object[]> batch = new ArrayList<>();
+        for (Map.Entry<Long, LocalDateTime> entry : pending.entrySet()) {
+            // 只移除已取出的值，期间新写入的时间留到下一轮
+            if (pending.remove(entry.getKey(), entry.getValue())) {
+                Timestamp usedAt = Timestamp.valueOf(entry.getValue());
+                batch.add(new Object[]{usedAt, entry.getKey(), usedAt});
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            jdbcTemplate.batchUpdate(UPDATE_SQL, batch);
+        } catch (Exception e) {
+            logger.warn("Failed to flush passkey last_used_at: count={}", batch.size(), e);
+            // 放回队列等待下一轮，已有更新的时间不会被覆盖
+            for (Object[] row : batch) {
+                record((Long) row[1], ((Timestamp) row[0]).toLocalDateTime());
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+}
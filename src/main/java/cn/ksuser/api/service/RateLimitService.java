@@ -2,6 +2,8 @@ package cn.ksuser.api.service;
 
 import cn.ksuser.api.config.AppProperties;
 import cn.ksuser.api.util.IpUtil;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
@@ -19,6 +21,7 @@ public class RateLimitService {
 
     private final StringRedisTemplate redisTemplate;
     private final AppProperties appProperties;
+    private final MeterRegistry meterRegistry;
     private static final String MINUTE_LIMIT_PREFIX = "ratelimit:minute:";
     private static final String HOUR_LIMIT_PREFIX = "ratelimit:hour:";
     private static final String REGISTER_SUCCESS_PREFIX = "register:success:";
@@ -33,9 +36,10 @@ public class RateLimitService {
     public static final String TYPE_VERIFICATION_CODE = "verify";
     public static final String TYPE_LOGIN = "login";
 
-    public RateLimitService(StringRedisTemplate redisTemplate, AppProperties appProperties) {
+    public RateLimitService(StringRedisTemplate redisTemplate, AppProperties appProperties, MeterRegistry meterRegistry) {
         this.redisTemplate = redisTemplate;
         this.appProperties = appProperties;
+        this.meterRegistry = meterRegistry;
     }
 
     /**
@@ -44,8 +48,9 @@ public class RateLimitService {
      * @return 是否允许
      */
     public boolean isAllowed(String identifier) {
-        return isAllowedPerMinute(identifier, appProperties.getRateLimit().getSendCodeEmailPerMinute())
-            && isAllowedPerHour(identifier, appProperties.getRateLimit().getSendCodeEmailPerHour());
+        return recordDecision("identifier", TYPE_VERIFICATION_CODE,
+            isAllowedPerMinute(identifier, appProperties.getRateLimit().getSendCodeEmailPerMinute())
+                && isAllowedPerHour(identifier, appProperties.getRateLimit().getSendCodeEmailPerHour()));
     }
 
     /**
@@ -57,11 +62,13 @@ public class RateLimitService {
     public boolean isEmailAllowed(String email, String type) {
         String identifier = type + ":" + email;
         if (TYPE_LOGIN.equals(type)) {
-            return isAllowedPerMinute(identifier, appProperties.getRateLimit().getLoginEmailPerMinute())
-                && isAllowedPerHour(identifier, appProperties.getRateLimit().getLoginEmailPerHour());
+            return recordDecision("email", type,
+                isAllowedPerMinute(identifier, appProperties.getRateLimit().getLoginEmailPerMinute())
+                    && isAllowedPerHour(identifier, appProperties.getRateLimit().getLoginEmailPerHour()));
         }
-        return isAllowedPerMinute(identifier, appProperties.getRateLimit().getSendCodeEmailPerMinute())
-            && isAllowedPerHour(identifier, appProperties.getRateLimit().getSendCodeEmailPerHour());
+        return recordDecision("email", type,
+            isAllowedPerMinute(identifier, appProperties.getRateLimit().getSendCodeEmailPerMinute())
+                && isAllowedPerHour(identifier, appProperties.getRateLimit().getSendCodeEmailPerHour()));
     }
 
     /**
@@ -82,11 +89,13 @@ public class RateLimitService {
     public boolean isIpAllowed(String ip, String type) {
         String identifier = type + ":" + ip;
         if (TYPE_LOGIN.equals(type)) {
-            return isAllowedPerMinute(identifier, appProperties.getRateLimit().getLoginIpPerMinute())
-                && isAllowedPerHour(identifier, appProperties.getRateLimit().getLoginIpPerHour());
+            return recordDecision("ip", type,
+                isAllowedPerMinute(identifier, appProperties.getRateLimit().getLoginIpPerMinute())
+                    && isAllowedPerHour(identifier, appProperties.getRateLimit().getLoginIpPerHour()));
         }
-        return isAllowedPerMinute(identifier, appProperties.getRateLimit().getSendCodeIpPerMinute())
-            && isAllowedPerHour(identifier, appProperties.getRateLimit().getSendCodeIpPerHour());
+        return recordDecision("ip", type,
+            isAllowedPerMinute(identifier, appProperties.getRateLimit().getSendCodeIpPerMinute())
+                && isAllowedPerHour(identifier, appProperties.getRateLimit().getSendCodeIpPerHour()));
     }
 
     /**
@@ -145,6 +154,21 @@ public class RateLimitService {
         recordIpRequest(ip, TYPE_VERIFICATION_CODE);
     }
 
+    /**
+     * 记录限流判定结果
+     * @param scope 限流维度（email / ip / identifier）
+     * @param type 操作类型（verify / login）
+     * @return allowed
+     */
+    private boolean recordDecision(String scope, String type, boolean allowed) {
+        Counter.builder("rate.limit.decisions")
+            .description("限流判定次数")
+            .tags("scope", scope, "type", type, "result", allowed ? "allowed" : "denied")
+            .register(meterRegistry)
+            .increment();
+        return allowed;
+    }
+
     /**
      * 检查分钟限制
      * @param identifier 标识符
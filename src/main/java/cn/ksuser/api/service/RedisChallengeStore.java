@@ -0,0 +1,112 @@
+package cn.ksuser.api.service;
+
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 基于 Redis 的挑战存储
+ * - 每个挑战一个 Hash（userId / ip / ua / attempts），随 TTL 自动过期
+ * - 写入与占用尝试使用 Lua 脚本，保证原子性，占用时不会重建已过期的 Key
+ * - 另用一个按过期时间排序的 ZSET 记录挑战 ID，仅用于统计存活数量；每次写入时在同一脚本中清除已过期的成员，
+ *   不依赖 size() 被调用，ZSET 大小不超过存活挑战数加上一个 TTL 内的删除量
+ */
+public class RedisChallengeStore implements ChallengeStore {
+
+    private static final String KEY_PREFIX = "mfa:challenge:";
+    private static final String INDEX_KEY = "mfa:challenge:index";
+
+    private static final String FIELD_USER_ID = "userId";
+    private static final String FIELD_IP = "ip";
+    private static final String FIELD_USER_AGENT = "ua";
+    private static final String FIELD_ATTEMPTS = "attempts";
+
+    private static final RedisScript<Long> PUT_SCRIPT = new DefaultRedisScript<>(
+        "redis.call('HSET', KEYS[1], 'userId', ARGV[1], 'ip', ARGV[2], 'ua', ARGV[3], 'attempts', ARGV[4]) " +
+        "redis.call('PEXPIRE', KEYS[1], ARGV[5]) " +
+        "redis.call('ZADD', KEYS[2], ARGV[6], ARGV[7]) " +
+        "redis.call('ZREMRANGEBYSCORE', KEYS[2], '-inf', ARGV[8]) " +
+        "return 1",
+        Long.class);
+
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> RESERVE_SCRIPT = new DefaultRedisScript<>(
+        "if redis.call('EXISTS', KEYS[1]) == 0 then return nil end " +
+        "local attempts = redis.call('HINCRBY', KEYS[1], 'attempts', 1) " +
+        "local fields = redis.call('HMGET', KEYS[1], 'userId', 'ip', 'ua') " +
+        "return {tostring(attempts), fields[1], fields[2], fields[3]}",
+        List.class);
+
+    private final StringRedisTemplate redisTemplate;
+
+    public RedisChallengeStore(StringRedisTemplate redisTemplate) {
+        this.redisTemplate = redisTemplate;
+    }
+
+    @Override
+    public void put(String id, Challenge challenge, Duration ttl) {
+        long now = System.currentTimeMillis();
+        redisTemplate.execute(PUT_SCRIPT, List.of(KEY_PREFIX + id, INDEX_KEY),
+            String.valueOf(challenge.userId()),
+            nullToEmpty(challenge.clientIp()),
+            nullToEmpty(challenge.userAgent()),
+            String.valueOf(challenge.attempts()),
+            String.valueOf(ttl.toMillis()),
+            String.valueOf(now + ttl.toMillis()),
+            id,
+            String.valueOf(now));
+    }
+
+    @Override
+    public Challenge get(String id) {
+        Map<Object, Object> fields = redisTemplate.opsForHash().entries(KEY_PREFIX + id);
+        Object userId = fields.get(FIELD_USER_ID);
+        if (userId == null) {
+            return null;
+        }
+        Object attempts = fields.get(FIELD_ATTEMPTS);
+        return new Challenge(
+            Long.valueOf(userId.toString()),
+            emptyToNull(fields.get(FIELD_IP)),
+            emptyToNull(fields.get(FIELD_USER_AGENT)),
+            attempts != null ? Integer.parseInt(attempts.toString()) : 0);
+    }
+
+    @Override
+    public Challenge reserveAttempt(String id) {
+        List<?> result = redisTemplate.execute(RESERVE_SCRIPT, List.of(KEY_PREFIX + id));
+        if (result == null || result.size() < 4 || result.get(1) == null) {
+            return null;
+        }
+        return new Challenge(
+            Long.valueOf(result.get(1).toString()),
+            emptyToNull(result.get(2)),
+            emptyToNull(result.get(3)),
+            Integer.parseInt(result.get(0).toString()));
+    }
+
+    @Override
+    public void remove(String id) {
+        redisTemplate.delete(KEY_PREFIX + id);
+        redisTemplate.opsForZSet().remove(INDEX_KEY, id);
+    }
+
+    @Override
+    public long size() {
+        redisTemplate.opsForZSet().removeRangeByScore(INDEX_KEY, 0, System.currentTimeMillis());
+        Long size = redisTemplate.opsForZSet().zCard(INDEX_KEY);
+        return size != null ? size : 0;
+    }
+
+    private static String nullToEmpty(String value) {
+        return value != null ? value : "";
+    }
+
+    private static String emptyToNull(Object value) {
+        return value == null || value.toString().isEmpty() ? null : value.toString();
+    }
+}
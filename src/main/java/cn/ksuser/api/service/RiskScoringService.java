@@ -1,6 +1,5 @@
 package cn.ksuser.api.service;
 
-import cn.ksuser.api.entity.User;
 import cn.ksuser.api.entity.UserSensitiveLog;
 import cn.ksuser.api.repository.UserSensitiveLogRepository;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -35,49 +34,115 @@ public class RiskScoringService {
     private UserSensitiveLogRepository logRepository;
 
     /**
-     * 计算操作风险评分
+     * 风险评分依赖的历史记录（评分前查询，可以与其它补全查询并行执行）
+     * @param recentFailures 24 小时内失败次数
+     * @param knownIp 历史中是否出现过该 IP
+     * @param previousLogin 是否有过登录记录
+     * @param lastLoginLocation 最近一次登录的 IP 属地
+     * @param knownDeviceType 历史中是否出现过该设备类型
+     * @param knownBrowser 历史中是否使用过该浏览器
+     * @param recentRequests 5 分钟内的操作次数
      */
-    public Integer calculateRiskScore(UserSensitiveLog log, User user) {
+    public record History(int recentFailures, boolean knownIp, boolean previousLogin, String lastLoginLocation,
+                          boolean knownDeviceType, boolean knownBrowser, int recentRequests) {
+    }
+
+    /**
+     * 查询风险评分依赖的历史记录
+     * 需要在补全设备类型、浏览器之后调用；IP 属地只参与比较，不影响查询，可以与属地查询同时进行
+     */
+    public History loadHistory(UserSensitiveLog log) {
+        Long userId = log.getUserId();
+        if (userId == null) {
+            return null;
+        }
+
+        // 因素1：24小时内失败次数
+        List<UserSensitiveLog> recentFailures = logRepository.findRecentFailuresByUser(
+            userId, LocalDateTime.now().minusHours(24));
+
+        // 因素2：历史中是否出现过该IP
+        boolean knownIp = true;
+        if (log.getIpAddress() != null) {
+            List<UserSensitiveLog> previousLogs = logRepository.findByUserIdAndIpAddress(userId, log.getIpAddress());
+            knownIp = previousLogs != null && !previousLogs.isEmpty();
+        }
+
+        // 因素3：最近一次的登录日志（没有IP时也不会有属地，无需查询）
+        boolean previousLogin = false;
+        String lastLoginLocation = null;
+        if (log.getIpAddress() != null || log.getIpLocation() != null) {
+            List<UserSensitiveLog> recentLogins = logRepository.findByUserIdAndOperationTypeOrderByCreatedAtDesc(
+                userId, "LOGIN");
+            if (recentLogins != null && !recentLogins.isEmpty()) {
+                previousLogin = true;
+                lastLoginLocation = recentLogins.get(0).getIpLocation();
+            }
+        }
+
+        // 因素4：历史中是否出现过该设备类型
+        boolean knownDeviceType = true;
+        if (log.getDeviceType() != null) {
+            List<UserSensitiveLog> previousLogs = logRepository.findByUserIdAndDeviceType(userId, log.getDeviceType());
+            knownDeviceType = previousLogs != null && !previousLogs.isEmpty();
+        }
+
+        // 因素5：历史中是否使用过该浏览器
+        boolean knownBrowser = true;
+        if (log.getBrowser() != null) {
+            List<UserSensitiveLog> previousLogs = logRepository.findByUserIdAndBrowser(userId, log.getBrowser());
+            knownBrowser = previousLogs != null && !previousLogs.isEmpty();
+        }
+
+        // 因素9：5分钟内的操作次数
+        List<UserSensitiveLog> recentLogs = logRepository.findByUserIdAndCreatedAtAfter(
+            userId, LocalDateTime.now().minusMinutes(5));
+
+        return new History(recentFailures != null ? recentFailures.size() : 0, knownIp, previousLogin,
+            lastLoginLocation, knownDeviceType, knownBrowser, recentLogs != null ? recentLogs.size() : 0);
+    }
+
+    /**
+     * 根据已查询的历史记录计算操作风险评分
+     * @param history 历史记录，为 null 时（未登录用户、查询超时或失败）只计算不依赖历史的因素
+     */
+    public Integer calculateRiskScore(UserSensitiveLog log, History history) {
         int score = 0;
 
-        try {
+        if (history != null) {
             // 因素1：操作失败次数
-            score += checkFailureFrequency(log);
+            score += checkFailureFrequency(log, history);
 
             // 因素2：IP地址异常
-            score += checkNewIpAddress(log, user);
+            score += checkNewIpAddress(log, history);
 
             // 因素3：地理位置异常
-            score += checkLocationAnomaly(log, user);
+            score += checkLocationAnomaly(log, history);
 
             // 因素4：设备类型变化
-            score += checkNewDeviceType(log, user);
+            score += checkNewDeviceType(log, history);
 
             // 因素5：浏览器变化
-            score += checkNewBrowser(log, user);
-
-            // 因素6：登录失败
-            score += checkLoginFailure(log);
+            score += checkNewBrowser(log, history);
 
-            // 因素7：敏感操作失败
-            score += checkSensitiveOperationFailure(log);
+            // 因素9：操作频率异常
+            score += checkRequestFrequencyAnomaly(log, history);
+        }
 
-            // 因素8：非工作时间操作
-            score += checkUnusualTimeOperation(log);
+        // 因素6：登录失败
+        score += checkLoginFailure(log);
 
-            // 因素9：操作频率异常
-            score += checkRequestFrequencyAnomaly(log, user);
+        // 因素7：敏感操作失败
+        score += checkSensitiveOperationFailure(log);
 
-            // 确保评分在0-100之间
-            score = Math.max(0, Math.min(100, score));
+        // 因素8：非工作时间操作
+        score += checkUnusualTimeOperation(log);
 
-            logger.debug("Risk score calculated: userId={}, score={}, operation={}", 
-                        log.getUserId(), score, log.getOperationType());
+        // 确保评分在0-100之间
+        score = Math.max(0, Math.min(100, score));
 
-        } catch (Exception e) {
-            logger.error("Error calculating risk score", e);
-            score = 5; // 计算异常时给予较低的风险分数
-        }
+        logger.debug("Risk score calculated: userId={}, score={}, operation={}, history={}",
+                    log.getUserId(), score, log.getOperationType(), history != null);
 
         return score;
     }
@@ -85,22 +150,12 @@ public class RiskScoringService {
     /**
      * 因素1：检查24小时内失败次数是否过多
      */
-    private Integer checkFailureFrequency(UserSensitiveLog log) {
-        if (log.getUserId() == null) {
-            return 0;
-        }
-
-        LocalDateTime oneDayAgo = LocalDateTime.now().minusHours(24);
-        List<UserSensitiveLog> recentFailures = logRepository.findRecentFailuresByUser(
-            log.getUserId(), 
-            oneDayAgo
-        );
-
-        logger.debug("Factor 1 - Failure frequency: userId={}, failures in 24h={}", 
-                    log.getUserId(), recentFailures != null ? recentFailures.size() : 0);
+    private Integer checkFailureFrequency(UserSensitiveLog log, History history) {
+        logger.debug("Factor 1 - Failure frequency: userId={}, failures in 24h={}",
+                    log.getUserId(), history.recentFailures());
 
         // 24小时内失败次数 > 3 次：+30分
-        if (recentFailures != null && recentFailures.size() > 3) {
+        if (history.recentFailures() > 3) {
             return 30;
         }
         return 0;
@@ -109,54 +164,37 @@ public class RiskScoringService {
     /**
      * 因素2：检查是否为新IP地址
      */
-    private Integer checkNewIpAddress(UserSensitiveLog log, User user) {
-        if (log.getUserId() == null || log.getIpAddress() == null) {
+    private Integer checkNewIpAddress(UserSensitiveLog log, History history) {
+        if (log.getIpAddress() == null) {
             return 0;
         }
 
-        // 查询用户历史中是否出现过该IP
-        List<UserSensitiveLog> previousLogs = logRepository.findByUserIdAndIpAddress(
-            log.getUserId(),
-            log.getIpAddress()
-        );
-
-        logger.debug("Factor 2 - New IP: userId={}, ip={}, previous_count={}", 
-                    log.getUserId(), log.getIpAddress(), previousLogs != null ? previousLogs.size() : 0);
+        logger.debug("Factor 2 - New IP: userId={}, ip={}, known={}",
+                    log.getUserId(), log.getIpAddress(), history.knownIp());
 
         // 新IP地址（历史中未出现过）：+20分
-        if (previousLogs == null || previousLogs.isEmpty()) {
-            return 20;
-        }
-        return 0;
+        return history.knownIp() ? 0 : 20;
     }
 
     /**
      * 因素3：检查地理位置异常（与上次登录地点的差异）
      */
-    private Integer checkLocationAnomaly(UserSensitiveLog log, User user) {
-        if (log.getUserId() == null || log.getIpLocation() == null) {
-            logger.debug("Factor 3 - Location anomaly: userId={}, location_null={}", 
-                        log.getUserId(), log.getIpLocation() == null);
+    private Integer checkLocationAnomaly(UserSensitiveLog log, History history) {
+        if (log.getIpLocation() == null) {
+            logger.debug("Factor 3 - Location anomaly: userId={}, location_null=true", log.getUserId());
             return 0;
         }
 
-        // 查询最近一次的登录日志
-        List<UserSensitiveLog> recentLogs = logRepository.findByUserIdAndOperationTypeOrderByCreatedAtDesc(
-            log.getUserId(),
-            "LOGIN"
-        );
+        logger.debug("Factor 3 - Location anomaly: userId={}, location={}, previous_login={}",
+                    log.getUserId(), log.getIpLocation(), history.previousLogin());
 
-        logger.debug("Factor 3 - Location anomaly: userId={}, location={}, previous_logins={}", 
-                    log.getUserId(), log.getIpLocation(), recentLogs != null ? recentLogs.size() : 0);
-
-        if (recentLogs == null || recentLogs.isEmpty()) {
+        if (!history.previousLogin()) {
             // 首次登录或首次从该位置登录：+15分
             return 15;
         }
 
-        UserSensitiveLog lastLogin = recentLogs.get(0);
-        if (lastLogin.getIpLocation() != null && 
-            !lastLogin.getIpLocation().equals(log.getIpLocation())) {
+        if (history.lastLoginLocation() != null &&
+            !history.lastLoginLocation().equals(log.getIpLocation())) {
             // 登录位置与上次不同：+15分
             return 15;
         }
@@ -167,53 +205,33 @@ public class RiskScoringService {
     /**
      * 因素4：检查新设备类型
      */
-    private Integer checkNewDeviceType(UserSensitiveLog log, User user) {
-        if (log.getUserId() == null || log.getDeviceType() == null) {
-            logger.debug("Factor 4 - New device type: userId={}, deviceType_null={}", 
-                        log.getUserId(), log.getDeviceType() == null);
+    private Integer checkNewDeviceType(UserSensitiveLog log, History history) {
+        if (log.getDeviceType() == null) {
+            logger.debug("Factor 4 - New device type: userId={}, deviceType_null=true", log.getUserId());
             return 0;
         }
 
-        // 查询用户历史中是否出现过该设备类型
-        List<UserSensitiveLog> previousLogs = logRepository.findByUserIdAndDeviceType(
-            log.getUserId(),
-            log.getDeviceType()
-        );
-
-        logger.debug("Factor 4 - New device type: userId={}, deviceType={}, previous_count={}", 
-                    log.getUserId(), log.getDeviceType(), previousLogs != null ? previousLogs.size() : 0);
+        logger.debug("Factor 4 - New device type: userId={}, deviceType={}, known={}",
+                    log.getUserId(), log.getDeviceType(), history.knownDeviceType());
 
         // 新设备类型：+10分
-        if (previousLogs == null || previousLogs.isEmpty()) {
-            return 10;
-        }
-        return 0;
+        return history.knownDeviceType() ? 0 : 10;
     }
 
     /**
      * 因素5：检查新浏览器
      */
-    private Integer checkNewBrowser(UserSensitiveLog log, User user) {
-        if (log.getUserId() == null || log.getBrowser() == null) {
-            logger.debug("Factor 5 - New browser: userId={}, browser_null={}", 
-                        log.getUserId(), log.getBrowser() == null);
+    private Integer checkNewBrowser(UserSensitiveLog log, History history) {
+        if (log.getBrowser() == null) {
+            logger.debug("Factor 5 - New browser: userId={}, browser_null=true", log.getUserId());
             return 0;
         }
 
-        // 查询用户历史中是否使用过该浏览器
-        List<UserSensitiveLog> previousLogs = logRepository.findByUserIdAndBrowser(
-            log.getUserId(),
-            log.getBrowser()
-        );
-
-        logger.debug("Factor 5 - New browser: userId={}, browser={}, previous_count={}", 
-                    log.getUserId(), log.getBrowser(), previousLogs != null ? previousLogs.size() : 0);
+        logger.debug("Factor 5 - New browser: userId={}, browser={}, known={}",
+                    log.getUserId(), log.getBrowser(), history.knownBrowser());
 
         // 新浏览器：+8分
-        if (previousLogs == null || previousLogs.isEmpty()) {
-            return 8;
-        }
-        return 0;
+        return history.knownBrowser() ? 0 : 8;
     }
 
     /**
@@ -274,22 +292,12 @@ public class RiskScoringService {
     /**
      * 因素9：检查操作频率异常（5分钟内连续多次请求）
      */
-    private Integer checkRequestFrequencyAnomaly(UserSensitiveLog log, User user) {
-        if (log.getUserId() == null) {
-            return 0;
-        }
-
-        LocalDateTime fiveMinutesAgo = LocalDateTime.now().minusMinutes(5);
-        List<UserSensitiveLog> recentLogs = logRepository.findByUserIdAndCreatedAtAfter(
-            log.getUserId(),
-            fiveMinutesAgo
-        );
-
-        logger.debug("Factor 9 - Request frequency anomaly: userId={}, requests_in_5min={}", 
-                    log.getUserId(), recentLogs != null ? recentLogs.size() : 0);
+    private Integer checkRequestFrequencyAnomaly(UserSensitiveLog log, History history) {
+        logger.debug("Factor 9 - Request frequency anomaly: userId={}, requests_in_5min={}",
+                    log.getUserId(), history.recentRequests());
 
         // 5分钟内超过5次请求：+20分
-        if (recentLogs != null && recentLogs.size() > 5) {
+        if (history.recentRequests() > 5) {
             return 20;
         }
         return 0;
@@ -0,0 +1,261 @@
+package cn.ksuser.api.service;
+
+import cn.ksuser.api.dto.SecurityStatsBucket;
+import cn.ksuser.api.dto.SecurityStatsResponse;
+import cn.ksuser.api.entity.UserSensitiveLog;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * 安全活动预聚合统计服务
+ * 日志写入时增量更新 Redis 中的分钟/天聚合桶，看板查询只读聚合结果，不再对 user_sensitive_logs 做 GROUP BY
+ *
+ * 每个桶包含：
+ * - 计数 Hash：字段为 "操作类型|结果|登录方式|设备类型"
+ * - HyperLogLog：去重 IP、去重用户
+ * - 天桶额外维护 IP 计数的 ZSet，用于 Top IP
+ */
+@Service
+public class SecurityStatsService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SecurityStatsService.class);
+
+    public static final String GRANULARITY_MINUTE = "minute";
+    public static final String GRANULARITY_DAY = "day";
+
+    private static final String MINUTE_PREFIX = "stats:minute:";
+    private static final String DAY_PREFIX = "stats:day:";
+    private static final String IP_HLL_SUFFIX = ":ip";
+    private static final String USER_HLL_SUFFIX = ":user";
+    private static final String TOP_IP_SUFFIX = ":topip";
+    private static final Duration MINUTE_RETENTION = Duration.ofHours(48);
+    private static final Duration DAY_RETENTION = Duration.ofDays(400);
+    private static final DateTimeFormatter MINUTE_FORMAT = DateTimeFormatter.ofPattern("yyyyMMddHHmm");
+    private static final DateTimeFormatter DAY_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd");
+    private static final int MAX_MINUTE_BUCKETS = 1440;
+    private static final int MAX_DAY_BUCKETS = 366;
+    private static final int TOP_IP_LIMIT = 10;
+    private static final String NONE = "-";
+
+    private final StringRedisTemplate redisTemplate;
+
+    public SecurityStatsService(StringRedisTemplate redisTemplate) {
+        this.redisTemplate = redisTemplate;
+    }
+
+    /**
+     * 记录一条日志到聚合桶（统计失败不影响日志写入）
+     */
+    public void record(UserSensitiveLog log) {
+        try {
+            LocalDateTime time = log.getCreatedAt() != null ? log.getCreatedAt() : LocalDateTime.now();
+            String minuteKey = MINUTE_PREFIX + time.format(MINUTE_FORMAT);
+            String dayKey = DAY_PREFIX + time.format(DAY_FORMAT);
+            String field = dimension(log.getOperationType()) + "|"
+                    + dimension(log.getResult() != null ? log.getResult().name() : null) + "|"
+                    + dimension(log.getLoginMethod()) + "|"
+                    + dimension(log.getDeviceType());
+            String ip = log.getIpAddress();
+            String userId = log.getUserId() != null ? log.getUserId().toString() : null;
+
+            redisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                    RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                    writeBucket(ops, minuteKey, field, ip, userId, MINUTE_RETENTION);
+                    writeBucket(ops, dayKey, field, ip, userId, DAY_RETENTION);
+                    if (ip != null) {
+                        ops.opsForZSet().incrementScore(dayKey + TOP_IP_SUFFIX, ip, 1);
+                        ops.expire(dayKey + TOP_IP_SUFFIX, DAY_RETENTION);
+                    }
+                    return null;
+                }
+            });
+        } catch (Exception e) {
+            logger.warn("Failed to update security stats rollup", e);
+        }
+    }
+
+    private void writeBucket(RedisOperations<String, String> ops, String key, String field,
+                             String ip, String userId, Duration retention) {
+        ops.opsForHash().increment(key, field, 1);
+        ops.expire(key, retention);
+        if (ip != null) {
+            ops.opsForHyperLogLog().add(key + IP_HLL_SUFFIX, ip);
+            ops.expire(key + IP_HLL_SUFFIX, retention);
+        }
+        if (userId != null) {
+            ops.opsForHyperLogLog().add(key + USER_HLL_SUFFIX, userId);
+            ops.expire(key + USER_HLL_SUFFIX, retention);
+        }
+    }
+
+    /**
+     * 查询时间范围内的聚合统计
+     * @param granularity minute 或 day
+     * @param from 起始时间（含）
+     * @param to 结束时间（含）
+     */
+    public SecurityStatsResponse queryStats(String granularity, LocalDateTime from, LocalDateTime to) {
+        boolean daily = GRANULARITY_DAY.equals(granularity);
+        if (!daily && !GRANULARITY_MINUTE.equals(granularity)) {
+            throw new IllegalArgumentException("granularity 只支持 minute 或 day");
+        }
+        if (from.isAfter(to)) {
+            throw new IllegalArgumentException("开始时间不能晚于结束时间");
+        }
+
+        ChronoUnit unit = daily ? ChronoUnit.DAYS : ChronoUnit.MINUTES;
+        LocalDateTime start = from.truncatedTo(unit);
+        LocalDateTime end = to.truncatedTo(unit);
+        long bucketCount = unit.between(start, end) + 1;
+        int maxBuckets = daily ? MAX_DAY_BUCKETS : MAX_MINUTE_BUCKETS;
+        if (bucketCount > maxBuckets) {
+            throw new IllegalArgumentException("查询范围过大，最多 " + maxBuckets + " 个" + (daily ? "天" : "分钟"));
+        }
+
+        String prefix = daily ? DAY_PREFIX : MINUTE_PREFIX;
+        DateTimeFormatter format = daily ? DAY_FORMAT : MINUTE_FORMAT;
+        List<String> keys = new ArrayList<>((int) bucketCount);
+        for (LocalDateTime t = start; !t.isAfter(end); t = t.plus(1, unit)) {
+            keys.add(prefix + t.format(format));
+        }
+
+        // 一次往返取回所有桶的计数与去重值
+        List<Object> results = redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                for (String key : keys) {
+                    ops.opsForHash().entries(key);
+                    ops.opsForHyperLogLog().size(key + IP_HLL_SUFFIX);
+                    ops.opsForHyperLogLog().size(key + USER_HLL_SUFFIX);
+                    if (daily) {
+                        ops.opsForZSet().reverseRangeWithScores(key + TOP_IP_SUFFIX, 0, TOP_IP_LIMIT - 1);
+                    }
+                }
+                return null;
+            }
+        });
+
+        int stride = daily ? 4 : 3;
+        List<SecurityStatsBucket> buckets = new ArrayList<>(keys.size());
+        long total = 0;
+        for (int i = 0; i < keys.size(); i++) {
+            int base = i * stride;
+            SecurityStatsBucket bucket = new SecurityStatsBucket();
+            bucket.setBucket(keys.get(i).substring(prefix.length()));
+            fillCounts(bucket, (Map<?, ?>) results.get(base));
+            bucket.setDistinctIps(toLong(results.get(base + 1)));
+            bucket.setDistinctUsers(toLong(results.get(base + 2)));
+            if (daily) {
+                bucket.setTopIps(toTopIps(results.get(base + 3)));
+            }
+            total += bucket.getTotal();
+            buckets.add(bucket);
+        }
+
+        // PFCOUNT 多个 key 时返回并集基数
+        List<String> ipKeys = new ArrayList<>(keys.size());
+        List<String> userKeys = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            ipKeys.add(key + IP_HLL_SUFFIX);
+            userKeys.add(key + USER_HLL_SUFFIX);
+        }
+
+        SecurityStatsResponse response = new SecurityStatsResponse();
+        response.setGranularity(granularity);
+        response.setFrom(start);
+        response.setTo(end);
+        response.setTotal(total);
+        response.setDistinctIps(redisTemplate.opsForHyperLogLog().size(ipKeys.toArray(new String[0])));
+        response.setDistinctUsers(redisTemplate.opsForHyperLogLog().size(userKeys.toArray(new String[0])));
+        response.setBuckets(buckets);
+        return response;
+    }
+
+    private void fillCounts(SecurityStatsBucket bucket, Map<?, ?> entries) {
+        Map<String, Map<String, Long>> byOperation = new TreeMap<>();
+        Map<String, Map<String, Long>> byLoginMethod = new TreeMap<>();
+        Map<String, Map<String, Long>> byDeviceType = new TreeMap<>();
+        long total = 0;
+        long success = 0;
+        long failure = 0;
+
+        if (entries != null) {
+            for (Map.Entry<?, ?> entry : entries.entrySet()) {
+                String[] parts = entry.getKey().toString().split("\\|", -1);
+                if (parts.length != 4) {
+                    continue;
+                }
+                long count = Long.parseLong(entry.getValue().toString());
+                String result = parts[1];
+                total += count;
+                if ("SUCCESS".equals(result)) {
+                    success += count;
+                } else if ("FAILURE".equals(result)) {
+                    failure += count;
+                }
+                addCount(byOperation, parts[0], result, count);
+                if (!NONE.equals(parts[2])) {
+                    addCount(byLoginMethod, parts[2], result, count);
+                }
+                addCount(byDeviceType, parts[3], result, count);
+            }
+        }
+
+        bucket.setTotal(total);
+        bucket.setSuccess(success);
+        bucket.setFailure(failure);
+        bucket.setByOperation(byOperation);
+        bucket.setByLoginMethod(byLoginMethod);
+        bucket.setByDeviceType(byDeviceType);
+    }
+
+    private void addCount(Map<String, Map<String, Long>> target, String dimension, String result, long count) {
+        target.computeIfAbsent(dimension, k -> new TreeMap<>()).merge(result, count, Long::sum);
+    }
+
+    private Map<String, Long> toTopIps(Object value) {
+        Map<String, Long> topIps = new LinkedHashMap<>();
+        if (value instanceof Set<?> tuples) {
+            for (Object tuple : tuples) {
+                if (tuple instanceof ZSetOperations.TypedTuple<?> typed && typed.getValue() != null) {
+                    Double score = typed.getScore();
+                    topIps.put(typed.getValue().toString(), score == null ? 0L : score.longValue());
+                }
+            }
+        }
+        return topIps;
+    }
+
+    private long toLong(Object value) {
+        return value instanceof Number number ? number.longValue() : 0L;
+    }
+
+    private String dimension(String value) {
+        if (value == null || value.isEmpty()) {
+            return NONE;
+        }
+        return value.replace('|', '_');
+    }
+}
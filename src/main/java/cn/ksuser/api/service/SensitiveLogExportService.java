@@ -0,0 +1,290 @@
+package cn.ksuser.api.service;
+
+import cn.ksuser.api.config.AppProperties;
+import cn.ksuser.api.dto.SensitiveLogQueryRequest;
+import cn.ksuser.api.entity.UserSensitiveLog;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 敏感操作日志导出服务
+ * 通过只进游标逐行读取并直接写入输出流，不构建实体、不缓存结果集，内存占用与日志量无关
+ */
+@Service
+public class SensitiveLogExportService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SensitiveLogExportService.class);
+
+    public static final String FORMAT_NDJSON = "ndjson";
+    public static final String FORMAT_CSV = "csv";
+
+    private static final String SELECT_COLUMNS =
+            "SELECT id, operation_type, login_method, ip_address, ip_location, browser, device_type, " +
+            "result, failure_reason, risk_score, action_taken, triggered_multi_error_lock, " +
+            "triggered_rate_limit_lock, duration_ms, created_at FROM user_sensitive_logs WHERE user_id = ?";
+
+    private static final String CSV_HEADER =
+            "id,operationType,loginMethod,ipAddress,ipLocation,browser,deviceType,result,failureReason," +
+            "riskScore,actionTaken,triggeredMultiErrorLock,triggeredRateLimitLock,durationMs,createdAt";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final AppProperties appProperties;
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    public SensitiveLogExportService(JdbcTemplate jdbcTemplate, AppProperties appProperties) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.appProperties = appProperties;
+    }
+
+    /**
+     * 是否为支持的导出格式
+     */
+    public static boolean isSupportedFormat(String format) {
+        return FORMAT_NDJSON.equals(format) || FORMAT_CSV.equals(format);
+    }
+
+    /**
+     * 按查询条件导出日志到输出流（过滤条件与分页查询一致，忽略分页参数）
+     * @return 导出的行数
+     */
+    public long exportLogs(Long userId, SensitiveLogQueryRequest request, String format,
+                           boolean gzip, OutputStream out) throws IOException {
+        StringBuilder sql = new StringBuilder(SELECT_COLUMNS);
+        List<Object> params = new ArrayList<>();
+        params.add(userId);
+
+        // 只拼接实际存在的条件，便于命中 idx_sensitive_logs_user_time
+        if (request.getStartDate() != null) {
+            sql.append(" AND created_at >= ?");
+            params.add(Timestamp.valueOf(LocalDateTime.of(request.getStartDate(), LocalTime.MIN)));
+        }
+        if (request.getEndDate() != null) {
+            sql.append(" AND created_at <= ?");
+            params.add(Timestamp.valueOf(LocalDateTime.of(request.getEndDate(), LocalTime.MAX)));
+        }
+        if (request.getOperationType() != null && !request.getOperationType().isEmpty()) {
+            sql.append(" AND operation_type = ?");
+            params.add(request.getOperationType());
+        }
+        if (request.getResult() != null && !request.getResult().isEmpty()) {
+            try {
+                // 与分页查询一致：无效的结果值直接忽略
+                params.add(UserSensitiveLog.OperationResult.valueOf(request.getResult().toUpperCase()).name());
+                sql.append(" AND result = ?");
+            } catch (IllegalArgumentException e) {
+                // 忽略无效的结果值
+            }
+        }
+        sql.append(" ORDER BY created_at DESC, id DESC");
+
+        OutputStream target = gzip ? new GZIPOutputStream(out, 8192) : out;
+        Writer writer = new BufferedWriter(new OutputStreamWriter(target, StandardCharsets.UTF_8), 8192);
+
+        RowWriter rowWriter = FORMAT_CSV.equals(format) ? new CsvRowWriter(writer) : new NdjsonRowWriter(writer);
+        long[] count = {0};
+        try {
+            rowWriter.begin();
+            jdbcTemplate.query(connection -> prepareCursor(connection, sql.toString(), params),
+                    (RowCallbackHandler) rs -> {
+                        try {
+                            rowWriter.write(rs);
+                        } catch (IOException e) {
+                            // 客户端断开等写入失败，终止游标读取
+                            throw new UncheckedIOException(e);
+                        }
+                        count[0]++;
+                    });
+            rowWriter.end();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        writer.flush();
+        if (target instanceof GZIPOutputStream gzipStream) {
+            gzipStream.finish();
+        }
+        logger.debug("Sensitive logs exported: userId={}, format={}, gzip={}, rows={}", userId, format, gzip, count[0]);
+        return count[0];
+    }
+
+    /**
+     * 创建只进、只读的游标语句
+     * MySQL Connector/J 仅在 fetchSize 为 Integer.MIN_VALUE 时逐行流式读取，其它驱动使用配置的批大小
+     */
+    private PreparedStatement prepareCursor(Connection connection, String sql, List<Object> params) throws SQLException {
+        PreparedStatement ps = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        String product = connection.getMetaData().getDatabaseProductName();
+        if (product != null && product.toLowerCase().contains("mysql")) {
+            ps.setFetchSize(Integer.MIN_VALUE);
+        } else {
+            ps.setFetchSize(Math.max(1, appProperties.getSensitiveLog().getExportFetchSize()));
+        }
+        for (int i = 0; i < params.size(); i++) {
+            ps.setObject(i + 1, params.get(i));
+        }
+        return ps;
+    }
+
+    private interface RowWriter {
+        void begin() throws IOException;
+
+        void write(ResultSet rs) throws SQLException, IOException;
+
+        void end() throws IOException;
+    }
+
+    /**
+     * NDJSON：每行一个 JSON 对象，字段与分页查询返回的 SensitiveLogResponse 一致
+     */
+    private class NdjsonRowWriter implements RowWriter {
+        private final Writer writer;
+        private JsonGenerator generator;
+
+        NdjsonRowWriter(Writer writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public void begin() throws IOException {
+            generator = jsonFactory.createGenerator(writer);
+            generator.setRootValueSeparator(null);
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        }
+
+        @Override
+        public void write(ResultSet rs) throws SQLException, IOException {
+            generator.writeStartObject();
+            generator.writeNumberField("id", rs.getLong("id"));
+            generator.writeStringField("operationType", rs.getString("operation_type"));
+            generator.writeStringField("loginMethod", rs.getString("login_method"));
+            generator.writeStringField("ipAddress", rs.getString("ip_address"));
+            generator.writeStringField("ipLocation", rs.getString("ip_location"));
+            generator.writeStringField("browser", rs.getString("browser"));
+            generator.writeStringField("deviceType", rs.getString("device_type"));
+            generator.writeStringField("result", rs.getString("result"));
+            generator.writeStringField("failureReason", rs.getString("failure_reason"));
+            writeNullableInt("riskScore", rs, "risk_score");
+            generator.writeStringField("actionTaken", rs.getString("action_taken"));
+            generator.writeBooleanField("triggeredMultiErrorLock", rs.getBoolean("triggered_multi_error_lock"));
+            generator.writeBooleanField("triggeredRateLimitLock", rs.getBoolean("triggered_rate_limit_lock"));
+            writeNullableInt("durationMs", rs, "duration_ms");
+            generator.writeStringField("createdAt", formatTimestamp(rs.getTimestamp("created_at")));
+            generator.writeEndObject();
+            generator.writeRaw('\n');
+        }
+
+        private void writeNullableInt(String field, ResultSet rs, String column) throws SQLException, IOException {
+            int value = rs.getInt(column);
+            if (rs.wasNull()) {
+                generator.writeNullField(field);
+            } else {
+                generator.writeNumberField(field, value);
+            }
+        }
+
+        @Override
+        public void end() throws IOException {
+            generator.flush();
+        }
+    }
+
+    /**
+     * CSV：RFC 4180 转义，并对公式前缀做防注入处理
+     */
+    private static class CsvRowWriter implements RowWriter {
+        private final Writer writer;
+
+        CsvRowWriter(Writer writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public void begin() throws IOException {
+            writer.write(CSV_HEADER);
+            writer.write("\r\n");
+        }
+
+        @Override
+        public void write(ResultSet rs) throws SQLException, IOException {
+            writer.write(Long.toString(rs.getLong("id")));
+            writeField(rs.getString("operation_type"));
+            writeField(rs.getString("login_method"));
+            writeField(rs.getString("ip_address"));
+            writeField(rs.getString("ip_location"));
+            writeField(rs.getString("browser"));
+            writeField(rs.getString("device_type"));
+            writeField(rs.getString("result"));
+            writeField(rs.getString("failure_reason"));
+            writeField(rs.getString("risk_score"));
+            writeField(rs.getString("action_taken"));
+            writeField(Boolean.toString(rs.getBoolean("triggered_multi_error_lock")));
+            writeField(Boolean.toString(rs.getBoolean("triggered_rate_limit_lock")));
+            writeField(rs.getString("duration_ms"));
+            writeField(formatTimestamp(rs.getTimestamp("created_at")));
+            writer.write("\r\n");
+        }
+
+        private void writeField(String value) throws IOException {
+            writer.write(',');
+            if (value == null || value.isEmpty()) {
+                return;
+            }
+            char first = value.charAt(0);
+            if (first == '=' || first == '+' || first == '-' || first == '@') {
+                value = "'" + value;
+            }
+            boolean needQuote = false;
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                    needQuote = true;
+                    break;
+                }
+            }
+            if (!needQuote) {
+                writer.write(value);
+                return;
+            }
+            writer.write('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"') {
+                    writer.write('"');
+                }
+                writer.write(c);
+            }
+            writer.write('"');
+        }
+
+        @Override
+        public void end() {
+        }
+    }
+
+    private static String formatTimestamp(Timestamp timestamp) {
+        return timestamp == null ? null : timestamp.toLocalDateTime().toString();
+    }
+}
@@ -1,24 +1,37 @@
 package cn.ksuser.api.service;
 
+import cn.ksuser.api.config.AppProperties;
 import cn.ksuser.api.dto.PageResponse;
 import cn.ksuser.api.dto.SensitiveLogQueryRequest;
 import cn.ksuser.api.dto.SensitiveLogResponse;
+import cn.ksuser.api.dto.UserSettingsFlags;
+import cn.ksuser.api.entity.User;
 import cn.ksuser.api.entity.UserSensitiveLog;
+import cn.ksuser.api.repository.UserRepository;
 import cn.ksuser.api.repository.UserSensitiveLogRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import cn.ksuser.api.repository.UserSettingsRepository;
-import cn.ksuser.api.repository.UserRepository;
 
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 @Service
@@ -29,6 +42,9 @@ public class SensitiveLogService {
     @Autowired
     private UserSensitiveLogRepository logRepository;
 
+    @Autowired
+    private UserRepository userRepository;
+
     @Autowired
     private IpLocationService ipLocationService;
 
@@ -40,15 +56,46 @@ public class SensitiveLogService {
 
     @Autowired
     private UserService userService;
-    
-        @Autowired
-        private EmailService emailService;
-    
-        @Autowired
-        private UserSettingsRepository userSettingsRepository;
-    
-        @Autowired
-        private cn.ksuser.api.repository.UserRepository userRepository;
+
+    @Autowired
+    private SecurityStatsService securityStatsService;
+
+    @Autowired
+    private EmailOutboxService emailOutboxService;
+
+    @Autowired
+    private UserSettingsService userSettingsService;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private AppProperties appProperties;
+
+    @Autowired
+    @Qualifier("enrichmentExecutor")
+    private ExecutorService enrichmentExecutor;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private Timer enrichmentTimer;
+    private Timer persistSuccessTimer;
+    private Timer persistFailureTimer;
+
+    @PostConstruct
+    public void initMetrics() {
+        enrichmentTimer = Timer.builder("sensitive.log.enrichment.duration")
+            .description("敏感日志补全耗时（IP 属地、用户、设置、风险评分）")
+            .register(meterRegistry);
+        persistSuccessTimer = Timer.builder("sensitive.log.persist.duration")
+            .description("敏感日志写库耗时（含提醒邮件发件箱）")
+            .tag("result", "success")
+            .register(meterRegistry);
+        persistFailureTimer = Timer.builder("sensitive.log.persist.duration")
+            .tag("result", "failure")
+            .register(meterRegistry);
+    }
 
     /**
      * 异步记录敏感操作日志
@@ -59,71 +106,10 @@ public class SensitiveLogService {
             logger.debug("logAsync called: userId={}, operation={}, result={}", 
                         log.getUserId(), log.getOperationType(), log.getResult());
 
-            // 异步获取IP属地
-            if (log.getIpLocation() == null && log.getIpAddress() != null) {
-                String location = ipLocationService.getIpLocation(log.getIpAddress());
-                log.setIpLocation(location);
-                logger.debug("IP location resolved: ip={}, location={}", log.getIpAddress(), location);
-            }
-
-            // 解析User-Agent
-            if (log.getUserAgent() != null && log.getBrowser() == null) {
-                UserAgentParserService.UserAgentInfo uaInfo = userAgentParserService.parse(log.getUserAgent());
-                log.setBrowser(uaInfo.getBrowser());
-                log.setDeviceType(uaInfo.getDeviceType());
-                logger.debug("User-Agent parsed: browser={}, device={}, ua={}", 
-                            uaInfo.getBrowser(), uaInfo.getDeviceType(), log.getUserAgent());
-            }
-
-            // 确保创建时间存在
-            if (log.getCreatedAt() == null) {
-                log.setCreatedAt(LocalDateTime.now());
-            }
-
-            // 计算风险评分（在补全IP/设备/浏览器后）
-            try {
-                if (log.getUserId() != null) {
-                    var user = userService.findById(log.getUserId()).orElse(null);
-                    Integer riskScore = riskScoringService.calculateRiskScore(log, user);
-                    log.setRiskScore(riskScore);
-                    logger.debug("Risk score calculated: userId={}, score={}", log.getUserId(), riskScore);
-                } else if (log.getRiskScore() == null) {
-                    log.setRiskScore(0);
-                }
-            } catch (Exception e) {
-                logger.warn("Failed to calculate risk score", e);
-                if (log.getRiskScore() == null) {
-                    log.setRiskScore(0);
-                }
-            }
-
-            logRepository.save(log);
+            Enrichment enrichment = enrich(log);
+            persist(log, enrichment);
             logger.debug("Sensitive operation log saved: userId={}, operation={}", 
                          log.getUserId(), log.getOperationType());
-
-                // 敏感操作邮件通知（跳过以 _MFA 结尾的中间步骤，避免重复通知）
-                if (log.getUserId() != null) {
-                    String op = log.getOperationType();
-                    if (op != null && op.endsWith("_MFA")) {
-                        logger.debug("Skipping email for MFA intermediate step: userId={}, operation={}", log.getUserId(), op);
-                    } else {
-                        userSettingsRepository.findByUserId(log.getUserId()).ifPresent(settings -> {
-                            if (Boolean.TRUE.equals(settings.getNotifySensitiveActionEmail())) {
-                                userRepository.findById(log.getUserId()).ifPresent(user -> {
-                                    String email = user.getEmail();
-                                    if (email != null && !email.isEmpty()) {
-                                        try {
-                                            emailService.sendSensitiveActionReminder(email, log.getOperationType(), log);
-                                            logger.debug("Sensitive action reminder email sent: userId={}, email={}", log.getUserId(), email);
-                                        } catch (Exception e) {
-                                            logger.warn("Failed to send sensitive action reminder email", e);
-                                        }
-                                    }
-                                });
-                            }
-                        });
-                    }
-                }
         } catch (Exception e) {
             logger.error("Failed to save sensitive operation log", e);
         }
@@ -137,73 +123,175 @@ public class SensitiveLogService {
             logger.debug("logSync called: userId={}, operation={}, result={}", 
                         log.getUserId(), log.getOperationType(), log.getResult());
 
-            // 同步获取IP属地
-            if (log.getIpLocation() == null && log.getIpAddress() != null) {
-                String location = ipLocationService.getIpLocation(log.getIpAddress());
-                log.setIpLocation(location);
-                logger.debug("IP location resolved: ip={}, location={}", log.getIpAddress(), location);
-            }
+            Enrichment enrichment = enrich(log);
+            persist(log, enrichment);
+        } catch (Exception e) {
+            logger.error("Failed to save sensitive operation log", e);
+            throw e;
+        }
+    }
 
-            // 解析User-Agent
-            if (log.getUserAgent() != null && log.getBrowser() == null) {
-                UserAgentParserService.UserAgentInfo uaInfo = userAgentParserService.parse(log.getUserAgent());
-                log.setBrowser(uaInfo.getBrowser());
-                log.setDeviceType(uaInfo.getDeviceType());
-                logger.debug("User-Agent parsed: browser={}, device={}, ua={}", 
-                            uaInfo.getBrowser(), uaInfo.getDeviceType(), log.getUserAgent());
-            }
+    /**
+     * 补全日志信息
+     * 互不依赖的查询并行执行：IP属地、用户、用户设置、风险评分依赖的历史记录（各自有超时，超时使用默认值并取消任务），
+     * 总耗时约为最慢的一个阶段；全部完成后在当前线程计算风险评分。用户和设置只查询一次，供邮件提醒使用
+     */
+    private Enrichment enrich(UserSensitiveLog log) {
+        return enrichmentTimer.record(() -> doEnrich(log));
+    }
 
-            // 确保创建时间存在
-            if (log.getCreatedAt() == null) {
-                log.setCreatedAt(LocalDateTime.now());
-            }
+    private Enrichment doEnrich(UserSensitiveLog log) {
+        AppProperties.SensitiveLog config = appProperties.getSensitiveLog();
+        Long userId = log.getUserId();
 
-            // 计算风险评分（在补全IP/设备/浏览器后）
-            try {
-                if (log.getUserId() != null) {
-                    var user = userService.findById(log.getUserId()).orElse(null);
-                    Integer riskScore = riskScoringService.calculateRiskScore(log, user);
-                    log.setRiskScore(riskScore);
-                    logger.debug("Risk score calculated: userId={}, score={}", log.getUserId(), riskScore);
-                } else if (log.getRiskScore() == null) {
-                    log.setRiskScore(0);
-                }
-            } catch (Exception e) {
-                logger.warn("Failed to calculate risk score", e);
-                if (log.getRiskScore() == null) {
-                    log.setRiskScore(0);
-                }
+        // 解析User-Agent（纯计算，在当前线程执行；历史记录查询需要设备类型和浏览器）
+        if (log.getUserAgent() != null && log.getBrowser() == null) {
+            UserAgentParserService.UserAgentInfo uaInfo = userAgentParserService.parse(log.getUserAgent());
+            log.setBrowser(uaInfo.getBrowser());
+            log.setDeviceType(uaInfo.getDeviceType());
+            logger.debug("User-Agent parsed: browser={}, device={}, ua={}", 
+                        uaInfo.getBrowser(), uaInfo.getDeviceType(), log.getUserAgent());
+        }
+
+        // 确保创建时间存在
+        if (log.getCreatedAt() == null) {
+            log.setCreatedAt(LocalDateTime.now());
+        }
+
+        Future<String> locationFuture = log.getIpLocation() == null && log.getIpAddress() != null
+                ? enrichmentExecutor.submit(() -> ipLocationService.getIpLocation(log.getIpAddress()))
+                : null;
+        Future<User> userFuture = userId != null
+                ? enrichmentExecutor.submit(() -> userService.findById(userId).orElse(null))
+                : null;
+        Future<UserSettingsFlags> settingsFuture = userId != null
+                ? enrichmentExecutor.submit(() -> userSettingsService.getFlags(userId))
+                : null;
+        Future<RiskScoringService.History> historyFuture = userId != null
+                ? enrichmentExecutor.submit(() -> riskScoringService.loadHistory(log))
+                : null;
+
+        long start = System.nanoTime();
+        String location = await(locationFuture, start, config.getIpLocationTimeoutMs(), "ip_location");
+        if (location != null) {
+            log.setIpLocation(location);
+            logger.debug("IP location resolved: ip={}, location={}", log.getIpAddress(), location);
+        }
+        User user = await(userFuture, start, config.getLookupTimeoutMs(), "user");
+        UserSettingsFlags settings = await(settingsFuture, start, config.getLookupTimeoutMs(), "settings");
+        RiskScoringService.History history = await(historyFuture, start, config.getRiskHistoryTimeoutMs(), "risk_history");
+
+        // 计算风险评分（在补全IP属地后；历史记录超时或失败时只计算不依赖历史的因素）
+        try {
+            if (userId != null) {
+                Integer riskScore = riskScoringService.calculateRiskScore(log, history);
+                log.setRiskScore(riskScore);
+                logger.debug("Risk score calculated: userId={}, score={}", userId, riskScore);
+            } else if (log.getRiskScore() == null) {
+                log.setRiskScore(0);
+            }
+        } catch (Exception e) {
+            logger.warn("Failed to calculate risk score", e);
+            if (log.getRiskScore() == null) {
+                log.setRiskScore(0);
             }
+        }
+
+        return new Enrichment(user, settings);
+    }
 
-            logRepository.save(log);
-
-                // 敏感操作邮件通知（跳过以 _MFA 结尾的中间步骤，避免重复通知）
-                if (log.getUserId() != null) {
-                    String op = log.getOperationType();
-                    if (op != null && op.endsWith("_MFA")) {
-                        logger.debug("Skipping email for MFA intermediate step: userId={}, operation={}", log.getUserId(), op);
-                    } else {
-                        userSettingsRepository.findByUserId(log.getUserId()).ifPresent(settings -> {
-                            if (Boolean.TRUE.equals(settings.getNotifySensitiveActionEmail())) {
-                                userRepository.findById(log.getUserId()).ifPresent(user -> {
-                                    String email = user.getEmail();
-                                    if (email != null && !email.isEmpty()) {
-                                        try {
-                                            emailService.sendSensitiveActionReminder(email, log.getOperationType(), log);
-                                            logger.debug("Sensitive action reminder email sent: userId={}, email={}", log.getUserId(), email);
-                                        } catch (Exception e) {
-                                            logger.warn("Failed to send sensitive action reminder email", e);
-                                        }
-                                    }
-                                });
-                            }
-                        });
-                    }
+    /**
+     * 等待阶段结果，截止时间从阶段开始计算；超时或失败时取消任务并返回 null
+     */
+    private <T> T await(Future<T> future, long startNanos, long timeoutMs, String stage) {
+        if (future == null) {
+            return null;
+        }
+        long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMs) - (System.nanoTime() - startNanos);
+        try {
+            return future.get(Math.max(0, remaining), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            logger.warn("Sensitive log enrichment stage timed out: stage={}, timeoutMs={}", stage, timeoutMs);
+        } catch (ExecutionException e) {
+            logger.warn("Sensitive log enrichment stage failed: stage={}", stage, e.getCause());
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    /**
+     * 保存日志，并在同一事务中写入提醒邮件发件箱（邮件由 EmailOutboxService 异步投递）
+     */
+    private void persist(UserSensitiveLog log, Enrichment enrichment) {
+        String recipient = resolveReminderRecipient(log, enrichment);
+        long start = System.nanoTime();
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                logRepository.save(log);
+                if (recipient != null) {
+                    emailOutboxService.enqueueSensitiveActionReminder(log, recipient);
                 }
-        } catch (Exception e) {
-            logger.error("Failed to save sensitive operation log", e);
+            });
+        } catch (RuntimeException e) {
+            persistFailureTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
             throw e;
         }
+        persistSuccessTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        securityStatsService.record(log);
+    }
+
+    /**
+     * 获取敏感操作提醒的收件人，不需要提醒时返回 null
+     * 跳过以 _MFA 结尾的中间步骤，避免重复通知
+     */
+    private String resolveReminderRecipient(UserSensitiveLog log, Enrichment enrichment) {
+        if (log.getUserId() == null) {
+            return null;
+        }
+        String op = log.getOperationType();
+        if (op != null && op.endsWith("_MFA")) {
+            logger.debug("Skipping email for MFA intermediate step: userId={}, operation={}", log.getUserId(), op);
+            return null;
+        }
+        // 补全阶段超时或失败时直接查询数据库，不因缓存或 Redis 变慢而漏发提醒
+        UserSettingsFlags settings = enrichment.settings() != null
+                ? enrichment.settings()
+                : fallbackLookup("settings", () -> userSettingsService.loadFlags(log.getUserId()));
+        // 与此前一致：用户未保存过设置时不发送提醒
+        if (settings == null || !settings.persisted() || !settings.notifySensitiveActionEmail()) {
+            return null;
+        }
+        User user = enrichment.user() != null
+                ? enrichment.user()
+                : fallbackLookup("user", () -> userRepository.findById(log.getUserId()).orElse(null));
+        if (user == null) {
+            return null;
+        }
+        String email = user.getEmail();
+        return email != null && !email.isEmpty() ? email : null;
+    }
+
+    /**
+     * 补全阶段未拿到结果时的同步回源查询，失败返回 null
+     */
+    private <T> T fallbackLookup(String stage, Supplier<T> loader) {
+        try {
+            T value = loader.get();
+            logger.debug("Sensitive log enrichment fallback lookup: stage={}, found={}", stage, value != null);
+            return value;
+        } catch (Exception e) {
+            logger.warn("Sensitive log enrichment fallback lookup failed: stage={}", stage, e);
+            return null;
+        }
+    }
+
+    /**
+     * 补全阶段查询到的用户和设置（可能为 null）
+     */
+    private record Enrichment(User user, UserSettingsFlags settings) {
     }
 
     /**
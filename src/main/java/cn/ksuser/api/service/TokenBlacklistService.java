@@ -1,5 +1,7 @@
 package cn.ksuser.api.service;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
@@ -14,9 +16,18 @@ public class TokenBlacklistService {
 
     private static final String BLACKLIST_PREFIX = "token:blacklist:";
     private final StringRedisTemplate redisTemplate;
+    private final Counter hitCounter;
+    private final Counter missCounter;
 
-    public TokenBlacklistService(StringRedisTemplate redisTemplate) {
+    public TokenBlacklistService(StringRedisTemplate redisTemplate, MeterRegistry meterRegistry) {
         this.redisTemplate = redisTemplate;
+        this.hitCounter = Counter.builder("token.blacklist.checks")
+            .description("Token 黑名单检查次数")
+            .tag("result", "hit")
+            .register(meterRegistry);
+        this.missCounter = Counter.builder("token.blacklist.checks")
+            .tag("result", "miss")
+            .register(meterRegistry);
     }
 
     /**
@@ -53,7 +64,9 @@ public class TokenBlacklistService {
             return true; // 空 Token 视为无效
         }
         String key = BLACKLIST_PREFIX + hashToken(token);
-        return Boolean.TRUE.equals(redisTemplate.hasKey(key));
+        boolean blacklisted = Boolean.TRUE.equals(redisTemplate.hasKey(key));
+        (blacklisted ? hitCounter : missCounter).increment();
+        return blacklisted;
     }
 
     /**
@@ -81,10 +94,11 @@ public class TokenBlacklistService {
 
     /**
      * 对 Token 进行哈希处理 - 防止在 Redis 中存储完整的 Token
+     * 包内可见，供基准测试（src/jmh）直接调用
      * @param token JWT Token
      * @return Token 的哈希值
      */
-    private String hashToken(String token) {
+    String hashToken(String token) {
         // 简单的哈希处理：使用 SHA-256
         try {
             java.security.MessageDigest digest = java.security.MessageDigest.getInstance("SHA-256");
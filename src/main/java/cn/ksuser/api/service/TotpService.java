@@ -4,18 +4,19 @@ import cn.ksuser.api.entity.TotpRecoveryCode;
 import cn.ksuser.api.entity.UserTotp;
 import cn.ksuser.api.repository.TotpRecoveryCodeRepository;
 import cn.ksuser.api.repository.UserTotpRepository;
+import cn.ksuser.api.util.EncryptionUtil;
+import cn.ksuser.api.util.TotpEngine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import javax.crypto.Cipher;
-import javax.crypto.Mac;
-import javax.crypto.spec.GCMParameterSpec;
-import javax.crypto.spec.SecretKeySpec;
-import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
 import java.security.SecureRandom;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 /**
  * TOTP（Time-based One-Time Password）服务
@@ -24,7 +25,7 @@ import java.util.*;
  * 安全设计：
  * - 密钥使用 AES-GCM 加密存储（不存明文）
  * - 恢复码使用 SHA-256 哈希存储
- * - 防重放：记录上次验证的时间步长
+ * - 防重放：记录上次验证通过的时间步长，不大于该值的时间步一律拒绝（user_totp.last_used_step 条件更新，注册确认与登录验证共用）
  * - key_version：支持密钥轮换
  */
 @Service
@@ -32,50 +33,29 @@ public class TotpService {
 
     private final UserTotpRepository userTotpRepository;
     private final TotpRecoveryCodeRepository recoveryCodeRepository;
+    private final UserSettingsService userSettingsService;
+    private final EncryptionUtil encryptionUtil;
+    private final MeterRegistry meterRegistry;
 
     // TOTP 配置常数
     private static final int SECRET_LENGTH = 32; // 字节长度
-    private static final int CODE_LENGTH = 6; // OTP 码长度
-    private static final int TIME_INTERVAL = 30; // 时间步长（秒）
+    private static final int TIME_WINDOW = 1; // 允许的时间误差（前后各一个时间步）
     private static final int RECOVERY_CODES_COUNT = 10; // 恢复码数量
     private static final int RECOVERY_CODE_LENGTH = 8; // 恢复码长度
 
-    // AES-GCM 配置
-    private static final String CIPHER_ALGORITHM = "AES/GCM/NoPadding";
-    private static final int GCM_TAG_LENGTH = 128; // 位数
-    private static final int GCM_IV_LENGTH = 12; // 字节长度
-
     public TotpService(UserTotpRepository userTotpRepository,
-                       TotpRecoveryCodeRepository recoveryCodeRepository) {
+                       TotpRecoveryCodeRepository recoveryCodeRepository,
+                       UserSettingsService userSettingsService,
+                       EncryptionUtil encryptionUtil,
+                       MeterRegistry meterRegistry) {
         this.userTotpRepository = userTotpRepository;
         this.recoveryCodeRepository = recoveryCodeRepository;
+        this.userSettingsService = userSettingsService;
+        this.encryptionUtil = encryptionUtil;
+        this.meterRegistry = meterRegistry;
     }
 
 
-    /**
-     * 使用 AES-GCM 加密数据
-     * @param plaintext 明文（密钥）
-     * @param aesKey AES 密钥
-     * @return 加密数据（IV + 密文 + TAG）
-     */
-    private byte[] encryptAesGcm(byte[] plaintext, byte[] aesKey) throws Exception {
-        SecureRandom random = new SecureRandom();
-        byte[] iv = new byte[GCM_IV_LENGTH];
-        random.nextBytes(iv);
-
-        Cipher cipher = Cipher.getInstance(CIPHER_ALGORITHM);
-        GCMParameterSpec spec = new GCMParameterSpec(GCM_TAG_LENGTH, iv);
-        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(aesKey, 0, aesKey.length, "AES"), spec);
-        
-        byte[] ciphertext = cipher.doFinal(plaintext);
-        
-        // 返回 IV + 密文，总长度：12 + plaintext.length + 16(tag)
-        ByteBuffer buffer = ByteBuffer.allocate(iv.length + ciphertext.length);
-        buffer.put(iv);
-        buffer.put(ciphertext);
-        return buffer.array();
-    }
-
     /**
      * Base32 编码（RFC 4648）
      */
@@ -101,27 +81,6 @@ public class TotpService {
 
         return result.toString();
     }
-    /**
-     * 使用 AES-GCM 解密数据
-     * @param ciphertext 加密数据（IV + 密文 + TAG）
-     * @param aesKey AES 密钥
-     * @return 明文（密钥）
-     */
-    private byte[] decryptAesGcm(byte[] ciphertext, byte[] aesKey) throws Exception {
-        ByteBuffer buffer = ByteBuffer.wrap(ciphertext);
-        byte[] iv = new byte[GCM_IV_LENGTH];
-        buffer.get(iv);
-        
-        byte[] encryptedData = new byte[buffer.remaining()];
-        buffer.get(encryptedData);
-
-        Cipher cipher = Cipher.getInstance(CIPHER_ALGORITHM);
-        GCMParameterSpec spec = new GCMParameterSpec(GCM_TAG_LENGTH, iv);
-        cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(aesKey, 0, aesKey.length, "AES"), spec);
-        
-        return cipher.doFinal(encryptedData);
-    }
-
     /**
      * SHA-256 哈希
      */
@@ -133,11 +92,10 @@ public class TotpService {
     /**
      * 生成新的 TOTP 密钥和恢复码
      * @param userId 用户 ID
-     * @param masterEncryptionKey 主加密密钥（用于加密 TOTP 密钥）
-     * @return 包含密钥、二维码 URL 和恢复码的数据
+     * @return 包含密钥、二维码 URL、恢复码、密文及其密钥版本的数据
      */
     @Transactional
-    public Map<String, Object> generateTotpSecret(Long userId, byte[] masterEncryptionKey) {
+    public Map<String, Object> generateTotpSecret(Long userId) {
         try {
             // 生成随机密钥
             byte[] randomBytes = new byte[SECRET_LENGTH];
@@ -146,8 +104,9 @@ public class TotpService {
             // 编码为 Base32
             
             String secretKey = base32Encode(randomBytes);
-            // AES-GCM 加密密钥
-            byte[] encryptedSecretKeyCiphertext = encryptAesGcm(randomBytes, masterEncryptionKey);
+            // AES-GCM 加密密钥（使用当前主密钥版本）
+            int keyVersion = encryptionUtil.getActiveVersion();
+            byte[] encryptedSecretKeyCiphertext = TotpEngine.encrypt(randomBytes, encryptionUtil.getKey(keyVersion));
             
             // 生成恢复码
             String[] recoveryCodes = generateRecoveryCodes(RECOVERY_CODES_COUNT);
@@ -160,6 +119,7 @@ public class TotpService {
             result.put("qrCodeUrl", qrCodeUrl);
             result.put("recoveryCodes", recoveryCodes);
             result.put("encryptedSecret", Base64.getEncoder().encodeToString(encryptedSecretKeyCiphertext));
+            result.put("keyVersion", keyVersion);
             
             return result;
         } catch (Exception e) {
@@ -169,77 +129,74 @@ public class TotpService {
 
     /**
      * 验证 TOTP 码
+     * 只读取密钥密文与版本，匹配成功后原子地占用该时间步，同一时间步的码（包括并发提交）只能通过一次
      * @param userId 用户 ID
      * @param code TOTP 码
-     * @param masterEncryptionKey 主加密密钥
      * @return 验证是否成功
      */
-    @Transactional
-    public boolean verifyTotpCode(Long userId, String code, byte[] masterEncryptionKey) {
-        try {
-            Optional<UserTotp> userTotpOpt = userTotpRepository.findByUserId(userId);
-            if (userTotpOpt.isEmpty()) {
-                return false;
-            }
+    public boolean verifyTotpCode(Long userId, String code) {
+        long start = System.nanoTime();
+        String result = verifyTotpCodeWithResult(userId, code);
+        Timer.builder("totp.verification.duration")
+            .description("TOTP 验证耗时")
+            .tag("result", result)
+            .register(meterRegistry)
+            .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return "success".equals(result);
+    }
 
-            UserTotp userTotp = userTotpOpt.get();
-            if (!userTotp.getIsEnabled() || userTotp.getConfirmedAt() == null) {
-                return false;
+    /**
+     * @return success / invalid_format / not_enabled / mismatch / replay / error
+     */
+    private String verifyTotpCodeWithResult(Long userId, String code) {
+        try {
+            int submittedCode = TotpEngine.parseCode(code);
+            if (submittedCode < 0) {
+                return "invalid_format";
             }
 
-            // 解密密钥
-            byte[] decryptedSecret = decryptAesGcm(userTotp.getSecretKeyCiphertext(), masterEncryptionKey);
-            
-            // 计算当前时间步长
-            long currentStep = System.currentTimeMillis() / 1000 / TIME_INTERVAL;
-            
-            // 防重放检查
-            if (userTotp.shouldRejectStep(currentStep)) {
-                return false;
+            Optional<UserTotpRepository.ActiveSecret> secretOpt = userTotpRepository.findActiveSecret(userId);
+            if (secretOpt.isEmpty()) {
+                return "not_enabled";
             }
+            UserTotpRepository.ActiveSecret activeSecret = secretOpt.get();
 
             // 检查码是否匹配（允许时间误差：前一个、当前、后一个）
-            boolean codeMatches = false;
-            for (int offset = -1; offset <= 1; offset++) {
-                long step = currentStep + offset;
-                if (verifyTotpCode(decryptedSecret, code, step)) {
-                    // 验证成功，更新 last_used_step
-                    userTotp.updateLastUsedStep(step);
-                    userTotpRepository.save(userTotp);
-                    codeMatches = true;
-                    break;
-                }
+            long currentStep = TotpEngine.currentStep();
+            long matchedStep = matchStep(activeSecret.getSecretKeyCiphertext(), activeSecret.getKeyVersion(),
+                submittedCode, currentStep);
+            if (matchedStep < 0) {
+                return "mismatch";
             }
-            
-            return codeMatches;
+
+            // 防重放：不大于上次通过的时间步一律拒绝
+            return markStepUsed(userId, matchedStep) ? "success" : "replay";
         } catch (Exception e) {
-            return false;
+            return "error";
         }
     }
 
     /**
-     * 验证 TOTP 码（内部方法）
+     * 原子地记录已使用的时间步（user_totp.last_used_step 条件更新）
+     * 注册确认与登录验证写同一列，确认注册时使用的码同样不能再次通过
+     * @return true 表示 step 首次使用
      */
-    private boolean verifyTotpCode(byte[] decodedSecret, String code, long timeInterval) throws Exception {
-        String expectedCode = generateTotpCode(decodedSecret, timeInterval);
-        return expectedCode.equals(code);
+    private boolean markStepUsed(Long userId, long step) {
+        return userTotpRepository.markStepUsed(userId, step) > 0;
     }
 
     /**
-     * 生成 TOTP 码
+     * 解密密钥并在时间窗口内匹配验证码，用完立即清除密钥明文
+     * @return 匹配的时间步；不匹配返回 -1
      */
-    private String generateTotpCode(byte[] decodedSecret, long timeInterval) throws Exception {
-        byte[] message = ByteBuffer.allocate(8).putLong(timeInterval).array();
-        
-        Mac mac = Mac.getInstance("HmacSHA1");
-        mac.init(new SecretKeySpec(decodedSecret, "HmacSHA1"));
-        byte[] hash = mac.doFinal(message);
-        
-        int offset = hash[hash.length - 1] & 0x0f;
-        int truncated = ByteBuffer.wrap(hash, offset, 4).getInt() & 0x7fffffff;
-        int otpCode = truncated % (int) Math.pow(10, CODE_LENGTH);
-        
-        return String.format("%0" + CODE_LENGTH + "d", otpCode);
+    private long matchStep(byte[] secretCiphertext, int keyVersion, int code, long currentStep)
+            throws GeneralSecurityException {
+        byte[] secret = TotpEngine.decrypt(secretCiphertext, encryptionUtil.getKey(keyVersion));
+        try {
+            return TotpEngine.matchStep(secret, code, currentStep, TIME_WINDOW);
+        } finally {
+            Arrays.fill(secret, (byte) 0);
+        }
     }
 
     /**
@@ -316,12 +273,10 @@ public class TotpService {
      * @param userId 用户 ID
      * @param code TOTP 码
      * @param recoveryCodes 恢复码列表
-     * @param masterEncryptionKey 主加密密钥
      * @return 注册是否成功
      */
     @Transactional
-    public boolean confirmTotpRegistration(Long userId, String code, String[] recoveryCodes, 
-                                          byte[] masterEncryptionKey) {
+    public boolean confirmTotpRegistration(Long userId, String code, String[] recoveryCodes) {
         try {
             Optional<UserTotp> existingOpt = userTotpRepository.findByUserId(userId);
             if (existingOpt.isEmpty()) {
@@ -342,46 +297,34 @@ public class TotpService {
                 return false;
             }
 
-            // 使用待确认的密钥验证码
-            byte[] decryptedSecret = decryptAesGcm(userTotp.getPendingSecretCiphertext(), masterEncryptionKey);
-            
             // 计算当前时间步长
-            long currentStep = System.currentTimeMillis() / 1000 / TIME_INTERVAL;
-            
-            // 检查码是否匹配（允许时间误差）
-            boolean codeMatches = false;
-            for (int offset = -1; offset <= 1; offset++) {
-                long step = currentStep + offset;
-                if (verifyTotpCode(decryptedSecret, code, step)) {
-                    codeMatches = true;
-                    break;
-                }
-            }
+            long currentStep = TotpEngine.currentStep();
 
-            if (!codeMatches) {
+            // 使用待确认的密钥验证码（允许时间误差）
+            int submittedCode = TotpEngine.parseCode(code);
+            long matchedStep = submittedCode < 0 ? -1
+                : matchStep(userTotp.getPendingSecretCiphertext(), userTotp.getKeyVersion(), submittedCode, currentStep);
+            if (matchedStep < 0) {
                 return false;
             }
 
-            // 将待确认的密钥移到正式密钥
+            // 将待确认的密钥移到正式密钥（同一行的密文使用同一个 key_version）
             userTotp.setSecretKeyCiphertext(userTotp.getPendingSecretCiphertext());
-            userTotp.setKeyVersion(1);
             userTotp.setIsEnabled(true);
             userTotp.setConfirmedAt(LocalDateTime.now());
             userTotp.clearPendingSecret();
-            userTotp.setLastUsedStep(currentStep);
+            // 记录确认时使用的时间步，该码不能再用于登录验证（防重放与 verifyTotpCode 使用同一列）
+            userTotp.setLastUsedStep(matchedStep);
             userTotpRepository.save(userTotp);
 
             // 删除旧的恢复码
             recoveryCodeRepository.deleteByUserId(userId);
 
             // 保存新的恢复码（SHA-256 哈希 + AES-GCM 密文）
-            for (String recoveryCode : recoveryCodes) {
-                byte[] codeHash = sha256Hash(recoveryCode.getBytes());
-                byte[] codeCiphertext = encryptAesGcm(recoveryCode.getBytes(), masterEncryptionKey);
-                TotpRecoveryCode codeEntity = new TotpRecoveryCode(userId, codeHash, codeCiphertext);
-                recoveryCodeRepository.save(codeEntity);
-            }
+            saveRecoveryCodes(userId, recoveryCodes);
 
+            // 登录策略缓存包含 TOTP 启用状态
+            userSettingsService.invalidate(userId);
             return true;
         } catch (Exception e) {
             return false;
@@ -403,7 +346,8 @@ public class TotpService {
         
         // 删除所有恢复码
         recoveryCodeRepository.deleteByUserId(userId);
-        
+
+        userSettingsService.invalidate(userId);
         return true;
     }
 
@@ -432,7 +376,7 @@ public class TotpService {
      * 生成新的恢复码（当用户消耗了旧的恢复码时）
      */
     @Transactional
-    public String[] regenerateRecoveryCodes(Long userId, byte[] masterEncryptionKey) {
+    public String[] regenerateRecoveryCodes(Long userId) {
         try {
             // 删除旧的恢复码
             recoveryCodeRepository.deleteByUserId(userId);
@@ -441,12 +385,7 @@ public class TotpService {
             String[] newCodes = generateRecoveryCodes(RECOVERY_CODES_COUNT);
 
             // 保存新的恢复码（SHA-256 哈希 + AES-GCM 密文）
-            for (String code : newCodes) {
-                byte[] codeHash = sha256Hash(code.getBytes());
-                byte[] codeCiphertext = encryptAesGcm(code.getBytes(), masterEncryptionKey);
-                TotpRecoveryCode codeEntity = new TotpRecoveryCode(userId, codeHash, codeCiphertext);
-                recoveryCodeRepository.save(codeEntity);
-            }
+            saveRecoveryCodes(userId, newCodes);
 
             return newCodes;
         } catch (Exception e) {
@@ -454,10 +393,22 @@ public class TotpService {
         }
     }
 
+    /**
+     * 保存恢复码：SHA-256 哈希用于校验，AES-GCM 密文（当前主密钥版本）用于再次展示
+     */
+    private void saveRecoveryCodes(Long userId, String[] codes) throws Exception {
+        int keyVersion = encryptionUtil.getActiveVersion();
+        for (String code : codes) {
+            byte[] codeHash = sha256Hash(code.getBytes());
+            byte[] codeCiphertext = TotpEngine.encrypt(code.getBytes(), encryptionUtil.getKey(keyVersion));
+            recoveryCodeRepository.save(new TotpRecoveryCode(userId, codeHash, codeCiphertext, keyVersion));
+        }
+    }
+
     /**
      * 获取用户的恢复码（用于显示，仅显示剩余未使用的）
      */
-    public List<String> getRecoveryCodes(Long userId, byte[] masterEncryptionKey) {
+    public List<String> getRecoveryCodes(Long userId) {
         try {
             List<TotpRecoveryCode> codes = recoveryCodeRepository.findByUserIdAndUnusedOrderByCreatedAtAsc(userId);
             List<String> result = new ArrayList<>();
@@ -467,7 +418,7 @@ public class TotpService {
                 if (ciphertext == null || ciphertext.length == 0) {
                     continue;
                 }
-                byte[] plaintext = decryptAesGcm(ciphertext, masterEncryptionKey);
+                byte[] plaintext = TotpEngine.decrypt(ciphertext, encryptionUtil.getKey(code.getKeyVersion()));
                 result.add(new String(plaintext));
             }
             
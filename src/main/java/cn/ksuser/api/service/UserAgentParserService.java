@@ -1,5 +1,7 @@
 package cn.ksuser.api.service;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.springframework.stereotype.Service;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,6 +36,14 @@ public class UserAgentParserService {
         "Opera", "Chrome", "Firefox", "Safari", "IE", "IE"
     };
 
+    private final Timer parseTimer;
+
+    public UserAgentParserService(MeterRegistry meterRegistry) {
+        this.parseTimer = Timer.builder("user.agent.parse.duration")
+            .description("User-Agent 解析耗时")
+            .register(meterRegistry);
+    }
+
     /**
      * 解析User-Agent字符串
      */
@@ -41,7 +51,10 @@ public class UserAgentParserService {
         if (userAgent == null || userAgent.isEmpty()) {
             return new UserAgentInfo("Unknown", "Unknown");
         }
+        return parseTimer.record(() -> doParse(userAgent));
+    }
 
+    private UserAgentInfo doParse(String userAgent) {
         try {
             String browser = parseBrowser(userAgent);
             String deviceType = parseDeviceType(userAgent);
@@ -0,0 +1,362 @@
+package cn.ksuser.api.service;
+
+import cn.ksuser.api.config.AppProperties;
+import cn.ksuser.api.dto.UserCacheStats;
+import cn.ksuser.api.dto.UserSnapshot;
+import cn.ksuser.api.entity.User;
+import cn.ksuser.api.util.LruCache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.servlet.http.HttpServletRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 用户快照缓存
+ * 按 uuid 和 id 两种键读穿缓存，两级结构：
+ * - 本地 LRU（每个实例独立，带 TTL）
+ * - Redis Hash（可关闭，实例间共享）
+ * 写操作由 UserService 调用 invalidate()，删除 Redis 条目并通过 Pub/Sub 通知所有实例清理本地条目
+ *
+ * 回源写 Redis 带版本比较：失效时先递增 user:cache:version:* 再删除条目，回源前读取版本，
+ * 写入时由 Lua 脚本比较版本，期间任一实例发生过失效就放弃写入，避免其它实例回填的旧数据存活到 Redis TTL
+ *
+ * 一致性：开启 consistent-write-requests 时，非 GET/HEAD/OPTIONS 请求中的读取直接访问数据库，
+ * 保证修改类接口拿到的是最新数据，不会把过期快照合并回数据库
+ */
+@Service
+public class UserCacheService {
+
+    private static final Logger logger = LoggerFactory.getLogger(UserCacheService.class);
+
+    private static final String SNAPSHOT_PREFIX = "user:snapshot:";
+    private static final String ID_INDEX_PREFIX = "user:snapshot:id:";
+    private static final String INVALIDATE_CHANNEL = "user:cache:invalidate";
+    private static final String VERSION_UUID_PREFIX = "user:cache:version:u:";
+    private static final String VERSION_ID_PREFIX = "user:cache:version:i:";
+    private static final String LOCAL_UUID_PREFIX = "u:";
+    private static final String LOCAL_ID_PREFIX = "i:";
+    // 远长于一次回源的耗时；版本键过期后回源前读到的版本不再匹配，只会少写一次缓存
+    private static final Duration VERSION_TTL = Duration.ofDays(1);
+
+    /**
+     * KEYS[1] 版本键，KEYS[2] 快照 Hash，KEYS[3] id 索引
+     * ARGV[1] 回源前读到的版本（不存在为空串），ARGV[2] TTL（秒），ARGV[3] uuid，其后为 Hash 字段与值
+     */
+    private static final RedisScript<Long> WRITE_SCRIPT = new DefaultRedisScript<>(
+        "local version = redis.call('GET', KEYS[1]) " +
+        "if (version or '') ~= ARGV[1] then return 0 end " +
+        "redis.call('DEL', KEYS[2]) " +
+        "redis.call('HSET', KEYS[2], unpack(ARGV, 4)) " +
+        "redis.call('EXPIRE', KEYS[2], ARGV[2]) " +
+        "redis.call('SET', KEYS[3], ARGV[3], 'EX', ARGV[2]) " +
+        "return 1",
+        Long.class);
+
+    private final StringRedisTemplate redisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+    private final AppProperties appProperties;
+
+    private final LruCache<String, UserSnapshot> localCache;
+    // 每次失效递增，回源期间发生过失效的结果不写入本地缓存，避免旧数据覆盖
+    private final AtomicLong invalidationEpoch = new AtomicLong();
+
+    private final LongAdder localHits = new LongAdder();
+    private final LongAdder redisHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder bypasses = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final Counter staleWritesSkipped;
+
+    public UserCacheService(StringRedisTemplate redisTemplate, RedisMessageListenerContainer listenerContainer,
+                            AppProperties appProperties, MeterRegistry meterRegistry) {
+        this.redisTemplate = redisTemplate;
+        this.listenerContainer = listenerContainer;
+        this.appProperties = appProperties;
+        this.localCache = new LruCache<>(() -> appProperties.getUserCache().getLocalMaxEntries());
+
+        registerLookups(meterRegistry, "local_hit", localHits);
+        registerLookups(meterRegistry, "redis_hit", redisHits);
+        registerLookups(meterRegistry, "miss", misses);
+        registerLookups(meterRegistry, "bypass", bypasses);
+        FunctionCounter.builder("user.cache.invalidations", invalidations, LongAdder::sum)
+            .description("用户缓存失效次数（本实例写入和收到的广播）")
+            .register(meterRegistry);
+        FunctionCounter.builder("user.cache.evictions", localCache, LruCache::evictions)
+            .description("本地 LRU 淘汰次数")
+            .register(meterRegistry);
+        Gauge.builder("user.cache.size", localCache, LruCache::size)
+            .description("本地缓存条目数（同一用户的 uuid 与 id 各占一条）")
+            .register(meterRegistry);
+        this.staleWritesSkipped = Counter.builder("user.cache.redis.writes.skipped")
+            .description("回源期间发生失效、放弃写入 Redis 的次数")
+            .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void subscribe() {
+        listenerContainer.addMessageListener(this::onInvalidate, new ChannelTopic(INVALIDATE_CHANNEL));
+    }
+
+    /**
+     * 按 UUID 读取用户
+     * @param loader 未命中时的数据库查询
+     */
+    public Optional<User> getByUuid(String uuid, Supplier<Optional<User>> loader) {
+        if (uuid == null || !isCacheable()) {
+            return loader.get();
+        }
+        UserSnapshot snapshot = localCache.get(LOCAL_UUID_PREFIX + uuid);
+        if (snapshot != null) {
+            localHits.increment();
+            return Optional.of(snapshot.toUser());
+        }
+        long epoch = invalidationEpoch.get();
+        snapshot = readRedis(uuid);
+        if (snapshot != null) {
+            redisHits.increment();
+            putLocal(snapshot, epoch);
+            return Optional.of(snapshot.toUser());
+        }
+        String versionKey = VERSION_UUID_PREFIX + uuid;
+        return load(loader, epoch, versionKey, readVersion(versionKey));
+    }
+
+    /**
+     * 按 ID 读取用户
+     * @param loader 未命中时的数据库查询
+     */
+    public Optional<User> getById(Long id, Supplier<Optional<User>> loader) {
+        if (id == null || !isCacheable()) {
+            return loader.get();
+        }
+        UserSnapshot snapshot = localCache.get(LOCAL_ID_PREFIX + id);
+        if (snapshot != null) {
+            localHits.increment();
+            return Optional.of(snapshot.toUser());
+        }
+        long epoch = invalidationEpoch.get();
+        snapshot = readRedisById(id);
+        if (snapshot != null) {
+            redisHits.increment();
+            putLocal(snapshot, epoch);
+            return Optional.of(snapshot.toUser());
+        }
+        String versionKey = VERSION_ID_PREFIX + id;
+        return load(loader, epoch, versionKey, readVersion(versionKey));
+    }
+
+    /**
+     * 用户发生修改或删除后调用：清理本地与 Redis 条目，并广播给其他实例
+     * 版本递增必须在删除之前：否则删除与递增之间完成的回源写入会通过版本比较并留下旧数据
+     */
+    public void invalidate(User user) {
+        if (user == null || !appProperties.getUserCache().isEnabled()) {
+            return;
+        }
+        evictLocal(user.getUuid(), user.getId());
+        try {
+            redisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                    RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                    if (user.getUuid() != null) {
+                        ops.opsForValue().increment(VERSION_UUID_PREFIX + user.getUuid());
+                        ops.expire(VERSION_UUID_PREFIX + user.getUuid(), VERSION_TTL);
+                    }
+                    if (user.getId() != null) {
+                        ops.opsForValue().increment(VERSION_ID_PREFIX + user.getId());
+                        ops.expire(VERSION_ID_PREFIX + user.getId(), VERSION_TTL);
+                    }
+                    if (user.getUuid() != null) {
+                        ops.delete(SNAPSHOT_PREFIX + user.getUuid());
+                    }
+                    if (user.getId() != null) {
+                        ops.delete(ID_INDEX_PREFIX + user.getId());
+                    }
+                    ops.convertAndSend(INVALIDATE_CHANNEL, message(user));
+                    return null;
+                }
+            });
+        } catch (Exception e) {
+            logger.warn("Failed to broadcast user cache invalidation: uuid={}", user.getUuid(), e);
+        }
+    }
+
+    public UserCacheStats getStats() {
+        return new UserCacheStats(localHits.sum(), redisHits.sum(), misses.sum(), bypasses.sum(),
+            invalidations.sum(), localCache.evictions(), localCache.size());
+    }
+
+    /**
+     * @param version 回源前读到的 Redis 版本，null 表示无法读取（不写 Redis）
+     */
+    private Optional<User> load(Supplier<Optional<User>> loader, long epoch, String versionKey, String version) {
+        misses.increment();
+        Optional<User> user = loader.get();
+        user.ifPresent(value -> {
+            UserSnapshot snapshot = UserSnapshot.from(value);
+            putLocal(snapshot, epoch);
+            writeRedis(snapshot, epoch, versionKey, version);
+        });
+        return user;
+    }
+
+    private void onInvalidate(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        int separator = body.indexOf('|');
+        String uuid = separator > 0 ? body.substring(0, separator) : null;
+        Long id = null;
+        if (separator >= 0 && separator < body.length() - 1) {
+            try {
+                id = Long.valueOf(body.substring(separator + 1));
+            } catch (NumberFormatException e) {
+                logger.debug("Ignoring malformed user cache invalidation: {}", body);
+            }
+        }
+        evictLocal(uuid, id);
+    }
+
+    private void evictLocal(String uuid, Long id) {
+        invalidationEpoch.incrementAndGet();
+        invalidations.increment();
+        if (uuid != null) {
+            localCache.remove(LOCAL_UUID_PREFIX + uuid);
+        }
+        if (id != null) {
+            localCache.remove(LOCAL_ID_PREFIX + id);
+        }
+    }
+
+    private void putLocal(UserSnapshot snapshot, long epoch) {
+        if (invalidationEpoch.get() != epoch) {
+            return;
+        }
+        long ttlNanos = Duration.ofSeconds(appProperties.getUserCache().getLocalTtlSeconds()).toNanos();
+        localCache.put(LOCAL_UUID_PREFIX + snapshot.uuid(), snapshot, ttlNanos);
+        localCache.put(LOCAL_ID_PREFIX + snapshot.id(), snapshot, ttlNanos);
+    }
+
+    private UserSnapshot readRedis(String uuid) {
+        if (!appProperties.getUserCache().isRedisEnabled()) {
+            return null;
+        }
+        try {
+            return UserSnapshot.fromHash(redisTemplate.opsForHash().entries(SNAPSHOT_PREFIX + uuid));
+        } catch (Exception e) {
+            logger.warn("Failed to read user snapshot from Redis: uuid={}", uuid, e);
+            return null;
+        }
+    }
+
+    private UserSnapshot readRedisById(Long id) {
+        if (!appProperties.getUserCache().isRedisEnabled()) {
+            return null;
+        }
+        try {
+            String uuid = redisTemplate.opsForValue().get(ID_INDEX_PREFIX + id);
+            return uuid != null ? readRedis(uuid) : null;
+        } catch (Exception e) {
+            logger.warn("Failed to read user snapshot index from Redis: id={}", id, e);
+            return null;
+        }
+    }
+
+    /**
+     * 回源前读取版本，版本键不存在时为空串；Redis 关闭或读取失败返回 null
+     */
+    private String readVersion(String versionKey) {
+        if (!appProperties.getUserCache().isRedisEnabled()) {
+            return null;
+        }
+        try {
+            String version = redisTemplate.opsForValue().get(versionKey);
+            return version != null ? version : "";
+        } catch (Exception e) {
+            logger.warn("Failed to read user cache version from Redis: key={}", versionKey, e);
+            return null;
+        }
+    }
+
+    private void writeRedis(UserSnapshot snapshot, long epoch, String versionKey, String version) {
+        if (version == null || invalidationEpoch.get() != epoch) {
+            return;
+        }
+        Map<String, String> hash = snapshot.toHash();
+        List<String> args = new ArrayList<>(3 + hash.size() * 2);
+        args.add(version);
+        args.add(String.valueOf(appProperties.getUserCache().getRedisTtlSeconds()));
+        args.add(snapshot.uuid());
+        hash.forEach((field, value) -> {
+            args.add(field);
+            args.add(value);
+        });
+        try {
+            Long written = redisTemplate.execute(WRITE_SCRIPT,
+                List.of(versionKey, SNAPSHOT_PREFIX + snapshot.uuid(), ID_INDEX_PREFIX + snapshot.id()),
+                args.toArray());
+            if (written == null || written == 0) {
+                staleWritesSkipped.increment();
+            }
+        } catch (Exception e) {
+            logger.warn("Failed to write user snapshot to Redis: uuid={}", snapshot.uuid(), e);
+        }
+    }
+
+    /**
+     * 当前读取是否可以使用缓存
+     */
+    private boolean isCacheable() {
+        AppProperties.UserCache config = appProperties.getUserCache();
+        if (!config.isEnabled()) {
+            return false;
+        }
+        if (config.isConsistentWriteRequests()
+                && RequestContextHolder.getRequestAttributes() instanceof ServletRequestAttributes attributes) {
+            HttpServletRequest request = attributes.getRequest();
+            String method = request.getMethod();
+            if (!"GET".equals(method) && !"HEAD".equals(method) && !"OPTIONS".equals(method)) {
+                bypasses.increment();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void registerLookups(MeterRegistry meterRegistry, String result, LongAdder counter) {
+        FunctionCounter.builder("user.cache.lookups", counter, LongAdder::sum)
+            .description("用户缓存读取次数")
+            .tag("result", result)
+            .register(meterRegistry);
+    }
+
+    private static String message(User user) {
+        return (user.getUuid() != null ? user.getUuid() : "") + "|" + (user.getId() != null ? user.getId() : "");
+    }
+}
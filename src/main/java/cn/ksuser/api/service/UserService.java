@@ -2,7 +2,10 @@ package cn.ksuser.api.service;
 
 import cn.ksuser.api.dto.RegisterResult;
 import cn.ksuser.api.entity.User;
+import cn.ksuser.api.exception.PasswordHashingBusyException;
 import cn.ksuser.api.repository.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 
@@ -14,12 +17,19 @@ import java.util.UUID;
 @Service
 public class UserService {
 
+    private static final Logger logger = LoggerFactory.getLogger(UserService.class);
+
     private final UserRepository userRepository;
     private final PasswordEncoder passwordEncoder;
+    private final UserCacheService userCacheService;
+    private final UsernameIndexService usernameIndexService;
 
-    public UserService(UserRepository userRepository, PasswordEncoder passwordEncoder) {
+    public UserService(UserRepository userRepository, PasswordEncoder passwordEncoder,
+                       UserCacheService userCacheService, UsernameIndexService usernameIndexService) {
         this.userRepository = userRepository;
         this.passwordEncoder = passwordEncoder;
+        this.userCacheService = userCacheService;
+        this.usernameIndexService = usernameIndexService;
     }
 
     /**
@@ -30,7 +40,7 @@ public class UserService {
      * @return 注册结果（包含状态与用户）
      */
     public RegisterResult register(String username, String email, String password) {
-        // 检查用户名是否已存在
+        // 检查用户名是否已存在（写路径以数据库为准，不信任布隆过滤器的“不存在”判定）
         if (userRepository.findByUsername(username).isPresent()) {
             return new RegisterResult(RegisterResult.Status.USERNAME_EXISTS, null);
         }
@@ -49,6 +59,7 @@ public class UserService {
         // 创建新用户
         User user = new User(uuid, username, email, passwordHash);
         User savedUser = userRepository.save(user);
+        usernameIndexService.add(savedUser.getUsername());
         return new RegisterResult(RegisterResult.Status.SUCCESS, savedUser);
     }
 
@@ -62,21 +73,34 @@ public class UserService {
     }
 
     /**
-     * 根据 ID 查询用户
+     * 用户名是否已被占用（用于 /auth/check-username 的可用性提示）
+     * 先查布隆过滤器，判定不存在时无需访问数据库；过滤器的更新可能丢失或延迟，注册、改名不使用本方法
+     * @param username 用户名
+     * @return 是否已被占用
+     */
+    public boolean isUsernameTaken(String username) {
+        if (!usernameIndexService.mightExist(username)) {
+            return false;
+        }
+        return userRepository.findByUsername(username).isPresent();
+    }
+
+    /**
+     * 根据 ID 查询用户（经过用户快照缓存，返回的是游离对象）
      * @param id 用户ID
      * @return Optional<User>
      */
     public Optional<User> findById(Long id) {
-        return userRepository.findById(id);
+        return userCacheService.getById(id, () -> userRepository.findById(id));
     }
 
     /**
-     * 根据 UUID 查询用户
+     * 根据 UUID 查询用户（经过用户快照缓存，返回的是游离对象）
      * @param uuid UUID
      * @return Optional<User>
      */
     public Optional<User> findByUuid(String uuid) {
-        return userRepository.findByUuid(uuid);
+        return userCacheService.getByUuid(uuid, () -> userRepository.findByUuid(uuid));
     }
 
     /**
@@ -89,17 +113,18 @@ public class UserService {
     }
 
     /**
-     * 验证密码
+     * 验证密码（密码哈希从数据库读取，缓存中的用户不含密码哈希）
+     * @param userId 用户ID
      * @param password 明文密码
-     * @param passwordHash 加密后的密码
      * @return 是否匹配
      */
-    public boolean verifyPassword(String password, String passwordHash) {
-        return passwordEncoder.matches(password, passwordHash);
+    public boolean verifyPassword(Long userId, String password) {
+        String passwordHash = userRepository.findPasswordHashById(userId).orElse(null);
+        return passwordHash != null && passwordEncoder.matches(password, passwordHash);
     }
 
     /**
-     * 用户登录
+     * 用户登录（直接查询数据库，得到的用户包含密码哈希）
      * @param email 邮箱
      * @param password 密码
      * @return 登录成功返回用户，否则返回 Optional.empty
@@ -115,9 +140,32 @@ public class UserService {
             return Optional.empty();
         }
 
+        rehashIfNeeded(user, password);
         return Optional.of(user);
     }
 
+    /**
+     * 哈希参数低于当前配置（调高 memory-mb / iterations 后）时，用当前参数重新哈希
+     * 升级失败不影响本次登录，下次登录会再次尝试
+     */
+    private void rehashIfNeeded(User user, String password) {
+        String oldHash = user.getPasswordHash();
+        if (!passwordEncoder.upgradeEncoding(oldHash)) {
+            return;
+        }
+        try {
+            String newHash = passwordEncoder.encode(password);
+            if (userRepository.replacePasswordHash(user.getId(), oldHash, newHash) > 0) {
+                user.setPasswordHash(newHash);
+                userCacheService.invalidate(user);
+            }
+        } catch (PasswordHashingBusyException e) {
+            logger.debug("Skipped password rehash under load: userId={}", user.getId());
+        } catch (Exception e) {
+            logger.warn("Failed to rehash password: userId={}", user.getId(), e);
+        }
+    }
+
     /**
      * 更新用户信息
      * @param user 用户对象
@@ -130,6 +178,7 @@ public class UserService {
 
         switch (normalizedKey) {
             case "username":
+                // 以数据库为准：布隆过滤器可能因广播丢失或延迟漏掉刚注册的用户名
                 if (!value.equals(user.getUsername()) && userRepository.findByUsername(value).isPresent()) {
                     return new RegisterResult(RegisterResult.Status.USERNAME_EXISTS, null);
                 }
@@ -162,6 +211,10 @@ public class UserService {
 
         // 保存更新
         User updatedUser = userRepository.save(user);
+        userCacheService.invalidate(updatedUser);
+        if ("username".equals(normalizedKey)) {
+            usernameIndexService.add(updatedUser.getUsername());
+        }
         return new RegisterResult(RegisterResult.Status.SUCCESS, updatedUser);
     }
 
@@ -171,19 +224,25 @@ public class UserService {
      * @return 保存后的用户
      */
     public User save(User user) {
-        return userRepository.save(user);
+        User saved = userRepository.save(user);
+        userCacheService.invalidate(saved);
+        return saved;
     }
 
     /**
-     * 更新用户密码
+     * 更新用户密码（单独的更新语句，user 可以是缓存中的游离对象）
      * @param user 用户对象
      * @param newPassword 新密码（明文）
-     * @return 保存后的用户
+     * @return 更新后的用户
      */
     public User updatePassword(User user, String newPassword) {
         String passwordHash = passwordEncoder.encode(newPassword);
+        LocalDateTime now = LocalDateTime.now();
+        userRepository.updatePasswordHash(user.getId(), passwordHash, now);
         user.setPasswordHash(passwordHash);
-        return userRepository.save(user);
+        user.setUpdatedAt(now);
+        userCacheService.invalidate(user);
+        return user;
     }
 
     /**
@@ -192,5 +251,7 @@ public class UserService {
      */
     public void deleteUser(User user) {
         userRepository.delete(user);
+        userCacheService.invalidate(user);
+        // 布隆过滤器不支持删除，旧用户名在下次重建前仍会被判定为可能存在（由数据库确认）
     }
 }
@@ -0,0 +1,240 @@
+package cn.ksuser.api.service;
+
+import cn.ksuser.api.config.AppProperties;
+import cn.ksuser.api.dto.UserSettingsFlags;
+import cn.ksuser.api.entity.UserSettings;
+import cn.ksuser.api.repository.UserSettingsRepository;
+import cn.ksuser.api.repository.UserTotpRepository;
+import cn.ksuser.api.util.LruCache;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 用户设置服务
+ * 设置与 TOTP 启用状态以位标志缓存（本地 LRU + Redis），用户信息、敏感日志提醒从这里读取：
+ * - 读：本地 -> Redis -> 数据库（设置行 + TOTP 状态）
+ * - 写：updateSetting 写库后同步写入本地与 Redis（write-through），并广播让其他实例清理本地条目
+ * - TOTP 启用/禁用后由 TotpService 调用 invalidate()
+ * 失效广播与回源写入之间存在跨实例竞争，缓存值可能在 TTL 内滞后于数据库，
+ * 因此登录是否需要二次验证不使用缓存，由 requiresTotp() 直接查询数据库
+ */
+@Service
+public class UserSettingsService {
+
+    private static final Logger logger = LoggerFactory.getLogger(UserSettingsService.class);
+
+    private static final String FLAGS_PREFIX = "user:settings:";
+    private static final String INVALIDATE_CHANNEL = "user:settings:invalidate";
+
+    private final UserSettingsRepository userSettingsRepository;
+    private final UserTotpRepository userTotpRepository;
+    private final StringRedisTemplate redisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+    private final AppProperties appProperties;
+
+    private final LruCache<Long, UserSettingsFlags> localCache;
+    // 每次失效递增，回源期间发生过失效的结果不写入缓存
+    private final AtomicLong invalidationEpoch = new AtomicLong();
+    // 广播中携带实例标识，跳过自己发出的消息（本实例已是最新值）
+    private final String instanceId = UUID.randomUUID().toString();
+
+    public UserSettingsService(UserSettingsRepository userSettingsRepository, UserTotpRepository userTotpRepository,
+                               StringRedisTemplate redisTemplate, RedisMessageListenerContainer listenerContainer,
+                               AppProperties appProperties) {
+        this.userSettingsRepository = userSettingsRepository;
+        this.userTotpRepository = userTotpRepository;
+        this.redisTemplate = redisTemplate;
+        this.listenerContainer = listenerContainer;
+        this.appProperties = appProperties;
+        this.localCache = new LruCache<>(() -> appProperties.getSettingsCache().getLocalMaxEntries());
+    }
+
+    @PostConstruct
+    public void subscribe() {
+        listenerContainer.addMessageListener(this::onInvalidate, new ChannelTopic(INVALIDATE_CHANNEL));
+    }
+
+    /**
+     * 登录是否需要 TOTP 二次验证（开启了 MFA 且已启用 TOTP），每次查询数据库
+     */
+    public boolean requiresTotp(Long userId) {
+        return userTotpRepository.countLoginTotpRequired(userId) > 0;
+    }
+
+    /**
+     * 获取用户设置与 TOTP 状态
+     */
+    public UserSettingsFlags getFlags(Long userId) {
+        AppProperties.SettingsCache config = appProperties.getSettingsCache();
+        if (!config.isEnabled()) {
+            return loadFlags(userId);
+        }
+
+        UserSettingsFlags flags = localCache.get(userId);
+        if (flags != null) {
+            return flags;
+        }
+
+        long epoch = invalidationEpoch.get();
+        flags = readRedis(userId);
+        if (flags == null) {
+            flags = loadFlags(userId);
+            if (invalidationEpoch.get() == epoch) {
+                writeRedis(userId, flags);
+            }
+        }
+        if (invalidationEpoch.get() == epoch) {
+            localCache.put(userId, flags, Duration.ofSeconds(config.getLocalTtlSeconds()).toNanos());
+        }
+        return flags;
+    }
+
+    /**
+     * 更新单个设置项（write-through）
+     * @param field 字段名，支持下划线和驼峰两种写法
+     * @return 更新后的设置
+     * @throws IllegalArgumentException 不支持的字段名
+     */
+    public UserSettingsFlags updateSetting(Long userId, String field, boolean value) {
+        UserSettings settings = getOrCreate(userId);
+
+        switch (field) {
+            case "mfa_enabled":
+            case "mfaEnabled":
+                settings.setMfaEnabled(value);
+                break;
+            case "detect_unusual_login":
+            case "detectUnusualLogin":
+                settings.setDetectUnusualLogin(value);
+                break;
+            case "notify_sensitive_action_email":
+            case "notifySensitiveActionEmail":
+                settings.setNotifySensitiveActionEmail(value);
+                break;
+            case "subscribe_news_email":
+            case "subscribeNewsEmail":
+                settings.setSubscribeNewsEmail(value);
+                break;
+            default:
+                throw new IllegalArgumentException("不支持的字段名");
+        }
+
+        UserSettings saved = userSettingsRepository.save(settings);
+        UserSettingsFlags flags = UserSettingsFlags.of(saved, userTotpRepository.existsByUserIdAndIsEnabledTrue(userId));
+
+        AppProperties.SettingsCache config = appProperties.getSettingsCache();
+        if (config.isEnabled()) {
+            invalidationEpoch.incrementAndGet();
+            localCache.put(userId, flags, Duration.ofSeconds(config.getLocalTtlSeconds()).toNanos());
+            writeRedis(userId, flags);
+            publish(userId);
+        }
+        return flags;
+    }
+
+    /**
+     * 清理缓存（存在事务时在提交后执行，避免提交前被并发读取回填旧值）
+     */
+    public void invalidate(Long userId) {
+        if (userId == null || !appProperties.getSettingsCache().isEnabled()) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    evict(userId);
+                }
+            });
+        } else {
+            evict(userId);
+        }
+    }
+
+    private void evict(Long userId) {
+        invalidationEpoch.incrementAndGet();
+        localCache.remove(userId);
+        try {
+            redisTemplate.delete(FLAGS_PREFIX + userId);
+        } catch (Exception e) {
+            logger.warn("Failed to delete cached user settings: userId={}", userId, e);
+        }
+        publish(userId);
+    }
+
+    private UserSettings getOrCreate(Long userId) {
+        return userSettingsRepository.findByUserId(userId)
+            .orElseGet(() -> {
+                UserSettings settings = new UserSettings();
+                settings.setUserId(userId);
+                settings.setMfaEnabled(false);
+                settings.setDetectUnusualLogin(true);
+                settings.setNotifySensitiveActionEmail(true);
+                settings.setSubscribeNewsEmail(false);
+                return userSettingsRepository.save(settings);
+            });
+    }
+
+    /**
+     * 直接从数据库读取（不经过也不回填缓存），用于缓存读取超时后的回源
+     */
+    public UserSettingsFlags loadFlags(Long userId) {
+        UserSettings settings = userSettingsRepository.findByUserId(userId).orElse(null);
+        return UserSettingsFlags.of(settings, userTotpRepository.existsByUserIdAndIsEnabledTrue(userId));
+    }
+
+    private UserSettingsFlags readRedis(Long userId) {
+        try {
+            String value = redisTemplate.opsForValue().get(FLAGS_PREFIX + userId);
+            return value != null ? new UserSettingsFlags(Integer.parseInt(value)) : null;
+        } catch (Exception e) {
+            logger.warn("Failed to read cached user settings: userId={}", userId, e);
+            return null;
+        }
+    }
+
+    private void writeRedis(Long userId, UserSettingsFlags flags) {
+        try {
+            redisTemplate.opsForValue().set(FLAGS_PREFIX + userId, Integer.toString(flags.bits()),
+                Duration.ofSeconds(appProperties.getSettingsCache().getRedisTtlSeconds()));
+        } catch (Exception e) {
+            logger.warn("Failed to write cached user settings: userId={}", userId, e);
+        }
+    }
+
+    private void publish(Long userId) {
+        try {
+            redisTemplate.convertAndSend(INVALIDATE_CHANNEL, instanceId + "|" + userId);
+        } catch (Exception e) {
+            logger.warn("Failed to broadcast user settings invalidation: userId={}", userId, e);
+        }
+    }
+
+    private void onInvalidate(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        int separator = body.indexOf('|');
+        if (separator < 0 || body.startsWith(instanceId + "|")) {
+            return;
+        }
+        try {
+            Long userId = Long.valueOf(body.substring(separator + 1));
+            invalidationEpoch.incrementAndGet();
+            localCache.remove(userId);
+        } catch (NumberFormatException e) {
+            logger.debug("Ignoring malformed user settings invalidation: {}", body);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package cn.ksuser.api.service;
+
+import cn.ksuser.api.config.AppProperties;
+import cn.ksuser.api.util.BloomFilter;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * 已占用用户名索引（布隆过滤器）
+ * 用于 /auth/check-username：过滤器判定不存在时直接返回可用，判定可能存在时再查数据库确认
+ *
+ * - 启动后流式读取 users 表构建，之后按固定间隔重建（清除已删除/已改名的旧用户名，并按当前用户数重新估算容量）
+ * - 注册、改名后本地写入并通过 Redis 广播，其他实例同步写入
+ * - 未构建完成或关闭时，mightExist 始终返回 true（全部走数据库）
+ *
+ * 用户名按 utf8mb4_unicode_ci 的比较规则归一化（兼容分解、去重音、小写、去尾部空格），保证不会漏判
+ */
+@Service
+public class UsernameIndexService {
+
+    private static final Logger logger = LoggerFactory.getLogger(UsernameIndexService.class);
+
+    private static final String ADDED_CHANNEL = "user:username:added";
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+
+    private final JdbcTemplate jdbcTemplate;
+    private final StringRedisTemplate redisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+    private final AppProperties appProperties;
+
+    private volatile BloomFilter current;
+    // 重建期间新增的用户名同时写入正在构建的过滤器，避免切换后丢失
+    private volatile BloomFilter building;
+
+    private final LongAdder negatives = new LongAdder();
+    private final LongAdder positives = new LongAdder();
+
+    public UsernameIndexService(JdbcTemplate jdbcTemplate, StringRedisTemplate redisTemplate,
+                                RedisMessageListenerContainer listenerContainer, AppProperties appProperties) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.redisTemplate = redisTemplate;
+        this.listenerContainer = listenerContainer;
+        this.appProperties = appProperties;
+    }
+
+    @PostConstruct
+    public void subscribe() {
+        listenerContainer.addMessageListener(this::onAdded, new ChannelTopic(ADDED_CHANNEL));
+    }
+
+    /**
+     * 用户名是否可能已被占用
+     * @return false 表示一定未被占用，可跳过数据库查询
+     */
+    public boolean mightExist(String username) {
+        BloomFilter filter = current;
+        if (filter == null || !appProperties.getUsernameIndex().isEnabled()) {
+            return true;
+        }
+        if (filter.mightContain(normalize(username))) {
+            positives.increment();
+            return true;
+        }
+        negatives.increment();
+        return false;
+    }
+
+    /**
+     * 用户名被占用后调用（注册、改名），并广播给其他实例
+     */
+    public void add(String username) {
+        if (username == null) {
+            return;
+        }
+        addLocal(username);
+        try {
+            redisTemplate.convertAndSend(ADDED_CHANNEL, username);
+        } catch (Exception e) {
+            // 其他实例会在下次重建时补齐
+            logger.warn("Failed to broadcast username index update", e);
+        }
+    }
+
+    /**
+     * 流式读取 users 表重建过滤器
+     */
+    @Scheduled(initialDelayString = "${app.username-index.initial-delay-ms:0}",
+               fixedDelayString = "${app.username-index.rebuild-interval-ms:21600000}")
+    public void rebuild() {
+        AppProperties.UsernameIndex config = appProperties.getUsernameIndex();
+        if (!config.isEnabled()) {
+            current = null;
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        try {
+            Long total = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM users", Long.class);
+            // 预留一倍增长空间，直到下次重建
+            long expected = Math.max(config.getExpectedInsertions(), (total != null ? total : 0) * 2);
+            BloomFilter filter = BloomFilter.create(expected, config.getFalsePositiveRate());
+            building = filter;
+
+            long[] count = {0};
+            jdbcTemplate.query(connection -> {
+                PreparedStatement ps = connection.prepareStatement("SELECT username FROM users",
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                String product = connection.getMetaData().getDatabaseProductName();
+                ps.setFetchSize(product != null && product.toLowerCase().contains("mysql") ? Integer.MIN_VALUE : 1000);
+                return ps;
+            }, rs -> {
+                String username = rs.getString(1);
+                if (username != null) {
+                    filter.put(normalize(username));
+                    count[0]++;
+                }
+            });
+
+            current = filter;
+            logger.info("Username index rebuilt: users={}, bits={}, hashes={}, elapsedMs={}",
+                count[0], filter.bitCount(), filter.hashCount(), System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            logger.error("Failed to rebuild username index", e);
+        } finally {
+            building = null;
+        }
+    }
+
+    /**
+     * 过滤器判定不存在（跳过数据库）与可能存在的次数
+     */
+    public long getNegatives() {
+        return negatives.sum();
+    }
+
+    public long getPositives() {
+        return positives.sum();
+    }
+
+    private void addLocal(String username) {
+        String key = normalize(username);
+        BloomFilter filter = current;
+        if (filter != null) {
+            filter.put(key);
+        }
+        BloomFilter pending = building;
+        if (pending != null) {
+            pending.put(key);
+        }
+    }
+
+    private void onAdded(Message message, byte[] pattern) {
+        addLocal(new String(message.getBody(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 归一化为与数据库排序规则一致的比较键（只会把更多用户名视为相同，不会漏判）
+     */
+    static String normalize(String username) {
+        String decomposed = Normalizer.normalize(username, Normalizer.Form.NFKD);
+        String folded = COMBINING_MARKS.matcher(decomposed).replaceAll("").toLowerCase(Locale.ROOT);
+        int end = folded.length();
+        while (end > 0 && folded.charAt(end - 1) == ' ') {
+            end--;
+        }
+        return folded.substring(0, end);
+    }
+}
@@ -0,0 +1,207 @@
+package cn.ksuser.api.util;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import org.springframework.web.util.HtmlUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 预编译模板（邮件 HTML、Passkey 选项 JSON 响应）
+ * 将渲染好的模板文本按占位符切分为片段列表，渲染时只做拼接和转义；
+ * 字面量片段同时保存 UTF-8 字节，{@link #renderUtf8} 直接输出可写入响应的字节
+ *
+ * 占位符语法：
+ * - {@code @@name@@}：变量插槽，渲染时按编译时指定的 {@link Escape} 转义输出
+ * - {@code <!--@@BEGIN:name@@-->...<!--@@END:name@@-->}：重复块，变量 name 为列表，每个元素是一个 Map
+ *
+ * JSON 模板的插槽只能出现在字符串值内部（如 {@code "challenge":"@@challenge@@"}），输出不含引号
+ */
+public final class CompiledTemplate {
+
+    private static final Pattern TOKEN = Pattern.compile("<!--@@(BEGIN|END):(\\w+)@@-->|@@(\\w+)@@");
+
+    /**
+     * 插槽值的转义方式
+     */
+    public enum Escape {
+        HTML {
+            @Override
+            String escape(String value) {
+                return HtmlUtils.htmlEscape(value, "UTF-8");
+            }
+
+            @Override
+            byte[] escapeUtf8(String value) {
+                return escape(value).getBytes(StandardCharsets.UTF_8);
+            }
+        },
+        JSON {
+            @Override
+            String escape(String value) {
+                return new String(JsonStringEncoder.getInstance().quoteAsString(value));
+            }
+
+            @Override
+            byte[] escapeUtf8(String value) {
+                return JsonStringEncoder.getInstance().quoteAsUTF8(value);
+            }
+        };
+
+        abstract String escape(String value);
+
+        abstract byte[] escapeUtf8(String value);
+    }
+
+    private sealed interface Node permits Literal, Slot, Block {
+    }
+
+    private record Literal(String text, byte[] utf8) implements Node {
+        Literal(String text) {
+            this(text, text.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private record Slot(String name) implements Node {
+    }
+
+    private record Block(String name, List<Node> children) implements Node {
+    }
+
+    private final List<Node> nodes;
+    private final Escape escape;
+    private final int literalLength;
+    private final int literalUtf8Length;
+
+    private CompiledTemplate(List<Node> nodes, Escape escape) {
+        this.nodes = nodes;
+        this.escape = escape;
+        this.literalLength = literalLength(nodes, false);
+        this.literalUtf8Length = literalLength(nodes, true);
+    }
+
+    /**
+     * 编译 HTML 模板文本
+     * @throws IllegalArgumentException 重复块未闭合或不匹配
+     */
+    public static CompiledTemplate compile(String source) {
+        return compile(source, Escape.HTML);
+    }
+
+    /**
+     * 编译模板文本
+     * @param escape 插槽值的转义方式
+     * @throws IllegalArgumentException 重复块未闭合或不匹配
+     */
+    public static CompiledTemplate compile(String source, Escape escape) {
+        Matcher matcher = TOKEN.matcher(source);
+        List<List<Node>> stack = new ArrayList<>();
+        List<String> blockNames = new ArrayList<>();
+        List<Node> current = new ArrayList<>();
+        int last = 0;
+
+        while (matcher.find()) {
+            if (matcher.start() > last) {
+                current.add(new Literal(source.substring(last, matcher.start())));
+            }
+            last = matcher.end();
+
+            if (matcher.group(3) != null) {
+                current.add(new Slot(matcher.group(3)));
+            } else if ("BEGIN".equals(matcher.group(1))) {
+                stack.add(current);
+                blockNames.add(matcher.group(2));
+                current = new ArrayList<>();
+            } else {
+                if (blockNames.isEmpty() || !blockNames.get(blockNames.size() - 1).equals(matcher.group(2))) {
+                    throw new IllegalArgumentException("模板重复块不匹配: " + matcher.group(2));
+                }
+                Block block = new Block(blockNames.remove(blockNames.size() - 1), List.copyOf(current));
+                current = stack.remove(stack.size() - 1);
+                current.add(block);
+            }
+        }
+        if (!blockNames.isEmpty()) {
+            throw new IllegalArgumentException("模板重复块未闭合: " + blockNames);
+        }
+        if (last < source.length()) {
+            current.add(new Literal(source.substring(last)));
+        }
+        return new CompiledTemplate(List.copyOf(current), escape);
+    }
+
+    /**
+     * 渲染模板
+     * @param variables 变量，重复块的值为 {@code List<Map<String, ?>>}
+     */
+    public String render(Map<String, ?> variables) {
+        StringBuilder out = new StringBuilder(literalLength + 512);
+        render(nodes, variables, null, out);
+        return out.toString();
+    }
+
+    /**
+     * 渲染模板为 UTF-8 字节，字面量片段直接拷贝，不再逐字符编码
+     * @param variables 变量，重复块的值为 {@code List<Map<String, ?>>}
+     */
+    public byte[] renderUtf8(Map<String, ?> variables) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(literalUtf8Length + 512);
+        renderUtf8(nodes, variables, null, out);
+        return out.toByteArray();
+    }
+
+    private void render(List<Node> nodes, Map<String, ?> variables, Map<?, ?> item, StringBuilder out) {
+        for (Node node : nodes) {
+            if (node instanceof Literal literal) {
+                out.append(literal.text());
+            } else if (node instanceof Slot slot) {
+                Object value = value(slot, variables, item);
+                if (value != null) {
+                    out.append(escape.escape(value.toString()));
+                }
+            } else if (node instanceof Block block && variables.get(block.name()) instanceof List<?> items) {
+                for (Object element : items) {
+                    render(block.children(), variables, (Map<?, ?>) element, out);
+                }
+            }
+        }
+    }
+
+    private void renderUtf8(List<Node> nodes, Map<String, ?> variables, Map<?, ?> item, ByteArrayOutputStream out) {
+        for (Node node : nodes) {
+            if (node instanceof Literal literal) {
+                out.writeBytes(literal.utf8());
+            } else if (node instanceof Slot slot) {
+                Object value = value(slot, variables, item);
+                if (value != null) {
+                    out.writeBytes(escape.escapeUtf8(value.toString()));
+                }
+            } else if (node instanceof Block block && variables.get(block.name()) instanceof List<?> items) {
+                for (Object element : items) {
+                    renderUtf8(block.children(), variables, (Map<?, ?>) element, out);
+                }
+            }
+        }
+    }
+
+    private static Object value(Slot slot, Map<String, ?> variables, Map<?, ?> item) {
+        return item != null && item.containsKey(slot.name()) ? item.get(slot.name()) : variables.get(slot.name());
+    }
+
+    private static int literalLength(List<Node> nodes, boolean utf8) {
+        int length = 0;
+        for (Node node : nodes) {
+            if (node instanceof Literal literal) {
+                length += utf8 ? literal.utf8().length : literal.text().length();
+            } else if (node instanceof Block block) {
+                length += literalLength(block.children(), utf8);
+            }
+        }
+        return length;
+    }
+}
@@ -1,57 +1,109 @@
 package cn.ksuser.api.util;
 
-import org.springframework.beans.factory.annotation.Value;
+import cn.ksuser.api.config.AppProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
 import java.util.Base64;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * 加密工具类
- * 提供主加密密钥管理
+ * 主加密密钥环：按版本管理 AES-256 主密钥，启动时解码校验一次并构建好 SecretKey
+ *
+ * - app.encryption.master-key 为版本 1（兼容原有配置）
+ * - app.encryption.keys.{version} 配置其他版本，例如 app.encryption.keys.2=...
+ * - 新数据使用 active-version（0 表示最大版本）加密，解密时按数据中记录的 key_version 取密钥
+ * - 轮换：新增一个版本并设为 active，KeyRotationService 会在后台把旧版本密文重新加密；
+ *   全部迁移完成前不要删除旧版本
+ *
+ * 密钥生成方法：new SecureRandom().nextBytes(new byte[32])，然后 Base64 编码
  */
 @Component
 public class EncryptionUtil {
-    
+
+    private static final Logger logger = LoggerFactory.getLogger(EncryptionUtil.class);
+
+    private static final int KEY_LENGTH = 32;
+
+    private final Map<Integer, SecretKey> keys;
+    private final int activeVersion;
+
+    public EncryptionUtil(AppProperties appProperties) {
+        AppProperties.Encryption config = appProperties.getEncryption();
+
+        TreeMap<Integer, SecretKey> ring = new TreeMap<>();
+        if (config.getMasterKey() != null && !config.getMasterKey().isEmpty()) {
+            ring.put(1, decodeKey(1, config.getMasterKey()));
+        }
+        config.getKeys().forEach((version, value) -> {
+            if (version == null || version <= 0) {
+                throw new IllegalStateException("主加密密钥版本必须是正整数：" + version);
+            }
+            if (value != null && !value.isEmpty()) {
+                ring.put(version, decodeKey(version, value));
+            }
+        });
+        if (ring.isEmpty()) {
+            throw new IllegalStateException(
+                "主加密密钥未配置，请在 application.properties 中设置 app.encryption.master-key"
+            );
+        }
+
+        int active = config.getActiveVersion() > 0 ? config.getActiveVersion() : ring.lastKey();
+        if (!ring.containsKey(active)) {
+            throw new IllegalStateException("主加密密钥版本 " + active + " 未配置");
+        }
+
+        this.keys = Collections.unmodifiableMap(ring);
+        this.activeVersion = active;
+        logger.info("Encryption key ring loaded: versions={}, active={}", ring.keySet(), active);
+    }
+
     /**
-     * 主加密密钥（从配置文件或环境变量读取）
-     * 需要在 application.properties 中配置：app.encryption.master-key
-     * 
-     * 重要：这是一个 32 字节（256 位）的密钥，用于 AES-256-GCM 加密
-     * 格式：Base64 编码的密钥
-     * 
-     * 建议：使用强随机密钥生成
-     * 生成方法：new SecureRandom().nextBytes(new byte[32])，然后 Base64 编码
+     * 新数据加密使用的密钥版本
      */
-    @Value("${app.encryption.master-key:#{null}}")
-    private String masterKeyBase64;
-    
+    public int getActiveVersion() {
+        return activeVersion;
+    }
+
     /**
-     * 获取主加密密钥的字节数组
-     * @return 32 字节的加密密钥
-     * @throws IllegalStateException 如果密钥未配置
+     * 新数据加密使用的密钥
      */
-    public byte[] getMasterKey() {
-        if (masterKeyBase64 == null || masterKeyBase64.isEmpty()) {
-            throw new IllegalStateException(
-                "主加密密钥未配置，请在 application.properties 中设置 app.encryption.master-key"
-            );
+    public SecretKey getActiveKey() {
+        return keys.get(activeVersion);
+    }
+
+    /**
+     * 按版本获取密钥（解密已有数据）
+     * @throws IllegalStateException 版本未配置
+     */
+    public SecretKey getKey(int version) {
+        SecretKey key = keys.get(version);
+        if (key == null) {
+            throw new IllegalStateException("主加密密钥版本 " + version + " 未配置");
         }
-        
+        return key;
+    }
+
+    private static SecretKey decodeKey(int version, String base64) {
+        byte[] decodedKey;
         try {
-            byte[] decodedKey = Base64.getDecoder().decode(masterKeyBase64);
-            
-            // 验证密钥长度（必须是 256 位 = 32 字节）
-            if (decodedKey.length != 32) {
-                throw new IllegalStateException(
-                    "主加密密钥长度必须是 32 字节，当前长度：" + decodedKey.length
-                );
-            }
-            
-            return decodedKey;
+            decodedKey = Base64.getDecoder().decode(base64);
         } catch (IllegalArgumentException e) {
+            throw new IllegalStateException("主加密密钥（版本 " + version + "）必须是有效的 Base64 格式", e);
+        }
+        // 验证密钥长度（必须是 256 位 = 32 字节）
+        if (decodedKey.length != KEY_LENGTH) {
             throw new IllegalStateException(
-                "主加密密钥必须是有效的 Base64 格式", e
+                "主加密密钥（版本 " + version + "）长度必须是 32 字节，当前长度：" + decodedKey.length
             );
         }
+        return new SecretKeySpec(decodedKey, "AES");
     }
 }
@@ -0,0 +1,59 @@
+package cn.ksuser.api.util;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * 按过期时间分桶的一次性 nonce 集合（进程内）
+ * 每个 nonce 放入其过期时间所在的桶，整桶到期后一起丢弃，不需要逐条维护 TTL；
+ * 调用方保证过期的 nonce 本身已不可用（例如随签名一起校验过期时间），因此丢弃后不会产生重放
+ */
+public final class ExpiringNonceSet {
+
+    private final long bucketMs;
+    private final ConcurrentSkipListMap<Long, Set<String>> buckets = new ConcurrentSkipListMap<>();
+
+    /**
+     * @param bucketMs 桶宽度（毫秒），nonce 最多比过期时间多保留一个桶宽
+     */
+    public ExpiringNonceSet(long bucketMs) {
+        if (bucketMs <= 0) {
+            throw new IllegalArgumentException("bucketMs must be positive");
+        }
+        this.bucketMs = bucketMs;
+    }
+
+    /**
+     * 标记 nonce 已使用
+     * @param expiresAtMs nonce 的过期时间（毫秒时间戳）
+     * @return 首次使用返回 true；已使用过返回 false
+     */
+    public boolean add(String nonce, long expiresAtMs, long nowMs) {
+        purge(nowMs);
+        long bucket = Math.floorDiv(expiresAtMs, bucketMs);
+        return buckets.computeIfAbsent(bucket, key -> ConcurrentHashMap.newKeySet()).add(nonce);
+    }
+
+    /**
+     * 当前保留的 nonce 数
+     */
+    public int size() {
+        int size = 0;
+        for (Set<String> bucket : buckets.values()) {
+            size += bucket.size();
+        }
+        return size;
+    }
+
+    private void purge(long nowMs) {
+        long current = Math.floorDiv(nowMs, bucketMs);
+        Iterator<Map.Entry<Long, Set<String>>> iterator = buckets.headMap(current).entrySet().iterator();
+        while (iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+}
@@ -3,12 +3,16 @@ package cn.ksuser.api.util;
 import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import javax.crypto.SecretKey;
 import java.nio.charset.StandardCharsets;
 import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 @Component
 public class JwtUtil {
@@ -22,6 +26,23 @@ public class JwtUtil {
     @Value("${jwt.refresh-token-expiration}")
     private long refreshTokenExpiration;
 
+    private final Timer signTimer;
+    private final Timer verifySuccessTimer;
+    private final Timer verifyFailureTimer;
+
+    public JwtUtil(MeterRegistry meterRegistry) {
+        this.signTimer = Timer.builder("jwt.duration")
+            .description("JWT 签发与验签耗时")
+            .tags("operation", "sign", "result", "success")
+            .register(meterRegistry);
+        this.verifySuccessTimer = Timer.builder("jwt.duration")
+            .tags("operation", "verify", "result", "success")
+            .register(meterRegistry);
+        this.verifyFailureTimer = Timer.builder("jwt.duration")
+            .tags("operation", "verify", "result", "failure")
+            .register(meterRegistry);
+    }
+
     private SecretKey getSigningKey() {
         return Keys.hmacShaKeyFor(secret.getBytes(StandardCharsets.UTF_8));
     }
@@ -34,7 +55,7 @@ public class JwtUtil {
      * @return AccessToken
      */
     public String generateAccessToken(String uuid, long sessionId, int sessionVersion) {
-        return Jwts.builder()
+        return signTimer.record(() -> Jwts.builder()
                 .subject(uuid)
                 .claim("type", "access")
                 .claim("sid", sessionId)
@@ -42,7 +63,7 @@ public class JwtUtil {
                 .issuedAt(new Date())
                 .expiration(new Date(System.currentTimeMillis() + accessTokenExpiration))
                 .signWith(getSigningKey())
-                .compact();
+                .compact());
     }
 
     /**
@@ -51,13 +72,15 @@ public class JwtUtil {
      * @return RefreshToken
      */
     public String generateRefreshToken(String uuid) {
-        return Jwts.builder()
+        // jti 保证同一用户在同一秒内多设备登录/刷新得到的 RefreshToken 互不相同
+        return signTimer.record(() -> Jwts.builder()
+                .id(UUID.randomUUID().toString())
                 .subject(uuid)
                 .claim("type", "refresh")
                 .issuedAt(new Date())
                 .expiration(new Date(System.currentTimeMillis() + refreshTokenExpiration))
                 .signWith(getSigningKey())
-                .compact();
+                .compact());
     }
 
     /**
@@ -66,13 +89,17 @@ public class JwtUtil {
      * @return Claims
      */
     public Claims parseToken(String token) {
+        long start = System.nanoTime();
         try {
-            return Jwts.parser()
+            Claims claims = Jwts.parser()
                     .verifyWith(getSigningKey())
                     .build()
                     .parseSignedClaims(token)
                     .getPayload();
+            verifySuccessTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return claims;
         } catch (Exception e) {
+            verifyFailureTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
             return null;
         }
     }
@@ -0,0 +1,72 @@
+package cn.ksuser.api.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * 带 TTL 的进程内 LRU 缓存
+ * 访问顺序由 LinkedHashMap 维护，所有操作在同一把锁内完成，适合条目小、读多写少的场景
+ */
+public final class LruCache<K, V> {
+
+    private record Entry<V>(V value, long expiresAt) {
+    }
+
+    private final IntSupplier maxEntries;
+    private final LongAdder evictions = new LongAdder();
+    private final LinkedHashMap<K, Entry<V>> entries;
+
+    /**
+     * @param maxEntries 最大条目数（每次写入时读取，支持运行时调整）
+     */
+    public LruCache(IntSupplier maxEntries) {
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                if (size() > LruCache.this.maxEntries.getAsInt()) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * 读取条目，不存在或已过期返回 null
+     */
+    public synchronized V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAt() - System.nanoTime() <= 0) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.value();
+    }
+
+    /**
+     * 写入条目
+     * @param ttlNanos 有效期（纳秒）
+     */
+    public synchronized void put(K key, V value, long ttlNanos) {
+        entries.put(key, new Entry<>(value, System.nanoTime() + ttlNanos));
+    }
+
+    public synchronized void remove(K key) {
+        entries.remove(key);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+}
@@ -0,0 +1,81 @@
+package cn.ksuser.api.util;
+
+/**
+ * 按 HTTP 请求统计数据库语句数与 Redis 往返次数
+ * 计数绑定在处理请求的线程上，请求之外（定时任务、@Async 日志等）的调用不计数
+ */
+public final class RequestCallCounter {
+
+    /**
+     * 单个请求的计数（只由处理请求的线程读写）
+     */
+    public static final class Counts {
+        private int dbStatements;
+        private int redisCalls;
+        private int redisDepth;
+
+        /**
+         * 创建的 JDBC Statement 数（prepareStatement / prepareCall / createStatement）
+         */
+        public int dbStatements() {
+            return dbStatements;
+        }
+
+        /**
+         * Redis 往返次数（一次 pipeline 计 1 次）
+         */
+        public int redisCalls() {
+            return redisCalls;
+        }
+    }
+
+    private static final ThreadLocal<Counts> CURRENT = new ThreadLocal<>();
+
+    private RequestCallCounter() {
+    }
+
+    /**
+     * 开始统计当前线程上的请求
+     */
+    public static Counts begin() {
+        Counts counts = new Counts();
+        CURRENT.set(counts);
+        return counts;
+    }
+
+    /**
+     * 结束统计，之后的调用不再计数
+     */
+    public static void end() {
+        CURRENT.remove();
+    }
+
+    public static void recordDbStatement() {
+        Counts counts = CURRENT.get();
+        if (counts != null) {
+            counts.dbStatements++;
+        }
+    }
+
+    /**
+     * 进入一次 Redis 调用；嵌套在另一次调用内的（pipeline 中的命令）不重复计数
+     * @return 是否需要调用 exitRedis()
+     */
+    public static boolean enterRedis() {
+        Counts counts = CURRENT.get();
+        if (counts == null) {
+            return false;
+        }
+        if (counts.redisDepth++ == 0) {
+            counts.redisCalls++;
+        }
+        return true;
+    }
+
+    public static void exitRedis() {
+        Counts counts = CURRENT.get();
+        if (counts != null) {
+            counts.redisDepth--;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package cn.ksuser.api.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * 分层时间轮（进程内到期调度）
+ * 4 层、每层 64 个槽，第 0 层每槽一个 tick，上一层每槽覆盖下一层一整圈；
+ * 添加、取消都是 O(1)，推进时只处理到期的槽，上层槽在下层转完一圈时降级到下层
+ *
+ * 到期时间按 tick 向上取整，回调最多比实际到期晚一个 tick；
+ * 超过最大跨度（64^4 个 tick）的条目先放在最高层，降级时重新计算位置
+ */
+public final class TimingWheel<T> {
+
+    private static final int LEVELS = 4;
+    private static final int BITS = 6;
+    private static final int SLOTS = 1 << BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final long MAX_SPAN = 1L << (BITS * LEVELS);
+
+    /**
+     * 已调度的条目，可用于取消
+     */
+    public static final class Timeout<T> {
+        private final T value;
+        private final long deadlineTick;
+        private Bucket<T> bucket;
+        private Timeout<T> prev;
+        private Timeout<T> next;
+
+        private Timeout(T value, long deadlineTick) {
+            this.value = value;
+            this.deadlineTick = deadlineTick;
+        }
+
+        public T value() {
+            return value;
+        }
+    }
+
+    /**
+     * 槽：带哨兵的双向链表
+     */
+    private static final class Bucket<T> {
+        private final Timeout<T> head = new Timeout<>(null, 0);
+
+        private Bucket() {
+            head.prev = head;
+            head.next = head;
+        }
+
+        private void add(Timeout<T> timeout) {
+            timeout.bucket = this;
+            timeout.prev = head.prev;
+            timeout.next = head;
+            head.prev.next = timeout;
+            head.prev = timeout;
+        }
+
+        private void unlink(Timeout<T> timeout) {
+            timeout.prev.next = timeout.next;
+            timeout.next.prev = timeout.prev;
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+
+        /**
+         * 取出槽内全部条目并清空
+         */
+        private Timeout<T> drain() {
+            if (head.next == head) {
+                return null;
+            }
+            Timeout<T> first = head.next;
+            head.prev.next = null;
+            head.prev = head;
+            head.next = head;
+            return first;
+        }
+    }
+
+    private final long tickMs;
+    private final Bucket<T>[][] wheels;
+    private long currentTick;
+    private int size;
+
+    /**
+     * @param tickMs 每个 tick 的时长（毫秒）
+     * @param startMs 起始时间（毫秒，与 schedule/advance 使用同一时钟）
+     */
+    @SuppressWarnings("unchecked")
+    public TimingWheel(long tickMs, long startMs) {
+        if (tickMs <= 0) {
+            throw new IllegalArgumentException("tickMs must be positive");
+        }
+        this.tickMs = tickMs;
+        this.currentTick = Math.floorDiv(startMs, tickMs);
+        this.wheels = new Bucket[LEVELS][SLOTS];
+        for (int level = 0; level < LEVELS; level++) {
+            for (int slot = 0; slot < SLOTS; slot++) {
+                wheels[level][slot] = new Bucket<>();
+            }
+        }
+    }
+
+    /**
+     * 调度条目，deadlineMs 到期后由 advance 回调
+     */
+    public synchronized Timeout<T> schedule(T value, long deadlineMs) {
+        long deadlineTick = Math.max(Math.floorDiv(deadlineMs + tickMs - 1, tickMs), currentTick + 1);
+        Timeout<T> timeout = new Timeout<>(value, deadlineTick);
+        place(timeout);
+        size++;
+        return timeout;
+    }
+
+    /**
+     * 取消条目
+     * @return 条目仍在时间轮中（未到期、未取消）时返回 true
+     */
+    public synchronized boolean cancel(Timeout<T> timeout) {
+        if (timeout == null || timeout.bucket == null) {
+            return false;
+        }
+        timeout.bucket.unlink(timeout);
+        size--;
+        return true;
+    }
+
+    /**
+     * 推进到 nowMs，对所有已到期条目调用 onExpired（在锁外调用）
+     */
+    public void advance(long nowMs, Consumer<T> onExpired) {
+        List<T> expired = new ArrayList<>();
+        synchronized (this) {
+            long targetTick = Math.floorDiv(nowMs, tickMs);
+            while (currentTick < targetTick) {
+                currentTick++;
+                cascade();
+                Timeout<T> timeout = wheels[0][(int) (currentTick & MASK)].drain();
+                while (timeout != null) {
+                    Timeout<T> next = timeout.next;
+                    timeout.prev = null;
+                    timeout.next = null;
+                    timeout.bucket = null;
+                    size--;
+                    expired.add(timeout.value);
+                    timeout = next;
+                }
+            }
+        }
+        for (T value : expired) {
+            onExpired.accept(value);
+        }
+    }
+
+    /**
+     * 当前调度中的条目数
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * 第 level 层转完一圈时，把第 level + 1 层当前槽的条目降级到下层
+     */
+    private void cascade() {
+        for (int level = 1; level < LEVELS; level++) {
+            int shift = BITS * level;
+            if ((currentTick & ((1L << shift) - 1)) != 0) {
+                return;
+            }
+            Timeout<T> timeout = wheels[level][(int) ((currentTick >>> shift) & MASK)].drain();
+            while (timeout != null) {
+                Timeout<T> next = timeout.next;
+                place(timeout);
+                timeout = next;
+            }
+        }
+    }
+
+    private void place(Timeout<T> timeout) {
+        long delta = timeout.deadlineTick - currentTick;
+        long tick = delta >= MAX_SPAN ? currentTick + MAX_SPAN - 1 : Math.max(timeout.deadlineTick, currentTick);
+        delta = tick - currentTick;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= (1L << (BITS * (level + 1)))) {
+            level++;
+        }
+        wheels[level][(int) ((tick >>> (BITS * level)) & MASK)].add(timeout);
+    }
+}
@@ -0,0 +1,207 @@
+package cn.ksuser.api.util;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * TOTP（RFC 6238，HMAC-SHA1，6 位，30 秒）计算与密钥加解密
+ *
+ * - AES 密钥由 EncryptionUtil 预先构建，加解密不再重复创建 SecretKeySpec
+ * - Mac / Cipher 实例放在有界对象池中复用，避免每次 getInstance 查找 Provider；
+ *   不使用 ThreadLocal，虚拟线程模式下每个请求一个线程，ThreadLocal 无法复用
+ * - 一次验证只 init 一次 Mac，窗口内各时间步复用同一个计数器与摘要缓冲区
+ * - 截断与取模只用整数运算，提交的验证码解析为 int 比较，不创建字符串
+ * - 窗口内所有时间步都会计算，比较不提前返回，耗时与是否匹配、匹配哪一步无关
+ */
+public final class TotpEngine {
+
+    public static final int DIGITS = 6;
+    public static final int PERIOD_SECONDS = 30;
+
+    private static final int MODULUS = 1_000_000;
+    private static final String HMAC_ALGORITHM = "HmacSHA1";
+    private static final int HMAC_LENGTH = 20;
+
+    private static final String CIPHER_ALGORITHM = "AES/GCM/NoPadding";
+    private static final int GCM_TAG_LENGTH = 128; // 位数
+    private static final int GCM_IV_LENGTH = 12; // 字节长度
+
+    private static final int MAX_POOLED = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+    private static final ArrayBlockingQueue<HmacContext> HMAC_POOL = new ArrayBlockingQueue<>(MAX_POOLED);
+    private static final ArrayBlockingQueue<Cipher> CIPHER_POOL = new ArrayBlockingQueue<>(MAX_POOLED);
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private TotpEngine() {
+    }
+
+    /**
+     * Mac 实例及其复用的缓冲区
+     */
+    private static final class HmacContext {
+        private final Mac mac;
+        private final byte[] counter = new byte[8];
+        private final byte[] digest = new byte[HMAC_LENGTH];
+
+        private HmacContext() throws GeneralSecurityException {
+            this.mac = Mac.getInstance(HMAC_ALGORITHM);
+        }
+    }
+
+    /**
+     * 当前时间步
+     */
+    public static long currentStep() {
+        return System.currentTimeMillis() / 1000 / PERIOD_SECONDS;
+    }
+
+    /**
+     * 解析用户提交的验证码
+     * @return 0 ~ 999999；格式不合法（不是 6 位 ASCII 数字）返回 -1
+     */
+    public static int parseCode(CharSequence code) {
+        if (code == null || code.length() != DIGITS) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = 0; i < DIGITS; i++) {
+            int digit = code.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * 在 [currentStep - window, currentStep + window] 内查找与验证码匹配的时间步
+     * @param secret TOTP 密钥明文
+     * @param code parseCode 解析后的验证码
+     * @return 最早匹配的时间步；不匹配返回 -1
+     */
+    public static long matchStep(byte[] secret, int code, long currentStep, int window) throws GeneralSecurityException {
+        if (code < 0) {
+            return -1;
+        }
+        HmacContext context = borrowHmac();
+        boolean reusable = false;
+        try {
+            context.mac.init(new SecretKeySpec(secret, HMAC_ALGORITHM));
+            long matched = -1;
+            for (long step = currentStep - window; step <= currentStep + window; step++) {
+                int diff = compute(context, step) ^ code;
+                // diff == 0 时 equal 为全 1，否则为 0
+                long equal = ((diff | -diff) >>> 31) - 1L;
+                // 只取第一个匹配：matched 仍为 -1 时 (matched >> 63) 为全 1
+                long take = equal & (matched >> 63);
+                matched = (matched & ~take) | (step & take);
+            }
+            reusable = true;
+            return matched;
+        } finally {
+            if (reusable) {
+                HMAC_POOL.offer(context);
+            }
+        }
+    }
+
+    /**
+     * 计算指定时间步的验证码
+     */
+    public static int generate(byte[] secret, long step) throws GeneralSecurityException {
+        HmacContext context = borrowHmac();
+        boolean reusable = false;
+        try {
+            context.mac.init(new SecretKeySpec(secret, HMAC_ALGORITHM));
+            int code = compute(context, step);
+            reusable = true;
+            return code;
+        } finally {
+            if (reusable) {
+                HMAC_POOL.offer(context);
+            }
+        }
+    }
+
+    /**
+     * AES-GCM 加密
+     * @return IV + 密文 + TAG
+     */
+    public static byte[] encrypt(byte[] plaintext, SecretKey aesKey) throws GeneralSecurityException {
+        byte[] iv = new byte[GCM_IV_LENGTH];
+        RANDOM.nextBytes(iv);
+        byte[] output = new byte[GCM_IV_LENGTH + plaintext.length + GCM_TAG_LENGTH / 8];
+        System.arraycopy(iv, 0, output, 0, GCM_IV_LENGTH);
+        Cipher cipher = borrowCipher();
+        boolean reusable = false;
+        try {
+            cipher.init(Cipher.ENCRYPT_MODE, aesKey,
+                new GCMParameterSpec(GCM_TAG_LENGTH, iv));
+            cipher.doFinal(plaintext, 0, plaintext.length, output, GCM_IV_LENGTH);
+            reusable = true;
+            return output;
+        } finally {
+            if (reusable) {
+                CIPHER_POOL.offer(cipher);
+            }
+        }
+    }
+
+    /**
+     * AES-GCM 解密
+     * @param data IV + 密文 + TAG
+     */
+    public static byte[] decrypt(byte[] data, SecretKey aesKey) throws GeneralSecurityException {
+        Cipher cipher = borrowCipher();
+        boolean reusable = false;
+        try {
+            cipher.init(Cipher.DECRYPT_MODE, aesKey,
+                new GCMParameterSpec(GCM_TAG_LENGTH, data, 0, GCM_IV_LENGTH));
+            byte[] plaintext = cipher.doFinal(data, GCM_IV_LENGTH, data.length - GCM_IV_LENGTH);
+            reusable = true;
+            return plaintext;
+        } finally {
+            // 解密失败（TAG 不匹配等）的实例直接丢弃，不放回池中
+            if (reusable) {
+                CIPHER_POOL.offer(cipher);
+            }
+        }
+    }
+
+    /**
+     * 动态截断（RFC 4226 5.3），Mac 已用密钥初始化
+     */
+    private static int compute(HmacContext context, long step) throws GeneralSecurityException {
+        byte[] counter = context.counter;
+        for (int i = 7; i >= 0; i--) {
+            counter[i] = (byte) step;
+            step >>>= 8;
+        }
+        context.mac.update(counter, 0, counter.length);
+        context.mac.doFinal(context.digest, 0);
+
+        byte[] hash = context.digest;
+        int offset = hash[HMAC_LENGTH - 1] & 0x0f;
+        int binary = ((hash[offset] & 0x7f) << 24)
+            | ((hash[offset + 1] & 0xff) << 16)
+            | ((hash[offset + 2] & 0xff) << 8)
+            | (hash[offset + 3] & 0xff);
+        return binary % MODULUS;
+    }
+
+    private static HmacContext borrowHmac() throws GeneralSecurityException {
+        HmacContext context = HMAC_POOL.poll();
+        return context != null ? context : new HmacContext();
+    }
+
+    private static Cipher borrowCipher() throws GeneralSecurityException {
+        Cipher cipher = CIPHER_POOL.poll();
+        return cipher != null ? cipher : Cipher.getInstance(CIPHER_ALGORITHM);
+    }
+}
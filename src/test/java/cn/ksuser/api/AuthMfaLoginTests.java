@@ -0,0 +1,156 @@
+package cn.ksuser.api;
+
+import cn.ksuser.api.entity.User;
+import cn.ksuser.api.entity.UserSettings;
+import cn.ksuser.api.entity.UserTotp;
+import cn.ksuser.api.repository.UserRepository;
+import cn.ksuser.api.repository.UserSettingsRepository;
+import cn.ksuser.api.repository.UserTotpRepository;
+import cn.ksuser.api.service.TotpService;
+import cn.ksuser.api.service.UserSettingsService;
+import cn.ksuser.api.util.EncryptionUtil;
+import cn.ksuser.api.util.TotpEngine;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.webmvc.test.autoconfigure.AutoConfigureMockMvc;
+import org.springframework.http.MediaType;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.security.SecureRandom;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.csrf;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * MFA 登录的安全判定以数据库为准：
+ * - 设置缓存中仍是启用 TOTP 之前的值（例如其他实例在失效广播到达前回填了 Redis），登录也必须返回 201 进入二次验证
+ * - 确认注册时使用的 TOTP 码不能再用于登录验证（防重放状态只有 user_totp.last_used_step 一处）
+ */
+@SpringBootTest(properties = {
+    "spring.datasource.url=jdbc:h2:mem:mfa-login;MODE=MySQL;DATABASE_TO_LOWER=TRUE;CASE_INSENSITIVE_IDENTIFIERS=TRUE;DB_CLOSE_DELAY=-1",
+    "spring.datasource.driver-class-name=org.h2.Driver",
+    "spring.datasource.username=sa",
+    "spring.datasource.password=",
+    "spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+    "spring.jpa.hibernate.ddl-auto=create-drop",
+    "spring.mail.host=127.0.0.1",
+    "jwt.secret=mfa-login-test-secret-0123456789abcdef",
+    "app.password-hashing.calibrate=false"
+})
+@AutoConfigureMockMvc
+class AuthMfaLoginTests {
+
+    private static final String PASSWORD = "mfa-password-123";
+
+    private static RedisServer redis;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private UserSettingsRepository userSettingsRepository;
+
+    @Autowired
+    private UserTotpRepository userTotpRepository;
+
+    @Autowired
+    private UserSettingsService userSettingsService;
+
+    @Autowired
+    private TotpService totpService;
+
+    @Autowired
+    private EncryptionUtil encryptionUtil;
+
+    @Autowired
+    private PasswordEncoder passwordEncoder;
+
+    @DynamicPropertySource
+    static void redisProperties(DynamicPropertyRegistry registry) throws IOException {
+        int port = freePort();
+        redis = new RedisServer(port);
+        redis.start();
+        registry.add("spring.data.redis.host", () -> "127.0.0.1");
+        registry.add("spring.data.redis.port", () -> port);
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        if (redis != null) {
+            redis.stop();
+        }
+    }
+
+    @Test
+    void staleSettingsCacheDoesNotSkipTotp() throws Exception {
+        String email = "mfa-stale@test.ksuser.cn";
+        User user = userRepository.save(new User(UUID.randomUUID().toString(), "mfa_stale", email,
+            passwordEncoder.encode(PASSWORD)));
+
+        // 缓存未启用 TOTP 时的设置（本地与 Redis）
+        assertFalse(userSettingsService.getFlags(user.getId()).totpEnabled());
+
+        // 直接写库启用 MFA 与 TOTP，不触发缓存失效
+        UserSettings settings = new UserSettings();
+        settings.setUserId(user.getId());
+        settings.setMfaEnabled(true);
+        settings.setDetectUnusualLogin(true);
+        settings.setNotifySensitiveActionEmail(true);
+        settings.setSubscribeNewsEmail(false);
+        settings.setCreatedAt(LocalDateTime.now());
+        settings.setUpdatedAt(LocalDateTime.now());
+        userSettingsRepository.save(settings);
+        UserTotp totp = new UserTotp(user.getId(), new byte[32], 1);
+        totp.setIsEnabled(true);
+        totp.setConfirmedAt(LocalDateTime.now());
+        userTotpRepository.save(totp);
+
+        mockMvc.perform(post("/auth/login")
+                .contentType(MediaType.APPLICATION_JSON)
+                .with(csrf())
+                .content("{\"email\":\"" + email + "\",\"password\":\"" + PASSWORD + "\"}"))
+            .andExpect(status().isCreated())
+            .andExpect(jsonPath("$.data.method").value("totp"));
+    }
+
+    @Test
+    void enrollmentCodeCannotBeReplayedForLogin() throws Exception {
+        User user = userRepository.save(new User(UUID.randomUUID().toString(), "mfa_replay", "mfa-replay@test.ksuser.cn",
+            passwordEncoder.encode(PASSWORD)));
+
+        byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        int keyVersion = encryptionUtil.getActiveVersion();
+        UserTotp totp = new UserTotp(user.getId(), null, keyVersion);
+        totp.setPendingSecretCiphertext(TotpEngine.encrypt(secret, encryptionUtil.getKey(keyVersion)));
+        totp.setPendingExpiresAt(LocalDateTime.now().plusMinutes(10));
+        userTotpRepository.save(totp);
+
+        String code = String.format("%06d", TotpEngine.generate(secret, TotpEngine.currentStep()));
+        assertTrue(totpService.confirmTotpRegistration(user.getId(), code, new String[]{"12345678"}));
+        assertFalse(totpService.verifyTotpCode(user.getId(), code));
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
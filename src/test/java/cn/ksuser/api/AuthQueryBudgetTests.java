@@ -0,0 +1,156 @@
+package cn.ksuser.api;
+
+import cn.ksuser.api.entity.User;
+import cn.ksuser.api.filter.CallAccountingFilter;
+import cn.ksuser.api.repository.UserRepository;
+import com.jayway.jsonpath.JsonPath;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.webmvc.test.autoconfigure.AutoConfigureMockMvc;
+import org.springframework.http.MediaType;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.RequestBuilder;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static cn.ksuser.api.support.QueryBudget.queryBudget;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.csrf;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * 登录与会话列表的数据库语句 / Redis 往返预算
+ * 完整启动应用：H2（MySQL 兼容模式）+ 嵌入式 Redis；开启调试模式，同时覆盖计数响应头
+ * 预算是实测值，新增查询或往返时需要同时说明理由并调整这里的数字
+ */
+@SpringBootTest(properties = {
+    "spring.datasource.url=jdbc:h2:mem:query-budget;MODE=MySQL;DATABASE_TO_LOWER=TRUE;CASE_INSENSITIVE_IDENTIFIERS=TRUE;DB_CLOSE_DELAY=-1",
+    "spring.datasource.driver-class-name=org.h2.Driver",
+    "spring.datasource.username=sa",
+    "spring.datasource.password=",
+    "spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+    "spring.jpa.hibernate.ddl-auto=create-drop",
+    "spring.mail.host=127.0.0.1",
+    "jwt.secret=query-budget-test-secret-0123456789abcdef",
+    "app.debug=true",
+    "app.password-hashing.calibrate=false"
+})
+@AutoConfigureMockMvc
+class AuthQueryBudgetTests {
+
+    private static final String PASSWORD = "budget-password-123";
+    private static final String USER_AGENT = "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 "
+        + "(KHTML, like Gecko) Chrome/120.0.0.0 Safari/537.36";
+    private static final AtomicInteger SEQUENCE = new AtomicInteger();
+
+    private static RedisServer redis;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private PasswordEncoder passwordEncoder;
+
+    private String email;
+    private String clientIp;
+
+    @DynamicPropertySource
+    static void redisProperties(DynamicPropertyRegistry registry) throws IOException {
+        int port = freePort();
+        redis = new RedisServer(port);
+        redis.start();
+        registry.add("spring.data.redis.host", () -> "127.0.0.1");
+        registry.add("spring.data.redis.port", () -> port);
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        if (redis != null) {
+            redis.stop();
+        }
+    }
+
+    /**
+     * 每个测试一个新用户和一个新客户端 IP，设置缓存与限流计数互不影响，计数与测试顺序无关
+     */
+    @BeforeEach
+    void seedUser() {
+        int n = SEQUENCE.incrementAndGet();
+        email = "budget-" + n + "@test.ksuser.cn";
+        clientIp = "198.18.0." + n;
+        userRepository.save(new User(UUID.randomUUID().toString(), "budget_user_" + n, email,
+            passwordEncoder.encode(PASSWORD)));
+    }
+
+    /**
+     * 数据库：按邮箱查用户、是否需要 TOTP（设置与 TOTP 联合查询，不经过设置缓存）、写入会话
+     * Redis：邮箱与 IP 的分钟 / 小时限流各一次 GET + INCR + EXPIRE
+     */
+    @Test
+    void loginStaysWithinBudget() throws Exception {
+        mockMvc.perform(login())
+            .andExpect(status().isOk())
+            .andExpect(queryBudget(3, 12));
+    }
+
+    /**
+     * 数据库：JWT 过滤器查会话（JOIN FETCH 用户）、会话列表；用户从本地缓存读取
+     * Redis：Token 黑名单
+     * 用户有多个会话，预算与会话数无关，逐个会话加载关联数据时会超出
+     */
+    @Test
+    void sessionListHasNoNPlusOne() throws Exception {
+        String accessToken = null;
+        for (int i = 0; i < 3; i++) {
+            String body = mockMvc.perform(login())
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+            accessToken = JsonPath.read(body, "$.data.accessToken");
+        }
+
+        // 登录后的异步敏感日志会按 ID 读取用户并填充用户缓存，先请求一次，预算对应缓存命中后的稳定状态
+        mockMvc.perform(sessions(accessToken)).andExpect(status().isOk());
+
+        mockMvc.perform(sessions(accessToken))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.data.length()").value(3))
+            .andExpect(header().exists(CallAccountingFilter.DB_STATEMENTS_HEADER))
+            .andExpect(header().exists(CallAccountingFilter.REDIS_CALLS_HEADER))
+            .andExpect(queryBudget(2, 1));
+    }
+
+    private RequestBuilder sessions(String accessToken) {
+        return get("/auth/sessions").header("Authorization", "Bearer " + accessToken);
+    }
+
+    private RequestBuilder login() {
+        return post("/auth/login")
+            .contentType(MediaType.APPLICATION_JSON)
+            .header("User-Agent", USER_AGENT)
+            .header("X-Forwarded-For", clientIp)
+            .with(csrf())
+            .content("{\"email\":\"" + email + "\",\"password\":\"" + PASSWORD + "\"}");
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package cn.ksuser.api.filter;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * 指标标签：正常请求取响应状态，异常请求记为 500 并带异常类名
+ */
+class CallAccountingFilterTests {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final CallAccountingFilter filter = new CallAccountingFilter(false, meterRegistry);
+
+    @Test
+    void completedRequestIsTaggedWithResponseStatus() throws ServletException, IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request(), response, (req, res) -> ((MockHttpServletResponse) res).setStatus(404));
+
+        assertEquals(1, summary("404", "none").count());
+    }
+
+    @Test
+    void failedRequestIsTaggedAsServerErrorWithException() {
+        MockFilterChain chain = new MockFilterChain() {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response)
+                    throws ServletException {
+                throw new ServletException("handler failed", new IllegalStateException("boom"));
+            }
+        };
+
+        assertThrows(ServletException.class, () -> filter.doFilter(request(), new MockHttpServletResponse(), chain));
+        assertEquals(1, summary("500", "IllegalStateException").count());
+    }
+
+    private static MockHttpServletRequest request() {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/auth/info");
+        request.setAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE, "/auth/info");
+        return request;
+    }
+
+    private DistributionSummary summary(String status, String exception) {
+        DistributionSummary summary = meterRegistry.find("request.db.statements")
+            .tags("method", "GET", "uri", "/auth/info", "status", status, "exception", exception)
+            .summary();
+        assertNotNull(summary, "未找到 status=" + status + " exception=" + exception + " 的指标");
+        return summary;
+    }
+}
@@ -0,0 +1,345 @@
+package cn.ksuser.api.service;
+
+import cn.ksuser.api.config.AppProperties;
+import cn.ksuser.api.entity.EmailOutbox;
+import cn.ksuser.api.entity.UserSensitiveLog;
+import cn.ksuser.api.repository.EmailOutboxRepository;
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetup;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.mail.Message;
+import jakarta.mail.internet.MimeMessage;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.data.jpa.test.autoconfigure.DataJpaTest;
+import org.springframework.boot.jdbc.test.autoconfigure.AutoConfigureTestDatabase;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.thymeleaf.spring6.SpringTemplateEngine;
+import org.thymeleaf.templateresolver.ClassLoaderTemplateResolver;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 发件箱投递：H2（MySQL 兼容模式）+ GreenMail 本地 SMTP
+ * 不启动定时任务，由测试直接调用 dispatch()；投递结果在邮件工作线程中回写，测试轮询等待
+ */
+@DataJpaTest(properties = {
+    "spring.datasource.url=jdbc:h2:mem:outbox;MODE=MySQL;DATABASE_TO_LOWER=TRUE;CASE_INSENSITIVE_IDENTIFIERS=TRUE;DB_CLOSE_DELAY=-1",
+    "spring.datasource.driver-class-name=org.h2.Driver",
+    "spring.datasource.username=sa",
+    "spring.datasource.password=",
+    "spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+    "spring.jpa.hibernate.ddl-auto=create-drop"
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class EmailOutboxServiceTests {
+
+    private static final String FROM = "noreply@ksuser.cn";
+    private static final int RETRY_BASE_SECONDS = 30;
+    private static final int MAX_ATTEMPTS = 2;
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    private static GreenMail smtp;
+
+    @Autowired
+    private EmailOutboxRepository outboxRepository;
+
+    private AppProperties appProperties;
+    private EmailService emailService;
+    private JavaMailSenderImpl mailSender;
+    private MailQueueService mailQueueService;
+    private EmailOutboxService outboxService;
+
+    @BeforeAll
+    static void startSmtp() throws IOException {
+        smtp = new GreenMail(new ServerSetup(freePort(), "127.0.0.1", ServerSetup.PROTOCOL_SMTP));
+        smtp.start();
+    }
+
+    @AfterAll
+    static void stopSmtp() {
+        smtp.stop();
+    }
+
+    @BeforeEach
+    void setUp() throws Exception {
+        outboxRepository.deleteAll();
+        smtp.purgeEmailFromAllMailboxes();
+
+        appProperties = new AppProperties();
+        // 合并窗口为 0：写入后立即到期，由下一次 dispatch() 投递
+        appProperties.getMailOutbox().setBurstWindowSeconds(0);
+        appProperties.getMailOutbox().setRetryBaseSeconds(RETRY_BASE_SECONDS);
+        appProperties.getMailOutbox().setMaxAttempts(MAX_ATTEMPTS);
+        // 队列内不重试，失败直接回到发件箱的退避重试
+        appProperties.getMailQueue().setWorkers(1);
+        appProperties.getMailQueue().setMaxAttempts(1);
+
+        mailSender = new JavaMailSenderImpl();
+        mailSender.setHost("127.0.0.1");
+        mailSender.setPort(smtp.getSmtp().getPort());
+        mailSender.setDefaultEncoding("UTF-8");
+        Properties mailProperties = new Properties();
+        mailProperties.setProperty("mail.smtp.connectiontimeout", "2000");
+        mailProperties.setProperty("mail.smtp.timeout", "2000");
+        mailSender.setJavaMailProperties(mailProperties);
+
+        ClassLoaderTemplateResolver resolver = new ClassLoaderTemplateResolver();
+        resolver.setPrefix("templates/");
+        resolver.setSuffix(".html");
+        resolver.setCharacterEncoding("UTF-8");
+        SpringTemplateEngine templateEngine = new SpringTemplateEngine();
+        templateEngine.setTemplateResolver(resolver);
+        MailTemplateService mailTemplateService = new MailTemplateService(templateEngine);
+        mailTemplateService.compileTemplates();
+
+        emailService = new EmailService(mailSender, mailTemplateService);
+        ReflectionTestUtils.setField(emailService, "fromEmail", FROM);
+        emailService.initHeaders();
+
+        mailQueueService = new MailQueueService(mailSender, statusStore(), appProperties, new SimpleMeterRegistry());
+        mailQueueService.start();
+        outboxService = new EmailOutboxService(outboxRepository, emailService, mailQueueService, appProperties);
+    }
+
+    @AfterEach
+    void tearDown() {
+        mailQueueService.shutdown();
+    }
+
+    @Test
+    void dispatchDeliversDueReminderAndMarksSent() throws Exception {
+        outboxService.enqueueSensitiveActionReminder(log(1L, "CHANGE_PASSWORD"), "alice@example.com");
+
+        outboxService.dispatch();
+
+        assertTrue(smtp.waitForIncomingEmail(TIMEOUT.toMillis(), 1));
+        MimeMessage[] received = smtp.getReceivedMessages();
+        assertEquals(1, received.length);
+        assertEquals("alice@example.com", received[0].getRecipients(Message.RecipientType.TO)[0].toString());
+        assertEquals("敏感操作提醒 - Ksuser CAS", received[0].getSubject());
+
+        EmailOutbox sent = awaitSingle(outbox -> outbox.getStatus() == EmailOutbox.Status.SENT);
+        assertEquals(1, sent.getAttempts());
+        assertNotNull(sent.getSentAt());
+
+        // 已投递的记录不会再次发送
+        outboxService.dispatch();
+        assertEquals(1, smtp.getReceivedMessages().length);
+    }
+
+    @Test
+    void burstForSameRecipientIsMergedIntoOneDigest() throws Exception {
+        outboxService.enqueueSensitiveActionReminder(log(1L, "CHANGE_PASSWORD"), "alice@example.com");
+        outboxService.enqueueSensitiveActionReminder(log(1L, "ENABLE_TOTP"), "alice@example.com");
+        outboxService.enqueueSensitiveActionReminder(log(1L, "ADD_PASSKEY"), "alice@example.com");
+        outboxService.enqueueSensitiveActionReminder(log(2L, "CHANGE_EMAIL"), "bob@example.com");
+
+        outboxService.dispatch();
+
+        assertTrue(smtp.waitForIncomingEmail(TIMEOUT.toMillis(), 2));
+        awaitAll(outbox -> outbox.getStatus() == EmailOutbox.Status.SENT);
+        MimeMessage[] received = smtp.getReceivedMessages();
+        assertEquals(2, received.length);
+
+        MimeMessage digest = Arrays.stream(received)
+            .filter(message -> recipient(message).equals("alice@example.com"))
+            .findFirst()
+            .orElseThrow();
+        assertEquals("敏感操作提醒（3 项） - Ksuser CAS", digest.getSubject());
+        String body = String.valueOf(digest.getContent());
+        assertTrue(body.contains("CHANGE_PASSWORD") && body.contains("ENABLE_TOTP") && body.contains("ADD_PASSKEY"));
+    }
+
+    @Test
+    void failedDeliveryIsRetriedWithExponentialBackoffThenMarkedFailed() throws Exception {
+        outboxService.enqueueSensitiveActionReminder(log(1L, "CHANGE_PASSWORD"), "alice@example.com");
+        mailSender.setPort(freePort());
+
+        // 第 1 次失败：退避 base 秒
+        LocalDateTime before = LocalDateTime.now();
+        outboxService.dispatch();
+        EmailOutbox first = awaitSingle(outbox -> outbox.getAttempts() == 1 && outbox.getStatus() == EmailOutbox.Status.PENDING);
+        assertNotNull(first.getLastError());
+        assertBackoff(before, first.getNextAttemptAt(), RETRY_BASE_SECONDS);
+
+        // 未到重试时间不会投递
+        outboxService.dispatch();
+        assertEquals(1, outboxRepository.findAll().get(0).getAttempts());
+
+        // 第 2 次失败：退避翻倍，达到最大次数后标记为 FAILED
+        makeDue(first);
+        before = LocalDateTime.now();
+        outboxService.dispatch();
+        EmailOutbox second = awaitSingle(outbox -> outbox.getAttempts() == 2 && outbox.getStatus() == EmailOutbox.Status.FAILED);
+        assertBackoff(before, second.getNextAttemptAt(), RETRY_BASE_SECONDS * 2);
+
+        // FAILED 记录在 SMTP 恢复后也不再投递
+        mailSender.setPort(smtp.getSmtp().getPort());
+        makeDue(second);
+        outboxService.dispatch();
+        assertEquals(0, smtp.getReceivedMessages().length);
+    }
+
+    @Test
+    void retryAfterTransientFailureDelivers() throws Exception {
+        outboxService.enqueueSensitiveActionReminder(log(1L, "CHANGE_PASSWORD"), "alice@example.com");
+        mailSender.setPort(freePort());
+        outboxService.dispatch();
+        EmailOutbox failed = awaitSingle(outbox -> outbox.getAttempts() == 1 && outbox.getStatus() == EmailOutbox.Status.PENDING);
+
+        mailSender.setPort(smtp.getSmtp().getPort());
+        makeDue(failed);
+        outboxService.dispatch();
+
+        assertTrue(smtp.waitForIncomingEmail(TIMEOUT.toMillis(), 1));
+        EmailOutbox sent = awaitSingle(outbox -> outbox.getStatus() == EmailOutbox.Status.SENT);
+        assertEquals(2, sent.getAttempts());
+    }
+
+    @Test
+    void queueFullDefersWithoutCountingAttempt() throws Exception {
+        // 未启动工作线程、容量为 1 的队列：第一封占满队列，第二封被拒绝
+        appProperties.getMailQueue().setCapacity(1);
+        MailQueueService stalledQueue = new MailQueueService(mailSender, statusStore(), appProperties, new SimpleMeterRegistry());
+        EmailOutboxService stalledOutbox = new EmailOutboxService(outboxRepository, emailService, stalledQueue, appProperties);
+        outboxService.enqueueSensitiveActionReminder(log(1L, "CHANGE_PASSWORD"), "alice@example.com");
+        outboxService.enqueueSensitiveActionReminder(log(2L, "CHANGE_EMAIL"), "bob@example.com");
+
+        LocalDateTime before = LocalDateTime.now();
+        stalledOutbox.dispatch();
+
+        List<EmailOutbox> records = outboxRepository.findAll();
+        EmailOutbox deferred = records.stream()
+            .filter(outbox -> outbox.getStatus() == EmailOutbox.Status.PENDING)
+            .findFirst()
+            .orElseThrow();
+        assertEquals(0, deferred.getAttempts());
+        assertBackoff(before, deferred.getNextAttemptAt(), RETRY_BASE_SECONDS);
+        assertEquals(1, records.stream().filter(outbox -> outbox.getStatus() == EmailOutbox.Status.SENDING).count());
+    }
+
+    @Test
+    void leaseExpiredWhileQueuedIsNotSentTwice() throws Exception {
+        // 第一次认领后邮件停在未启动的队列中，租约过期后由另一次投递重新认领并发送
+        MailQueueService stalledQueue = new MailQueueService(mailSender, statusStore(), appProperties, new SimpleMeterRegistry());
+        EmailOutboxService stalledOutbox = new EmailOutboxService(outboxRepository, emailService, stalledQueue, appProperties);
+        outboxService.enqueueSensitiveActionReminder(log(1L, "CHANGE_PASSWORD"), "alice@example.com");
+        stalledOutbox.dispatch();
+        EmailOutbox claimed = awaitSingle(outbox -> outbox.getStatus() == EmailOutbox.Status.SENDING);
+        makeDue(claimed);
+
+        outboxService.dispatch();
+        assertTrue(smtp.waitForIncomingEmail(TIMEOUT.toMillis(), 1));
+        awaitSingle(outbox -> outbox.getStatus() == EmailOutbox.Status.SENT);
+
+        // 旧的排队任务开始发送时续租失败，放弃发送
+        stalledQueue.start();
+        try {
+            long deadline = System.nanoTime() + TIMEOUT.toNanos();
+            while (stalledQueue.getQueueSize() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(50);
+            }
+            Thread.sleep(500);
+        } finally {
+            stalledQueue.shutdown();
+        }
+        assertEquals(1, smtp.getReceivedMessages().length);
+        EmailOutbox sent = awaitSingle(outbox -> outbox.getStatus() == EmailOutbox.Status.SENT);
+        assertEquals(1, sent.getAttempts());
+    }
+
+    private UserSensitiveLog log(Long userId, String operation) {
+        UserSensitiveLog log = new UserSensitiveLog();
+        log.setId(userId * 100);
+        log.setUserId(userId);
+        log.setOperationType(operation);
+        log.setIpAddress("203.0.113.7");
+        log.setIpLocation("测试地区");
+        log.setDeviceType("Desktop");
+        log.setBrowser("Firefox");
+        log.setCreatedAt(LocalDateTime.now());
+        return log;
+    }
+
+    private void makeDue(EmailOutbox outbox) {
+        EmailOutbox current = outboxRepository.findById(outbox.getId()).orElseThrow();
+        current.setNextAttemptAt(LocalDateTime.now().minusSeconds(1));
+        outboxRepository.save(current);
+    }
+
+    private static void assertBackoff(LocalDateTime before, LocalDateTime nextAttemptAt, int expectedSeconds) {
+        // 重试时间在工作线程回写时计算，允许几秒误差
+        LocalDateTime earliest = before.plusSeconds(expectedSeconds).minusSeconds(1);
+        LocalDateTime latest = LocalDateTime.now().plusSeconds(expectedSeconds).plusSeconds(1);
+        assertTrue(!nextAttemptAt.isBefore(earliest) && !nextAttemptAt.isAfter(latest),
+            "nextAttemptAt=" + nextAttemptAt + "，预期约 " + expectedSeconds + " 秒后");
+    }
+
+    private EmailOutbox awaitSingle(Predicate<EmailOutbox> condition) throws InterruptedException {
+        List<EmailOutbox> records = awaitAll(condition);
+        assertEquals(1, records.size());
+        return records.get(0);
+    }
+
+    private List<EmailOutbox> awaitAll(Predicate<EmailOutbox> condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TIMEOUT.toNanos();
+        List<EmailOutbox> records = outboxRepository.findAll();
+        while (System.nanoTime() < deadline) {
+            records = outboxRepository.findAll();
+            if (!records.isEmpty() && records.stream().allMatch(condition)) {
+                return records;
+            }
+            Thread.sleep(50);
+        }
+        return fail("发件箱记录未在 " + TIMEOUT.toSeconds() + " 秒内达到预期状态：" + records);
+    }
+
+    private static String recipient(MimeMessage message) {
+        try {
+            return message.getRecipients(Message.RecipientType.TO)[0].toString();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static StringRedisTemplate statusStore() {
+        StringRedisTemplate redisTemplate = mock(StringRedisTemplate.class);
+        when(redisTemplate.opsForValue()).thenReturn(mock(ValueOperations.class));
+        return redisTemplate;
+    }
+
+    /**
+     * 空闲的本地端口；未监听时连接立即被拒绝
+     */
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
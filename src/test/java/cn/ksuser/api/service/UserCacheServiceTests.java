@@ -0,0 +1,140 @@
+package cn.ksuser.api.service;
+
+import cn.ksuser.api.config.AppProperties;
+import cn.ksuser.api.entity.User;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 用户快照缓存：嵌入式 Redis
+ * 多个 UserCacheService 实例共享同一个 Redis，模拟集群中的节点；
+ * 不订阅失效广播，相当于广播尚未到达，只验证 Redis 层的版本比较
+ */
+class UserCacheServiceTests {
+
+    private static final String UUID = "0b9f7c1e-3c55-4a0e-9d7a-2f4f6f1f0001";
+    private static final long ID = 42L;
+
+    private static RedisServer redis;
+    private static LettuceConnectionFactory connectionFactory;
+
+    private StringRedisTemplate redisTemplate;
+    private RedisMessageListenerContainer listenerContainer;
+    private SimpleMeterRegistry meterRegistry;
+    private UserCacheService nodeA;
+    private UserCacheService nodeB;
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        int port = freePort();
+        redis = new RedisServer(port);
+        redis.start();
+        connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("127.0.0.1", port));
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        connectionFactory.destroy();
+        redis.stop();
+    }
+
+    @BeforeEach
+    void setUp() {
+        redisTemplate = new StringRedisTemplate(connectionFactory);
+        redisTemplate.getConnectionFactory().getConnection().serverCommands().flushAll();
+        listenerContainer = new RedisMessageListenerContainer();
+        listenerContainer.setConnectionFactory(connectionFactory);
+        listenerContainer.afterPropertiesSet();
+        listenerContainer.start();
+
+        AppProperties appProperties = new AppProperties();
+        meterRegistry = new SimpleMeterRegistry();
+        nodeA = new UserCacheService(redisTemplate, listenerContainer, appProperties, meterRegistry);
+        nodeB = new UserCacheService(redisTemplate, listenerContainer, appProperties, new SimpleMeterRegistry());
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        listenerContainer.destroy();
+    }
+
+    @Test
+    void refillRacingWithInvalidationOnAnotherNodeIsNotWrittenToRedis() {
+        User stale = user("before");
+        // 节点 A 回源读到旧数据后、写入缓存前，节点 B 提交了修改并失效缓存
+        Optional<User> loaded = nodeA.getById(ID, () -> {
+            nodeB.invalidate(user("after"));
+            return Optional.of(stale);
+        });
+
+        assertEquals("before", loaded.orElseThrow().getUsername());
+        assertFalse(redisTemplate.hasKey("user:snapshot:" + UUID));
+        assertEquals(1.0, meterRegistry.get("user.cache.redis.writes.skipped").counter().count());
+
+        // 失效之后的回源正常写入 Redis，其它节点命中
+        nodeB.getById(ID, () -> Optional.of(user("after")));
+        assertTrue(redisTemplate.hasKey("user:snapshot:" + UUID));
+        UserCacheService nodeC = new UserCacheService(redisTemplate, listenerContainer, new AppProperties(),
+            new SimpleMeterRegistry());
+        Optional<User> cached = nodeC.getByUuid(UUID, () -> {
+            throw new AssertionError("应命中 Redis");
+        });
+        assertEquals("after", cached.orElseThrow().getUsername());
+    }
+
+    @Test
+    void lookupsAreExportedAsMeters() {
+        AtomicInteger loads = new AtomicInteger();
+        for (int i = 0; i < 3; i++) {
+            nodeA.getByUuid(UUID, () -> {
+                loads.incrementAndGet();
+                return Optional.of(user("name"));
+            });
+        }
+        nodeA.invalidate(user("name"));
+
+        assertEquals(1, loads.get());
+        assertEquals(1.0, lookups("miss"));
+        assertEquals(2.0, lookups("local_hit"));
+        assertEquals(0.0, lookups("redis_hit"));
+        assertEquals(0.0, lookups("bypass"));
+        assertTrue(meterRegistry.get("user.cache.invalidations").functionCounter().count() >= 1.0);
+        assertEquals(0.0, meterRegistry.get("user.cache.size").gauge().value());
+    }
+
+    private double lookups(String result) {
+        return meterRegistry.get("user.cache.lookups").tag("result", result).functionCounter().count();
+    }
+
+    private static User user(String username) {
+        User user = new User(UUID, username, username + "@test.ksuser.cn", null);
+        user.setId(ID);
+        return user;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
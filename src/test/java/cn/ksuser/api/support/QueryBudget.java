@@ -0,0 +1,66 @@
+package cn.ksuser.api.support;
+
+import cn.ksuser.api.filter.CallAccountingFilter;
+import cn.ksuser.api.util.RequestCallCounter;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.ResultMatcher;
+
+/**
+ * 集成测试中断言单个请求的数据库语句数与 Redis 往返次数，防止 N+1 查询和多余往返悄悄进入代码
+ * 需要 MockMvc 注册应用的过滤器（@AutoConfigureMockMvc 默认如此）：
+ * <pre>
+ * mockMvc.perform(post("/auth/login").contentType(APPLICATION_JSON).content(body))
+ *     .andExpect(status().isOk())
+ *     .andExpect(queryBudget(3, 12));
+ * </pre>
+ */
+public final class QueryBudget {
+
+    private QueryBudget() {
+    }
+
+    /**
+     * 数据库语句不超过 maxDbStatements，且 Redis 往返不超过 maxRedisCalls
+     */
+    public static ResultMatcher queryBudget(int maxDbStatements, int maxRedisCalls) {
+        ResultMatcher db = dbStatements(maxDbStatements);
+        ResultMatcher redis = redisCalls(maxRedisCalls);
+        return result -> {
+            db.match(result);
+            redis.match(result);
+        };
+    }
+
+    public static ResultMatcher dbStatements(int max) {
+        return result -> {
+            int actual = counts(result).dbStatements();
+            if (actual > max) {
+                throw new AssertionError(describe(result) + " 创建了 " + actual + " 条数据库语句，预算 " + max);
+            }
+        };
+    }
+
+    public static ResultMatcher redisCalls(int max) {
+        return result -> {
+            int actual = counts(result).redisCalls();
+            if (actual > max) {
+                throw new AssertionError(describe(result) + " 发生了 " + actual + " 次 Redis 往返，预算 " + max);
+            }
+        };
+    }
+
+    /**
+     * 请求的计数结果
+     */
+    public static RequestCallCounter.Counts counts(MvcResult result) {
+        Object counts = result.getRequest().getAttribute(CallAccountingFilter.COUNTS_ATTRIBUTE);
+        if (!(counts instanceof RequestCallCounter.Counts requestCounts)) {
+            throw new AssertionError("请求未经过 CallAccountingFilter，确认 app.call-accounting.enabled=true 且 MockMvc 注册了过滤器");
+        }
+        return requestCounts;
+    }
+
+    private static String describe(MvcResult result) {
+        return result.getRequest().getMethod() + " " + result.getRequest().getRequestURI();
+    }
+}